@@ -1,48 +1,46 @@
 package com.techbirdssolutions.printcurrentwindow.activity;
 
 import android.app.Activity;
-import android.content.ContentResolver;
-import android.content.ContentValues;
+import android.app.AlertDialog;
 import android.content.Context;
 import android.content.Intent;
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.ColorMatrix;
-import android.graphics.ColorMatrixColorFilter;
-import android.graphics.Paint;
-import android.graphics.PixelFormat;
+import android.graphics.Rect;
 import android.media.Image;
-import android.media.ImageReader;
 import android.media.projection.MediaProjection;
 import android.media.projection.MediaProjectionManager;
-import android.net.Uri;
-import android.os.Build;
 import android.os.Bundle;
-import android.os.Environment;
 import android.os.Handler; // Make sure this is imported
 import android.os.Looper;
+import android.os.SystemClock;
 import android.print.PrintAttributes;
-import android.print.PrintDocumentAdapter;
+import android.print.PrintJob;
 import android.print.PrintManager;
-import android.provider.MediaStore;
-import android.util.DisplayMetrics;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.View;
-import android.view.WindowManager;
 import android.widget.Toast;
 
 import androidx.annotation.Nullable;
 
 import com.techbirdssolutions.printcurrentwindow.R;
+import com.techbirdssolutions.printcurrentwindow.document.CaptureHistory;
+import com.techbirdssolutions.printcurrentwindow.document.PageSource;
+import com.techbirdssolutions.printcurrentwindow.imaging.ContentBounds;
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayFrame;
+import com.techbirdssolutions.printcurrentwindow.imaging.PerceptualHash;
+import com.techbirdssolutions.printcurrentwindow.metrics.StageRecorder;
+import com.techbirdssolutions.printcurrentwindow.pipeline.CapturePipeline;
+import com.techbirdssolutions.printcurrentwindow.pipeline.FrameSource;
+import com.techbirdssolutions.printcurrentwindow.pipeline.RawFrame;
+import com.techbirdssolutions.printcurrentwindow.pipeline.RewindBuffer;
 import com.techbirdssolutions.printcurrentwindow.service.BitmapPrintDocumentAdapter;
+import com.techbirdssolutions.printcurrentwindow.service.CaptureMetrics;
+import com.techbirdssolutions.printcurrentwindow.service.CapturePools;
+import com.techbirdssolutions.printcurrentwindow.service.CaptureSession;
 import com.techbirdssolutions.printcurrentwindow.service.FloatingWindowService;
 
-import java.io.File;
-import java.io.IOException;
-import java.io.OutputStream;
-import java.nio.ByteBuffer;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
 
 public class ScreenshotCaptureActivity extends Activity {
@@ -50,14 +48,33 @@ public class ScreenshotCaptureActivity extends Activity {
     private static final String TAG = "ScreenshotCaptureAct";
     private static final int REQUEST_MEDIA_PROJECTION = 1;
 
+    private static final long FRAME_TIMEOUT_MS = 1500; // Safety net only; captures normally fire on the first clean frame
+    private static final int AUTO_REGION_PADDING_PX = 16; // Breathing room kept around detected content
+
+    public static final String EXTRA_TAP_TIME = "tap_time"; // SystemClock.elapsedRealtime() of the button tap
+    public static final String EXTRA_REWIND = "rewind"; // Pick a frame from the rewind buffer instead of capturing
+    public static final String EXTRA_ADD_TO_BATCH = "add_to_batch"; // Capture into the service's batch instead of printing
+    public static final String EXTRA_PRINT_BATCH = "print_batch"; // Print the collected batch as one multi-page job
+    public static final String EXTRA_REPRINT = "reprint"; // Print the last capture again from the service's history
+    public static final String EXTRA_PRINT_JOB = "print_job"; // Id of a job in the service's print queue to print
+    public static final String EXTRA_PRINT_CAPTURES = "print_captures"; // History ids of that job's pages
+
     private MediaProjectionManager mMediaProjectionManager;
-    private MediaProjection mMediaProjection;
-    private ImageReader mImageReader;
-    private int mScreenDensity;
+    private CaptureSession mCaptureSession;
+    private boolean mOwnsSession; // True when the service was not around to keep the session warm
+    private CapturePipeline<GrayFrame> mCapturePipeline;
+    private boolean mOwnsPipeline;
+    private boolean mAddToBatch;
     private int mWidth;
     private int mHeight;
+    private long mTapTime;
+    private boolean mAwaitingFrame;
+    private long mButtonHiddenNanos; // Frames stamped before this may still show the floating button
+    private Image mStaleImage; // Newest frame stamped before that, taken if no later one arrives
+    private volatile long[] mFingerprint; // Of this activity's capture as acquired, kept with it in the history
+    private PrintJob mPrintJob;
+    private long mQueuedJobId = -1; // The service's print queue job this activity prints, if any
 
-    private Uri mCapturedImageUri;
     private Handler mHandler; // Handler is already declared and initialized in onCreate
 
     @Override
@@ -66,6 +83,51 @@ public class ScreenshotCaptureActivity extends Activity {
         Log.d(TAG, "ScreenshotCaptureActivity created.");
 
         mHandler = new Handler(Looper.getMainLooper()); // Initialize handler
+        mTapTime = getIntent().getLongExtra(EXTRA_TAP_TIME, SystemClock.elapsedRealtime());
+
+        FloatingWindowService service = FloatingWindowService.getInstance();
+        mOwnsPipeline = service == null;
+        mCapturePipeline = mOwnsPipeline ? FloatingWindowService.createCapturePipeline(this, mHandler)
+                : service.getCapturePipeline();
+
+        if (getIntent().getBooleanExtra(EXTRA_PRINT_BATCH, false)) {
+            if (service == null) {
+                onPrintBatchTaken(null);
+            } else {
+                service.takePrintBatch(this::onPrintBatchTaken);
+            }
+            return;
+        }
+        if (service != null && getIntent().hasExtra(EXTRA_PRINT_JOB)) {
+            printQueuedJob(service, getIntent().getLongExtra(EXTRA_PRINT_JOB, -1),
+                    getIntent().getLongArrayExtra(EXTRA_PRINT_CAPTURES));
+            return;
+        }
+        if (getIntent().getBooleanExtra(EXTRA_REPRINT, false)) {
+            CaptureHistory history = service != null ? service.getCaptureHistory() : null;
+            long captureId = history != null ? history.getLatestId() : -1;
+            if (captureId < 0) {
+                Toast.makeText(this, "Nothing to reprint yet.", Toast.LENGTH_SHORT).show();
+            } else {
+                queuePrint(service.submitPrint(captureId));
+            }
+            finish();
+            return;
+        }
+        // Batches live in the service, so without it this is an ordinary capture
+        mAddToBatch = service != null && getIntent().getBooleanExtra(EXTRA_ADD_TO_BATCH, false);
+
+        if (getIntent().getBooleanExtra(EXTRA_REWIND, false)) {
+            showRewindPicker(service != null ? service.getRewindBuffer() : null);
+            return;
+        }
+
+        // Reuse the service's warm session when there is one; no consent dialog, no display setup
+        if (service != null && service.getCaptureSession() != null) {
+            mCaptureSession = service.getCaptureSession();
+            beginCapture();
+            return;
+        }
 
         mMediaProjectionManager = (MediaProjectionManager) getSystemService(Context.MEDIA_PROJECTION_SERVICE);
         if (mMediaProjectionManager == null) {
@@ -86,13 +148,9 @@ public class ScreenshotCaptureActivity extends Activity {
         super.onActivityResult(requestCode, resultCode, data);
         if (requestCode == REQUEST_MEDIA_PROJECTION) {
             if (resultCode == RESULT_OK) {
-                mMediaProjection = mMediaProjectionManager.getMediaProjection(resultCode, data);
-                if (mMediaProjection != null) {
-                    setupVirtualDisplay();
-                    if (FloatingWindowService.screenshotButton != null) {
-                        FloatingWindowService.screenshotButton.setVisibility(View.INVISIBLE);
-                    }
-                    mHandler.postDelayed(this::captureScreenshot, 500);
+                startCaptureSession(resultCode, data);
+                if (mCaptureSession != null) {
+                    beginCapture();
                 } else {
                     Log.e(TAG, "MediaProjection failed to start.");
                     Toast.makeText(this, "Failed to start MediaProjection.", Toast.LENGTH_SHORT).show();
@@ -106,143 +164,385 @@ public class ScreenshotCaptureActivity extends Activity {
         }
     }
 
-    private void setupVirtualDisplay() {
-        DisplayMetrics metrics = new DisplayMetrics();
-        WindowManager windowManager = (WindowManager) getSystemService(Context.WINDOW_SERVICE);
-        if (windowManager != null) {
-            windowManager.getDefaultDisplay().getRealMetrics(metrics);
-        } else {
-            metrics = getResources().getDisplayMetrics();
+    private void showRewindPicker(@Nullable final RewindBuffer rewindBuffer) {
+        final List<Long> timestamps = rewindBuffer != null ? rewindBuffer.getTimestamps() : null;
+        if (timestamps == null || timestamps.isEmpty()) {
+            Toast.makeText(this, "Rewind is off or has no frames yet.", Toast.LENGTH_SHORT).show();
+            finish();
+            return;
         }
 
-        mScreenDensity = metrics.densityDpi;
-        mWidth = metrics.widthPixels;
-        mHeight = metrics.heightPixels;
-
-        mImageReader = ImageReader.newInstance(mWidth, mHeight, PixelFormat.RGBA_8888, 1);
-        mMediaProjection.createVirtualDisplay(
-                "ScreenCapture",
-                mWidth,
-                mHeight,
-                mScreenDensity,
-                0,
-                mImageReader.getSurface(),
-                null,
-                null
-        );
+        long now = System.nanoTime(); // Same clock as the ImageReader timestamps
+        String[] labels = new String[timestamps.size()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = String.format(Locale.getDefault(), "%.1f s ago", (now - timestamps.get(i)) / 1e9);
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle("Print what was on screen")
+                .setItems(labels, (dialog, which) -> {
+                    GrayFrame frame = rewindBuffer.restore(timestamps.get(which), CapturePools.bytes());
+                    if (frame == null) {
+                        Toast.makeText(this, "That frame is no longer available.", Toast.LENGTH_SHORT).show();
+                        finish();
+                        return;
+                    }
+                    if (mCapturePipeline.submit(frame, mPipelineListener) < 0) {
+                        Toast.makeText(this, "Still processing the previous capture.", Toast.LENGTH_SHORT).show();
+                        finish();
+                    }
+                })
+                .setOnCancelListener(dialog -> finish())
+                .show();
     }
 
-    private void captureScreenshot() {
-        Image image = null;
-        Bitmap bitmap = null;
-        try {
-            image = mImageReader.acquireLatestImage();
-            if (image == null) {
-                Toast.makeText(this, "Failed to capture image.", Toast.LENGTH_SHORT).show();
-                finish();
-                return;
-            }
+    private void startCaptureSession(int resultCode, Intent data) {
+        FloatingWindowService service = FloatingWindowService.getInstance();
+        if (service != null) {
+            mCaptureSession = service.startCaptureSession(resultCode, data);
+            return;
+        }
 
-            Image.Plane[] planes = image.getPlanes();
-            ByteBuffer buffer = planes[0].getBuffer();
-            int pixelStride = planes[0].getPixelStride();
-            int rowStride = planes[0].getRowStride();
-            int rowPadding = rowStride - pixelStride * mWidth;
+        // No service to own the session; fall back to a one-shot session tied to this activity
+        MediaProjection projection = mMediaProjectionManager.getMediaProjection(resultCode, data);
+        if (projection != null) {
+            mCaptureSession = new CaptureSession(this, projection, mHandler);
+            mCaptureSession.start();
+            mOwnsSession = true;
+        }
+    }
 
-            bitmap = Bitmap.createBitmap(mWidth + rowPadding / pixelStride, mHeight, Bitmap.Config.ARGB_8888);
-            bitmap.copyPixelsFromBuffer(buffer);
+    private void beginCapture() {
+        FloatingWindowService service = FloatingWindowService.getInstance();
+        if (service != null && !mOwnsSession) {
+            // May shrink the session before the frame is taken, so pick before waiting for one
+            service.chooseQuality(mCaptureSession.getDisplayWidth(), mCaptureSession.getDisplayHeight());
+        }
+        // Keeps the samplers off the frames this capture waits for until its image is released
+        mCaptureSession.setCaptureArmed(true);
+        mCaptureSession.setOnImageAvailableListener(reader -> onFrameAvailable(), mHandler);
 
-            Bitmap croppedBitmap = Bitmap.createBitmap(bitmap, 0, 0, mWidth, mHeight);
-            bitmap.recycle();
+        View button = FloatingWindowService.screenshotButton;
+        if (button == null || button.getVisibility() != View.VISIBLE) {
+            armCapture(0);
+            return;
+        }
+
+        // Hide the button, then wait two vsyncs: the first redraws the overlay without it,
+        // the second is the earliest composition that can no longer contain it.
+        button.setVisibility(View.INVISIBLE);
+        final Choreographer choreographer = Choreographer.getInstance();
+        choreographer.postFrameCallback(hideFrameNanos ->
+                choreographer.postFrameCallback(this::armCapture));
+    }
 
-            Bitmap grayscaleBitmap = toGrayscale(croppedBitmap);
-            croppedBitmap.recycle();
+    private void armCapture(long buttonHiddenNanos) {
+        mButtonHiddenNanos = buttonHiddenNanos;
+        mAwaitingFrame = true;
+        mHandler.postDelayed(mFrameTimeout, FRAME_TIMEOUT_MS);
+        onFrameAvailable(); // A clean frame may already be waiting
+    }
 
-            saveBitmapToGallery(grayscaleBitmap);
-            grayscaleBitmap.recycle();
+    private void onFrameAvailable() {
+        if (!mAwaitingFrame || mCaptureSession == null) return;
 
-        } catch (Exception e) {
-            Log.e(TAG, "Error capturing screenshot: " + e.getMessage(), e);
-            Toast.makeText(this, "Error capturing screenshot.", Toast.LENGTH_SHORT).show();
-            finish();
-        } finally {
-            if (image != null) image.close();
-            if (FloatingWindowService.screenshotButton != null) {
-                FloatingWindowService.screenshotButton.setVisibility(View.VISIBLE);
+        Image image = mCaptureSession.acquireLatestImage();
+        if (image == null) return;
+        if (image.getTimestamp() < mButtonHiddenNanos) {
+            // Possibly still showing the button; wait for the next one, but keep it in case none comes
+            releaseStaleImage();
+            mStaleImage = image;
+            return;
+        }
+        onFrameCaptured(image);
+    }
+
+    private final Runnable mFrameTimeout = new Runnable() {
+        @Override
+        public void run() {
+            if (!mAwaitingFrame) return;
+            // The screen may be static and produce no new frames; take whatever is there. The clean
+            // composition may have been stamped a little before the second vsync and kept as stale.
+            Log.w(TAG, "No fresh frame after " + FRAME_TIMEOUT_MS + " ms, using latest available.");
+            Image image = mCaptureSession != null ? mCaptureSession.acquireLatestImage() : null;
+            if (image == null) {
+                image = mStaleImage;
+                mStaleImage = null;
             }
+            if (image == null) {
+                mAwaitingFrame = false;
+                if (mCaptureSession != null) mCaptureSession.setCaptureArmed(false);
+                Toast.makeText(ScreenshotCaptureActivity.this, "Failed to capture image.", Toast.LENGTH_SHORT).show();
+                restoreButton();
+                finish();
+                return;
+            }
+            onFrameCaptured(image);
         }
+    };
+
+    private void onFrameCaptured(Image image) {
+        releaseStaleImage();
+        mAwaitingFrame = false;
+        mHandler.removeCallbacks(mFrameTimeout);
+        mCaptureSession.recordCapture();
+        mCaptureSession.setOnImageAvailableListener(null, null);
+        mCaptureSession.setCaptureArmed(false); // The held image keeps the samplers paused
+        captureScreenshot(image);
     }
 
-    private Bitmap toGrayscale(Bitmap original) {
-        Bitmap grayscale = Bitmap.createBitmap(original.getWidth(), original.getHeight(), Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(grayscale);
-        ColorMatrix cm = new ColorMatrix();
-        cm.setSaturation(0);
-        Paint paint = new Paint();
-        paint.setColorFilter(new ColorMatrixColorFilter(cm));
-        canvas.drawBitmap(original, 0, 0, paint);
-        return grayscale;
+    private void releaseStaleImage() {
+        if (mStaleImage != null && mCaptureSession != null) mCaptureSession.releaseImage(mStaleImage);
+        mStaleImage = null;
     }
 
-    private void saveBitmapToGallery(Bitmap bitmap) throws IOException {
-        ContentResolver resolver = getContentResolver();
-        ContentValues values = new ContentValues();
-        String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
-        String fileName = "SCREENSHOT_" + timeStamp + ".png";
+    private void restoreButton() {
+        if (FloatingWindowService.screenshotButton != null) {
+            FloatingWindowService.screenshotButton.setVisibility(View.VISIBLE);
+        }
+    }
 
-        values.put(MediaStore.MediaColumns.DISPLAY_NAME, fileName);
-        values.put(MediaStore.MediaColumns.MIME_TYPE, "image/png");
+    private void captureScreenshot(final Image image) {
+        mWidth = image.getWidth();
+        mHeight = image.getHeight();
+        Log.d(TAG, "Tap-to-frame latency " + (SystemClock.elapsedRealtime() - mTapTime) + " ms (capture #"
+                + mCaptureSession.getCaptureCount() + " of this session).");
+
+        // Read the region settings here; the frame source runs on the pipeline's acquire worker
+        FloatingWindowService service = FloatingWindowService.getInstance();
+        final int regionMode = service != null ? service.getRegionMode() : FloatingWindowService.REGION_FULL;
+        final Rect customRegion = service != null ? service.getCustomRegion() : null;
+        final int[] systemBars = service != null ? service.getSystemBarHeights() : new int[2];
+        final long settings = service != null ? service.getSettingsKey() : 0;
+
+        // Conversion, gallery save and print preparation all run on the pipeline's workers
+        final CaptureSession session = mCaptureSession;
+        final Image.Plane plane = image.getPlanes()[0];
+        FrameSource source = () -> {
+            RawFrame raw = new RawFrame(plane.getBuffer(), image.getWidth(), image.getHeight(),
+                    plane.getRowStride(), plane.getPixelStride(), image.getTimestamp(),
+                    () -> session.releaseImage(image));
+            applyRegion(raw, regionMode, customRegion, systemBars);
+            return raw;
+        };
+        // A screen that is the same as one just printed is printed from the history instead
+        final CaptureHistory history = service != null && !mAddToBatch ? service.getCaptureHistory() : null;
+        CapturePipeline.DuplicateFilter filter = history == null ? null : raw -> {
+            StageRecorder recorder = CaptureMetrics.recorder();
+            long span = recorder.begin(StageRecorder.Stage.FINGERPRINT);
+            long[] fingerprint = CaptureHistory.fingerprint(raw.getBuffer(), raw.getRowStride(),
+                    raw.getPixelStride(), raw.getCropLeft(), raw.getCropTop(), raw.getCropWidth(), raw.getCropHeight(),
+                    settings);
+            mFingerprint = fingerprint; // Stored with the capture if it is new, see onPrintReady()
+            long previousId = history.findSimilar(fingerprint, PerceptualHash.DEFAULT_TOLERANCE);
+            recorder.end(StageRecorder.Stage.FINGERPRINT, span);
+            return previousId;
+        };
+        long captureId = mCapturePipeline.submit(source, filter, mPipelineListener);
+        restoreButton();
+        if (captureId < 0) {
+            session.releaseImage(image);
+            Toast.makeText(this, "Still processing the previous capture.", Toast.LENGTH_SHORT).show();
+            finish();
+        }
+    }
 
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-            values.put(MediaStore.MediaColumns.RELATIVE_PATH, Environment.DIRECTORY_PICTURES + File.separator + "Screenshots");
+    /**
+     * Crops the frame to the chosen region so only that part is converted, saved and printed.
+     */
+    private static void applyRegion(RawFrame raw, int regionMode, @Nullable Rect customRegion, int[] systemBars) {
+        int width = raw.getWidth();
+        int height = raw.getHeight();
+        long start = System.nanoTime();
+        if (regionMode == FloatingWindowService.REGION_CUSTOM && customRegion != null) {
+            Rect region = new Rect(customRegion);
+            if (!region.intersect(0, 0, width, height)) return; // Selected before a rotation; keep it all
+            raw.setCrop(region.left, region.top, region.width(), region.height());
+        } else if (regionMode == FloatingWindowService.REGION_AUTO) {
+            int top = systemBars[0];
+            int bottom = height - systemBars[1];
+            if (bottom <= top) {
+                top = 0;
+                bottom = height;
+            }
+            int[] bounds = ContentBounds.detect(raw.getBuffer(), raw.getRowStride(), raw.getPixelStride(),
+                    0, top, width, bottom, ContentBounds.DEFAULT_TOLERANCE, AUTO_REGION_PADDING_PX);
+            if (bounds == null) return; // Nothing but background; print what the user sees
+            raw.setCrop(bounds[0], bounds[1], bounds[2] - bounds[0], bounds[3] - bounds[1]);
         } else {
-            File dir = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES), "Screenshots");
-            if (!dir.exists()) dir.mkdirs();
-            values.put(MediaStore.MediaColumns.DATA, new File(dir, fileName).getAbsolutePath());
+            return;
+        }
+        long kept = (long) raw.getCropWidth() * raw.getCropHeight();
+        Log.d(TAG, String.format(Locale.US, "Region %dx%d+%d+%d of %dx%d: %d%% fewer pixels, found in %.2f ms.",
+                raw.getCropWidth(), raw.getCropHeight(), raw.getCropLeft(), raw.getCropTop(), width, height,
+                100 - kept * 100 / ((long) width * height), (System.nanoTime() - start) / 1e6));
+    }
+
+    private final CapturePipeline.Listener<GrayFrame> mPipelineListener = new CapturePipeline.Listener<GrayFrame>() {
+        @Override
+        public void onPrintReady(long captureId, GrayFrame frame) {
+            FloatingWindowService service = FloatingWindowService.getInstance();
+            if (mAddToBatch && service != null) {
+                service.addToBatch(frame); // The service takes over our reference
+                Toast.makeText(getApplicationContext(), "Added to print batch.", Toast.LENGTH_SHORT).show();
+                finish();
+                return;
+            }
+            if (isFinishing() || isDestroyed()) {
+                frame.release();
+                return;
+            }
+            Log.d(TAG, "Capture " + captureId + " ready to print " + (SystemClock.elapsedRealtime() - mTapTime)
+                    + " ms after tap. Buffer pools: " + CapturePools.describe());
+            if (service != null) {
+                queuePrint(service.submitPrint(frame, mFingerprint)); // The service takes over our reference
+                finish();
+                return;
+            }
+            printScreenshot(frame);
+        }
+
+        @Override
+        public void onDuplicate(long captureId, long previousId) {
+            FloatingWindowService service = FloatingWindowService.getInstance();
+            if (service == null || isFinishing() || isDestroyed()) {
+                finish();
+                return;
+            }
+            Log.d(TAG, "Capture " + captureId + " looks like capture " + previousId + "; reprinting it ("
+                    + service.getCaptureHistory().describe() + ").");
+            Toast.makeText(getApplicationContext(), "Same as the last print; reusing it.", Toast.LENGTH_SHORT).show();
+            queuePrint(service.submitPrint(previousId));
+            finish();
         }
 
-        Uri uri = resolver.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
-        if (uri == null) throw new IOException("Failed to create new MediaStore record.");
+        @Override
+        public void onPersisted(long captureId) {
+            Toast.makeText(getApplicationContext(), "Screenshot saved in black and white.", Toast.LENGTH_LONG).show();
+        }
 
-        try (OutputStream out = resolver.openOutputStream(uri)) {
-            if (out == null) throw new IOException("Failed to get output stream for URI: " + uri);
-            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
-            Toast.makeText(this, "Screenshot saved in black and white.", Toast.LENGTH_LONG).show();
+        @Override
+        public void onError(long captureId, CapturePipeline.Stage stage, Exception e) {
+            Log.e(TAG, "Capture " + captureId + " failed in " + stage + ": " + e.getMessage(), e);
+            if (stage == CapturePipeline.Stage.PERSIST) {
+                Toast.makeText(getApplicationContext(), "Failed to save screenshot.", Toast.LENGTH_SHORT).show();
+                return; // Printing carries on without the gallery copy
+            }
+            Toast.makeText(getApplicationContext(), "Error capturing screenshot.", Toast.LENGTH_SHORT).show();
+            finish();
         }
+    };
 
-        mCapturedImageUri = uri;
-        printScreenshot(uri);
+    private void printScreenshot(GrayFrame frame) {
+        // The adapter renders the page itself and releases the frame when the spooler is done
+        print(new BitmapPrintDocumentAdapter(this, frame), "Screenshot Print");
     }
 
-    private void printScreenshot(Uri imageUri) {
-        if (imageUri == null) {
-            Toast.makeText(this, "No image to print.", Toast.LENGTH_SHORT).show();
+    /**
+     * Prints the batch the service handed over, or says there is none.
+     */
+    private void onPrintBatchTaken(@Nullable PageSource batch) {
+        if (batch == null) {
+            Toast.makeText(this, "No captures in the batch yet.", Toast.LENGTH_SHORT).show();
             finish();
             return;
         }
+        if (isDestroyed()) {
+            Log.w(TAG, "Gone before the batch was handed over; dropping " + batch.getPageCount() + " pages.");
+            batch.close();
+            return;
+        }
+        print(new BitmapPrintDocumentAdapter(this, batch), "Screenshot Batch");
+    }
 
+    private void queuePrint(boolean accepted) {
+        Toast.makeText(getApplicationContext(), accepted ? "Queued for printing." : "Print queue is full; try again shortly.",
+                Toast.LENGTH_SHORT).show();
+    }
+
+    /**
+     * Prints a job from the service's queue. Nothing is captured, converted or saved again; the
+     * adapter loads the pages from the history, or copies a single page's PDF if it was already
+     * rendered for the same layout.
+     */
+    private void printQueuedJob(FloatingWindowService service, long jobId, @Nullable long[] jobCaptureIds) {
+        mQueuedJobId = jobId;
+        CaptureHistory history = service.getCaptureHistory();
+        long[] captureIds = jobCaptureIds != null ? jobCaptureIds : new long[0];
+        int kept = 0;
+        for (long captureId : captureIds) {
+            if (history.contains(captureId)) captureIds[kept++] = captureId;
+        }
+        if (kept == 0) {
+            Log.w(TAG, "Print job " + jobId + " has no captures left in the history.");
+            finishQueuedJob();
+            finish();
+            return;
+        }
+        captureIds = Arrays.copyOf(captureIds, kept);
+        BitmapPrintDocumentAdapter adapter = new BitmapPrintDocumentAdapter(this,
+                history.openPages(captureIds, CapturePools.bytes()));
+        if (captureIds.length == 1) adapter.setHistory(history, captureIds[0]);
+        print(adapter, captureIds.length == 1 ? "Screenshot Print" : "Screenshot Print (" + captureIds.length + " pages)");
+    }
+
+    /**
+     * Tells the service this activity's queued job is over, so the next one can go.
+     */
+    private void finishQueuedJob() {
+        FloatingWindowService service = FloatingWindowService.getInstance();
+        if (mQueuedJobId >= 0 && service != null) service.onPrintJobFinished(mQueuedJobId);
+        mQueuedJobId = -1;
+    }
+
+    private void print(BitmapPrintDocumentAdapter adapter, String jobName) {
         PrintManager printManager = (PrintManager) getSystemService(Context.PRINT_SERVICE);
         if (printManager != null) {
-            PrintDocumentAdapter adapter = new BitmapPrintDocumentAdapter(this, imageUri, mWidth, mHeight);
-            printManager.print("Screenshot Print", adapter, new PrintAttributes.Builder().build());
-            Log.d(TAG, "Print job initiated. Will close activity in 10 seconds.");
-            Toast.makeText(this, "Printing screenshot...", Toast.LENGTH_SHORT).show();
+            FloatingWindowService service = FloatingWindowService.getInstance();
+            if (service != null) {
+                adapter.setDither(service.getDitherMethod());
+                adapter.setMixedRaster(service.isMixedRaster());
+                adapter.setTileSize(service.getQualityTier().getTileSize());
+            }
+            adapter.setListener(new BitmapPrintDocumentAdapter.Listener() {
+                @Override
+                public void onLayoutFinished() {
+                    Log.d(TAG, "Tap-to-print-dialog latency " + (SystemClock.elapsedRealtime() - mTapTime) + " ms.");
+                }
 
-            // --- ADDED: 10-second delay before finishing the activity ---
-            mHandler.postDelayed(new Runnable() {
                 @Override
-                public void run() {
-                    Log.d(TAG, "10-second delay complete. Closing ScreenshotCaptureActivity.");
+                public void onFinish() {
+                    // The spooler is done with the adapter: the job was queued, failed or cancelled
+                    Log.d(TAG, "Print adapter finished (" + describePrintJob() + ") "
+                            + (SystemClock.elapsedRealtime() - mTapTime) + " ms after tap. Closing.");
+                    finishQueuedJob();
+                    FloatingWindowService service = FloatingWindowService.getInstance();
+                    if (service != null) service.refreshStats();
                     finish();
                 }
-            }, 10000); // 10000 milliseconds = 10 seconds
+            });
+            mPrintJob = printManager.print(jobName, adapter, new PrintAttributes.Builder().build());
+            Log.d(TAG, "Print job initiated. Activity closes when the print adapter finishes.");
+            Toast.makeText(this, "Printing screenshot...", Toast.LENGTH_SHORT).show();
 
         } else {
+            adapter.setListener(null);
+            adapter.onFinish(); // Never handed to the spooler; release its pages here
+            finishQueuedJob();
             Toast.makeText(this, "Printing not available on this device.", Toast.LENGTH_SHORT).show();
             finish(); // Close activity immediately if printing isn't available
         }
     }
 
+    private String describePrintJob() {
+        if (mPrintJob == null) return "no job";
+        if (mPrintJob.isCancelled()) return "cancelled";
+        if (mPrintJob.isFailed()) return "failed";
+        if (mPrintJob.isCompleted()) return "completed";
+        if (mPrintJob.isQueued() || mPrintJob.isStarted()) return "queued";
+        return "created";
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
@@ -250,17 +550,23 @@ public class ScreenshotCaptureActivity extends Activity {
         // It's good practice to remove any pending callbacks to prevent leaks,
         // although finish() usually handles this for activities.
         mHandler.removeCallbacksAndMessages(null);
+        if (mAwaitingFrame) restoreButton();
         stopProjection();
     }
 
     private void stopProjection() {
-        if (mImageReader != null) {
-            mImageReader.close();
-            mImageReader = null;
+        releaseStaleImage();
+        if (mCaptureSession != null) {
+            mCaptureSession.setOnImageAvailableListener(null, null);
+            if (mAwaitingFrame) mCaptureSession.setCaptureArmed(false);
+        }
+        // A service-owned session stays warm for the next tap
+        if (mOwnsSession && mCaptureSession != null) {
+            mCaptureSession.stop();
         }
-        if (mMediaProjection != null) {
-            mMediaProjection.stop();
-            mMediaProjection = null;
+        mCaptureSession = null;
+        if (mOwnsPipeline) {
+            mCapturePipeline.shutdown();
         }
     }
 }
\ No newline at end of file
@@ -1,46 +1,122 @@
 package com.techbirdssolutions.printcurrentwindow.service;
 
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.net.Uri;
 import android.os.Bundle;
 import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.print.PageRange;
 import android.print.PrintAttributes;
 import android.print.PrintDocumentAdapter;
 import android.print.PrintDocumentInfo;
 import android.util.Log;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import com.techbirdssolutions.printcurrentwindow.document.CaptureHistory;
+import com.techbirdssolutions.printcurrentwindow.document.PageSource;
+import com.techbirdssolutions.printcurrentwindow.document.PdfWriter;
+import com.techbirdssolutions.printcurrentwindow.imaging.AreaResampler;
+import com.techbirdssolutions.printcurrentwindow.imaging.BilevelFrame;
+import com.techbirdssolutions.printcurrentwindow.imaging.Ditherer;
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayFrame;
+import com.techbirdssolutions.printcurrentwindow.imaging.TileClassifier;
+import com.techbirdssolutions.printcurrentwindow.imaging.TileMap;
+import com.techbirdssolutions.printcurrentwindow.metrics.StageRecorder;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class BitmapPrintDocumentAdapter extends PrintDocumentAdapter {
 
+    private static final String TAG = "PrintAdapter";
+
     private Context mContext;
-    private Uri mImageUri;
-    private int mWidth;
-    private int mHeight;
-    private Bitmap mBitmap;
+    private PageSource mPages;
+    private float[] mPage; // Width, height and left/top/right/bottom margins in points, from onLayout()
+    private int[] mDpi; // Horizontal and vertical printer resolution, or null if unknown
+    private Listener mListener;
+    private CaptureHistory mHistory; // Where single-page jobs and their PDFs are kept for reprints, or null
+    private long mCaptureId = -1; // This job's capture in the history; only touched on the write executor
+    private Ditherer.Method mDither; // Pages go out as 1-bit images rendered this way, or as 8-bit gray if null
+    private boolean mMixedRaster; // Gray pages go out with their text tiles as a 1-bit layer
+    private TileClassifier mClassifier = new TileClassifier();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Pages are rendered off the main thread, one document at a time
+    private static final ExecutorService sWriteExecutor = Executors.newSingleThreadExecutor();
+    private static final AreaResampler sResampler = new AreaResampler();
+    private static final Ditherer sDitherer = new Ditherer(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Notified of print lifecycle events, so the caller can react to the real job state instead of a timer.
+     */
+    public interface Listener {
+        void onLayoutFinished();
+
+        void onFinish();
+    }
+
+    /**
+     * Prints an already processed frame straight from memory.
+     * The adapter takes over the caller's reference to the frame and releases it in onFinish().
+     */
+    public BitmapPrintDocumentAdapter(Context context, GrayFrame frame) {
+        this(context, PageSource.of(frame));
+    }
 
-    public BitmapPrintDocumentAdapter(Context context, Uri imageUri, int width, int height) {
+    /**
+     * Prints every page of the source as one document, e.g. a batch of captures. Pages are
+     * loaded lazily while writing. The adapter closes the source in onFinish().
+     */
+    public BitmapPrintDocumentAdapter(Context context, PageSource pages) {
         mContext = context;
-        mImageUri = imageUri;
-        mWidth = width;
-        mHeight = height;
+        mPages = pages;
     }
 
-    @Override
-    public void onStart() {
-        super.onStart();
-        try {
-            mBitmap = BitmapFactory.decodeStream(mContext.getContentResolver().openInputStream(mImageUri));
-        } catch (FileNotFoundException e) {
-            Log.e("PrintAdapter", "Failed to open image URI.", e);
-        }
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Keeps this single-page job in the history so it can be reprinted, together with the PDF
+     * rendered for it. Pass the capture's id if it came from the history, or -1 to add it there.
+     */
+    public void setHistory(CaptureHistory history, long captureId) {
+        mHistory = history;
+        mCaptureId = captureId;
+    }
+
+    /**
+     * Prints black and white, dithered at the printer's resolution with the given method, or
+     * gray when null. Set before the adapter is handed to the print manager.
+     */
+    public void setDither(Ditherer.Method method) {
+        mDither = method;
+    }
+
+    /**
+     * Prints gray pages in two layers, text tiles as crisp and compact 1-bit, the rest in gray.
+     * Has no effect when dithering.
+     */
+    public void setMixedRaster(boolean mixed) {
+        mMixedRaster = mixed;
+    }
+
+    /**
+     * Sets the tile size mixed pages are split into text and image areas by.
+     */
+    public void setTileSize(int tileSize) {
+        if (tileSize != mClassifier.getTileSize()) mClassifier = new TileClassifier(tileSize);
     }
 
     @Override
@@ -52,41 +128,271 @@ public class BitmapPrintDocumentAdapter extends PrintDocumentAdapter {
             return;
         }
 
-        if (mBitmap != null) {
+        PrintAttributes.MediaSize mediaSize = newAttributes.getMediaSize();
+        if (mediaSize == null) mediaSize = PrintAttributes.MediaSize.ISO_A4;
+        PrintAttributes.Margins margins = newAttributes.getMinMargins();
+        if (margins == null) margins = PrintAttributes.Margins.NO_MARGINS;
+        float[] page = new float[]{
+                milsToPoints(mediaSize.getWidthMils()), milsToPoints(mediaSize.getHeightMils()),
+                milsToPoints(margins.getLeftMils()), milsToPoints(margins.getTopMils()),
+                milsToPoints(margins.getRightMils()), milsToPoints(margins.getBottomMils())};
+        // Pages are resampled to what the printer can resolve; without a resolution they go at capture size
+        PrintAttributes.Resolution resolution = newAttributes.getResolution();
+        int[] dpi = resolution != null
+                ? new int[]{resolution.getHorizontalDpi(), resolution.getVerticalDpi()} : null;
+        boolean changed = !Arrays.equals(page, mPage) || !Arrays.equals(dpi, mDpi);
+        mPage = page;
+        mDpi = dpi;
+
+        int pageCount = mPages != null ? mPages.getPageCount() : 0;
+        if (pageCount > 0) {
             PrintDocumentInfo info = new PrintDocumentInfo
                     .Builder("screenshot_print.pdf")
                     .setContentType(PrintDocumentInfo.CONTENT_TYPE_DOCUMENT)
-                    .setPageCount(1)
+                    .setPageCount(pageCount)
                     .build();
-            callback.onLayoutFinished(info, true);
+            callback.onLayoutFinished(info, changed);
+            if (mListener != null) mListener.onLayoutFinished();
         } else {
-            callback.onLayoutFailed("Bitmap is null.");
+            callback.onLayoutFailed("Nothing to print.");
         }
     }
 
+    private static float milsToPoints(int mils) {
+        return mils * PdfWriter.POINTS_PER_INCH / 1000f;
+    }
+
     @Override
     public void onWrite(final PageRange[] pageRanges,
                         final ParcelFileDescriptor destination,
                         final CancellationSignal cancellationSignal,
                         final WriteResultCallback callback) {
+        final PageSource pages = mPages;
+        final float[] page = mPage;
+        final int[] dpi = mDpi;
+        sWriteExecutor.execute(() -> {
+            if (!writeFromHistory(pages, page, dpi, pageRanges, destination, callback)) {
+                writePages(pages, page, dpi, pageRanges, destination, cancellationSignal, callback);
+            }
+        });
+    }
 
-        android.graphics.pdf.PdfDocument pdfDocument = new android.graphics.pdf.PdfDocument();
-        android.graphics.pdf.PdfDocument.PageInfo pageInfo =
-                new android.graphics.pdf.PdfDocument.PageInfo.Builder(mWidth, mHeight, 1).create();
+    /**
+     * Streams only the requested pages to the destination, one page in memory at a time. Runs
+     * on the write executor; results are posted back to the main thread.
+     */
+    private void writePages(PageSource pages, float[] page, int[] dpi, PageRange[] pageRanges, ParcelFileDescriptor destination,
+                            CancellationSignal cancellationSignal, final WriteResultCallback callback) {
+        long start = SystemClock.elapsedRealtime();
+        long span = CaptureMetrics.recorder().begin(StageRecorder.Stage.PRINT_WRITE);
+        final int[] indices = resolvePages(pageRanges, pages.getPageCount());
+        // A complete single-page document is also kept, so a reprint on the same layout is a plain copy
+        ByteArrayOutputStream copy = mHistory != null && indices.length == 1 && pages.getPageCount() == 1
+                ? new ByteArrayOutputStream() : null;
+        try (OutputStream out = new BufferedOutputStream(teeTo(new FileOutputStream(destination.getFileDescriptor()), copy),
+                64 * 1024)) {
+            PdfWriter writer = new PdfWriter(out);
+            writer.setCancellation(cancellationSignal::isCanceled);
+            for (int index : indices) {
+                GrayFrame frame = pages.loadPage(index);
+                GrayFrame printed = null;
+                BilevelFrame bits = null;
+                try {
+                    printed = scaleToPrinter(frame, page, dpi);
+                    if (mDither != null) {
+                        // After scaling, so the dot pattern is not resampled into gray mush
+                        bits = sDitherer.dither(printed, mDither, CapturePools.bytes());
+                        writer.addPage(bits, page[0], page[1], page[2], page[3], page[4], page[5]);
+                    } else if (mMixedRaster) {
+                        TileMap tiles = mClassifier.classify(printed);
+                        Log.d(TAG, "Page " + index + ": " + tiles.getTextTileCount() + "/" + tiles.getTileCount()
+                                + " text tiles.");
+                        writer.addMixedPage(printed, tiles, page[0], page[1], page[2], page[3], page[4], page[5]);
+                    } else {
+                        writer.addPage(printed, page[0], page[1], page[2], page[3], page[4], page[5]);
+                    }
+                } finally {
+                    frame.release();
+                    if (printed != null) printed.release();
+                    if (bits != null) bits.release();
+                }
+            }
+            writer.finish();
+            out.flush();
+            CaptureMetrics.recorder().end(StageRecorder.Stage.PRINT_WRITE, span);
+            if (copy != null && rememberCapture(pages)) {
+                mHistory.putDocument(mCaptureId, layoutKey(page, dpi), copy.toByteArray());
+            }
 
-        android.graphics.pdf.PdfDocument.Page page = pdfDocument.startPage(pageInfo);
-        page.getCanvas().drawBitmap(mBitmap, 0, 0, null);
-        pdfDocument.finishPage(page);
+            long elapsed = Math.max(1, SystemClock.elapsedRealtime() - start);
+            Log.d(TAG, "Wrote " + indices.length + " pages, " + writer.getByteCount() / 1024 + " KiB in " + elapsed
+                    + " ms (" + indices.length * 1000f / elapsed + " pages/s).");
+            final PageRange[] written = toPageRanges(indices);
+            mMainHandler.post(() -> callback.onWriteFinished(written));
+        } catch (CancellationException e) {
+            Log.d(TAG, "PDF write cancelled.");
+            mMainHandler.post(callback::onWriteCancelled);
+        } catch (final IOException | RuntimeException e) {
+            Log.e(TAG, "Error writing PDF.", e);
+            mMainHandler.post(() -> callback.onWriteFailed(e.toString()));
+        }
+    }
 
-        try (FileOutputStream out = new FileOutputStream(destination.getFileDescriptor())) {
-            pdfDocument.writeTo(out);
-            callback.onWriteFinished(new PageRange[]{PageRange.ALL_PAGES});
-        } catch (IOException e) {
-            Log.e("PrintAdapter", "Error writing PDF.", e);
-            callback.onWriteFailed(e.toString());
+    /**
+     * Copies the PDF already rendered for this capture and layout, if the history still has it.
+     * Returns false if the document has to be rendered.
+     */
+    private boolean writeFromHistory(PageSource pages, float[] page, int[] dpi, PageRange[] pageRanges,
+                                     ParcelFileDescriptor destination, final WriteResultCallback callback) {
+        if (mHistory == null || mCaptureId < 0 || resolvePages(pageRanges, pages.getPageCount()).length != 1) {
+            return false;
+        }
+        byte[] document = mHistory.getDocument(mCaptureId, layoutKey(page, dpi));
+        if (document == null) return false;
+        try (OutputStream out = new FileOutputStream(destination.getFileDescriptor())) {
+            out.write(document);
+        } catch (final IOException e) {
+            Log.e(TAG, "Error writing PDF from history.", e);
+            mMainHandler.post(() -> callback.onWriteFailed(e.toString()));
+            return true;
+        }
+        Log.d(TAG, "Reprinted " + document.length / 1024 + " KiB from history (" + mHistory.describe() + ").");
+        mMainHandler.post(() -> callback.onWriteFinished(new PageRange[]{PageRange.ALL_PAGES}));
+        return true;
+    }
+
+    /**
+     * Adds this job's page to the history unless it is already there. Runs on the write executor.
+     * Returns false if there is nothing to remember it in.
+     */
+    private boolean rememberCapture(PageSource pages) {
+        if (mHistory == null || pages.getPageCount() != 1) return false;
+        if (mCaptureId >= 0) return true;
+        GrayFrame frame;
+        try {
+            frame = pages.loadPage(0);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Failed to keep the capture for reprints.", e);
+            return false;
+        }
+        try {
+            mCaptureId = mHistory.put(frame);
         } finally {
-            pdfDocument.close();
+            frame.release();
+        }
+        mMainHandler.post(() -> {
+            FloatingWindowService service = FloatingWindowService.getInstance();
+            if (service != null) service.updateReprintButton();
+        });
+        return true;
+    }
+
+    /**
+     * What a rendered PDF depends on besides the capture: the page geometry and the printer resolution.
+     */
+    private String layoutKey(float[] page, int[] dpi) {
+        return Arrays.toString(page) + "@" + Arrays.toString(dpi)
+                + (mDither != null ? "/" + mDither : mMixedRaster ? "/mixed" + mClassifier.getTileSize() : "");
+    }
+
+    private static OutputStream teeTo(final OutputStream out, final ByteArrayOutputStream copy) {
+        if (copy == null) return out;
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                copy.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                copy.write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                out.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.close();
+            }
+        };
+    }
+
+    /**
+     * Downscales the page to the pixels the printer will actually put in its box on the media.
+     * Returns a new reference for the caller to release.
+     */
+    private static GrayFrame scaleToPrinter(GrayFrame frame, float[] page, int[] dpi) {
+        if (dpi == null) return frame.retain();
+        float[] box = PdfWriter.fit(frame.getWidth(), frame.getHeight(), page[0], page[1], page[2], page[3],
+                page[4], page[5]);
+        int maxWidth = (int) Math.ceil(box[2] / PdfWriter.POINTS_PER_INCH * dpi[0]);
+        int maxHeight = (int) Math.ceil(box[3] / PdfWriter.POINTS_PER_INCH * dpi[1]);
+        GrayFrame scaled = sResampler.fit(frame, maxWidth, maxHeight, CapturePools.bytes());
+        if (scaled != frame) {
+            Log.d(TAG, "Resampled page " + frame.getWidth() + "x" + frame.getHeight() + " to " + scaled.getWidth()
+                    + "x" + scaled.getHeight() + " for " + dpi[0] + "x" + dpi[1] + " dpi.");
+        }
+        return scaled;
+    }
+
+    /**
+     * Expands the requested ranges into sorted, distinct page indices within the document.
+     */
+    static int[] resolvePages(PageRange[] pageRanges, int pageCount) {
+        boolean[] wanted = new boolean[pageCount];
+        int count = 0;
+        for (PageRange range : pageRanges) {
+            if (PageRange.ALL_PAGES.equals(range)) {
+                Arrays.fill(wanted, true);
+                count = pageCount;
+                break;
+            }
+            for (int page = Math.max(0, range.getStart()); page <= Math.min(pageCount - 1, range.getEnd()); page++) {
+                if (!wanted[page]) {
+                    wanted[page] = true;
+                    count++;
+                }
+            }
+        }
+        int[] indices = new int[count];
+        for (int page = 0, i = 0; page < pageCount; page++) {
+            if (wanted[page]) indices[i++] = page;
+        }
+        return indices;
+    }
+
+    /**
+     * Collapses sorted page indices back into contiguous ranges.
+     */
+    static PageRange[] toPageRanges(int[] indices) {
+        List<PageRange> ranges = new ArrayList<>();
+        for (int i = 0; i < indices.length; ) {
+            int j = i;
+            while (j + 1 < indices.length && indices[j + 1] == indices[j] + 1) j++;
+            ranges.add(new PageRange(indices[i], indices[j]));
+            i = j + 1;
+        }
+        return ranges.toArray(new PageRange[0]);
+    }
+
+    @Override
+    public void onFinish() {
+        super.onFinish();
+        if (mPages != null) {
+            final PageSource pages = mPages;
+            mPages = null;
+            // After any write still in flight; a capture whose print was cancelled can still be reprinted
+            sWriteExecutor.execute(() -> {
+                rememberCapture(pages);
+                pages.close();
+            });
         }
+        if (mListener != null) mListener.onFinish();
     }
 
 }
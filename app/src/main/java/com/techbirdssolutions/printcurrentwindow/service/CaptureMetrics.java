@@ -0,0 +1,38 @@
+package com.techbirdssolutions.printcurrentwindow.service;
+
+import com.techbirdssolutions.printcurrentwindow.metrics.StageRecorder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * The process-wide {@link StageRecorder} for the capture-to-print path. Allocations are counted
+ * from the shared {@link CapturePools}, which hands out every frame-sized buffer the path uses.
+ */
+public final class CaptureMetrics {
+
+    private static StageRecorder sRecorder;
+
+    private CaptureMetrics() {
+    }
+
+    public static synchronized StageRecorder recorder() {
+        if (sRecorder == null) {
+            sRecorder = new StageRecorder(() -> CapturePools.bytes().getAllocatedBytes());
+        }
+        return sRecorder;
+    }
+
+    /**
+     * Writes the stage statistics as CSV into the given directory and returns the file.
+     */
+    public static File export(File directory) throws IOException {
+        File file = new File(directory, "capture-stats-" + System.currentTimeMillis() + ".csv");
+        try (Writer out = new FileWriter(file)) {
+            recorder().writeCsv(out);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,37 @@
+package com.techbirdssolutions.printcurrentwindow.service;
+
+import com.techbirdssolutions.printcurrentwindow.imaging.BufferPool;
+
+/**
+ * Process-wide buffer pool shared by the capture activity, the service and the print path, so
+ * repeated captures at the same display size reuse their pixel buffers instead of allocating new ones.
+ */
+public final class CapturePools {
+
+    public static final long DEFAULT_MAX_BYTES = Runtime.getRuntime().maxMemory() / 8;
+
+    private static BufferPool<byte[]> sBytes;
+
+    private CapturePools() {
+    }
+
+    public static synchronized BufferPool<byte[]> bytes() {
+        if (sBytes == null) sBytes = BufferPool.byteArrays(DEFAULT_MAX_BYTES);
+        return sBytes;
+    }
+
+    /**
+     * Changes the idle byte ceiling of the pool.
+     */
+    public static void setMaxBytes(long maxBytes) {
+        bytes().setMaxBytes(maxBytes);
+    }
+
+    public static void clear() {
+        bytes().clear();
+    }
+
+    public static String describe() {
+        return "bytes " + bytes();
+    }
+}
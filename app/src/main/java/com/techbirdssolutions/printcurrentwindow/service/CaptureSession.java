@@ -0,0 +1,361 @@
+package com.techbirdssolutions.printcurrentwindow.service;
+
+import android.content.Context;
+import android.graphics.PixelFormat;
+import android.hardware.display.DisplayManager;
+import android.hardware.display.VirtualDisplay;
+import android.media.Image;
+import android.media.ImageReader;
+import android.media.projection.MediaProjection;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.view.Display;
+import android.view.WindowManager;
+
+import androidx.annotation.Nullable;
+
+import com.techbirdssolutions.printcurrentwindow.metrics.StageRecorder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A long-lived screen capture session: one MediaProjection, one VirtualDisplay and one
+ * ImageReader that stay alive between taps, so a capture only has to grab the latest frame.
+ *
+ * The VirtualDisplay is resized in place when the display size or rotation changes, because
+ * a projection may only create a single VirtualDisplay on recent Android versions. The old
+ * ImageReader stays open until every image taken from it has been given back through
+ * {@link #releaseImage(Image)}, since closing a reader frees the buffers of its images.
+ */
+public class CaptureSession {
+
+    private static final String TAG = "CaptureSession";
+    // acquireLatestImage() needs two buffers to drop stale frames, plus one a capture waiting for a
+    // clean frame keeps as its fallback and one the pipeline or a sampler may hold
+    private static final int MAX_IMAGES = 4;
+
+    private final Context mContext;
+    private final MediaProjection mMediaProjection;
+    private final Handler mHandler;
+
+    private VirtualDisplay mVirtualDisplay;
+    private ImageReader mImageReader;
+    private int mWidth;
+    private int mHeight;
+    private int mDensity;
+    private int mRotation;
+    private int mScale = 1; // The display size is divided by this for the capture
+    private int mDisplayWidth;
+    private int mDisplayHeight;
+    private boolean mActive;
+    private ImageReader.OnImageAvailableListener mImageListener;
+    private Handler mImageListenerHandler;
+
+    // Images handed out and not given back yet, with the reader each came from
+    private final Map<Image, ImageReader> mHeldImages = new IdentityHashMap<>();
+    private final List<ImageReader> mRetiredReaders = new ArrayList<>(); // Swapped out, waiting for their images
+    private final Set<Image> mSampleImages = Collections.newSetFromMap(new IdentityHashMap<Image, Boolean>());
+    private boolean mCaptureArmed; // A tap capture is waiting for its frame; guarded by mHeldImages
+
+    private long mSetupMillis; // What a cold capture pays for projection + display setup
+    private int mCaptureCount;
+
+    private final MediaProjection.Callback mProjectionCallback = new MediaProjection.Callback() {
+        @Override
+        public void onStop() {
+            Log.d(TAG, "MediaProjection stopped by the system.");
+            release();
+        }
+    };
+
+    private final DisplayManager.DisplayListener mDisplayListener = new DisplayManager.DisplayListener() {
+        @Override
+        public void onDisplayAdded(int displayId) {
+        }
+
+        @Override
+        public void onDisplayRemoved(int displayId) {
+        }
+
+        @Override
+        public void onDisplayChanged(int displayId) {
+            if (displayId == Display.DEFAULT_DISPLAY) {
+                ensureCurrentGeometry();
+            }
+        }
+    };
+
+    public CaptureSession(Context context, MediaProjection mediaProjection, Handler handler) {
+        mContext = context;
+        mMediaProjection = mediaProjection;
+        mHandler = handler;
+    }
+
+    public void start() {
+        long startTime = SystemClock.elapsedRealtime();
+        long span = CaptureMetrics.recorder().begin(StageRecorder.Stage.SESSION_SETUP);
+
+        // Must be registered before createVirtualDisplay() on Android 14+
+        mMediaProjection.registerCallback(mProjectionCallback, mHandler);
+
+        readDisplayGeometry();
+        mImageReader = ImageReader.newInstance(mWidth, mHeight, PixelFormat.RGBA_8888, MAX_IMAGES);
+        mImageReader.setOnImageAvailableListener(mImageListener, mImageListenerHandler);
+        mVirtualDisplay = mMediaProjection.createVirtualDisplay(
+                "ScreenCapture",
+                mWidth,
+                mHeight,
+                mDensity,
+                0,
+                mImageReader.getSurface(),
+                null,
+                mHandler
+        );
+
+        DisplayManager displayManager = (DisplayManager) mContext.getSystemService(Context.DISPLAY_SERVICE);
+        if (displayManager != null) {
+            displayManager.registerDisplayListener(mDisplayListener, mHandler);
+        }
+
+        mActive = true;
+        CaptureMetrics.recorder().end(StageRecorder.Stage.SESSION_SETUP, span);
+        mSetupMillis = SystemClock.elapsedRealtime() - startTime;
+        Log.d(TAG, "Capture session started at " + mWidth + "x" + mHeight + " in " + mSetupMillis + " ms.");
+    }
+
+    /**
+     * Resizes the VirtualDisplay and swaps in a new ImageReader if the screen size or rotation
+     * changed since the last capture. Returns true if the session had to be rebuilt.
+     */
+    public boolean ensureCurrentGeometry() {
+        if (!mActive) return false;
+
+        int oldWidth = mWidth;
+        int oldHeight = mHeight;
+        int oldDensity = mDensity;
+        int oldRotation = mRotation;
+        readDisplayGeometry();
+        if (oldWidth == mWidth && oldHeight == mHeight && oldDensity == mDensity && oldRotation == mRotation) {
+            return false;
+        }
+
+        long startTime = SystemClock.elapsedRealtime();
+        ImageReader oldReader = mImageReader;
+        mImageReader = ImageReader.newInstance(mWidth, mHeight, PixelFormat.RGBA_8888, MAX_IMAGES);
+        mImageReader.setOnImageAvailableListener(mImageListener, mImageListenerHandler);
+        mVirtualDisplay.resize(mWidth, mHeight, mDensity);
+        mVirtualDisplay.setSurface(mImageReader.getSurface());
+        retire(oldReader);
+        Log.d(TAG, "Capture session rebuilt for " + mWidth + "x" + mHeight + " (rotation " + mRotation + ") in "
+                + (SystemClock.elapsedRealtime() - startTime) + " ms.");
+        return true;
+    }
+
+    private void readDisplayGeometry() {
+        DisplayMetrics metrics = new DisplayMetrics();
+        WindowManager windowManager = (WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE);
+        if (windowManager != null) {
+            Display display = windowManager.getDefaultDisplay();
+            display.getRealMetrics(metrics);
+            mRotation = display.getRotation();
+        } else {
+            metrics = mContext.getResources().getDisplayMetrics();
+        }
+
+        mDisplayWidth = metrics.widthPixels;
+        mDisplayHeight = metrics.heightPixels;
+        mDensity = Math.max(1, metrics.densityDpi / mScale);
+        mWidth = Math.max(1, mDisplayWidth / mScale);
+        mHeight = Math.max(1, mDisplayHeight / mScale);
+    }
+
+    /**
+     * Captures at 1/scale of the display size in both directions from the next frame on, e.g.
+     * to save memory. The display is rendered at the smaller size, not captured and shrunk.
+     */
+    public void setScale(int scale) {
+        if (scale < 1) throw new IllegalArgumentException("Bad capture scale " + scale);
+        if (scale == mScale) return;
+        mScale = scale;
+        ensureCurrentGeometry();
+    }
+
+    /**
+     * Returns the newest frame rendered into the session, or null if none is available yet.
+     * The caller owns the returned Image and must hand it back to {@link #releaseImage(Image)}.
+     */
+    public Image acquireLatestImage() {
+        return acquire(false);
+    }
+
+    /**
+     * Like {@link #acquireLatestImage()}, for background samplers such as rewind and long
+     * capture. Returns null while a tap capture is armed or still holds its image, so samples
+     * neither take the frame a capture waits for nor the buffers it needs.
+     */
+    public Image acquireSample() {
+        synchronized (mHeldImages) {
+            if (mCaptureArmed || mHeldImages.size() > mSampleImages.size()) return null;
+        }
+        return acquire(true);
+    }
+
+    private Image acquire(boolean sample) {
+        if (!mActive) return null;
+        ensureCurrentGeometry();
+        synchronized (mHeldImages) {
+            // acquireLatestImage() throws rather than wait once it cannot hold two more images
+            int held = 0;
+            for (ImageReader reader : mHeldImages.values()) {
+                if (reader == mImageReader) held++;
+            }
+            if (held > MAX_IMAGES - 2) {
+                Log.w(TAG, held + " images still out; not acquiring another.");
+                return null;
+            }
+        }
+        long span = CaptureMetrics.recorder().begin(StageRecorder.Stage.ACQUIRE);
+        Image image = mImageReader.acquireLatestImage();
+        CaptureMetrics.recorder().end(StageRecorder.Stage.ACQUIRE, span);
+        if (image != null) {
+            synchronized (mHeldImages) {
+                mHeldImages.put(image, mImageReader);
+                if (sample) mSampleImages.add(image);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Marks a tap capture as waiting for a frame, which pauses {@link #acquireSample()} until
+     * it is unmarked and the capture's image has been released.
+     */
+    public void setCaptureArmed(boolean armed) {
+        synchronized (mHeldImages) {
+            mCaptureArmed = armed;
+        }
+    }
+
+    /**
+     * Closes an image from {@link #acquireLatestImage()}, and its reader if a resize replaced
+     * it and this was the last image still out. Use this instead of Image.close(). Safe to call
+     * from any thread.
+     */
+    public void releaseImage(Image image) {
+        image.close();
+        synchronized (mHeldImages) {
+            ImageReader reader = mHeldImages.remove(image);
+            mSampleImages.remove(image);
+            if (reader != null && !mHeldImages.containsValue(reader) && mRetiredReaders.remove(reader)) {
+                reader.close();
+                Log.d(TAG, "Closed a replaced ImageReader after its last image came back.");
+            }
+        }
+    }
+
+    /**
+     * Closes a reader that no longer receives frames, or defers that until its images are back.
+     */
+    private void retire(ImageReader reader) {
+        reader.setOnImageAvailableListener(null, null);
+        synchronized (mHeldImages) {
+            if (mHeldImages.containsValue(reader)) {
+                mRetiredReaders.add(reader);
+            } else {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Counts a user capture taken from this session and logs the setup time it did not have to pay.
+     */
+    public void recordCapture() {
+        mCaptureCount++;
+        if (mCaptureCount > 1) {
+            Log.d(TAG, "Warm capture #" + mCaptureCount + ", skipped ~" + mSetupMillis + " ms of session setup.");
+        }
+    }
+
+    /**
+     * Sets the listener notified whenever a new frame lands in the session. It stays attached
+     * across ImageReader swaps caused by rotation or resize. Pass null to detach.
+     */
+    public void setOnImageAvailableListener(@Nullable ImageReader.OnImageAvailableListener listener,
+                                            @Nullable Handler handler) {
+        mImageListener = listener;
+        mImageListenerHandler = handler;
+        if (mImageReader != null) {
+            mImageReader.setOnImageAvailableListener(listener, handler);
+        }
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getScale() {
+        return mScale;
+    }
+
+    /**
+     * The full size of the display, before the capture scale.
+     */
+    public int getDisplayWidth() {
+        return mDisplayWidth;
+    }
+
+    public int getDisplayHeight() {
+        return mDisplayHeight;
+    }
+
+    public long getSetupMillis() {
+        return mSetupMillis;
+    }
+
+    public int getCaptureCount() {
+        return mCaptureCount;
+    }
+
+    public boolean isActive() {
+        return mActive;
+    }
+
+    public void stop() {
+        if (mActive) {
+            mMediaProjection.stop(); // Triggers onStop(), which releases the display and reader
+        }
+        release();
+    }
+
+    private void release() {
+        if (!mActive) return;
+        mActive = false;
+
+        DisplayManager displayManager = (DisplayManager) mContext.getSystemService(Context.DISPLAY_SERVICE);
+        if (displayManager != null) {
+            displayManager.unregisterDisplayListener(mDisplayListener);
+        }
+        mMediaProjection.unregisterCallback(mProjectionCallback);
+        if (mVirtualDisplay != null) {
+            mVirtualDisplay.release();
+            mVirtualDisplay = null;
+        }
+        if (mImageReader != null) {
+            retire(mImageReader);
+            mImageReader = null;
+        }
+        Log.d(TAG, "Capture session released after " + mCaptureCount + " captures.");
+    }
+}
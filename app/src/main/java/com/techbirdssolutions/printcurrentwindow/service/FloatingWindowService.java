@@ -3,37 +3,146 @@ package com.techbirdssolutions.printcurrentwindow.service;
 import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
+import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
+import android.content.pm.ServiceInfo;
 import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.media.Image;
+import android.media.projection.MediaProjection;
+import android.media.projection.MediaProjectionManager;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
 import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.Button;
-import android.widget.Toast; // Not used in the provided code, but good to keep if intended for future use
+import android.widget.Toast;
 
 import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
 
 import com.techbirdssolutions.printcurrentwindow.R;
 import com.techbirdssolutions.printcurrentwindow.activity.ScreenshotCaptureActivity;
+import com.techbirdssolutions.printcurrentwindow.document.CaptureHistory;
+import com.techbirdssolutions.printcurrentwindow.document.PageSource;
+import com.techbirdssolutions.printcurrentwindow.document.PrintBatch;
+import com.techbirdssolutions.printcurrentwindow.document.PrintJobQueue;
+import com.techbirdssolutions.printcurrentwindow.document.ScrollStitcher;
+import com.techbirdssolutions.printcurrentwindow.imaging.BufferPool;
+import com.techbirdssolutions.printcurrentwindow.imaging.Ditherer;
+import com.techbirdssolutions.printcurrentwindow.imaging.FilterChain;
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayFrame;
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayscaleConverter;
+import com.techbirdssolutions.printcurrentwindow.imaging.MappedFrameStore;
+import com.techbirdssolutions.printcurrentwindow.metrics.StageRecorder;
+import com.techbirdssolutions.printcurrentwindow.pipeline.CapturePipeline;
+import com.techbirdssolutions.printcurrentwindow.pipeline.QualityGovernor;
+import com.techbirdssolutions.printcurrentwindow.pipeline.RewindBuffer;
 
-// import java.io.File; // For screenshot saving - Not used in this service, but related to the app's functionality
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 public class FloatingWindowService extends Service {
 
     private WindowManager mWindowManager;
     private View mFloatingView;
     public static Button screenshotButton; // Made public static as per your code, but consider if this is truly necessary
+    private Button mAddToBatchButton;
+    private Button mPrintBatchButton;
+    private Button mReprintButton;
 
+    private static final String TAG = "FloatingWindowService";
     private static final String CHANNEL_ID = "FloatingServiceChannel";
     private static final int NOTIFICATION_ID = 123;
 
+    public static final String ACTION_TOGGLE_REWIND = "com.techbirdssolutions.printcurrentwindow.TOGGLE_REWIND";
+    public static final String ACTION_STOP_LONG_CAPTURE = "com.techbirdssolutions.printcurrentwindow.STOP_LONG_CAPTURE";
+    public static final String ACTION_CYCLE_REGION = "com.techbirdssolutions.printcurrentwindow.CYCLE_REGION";
+    public static final String ACTION_EXPORT_STATS = "com.techbirdssolutions.printcurrentwindow.EXPORT_STATS";
+    public static final String ACTION_CYCLE_TONE = "com.techbirdssolutions.printcurrentwindow.CYCLE_TONE";
+    public static final String ACTION_CYCLE_INK = "com.techbirdssolutions.printcurrentwindow.CYCLE_INK";
+
+    // What part of the screen a capture converts and prints
+    public static final int REGION_FULL = 0;
+    public static final int REGION_AUTO = 1; // Trim uniform margins and the system bars
+    public static final int REGION_CUSTOM = 2; // A rectangle dragged out on the overlay
+    private static final String[] REGION_LABELS = {"full", "auto", "custom"};
+
+    // Tone filters applied while converting a capture. Auto-levels counts its histogram during the
+    // conversion, so these chains cost one extra pass over the gray pixels
+    private static final String[] TONE_LABELS = {"plain", "toner saver", "crisp"};
+    private static final FilterChain[] TONE_CHAINS = {
+            FilterChain.IDENTITY,
+            // Stretch washed-out screens, then print light backgrounds as bare paper
+            new FilterChain(FilterChain.autoLevels(0.005), FilterChain.whiten(224)),
+            new FilterChain(FilterChain.autoLevels(0.005), FilterChain.gamma(0.85), FilterChain.contrast(1.4))};
+
+    // Ink: gray pages, gray with the text as crisp 1-bit, or black and white rendered at the
+    // printer's resolution for printers that only do that
+    private static final String[] INK_LABELS = {"gray", "mixed", "b/w diffused", "b/w atkinson", "b/w ordered",
+            "b/w threshold"};
+    private static final Ditherer.Method[] INK_DITHER = {null, null, Ditherer.Method.FLOYD_STEINBERG,
+            Ditherer.Method.ATKINSON, Ditherer.Method.ORDERED, Ditherer.Method.THRESHOLD};
+    private static final int INK_MIXED = 1;
+
+    // Rewind mode: sample the screen this often and keep this much history within this memory cap
+    private static final long REWIND_INTERVAL_MS = 500;
+    private static final long REWIND_WINDOW_NANOS = 10_000_000_000L;
+    private static final long REWIND_MAX_BYTES = 24L * 1024 * 1024;
+    private static final long LONG_CAPTURE_INTERVAL_MS = 200; // Short enough that a flick still overlaps
+    // Reprint history: compressed captures and their PDFs in RAM, spilled to the cache dir
+    private static final long HISTORY_MAX_RAM_BYTES = Runtime.getRuntime().maxMemory() / 16;
+    private static final long HISTORY_MAX_DISK_BYTES = 64L * 1024 * 1024;
+    // What the heap caches above hold when full; the quality governor shrinks them under memory pressure
+    private static final long CACHE_MAX_BYTES = CapturePools.DEFAULT_MAX_BYTES + HISTORY_MAX_RAM_BYTES + REWIND_MAX_BYTES;
+    // Print queue: taps this close together go out as one job, and at most this many pages wait
+    private static final long PRINT_COALESCE_MS = 1500;
+    private static final int PRINT_QUEUE_MAX_PAGES = 20;
+
+    private static FloatingWindowService sInstance;
+
+    private Notification mNotification;
+    private Handler mHandler;
+    private CaptureSession mCaptureSession; // Kept warm across taps so each capture only grabs the latest frame
+    private CapturePipeline<GrayFrame> mCapturePipeline;
+    private ExecutorService mWorkExecutor; // Rewind sampling and batch compression, off the main thread
+    private RewindBuffer mRewindBuffer; // Null while rewind mode is off
+    private boolean mRewindSampleInFlight;
+    private PrintBatch mPrintBatch; // Captures collected for one multi-page job; work executor only
+    private MappedFrameStore mFrameStore; // Batch pages live here, off the heap; null if it could not be opened
+    private int mBatchPageCount;
+    private int mRegionMode = REGION_FULL;
+    private int mToneMode;
+    private int mInkMode;
+    private Rect mCustomRegion;
+    private RegionSelectView mRegionView; // Non-null while the user is dragging out a region
+    private ScrollStitcher mStitcher; // Non-null while a long capture runs
+    private boolean mLongCaptureSampleInFlight;
+    private CaptureHistory mCaptureHistory;
+    private volatile PrintJobQueue mPrintQueue; // Null until its journal has been replayed on the work executor
+    private long mActivePrintJob = -1; // Handed to an activity and not finished yet; work executor only
+    private int mPrintSubmissions; // Accepted but not in the queue yet
+    private final QualityGovernor mQualityGovernor =
+            new QualityGovernor(QualityGovernor.MemoryProbe.RUNTIME, CACHE_MAX_BYTES);
+    private QualityGovernor.Tier mQualityTier = QualityGovernor.Tier.FULL; // The tier the caches and session are set up for
+
+    @Nullable
+    public static FloatingWindowService getInstance() {
+        return sInstance;
+    }
+
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
@@ -44,6 +153,15 @@ public class FloatingWindowService extends Service {
     @Override
     public void onCreate() {
         super.onCreate();
+        sInstance = this;
+        mHandler = new Handler(Looper.getMainLooper());
+        mCapturePipeline = createCapturePipeline(this, mHandler);
+        mWorkExecutor = Executors.newSingleThreadExecutor();
+        mFrameStore = openFrameStore();
+        mPrintBatch = new PrintBatch(CapturePools.bytes(), mFrameStore);
+        mCaptureHistory = new CaptureHistory(new File(getCacheDir(), "history"), HISTORY_MAX_RAM_BYTES,
+                HISTORY_MAX_DISK_BYTES);
+        mWorkExecutor.execute(this::openPrintQueue);
 
         // 1. Create Notification Channel for Android O (API 26) and above
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
@@ -60,14 +178,10 @@ public class FloatingWindowService extends Service {
 
         // 2. Build the Notification for the Foreground Service
         // A foreground service must have an ongoing notification.
-        Notification notification = new NotificationCompat.Builder(this, CHANNEL_ID)
-                .setContentTitle("Assist Menu Running")
-                .setContentText("Tap to open app, long press to stop.") // Example text
-                .setSmallIcon(R.drawable.ic_launcher_foreground) // Replace with your actual app icon
-                .build();
+        mNotification = buildNotification();
 
         // Start the service in the foreground
-        startForeground(NOTIFICATION_ID, notification);
+        startForeground(NOTIFICATION_ID, mNotification);
 
         // 3. Inflate the Floating Layout
         mFloatingView = LayoutInflater.from(this).inflate(R.layout.layout_floating_widget, null);
@@ -97,13 +211,28 @@ public class FloatingWindowService extends Service {
 
         // 6. Find and Set up the Screenshot Button
         screenshotButton = mFloatingView.findViewById(R.id.screenshot_button);
-        screenshotButton.setOnClickListener(v -> {
-            // Start the ScreenshotCaptureActivity when the button is clicked
-            Intent screenshotIntent = new Intent(FloatingWindowService.this, ScreenshotCaptureActivity.class);
-            // These flags are important for starting an activity from a service context
-            screenshotIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
-            startActivity(screenshotIntent);
+        // Start the ScreenshotCaptureActivity when the button is clicked
+        screenshotButton.setOnClickListener(v -> startCaptureActivity(null));
+        // Long press prints from the rewind buffer instead of the current screen
+        screenshotButton.setOnLongClickListener(v -> {
+            startCaptureActivity(ScreenshotCaptureActivity.EXTRA_REWIND);
+            return true;
+        });
+
+        // Batch mode: "+" captures into the batch, the counter button prints it as one document
+        mAddToBatchButton = mFloatingView.findViewById(R.id.add_to_batch_button);
+        mAddToBatchButton.setOnClickListener(v -> startCaptureActivity(ScreenshotCaptureActivity.EXTRA_ADD_TO_BATCH));
+        // Long press starts a scrolling long capture into the batch
+        mAddToBatchButton.setOnLongClickListener(v -> {
+            startLongCapture();
+            return true;
         });
+        mPrintBatchButton = mFloatingView.findViewById(R.id.print_batch_button);
+        mPrintBatchButton.setOnClickListener(v -> startCaptureActivity(ScreenshotCaptureActivity.EXTRA_PRINT_BATCH));
+        // Reprint sends the last capture again, straight from the history
+        mReprintButton = mFloatingView.findViewById(R.id.reprint_button);
+        mReprintButton.setOnClickListener(v -> startCaptureActivity(ScreenshotCaptureActivity.EXTRA_REPRINT));
+        updateReprintButton();
 
         // 7. Make the Floating View Draggable
         mFloatingView.setOnTouchListener(new View.OnTouchListener() {
@@ -142,10 +271,736 @@ public class FloatingWindowService extends Service {
         });
     }
 
+    private void startCaptureActivity(@Nullable String modeExtra) {
+        Intent screenshotIntent = new Intent(FloatingWindowService.this, ScreenshotCaptureActivity.class);
+        // These flags are important for starting an activity from a service context
+        screenshotIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
+        screenshotIntent.putExtra(ScreenshotCaptureActivity.EXTRA_TAP_TIME, SystemClock.elapsedRealtime());
+        if (modeExtra != null) {
+            screenshotIntent.putExtra(modeExtra, true);
+        }
+        startActivity(screenshotIntent);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_TOGGLE_REWIND.equals(intent.getAction())) {
+            setRewindEnabled(mRewindBuffer == null);
+        } else if (intent != null && ACTION_STOP_LONG_CAPTURE.equals(intent.getAction())) {
+            stopLongCapture();
+        } else if (intent != null && ACTION_CYCLE_REGION.equals(intent.getAction())) {
+            setRegionMode((mRegionMode + 1) % REGION_LABELS.length);
+        } else if (intent != null && ACTION_CYCLE_TONE.equals(intent.getAction())) {
+            setToneMode((mToneMode + 1) % TONE_LABELS.length);
+        } else if (intent != null && ACTION_CYCLE_INK.equals(intent.getAction())) {
+            mInkMode = (mInkMode + 1) % INK_LABELS.length;
+            updateNotification();
+        } else if (intent != null && ACTION_EXPORT_STATS.equals(intent.getAction())) {
+            exportStats();
+        }
+        return START_NOT_STICKY;
+    }
+
+    private Notification buildNotification() {
+        Intent toggleIntent = new Intent(this, FloatingWindowService.class).setAction(ACTION_TOGGLE_REWIND);
+        PendingIntent togglePending = PendingIntent.getService(this, 0, toggleIntent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+        Intent regionIntent = new Intent(this, FloatingWindowService.class).setAction(ACTION_CYCLE_REGION);
+        PendingIntent regionPending = PendingIntent.getService(this, 1, regionIntent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+        Intent toneIntent = new Intent(this, FloatingWindowService.class).setAction(ACTION_CYCLE_TONE);
+        PendingIntent tonePending = PendingIntent.getService(this, 4, toneIntent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+        Intent inkIntent = new Intent(this, FloatingWindowService.class).setAction(ACTION_CYCLE_INK);
+        PendingIntent inkPending = PendingIntent.getService(this, 5, inkIntent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setContentTitle("Assist Menu Running")
+                .setContentText("Tap to open app, long press to stop.") // Example text
+                .setSmallIcon(R.drawable.ic_launcher_foreground) // Replace with your actual app icon
+                .setOnlyAlertOnce(true)
+                .addAction(0, mRewindBuffer != null ? "Rewind: on" : "Rewind: off", togglePending)
+                .addAction(0, "Region: " + REGION_LABELS[mRegionMode], regionPending)
+                .addAction(0, "Tone: " + TONE_LABELS[mToneMode], tonePending)
+                .addAction(0, "Ink: " + INK_LABELS[mInkMode], inkPending)
+                // Expanding the notification shows p50/p95/p99 per stage of the capture-to-print path
+                .setStyle(new NotificationCompat.BigTextStyle().bigText(CaptureMetrics.recorder().describe()
+                        + "\n" + mCaptureHistory.describe()
+                        + (mPrintQueue != null ? "\n" + mPrintQueue.describe() : "")));
+        Intent exportIntent = new Intent(this, FloatingWindowService.class).setAction(ACTION_EXPORT_STATS);
+        builder.addAction(0, "Export stats", PendingIntent.getService(this, 3, exportIntent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE));
+        if (mStitcher != null) {
+            Intent stopIntent = new Intent(this, FloatingWindowService.class).setAction(ACTION_STOP_LONG_CAPTURE);
+            builder.addAction(0, "Stop long capture", PendingIntent.getService(this, 2, stopIntent,
+                    PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Rebuilds the notification so its stage statistics include the latest capture or print.
+     */
+    public void refreshStats() {
+        updateNotification();
+    }
+
+    private void exportStats() {
+        mWorkExecutor.execute(() -> {
+            String message;
+            try {
+                message = "Stats saved to " + CaptureMetrics.export(getExternalFilesDir(null)).getAbsolutePath();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to export stats.", e);
+                message = "Failed to export stats.";
+            }
+            Log.d(TAG, message + "\n" + CaptureMetrics.recorder().describe());
+            final String toast = message;
+            mHandler.post(() -> Toast.makeText(this, toast, Toast.LENGTH_LONG).show());
+        });
+    }
+
+    /**
+     * Replays the print queue's journal; jobs that were pending when the process died go out
+     * again. One that was already with the spooler may print twice, which beats losing it.
+     */
+    private void openPrintQueue() {
+        PrintJobQueue queue;
+        try {
+            queue = new PrintJobQueue(new File(getFilesDir(), "print-jobs.journal"), PRINT_QUEUE_MAX_PAGES,
+                    PRINT_COALESCE_MS);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open the print queue's journal; queued prints are lost if the process dies.", e);
+            try {
+                queue = new PrintJobQueue(null, PRINT_QUEUE_MAX_PAGES, PRINT_COALESCE_MS);
+            } catch (IOException impossible) {
+                throw new AssertionError(impossible); // Nothing to read or write without a journal
+            }
+        }
+        Log.d(TAG, "Print queue opened: " + queue.describe());
+        // Set here rather than posted, so prints queued on this executor from now on find it
+        mPrintQueue = queue;
+        dispatchNextPrintJob();
+    }
+
+    /**
+     * Queues a processed capture for printing and takes over the caller's reference. Returns
+     * false, releasing the frame, if the queue is full. Call on the main thread.
+     *
+     * @param fingerprint the history fingerprint of the frame the capture was converted from, or
+     *                    null if there is none, e.g. for a rewind frame
+     */
+    public boolean submitPrint(final GrayFrame frame, @Nullable final long[] fingerprint) {
+        if (!reservePrintSlot()) {
+            frame.release();
+            return false;
+        }
+        mWorkExecutor.execute(() -> {
+            long captureId;
+            try {
+                captureId = fingerprint != null ? mCaptureHistory.put(frame, fingerprint) : mCaptureHistory.put(frame);
+            } finally {
+                frame.release();
+            }
+            enqueuePrint(captureId);
+        });
+        return true;
+    }
+
+    /**
+     * Queues a capture that is already in the history, e.g. a reprint. Call on the main thread.
+     */
+    public boolean submitPrint(final long captureId) {
+        if (!reservePrintSlot()) return false;
+        mWorkExecutor.execute(() -> enqueuePrint(captureId));
+        return true;
+    }
+
+    private boolean reservePrintSlot() {
+        PrintJobQueue queue = mPrintQueue;
+        int pending = mPrintSubmissions + (queue != null ? queue.getPendingPages() : 0);
+        if (pending >= PRINT_QUEUE_MAX_PAGES) {
+            Log.d(TAG, "Print queue full at " + pending + " pages.");
+            return false;
+        }
+        mPrintSubmissions++;
+        return true;
+    }
+
+    /**
+     * Runs on the work executor, after the queue was opened there.
+     */
+    private void enqueuePrint(long captureId) {
+        PrintJobQueue.Job job = null;
+        if (!mCaptureHistory.persist(captureId)) {
+            Log.w(TAG, "Capture " + captureId + " could not be kept on disk; it is lost if the process dies.");
+        }
+        PrintJobQueue queue = mPrintQueue;
+        try {
+            if (queue != null) job = queue.offer(captureId);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to journal print job.", e);
+        }
+        final PrintJobQueue.Job queued = job;
+        dispatchNextPrintJob();
+        mHandler.post(() -> {
+            mPrintSubmissions--;
+            if (queued == null) {
+                Toast.makeText(this, "Could not queue the print.", Toast.LENGTH_SHORT).show();
+            }
+            updateReprintButton();
+            updateNotification();
+        });
+    }
+
+    /**
+     * Hands the oldest job to a print activity unless one is still printing. Work executor only;
+     * the activity gets the job's captures with it, so it never waits for the queue's lock.
+     */
+    private void dispatchNextPrintJob() {
+        PrintJobQueue queue = mPrintQueue;
+        if (queue == null || mActivePrintJob >= 0) return;
+        PrintJobQueue.Job job = queue.next();
+        if (job == null) return;
+        mActivePrintJob = job.getId();
+        Log.d(TAG, "Printing job " + job.getId() + " (" + job.getPageCount() + " pages); " + queue.describe());
+        final Intent printIntent = new Intent(this, ScreenshotCaptureActivity.class);
+        printIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
+        printIntent.putExtra(ScreenshotCaptureActivity.EXTRA_PRINT_JOB, job.getId());
+        printIntent.putExtra(ScreenshotCaptureActivity.EXTRA_PRINT_CAPTURES, job.getCaptureIds());
+        mHandler.post(() -> startActivity(printIntent));
+    }
+
+    /**
+     * Called by the print activity once the spooler is done with the job, whatever the outcome.
+     */
+    public void onPrintJobFinished(final long jobId) {
+        mWorkExecutor.execute(() -> {
+            if (mActivePrintJob == jobId) mActivePrintJob = -1;
+            PrintJobQueue queue = mPrintQueue;
+            if (queue == null) return;
+            try {
+                long waitedMillis = queue.complete(jobId);
+                if (waitedMillis >= 0) {
+                    CaptureMetrics.recorder().record(StageRecorder.Stage.PRINT_JOB, waitedMillis * 1_000_000L, 0);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to journal finished print job " + jobId + ".", e);
+            }
+            dispatchNextPrintJob();
+            mHandler.post(this::updateNotification);
+        });
+    }
+
+    public CaptureHistory getCaptureHistory() {
+        return mCaptureHistory;
+    }
+
+    /**
+     * Shows the reprint button once there is something in the history to reprint.
+     */
+    public void updateReprintButton() {
+        if (mReprintButton != null) {
+            mReprintButton.setVisibility(mCaptureHistory.getLatestId() >= 0 ? View.VISIBLE : View.GONE);
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        QualityGovernor.Pressure pressure = pressureFor(level);
+        if (pressure != QualityGovernor.Pressure.NONE) {
+            mQualityGovernor.onPressure(pressure, SystemClock.elapsedRealtimeNanos());
+        }
+        // The history is the one cache here that can give memory back without losing anything
+        final long keepBytes;
+        if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            keepBytes = 0;
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            keepBytes = HISTORY_MAX_RAM_BYTES / 2;
+        } else {
+            return;
+        }
+        Log.d(TAG, "onTrimMemory(" + level + "): spilling history down to " + keepBytes / 1024 + " KiB.");
+        mWorkExecutor.execute(() -> mCaptureHistory.trimMemory(keepBytes));
+    }
+
+    private static QualityGovernor.Pressure pressureFor(int level) {
+        if (level >= TRIM_MEMORY_COMPLETE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            return QualityGovernor.Pressure.CRITICAL;
+        } else if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_LOW) {
+            return QualityGovernor.Pressure.LOW;
+        } else if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_MODERATE) {
+            return QualityGovernor.Pressure.MODERATE;
+        }
+        return QualityGovernor.Pressure.NONE; // UI hidden is no shortage of memory
+    }
+
+    /**
+     * Picks the quality tier for the next capture of a width x height display and sets the
+     * capture session and caches up for it.
+     */
+    public QualityGovernor.Tier chooseQuality(int width, int height) {
+        QualityGovernor.Tier tier = mQualityGovernor.choose(width, height, SystemClock.elapsedRealtimeNanos());
+        if (tier != mQualityTier) {
+            boolean degraded = tier.ordinal() > mQualityTier.ordinal();
+            mQualityTier = tier;
+            applyQualityTier(tier);
+            Log.d(TAG, "Quality tier " + mQualityGovernor.describe() + ".");
+            if (degraded) {
+                Toast.makeText(this, "Memory is low, capturing at " + tier.name().toLowerCase() + " quality.",
+                        Toast.LENGTH_SHORT).show();
+            }
+        }
+        return tier;
+    }
+
+    private void applyQualityTier(QualityGovernor.Tier tier) {
+        CapturePools.setMaxBytes(tier.cacheBytes(CapturePools.DEFAULT_MAX_BYTES));
+        final long historyBytes = tier.cacheBytes(HISTORY_MAX_RAM_BYTES);
+        mWorkExecutor.execute(() -> mCaptureHistory.setMaxRamBytes(historyBytes));
+        if (mRewindBuffer != null) mRewindBuffer.setMaxBytes(tier.cacheBytes(REWIND_MAX_BYTES));
+        if (getCaptureSession() != null) mCaptureSession.setScale(tier.getCaptureScale());
+    }
+
+    public QualityGovernor.Tier getQualityTier() {
+        return mQualityTier;
+    }
+
+    private void updateNotification() {
+        mNotification = buildNotification();
+        NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        if (manager != null) {
+            manager.notify(NOTIFICATION_ID, mNotification);
+        }
+    }
+
+    /**
+     * Switches what part of the screen captures keep. Choosing REGION_CUSTOM puts up the overlay
+     * to drag out the rectangle; dismissing it without a usable selection falls back to full.
+     */
+    public void setRegionMode(int mode) {
+        dismissRegionSelector();
+        mRegionMode = mode;
+        if (mode == REGION_CUSTOM) {
+            showRegionSelector();
+        }
+        Log.d(TAG, "Region mode " + REGION_LABELS[mode] + (mode == REGION_CUSTOM && mCustomRegion != null
+                ? " " + mCustomRegion.toShortString() : "") + ".");
+        updateNotification();
+    }
+
+    /**
+     * Picks the tone filters later captures are converted with.
+     */
+    public void setToneMode(int mode) {
+        mToneMode = mode;
+        mCapturePipeline.setFilterChain(TONE_CHAINS[mode]);
+        Log.d(TAG, "Tone " + TONE_LABELS[mode] + ": " + TONE_CHAINS[mode]);
+        updateNotification();
+    }
+
+    /**
+     * How pages are turned black and white for printing, or null to print them gray. Gray ink
+     * turns to Atkinson dithering while memory is short enough for 1-bit pages.
+     */
+    @Nullable
+    public Ditherer.Method getDitherMethod() {
+        if (INK_DITHER[mInkMode] == null && mQualityTier.getDepth() == QualityGovernor.Depth.BILEVEL) {
+            return Ditherer.Method.ATKINSON;
+        }
+        return INK_DITHER[mInkMode];
+    }
+
+    /**
+     * Whether gray pages print their text tiles as 1-bit over the rest in gray.
+     */
+    public boolean isMixedRaster() {
+        return mInkMode == INK_MIXED;
+    }
+
+    public int getRegionMode() {
+        return mRegionMode;
+    }
+
+    /**
+     * Identifies the tone, ink and region settings a capture is converted and printed with. A
+     * capture only reprints an earlier one taken under the same key.
+     */
+    public long getSettingsKey() {
+        // Packed rather than hashed so that different settings never share a key: the modes go in
+        // the top 12 bits and a custom region's edges in 13 bits each, enough for any display
+        Ditherer.Method dither = getDitherMethod();
+        long key = (long) mToneMode << 60
+                | (long) (dither != null ? dither.ordinal() + 1 : 0) << 56
+                | (isMixedRaster() ? 1L << 55 : 0)
+                | (long) mRegionMode << 52;
+        if (mRegionMode == REGION_CUSTOM && mCustomRegion != null) {
+            key |= (mCustomRegion.left & 0x1FFFL) << 39 | (mCustomRegion.top & 0x1FFFL) << 26
+                    | (mCustomRegion.right & 0x1FFFL) << 13 | (mCustomRegion.bottom & 0x1FFFL);
+        }
+        return key;
+    }
+
+    /**
+     * The dragged-out region in screen pixels, or null if none was selected yet.
+     */
+    @Nullable
+    public Rect getCustomRegion() {
+        return mCustomRegion;
+    }
+
+    /**
+     * Heights of the status bar and navigation bar in pixels, which auto mode never keeps.
+     */
+    public int[] getSystemBarHeights() {
+        return new int[]{dimensionByName("status_bar_height"), dimensionByName("navigation_bar_height")};
+    }
+
+    private int dimensionByName(String name) {
+        int id = getResources().getIdentifier(name, "dimen", "android");
+        return id != 0 ? getResources().getDimensionPixelSize(id) : 0;
+    }
+
+    private void showRegionSelector() {
+        if (mWindowManager == null) return;
+        mRegionView = new RegionSelectView(this);
+        mRegionView.setListener(region -> {
+            dismissRegionSelector();
+            if (region != null) {
+                mCustomRegion = region;
+                Log.d(TAG, "Custom region " + region.toShortString() + ".");
+            } else if (mCustomRegion == null) {
+                mRegionMode = REGION_FULL;
+                updateNotification();
+            }
+        });
+        WindowManager.LayoutParams params = new WindowManager.LayoutParams(
+                WindowManager.LayoutParams.MATCH_PARENT,
+                WindowManager.LayoutParams.MATCH_PARENT,
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.O ?
+                        WindowManager.LayoutParams.TYPE_APPLICATION_OVERLAY :
+                        WindowManager.LayoutParams.TYPE_PHONE,
+                // Cover the whole display so touch coordinates are capture coordinates
+                WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE | WindowManager.LayoutParams.FLAG_LAYOUT_IN_SCREEN
+                        | WindowManager.LayoutParams.FLAG_LAYOUT_NO_LIMITS,
+                PixelFormat.TRANSLUCENT);
+        mWindowManager.addView(mRegionView, params);
+    }
+
+    private void dismissRegionSelector() {
+        if (mRegionView != null && mWindowManager != null) {
+            mWindowManager.removeView(mRegionView);
+        }
+        mRegionView = null;
+    }
+
+    /**
+     * Rewind mode keeps a memory-capped history of recent screens, so a long press on the
+     * button can print what was shown a few seconds ago.
+     */
+    public void setRewindEnabled(boolean enabled) {
+        if (enabled == (mRewindBuffer != null)) return;
+        if (enabled) {
+            mRewindBuffer = new RewindBuffer(mQualityTier.cacheBytes(REWIND_MAX_BYTES), REWIND_WINDOW_NANOS);
+            mHandler.post(mRewindSampler);
+        } else {
+            mHandler.removeCallbacks(mRewindSampler);
+            mRewindBuffer.clear();
+            mRewindBuffer = null;
+        }
+        Log.d(TAG, "Rewind mode " + (enabled ? "enabled" : "disabled") + ".");
+        updateNotification();
+    }
+
+    @Nullable
+    public RewindBuffer getRewindBuffer() {
+        return mRewindBuffer;
+    }
+
+    private final Runnable mRewindSampler = new Runnable() {
+        @Override
+        public void run() {
+            if (mRewindBuffer == null) return;
+            mHandler.postDelayed(this, REWIND_INTERVAL_MS);
+
+            CaptureSession session = getCaptureSession();
+            if (session == null || mRewindSampleInFlight) return;
+            final Image image = session.acquireSample();
+            if (image == null) return;
+
+            mRewindSampleInFlight = true;
+            final RewindBuffer rewindBuffer = mRewindBuffer;
+            mWorkExecutor.execute(() -> {
+                try {
+                    storeRewindFrame(rewindBuffer, image);
+                } finally {
+                    session.releaseImage(image);
+                    mHandler.post(() -> mRewindSampleInFlight = false);
+                }
+            });
+        }
+    };
+
+    private static void storeRewindFrame(RewindBuffer rewindBuffer, Image image) {
+        GrayFrame frame = toGrayFrame(image);
+        try {
+            long storeNanos = rewindBuffer.store(frame, image.getTimestamp());
+            Log.d(TAG, "Rewind frame stored in " + storeNanos / 1000 + " us, " + rewindBuffer);
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Converts a whole captured image into a pooled frame; the caller releases it.
+     */
+    private static GrayFrame toGrayFrame(Image image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Image.Plane plane = image.getPlanes()[0];
+        BufferPool<byte[]> bytes = CapturePools.bytes();
+        GrayFrame frame = GrayFrame.fromPool(bytes, width, height);
+        byte[] rowScratch = bytes.acquire(width * plane.getPixelStride());
+        try {
+            GrayscaleConverter.convert(plane.getBuffer(), plane.getRowStride(), plane.getPixelStride(),
+                    0, 0, width, height, frame.getPixels(), rowScratch);
+        } catch (RuntimeException e) {
+            frame.release();
+            throw e;
+        } finally {
+            bytes.release(rowScratch.length, rowScratch);
+        }
+        return frame;
+    }
+
+    /**
+     * Long capture: samples the screen while the user scrolls and stitches the frames into
+     * pages of the current print batch. The floating button is hidden meanwhile so it does not
+     * end up in every frame; the notification has the stop action.
+     */
+    public void startLongCapture() {
+        if (mStitcher != null) return;
+        CaptureSession session = getCaptureSession();
+        if (session == null) {
+            Toast.makeText(this, "Take one screenshot first to allow screen capture.", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        int width = session.getWidth();
+        // Portrait pages in the ISO 216 aspect ratio; the stitcher runs on the work executor
+        mStitcher = new ScrollStitcher(width, (int) (width * Math.sqrt(2)), CapturePools.bytes(), page -> {
+            mPrintBatch.add(page);
+            mHandler.post(this::onBatchPageAdded);
+        });
+        mFloatingView.setVisibility(View.INVISIBLE);
+        mHandler.post(mLongCaptureSampler);
+        Log.d(TAG, "Long capture started.");
+        Toast.makeText(this, "Scroll slowly; stop from the notification.", Toast.LENGTH_LONG).show();
+        updateNotification();
+    }
+
+    public void stopLongCapture() {
+        if (mStitcher == null) return;
+        final ScrollStitcher stitcher = mStitcher;
+        mStitcher = null;
+        mHandler.removeCallbacks(mLongCaptureSampler);
+        mWorkExecutor.execute(() -> {
+            stitcher.finish(); // Behind any frame still being stitched
+            Log.d(TAG, "Long capture: " + stitcher.getFrameCount() + " frames, " + stitcher.getTotalRows()
+                    + " rows, " + stitcher.getPageCount() + " pages, " + stitcher.getUnmatchedFrames()
+                    + " without overlap.");
+        });
+        mFloatingView.setVisibility(View.VISIBLE);
+        updateNotification();
+    }
+
+    private final Runnable mLongCaptureSampler = new Runnable() {
+        @Override
+        public void run() {
+            if (mStitcher == null) return;
+            mHandler.postDelayed(this, LONG_CAPTURE_INTERVAL_MS);
+
+            CaptureSession session = getCaptureSession();
+            if (session == null) {
+                stopLongCapture();
+                return;
+            }
+            if (mLongCaptureSampleInFlight) return;
+            final Image image = session.acquireSample();
+            if (image == null) return; // Content is not moving, or a tap capture has the reader
+
+            mLongCaptureSampleInFlight = true;
+            final ScrollStitcher stitcher = mStitcher;
+            mWorkExecutor.execute(() -> {
+                GrayFrame frame = null;
+                try {
+                    frame = toGrayFrame(image);
+                    if (frame.getWidth() == session.getWidth()) {
+                        stitcher.add(frame);
+                    }
+                } finally {
+                    session.releaseImage(image);
+                    if (frame != null) frame.release();
+                    mHandler.post(() -> mLongCaptureSampleInFlight = false);
+                }
+            });
+        }
+    };
+
+    /**
+     * Batch and long-capture pages are kept uncompressed in memory-mapped files in the cache dir,
+     * so a long batch does not run a 2 GB device out of heap. Without it they stay on the heap.
+     */
+    @Nullable
+    private MappedFrameStore openFrameStore() {
+        try {
+            return new MappedFrameStore(new File(getCacheDir(), "frames"));
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to open the mapped frame store; batches stay on the heap.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Adds a converted capture to the current batch. Storing runs off the main thread; the
+     * service takes over the caller's reference to the frame.
+     */
+    public void addToBatch(final GrayFrame frame) {
+        mWorkExecutor.execute(() -> {
+            PrintBatch batch = mPrintBatch;
+            try {
+                batch.add(frame);
+                Log.d(TAG, "Batch now " + batch.getPageCount() + " pages, " + batch.getCompressedBytes() / 1024
+                        + " KiB on the heap, " + batch.getMappedBytes() / 1024 + " KiB mapped.");
+            } finally {
+                frame.release();
+            }
+            mHandler.post(this::onBatchPageAdded);
+        });
+    }
+
+    // Pages are counted in the order the work executor stored them, so a take in between resets
+    // the count after the pages it took and before the ones it did not
+    private void onBatchPageAdded() {
+        mBatchPageCount++;
+        updateBatchButton();
+    }
+
+    /**
+     * Hands the collected batch over for printing and starts a new, empty one. The swap waits
+     * behind the batch work already queued, such as a long capture's last page, on the work
+     * executor rather than on the main thread. The callback runs on the main thread with the
+     * batch, which it then owns and must close, or null if nothing was collected.
+     */
+    public void takePrintBatch(final Consumer<PageSource> callback) {
+        stopLongCapture();
+        mWorkExecutor.execute(() -> {
+            final PrintBatch batch = mPrintBatch;
+            final boolean empty = batch.getPageCount() == 0;
+            if (!empty) mPrintBatch = new PrintBatch(CapturePools.bytes(), mFrameStore);
+            mHandler.post(() -> {
+                if (!empty) {
+                    mBatchPageCount = 0;
+                    updateBatchButton();
+                }
+                callback.accept(empty ? null : batch);
+            });
+        });
+    }
+
+    private void updateBatchButton() {
+        if (mPrintBatchButton == null) return;
+        mPrintBatchButton.setVisibility(mBatchPageCount > 0 ? View.VISIBLE : View.GONE);
+        mPrintBatchButton.setText("P" + mBatchPageCount);
+    }
+
+    /**
+     * Turns a screen capture consent result into a service-owned capture session that
+     * outlives the activity which asked for it. Returns null if the projection could not start.
+     */
+    @Nullable
+    public CaptureSession startCaptureSession(int resultCode, Intent data) {
+        stopCaptureSession();
+
+        // The service must already be a mediaProjection foreground service when the projection is created
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            startForeground(NOTIFICATION_ID, mNotification, ServiceInfo.FOREGROUND_SERVICE_TYPE_MEDIA_PROJECTION);
+        }
+
+        MediaProjectionManager projectionManager =
+                (MediaProjectionManager) getSystemService(Context.MEDIA_PROJECTION_SERVICE);
+        if (projectionManager == null) return null;
+        MediaProjection projection = projectionManager.getMediaProjection(resultCode, data);
+        if (projection == null) {
+            Log.e(TAG, "MediaProjection failed to start.");
+            return null;
+        }
+
+        mCaptureSession = new CaptureSession(this, projection, mHandler);
+        mCaptureSession.setScale(mQualityTier.getCaptureScale());
+        mCaptureSession.start();
+        return mCaptureSession;
+    }
+
+    /**
+     * Returns the warm capture session, or null if the user has not granted capture consent yet
+     * or the system has revoked it.
+     */
+    @Nullable
+    public CaptureSession getCaptureSession() {
+        if (mCaptureSession != null && !mCaptureSession.isActive()) {
+            mCaptureSession = null;
+        }
+        return mCaptureSession;
+    }
+
+    /**
+     * Builds the background capture pipeline: grayscale conversion, gallery save and print
+     * preparation run on workers, and results are posted back through the handler.
+     */
+    public static CapturePipeline<GrayFrame> createCapturePipeline(Context context, Handler handler) {
+        // Pages are rendered lazily by the print adapter, so the frame itself is what gets printed
+        CapturePipeline<GrayFrame> pipeline = new CapturePipeline<>(CapturePools.bytes(), new GalleryWriter(context),
+                frame -> frame, handler::post);
+        pipeline.setStageRecorder(CaptureMetrics.recorder());
+        return pipeline;
+    }
+
+    public CapturePipeline<GrayFrame> getCapturePipeline() {
+        return mCapturePipeline;
+    }
+
+    public void stopCaptureSession() {
+        if (mCaptureSession != null) {
+            mCaptureSession.stop();
+            mCaptureSession = null;
+        }
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
+        setRewindEnabled(false);
+        stopLongCapture();
+        stopCaptureSession();
+        mCapturePipeline.shutdown();
+        // Queued after any pending journal writes and batch pages, such as the last page of the long
+        // capture stopped above; unfinished jobs are replayed on the next start
+        mWorkExecutor.execute(() -> {
+            mPrintBatch.close();
+            if (mPrintQueue == null) return;
+            try {
+                mPrintQueue.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close the print queue.", e);
+            }
+        });
+        mWorkExecutor.shutdown();
+        // The frame store stays open: a batch handed to the print activity may still be reading from
+        // it. Its files are deleted when the next service instance opens the store.
+        sInstance = null;
         // Remove the floating view from the window manager when the service is destroyed
+        dismissRegionSelector();
         if (mFloatingView != null && mWindowManager != null) {
             mWindowManager.removeView(mFloatingView);
         }
@@ -0,0 +1,146 @@
+package com.techbirdssolutions.printcurrentwindow.service;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Environment;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayFrame;
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayPngEncoder;
+import com.techbirdssolutions.printcurrentwindow.metrics.StageRecorder;
+import com.techbirdssolutions.printcurrentwindow.pipeline.CapturePipeline;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Saves processed captures to the gallery. It runs as the persist stage of the capture
+ * pipeline, off the main thread and alongside print preparation.
+ *
+ * On Android 10 and later each capture is reserved as a pending MediaStore entry, hidden from
+ * other apps, and its PNG streamed into it; the pipeline's flush then publishes everything
+ * written since in one batch, so captures that queued up behind each other share one update of
+ * the media provider. Pending entries the app never publishes are purged by the system. Older
+ * versions have no pending state: the file is written to its DATA path and visible as it lands.
+ */
+public class GalleryWriter implements CapturePipeline.Persister {
+
+    private static final String TAG = "GalleryWriter";
+
+    private final ContentResolver mResolver;
+    private final GrayPngEncoder mEncoder = new GrayPngEncoder();
+    private final ArrayList<Uri> mPending = new ArrayList<>(); // Written, not yet published; persist worker only
+    private volatile Uri mLastUri;
+
+    public GalleryWriter(Context context) {
+        mResolver = context.getApplicationContext().getContentResolver();
+    }
+
+    @Override
+    public void persist(GrayFrame frame) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        Uri uri = write(frame);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            mPending.add(uri);
+        } else {
+            mLastUri = uri;
+        }
+        Log.d(TAG, "Saved " + uri + " in " + (SystemClock.elapsedRealtime() - start) + " ms.");
+    }
+
+    /**
+     * Clears the pending flag of every capture written since the last flush in one batch. If the
+     * batch fails, the entries are deleted and all of them reported as failed.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (mPending.isEmpty()) return;
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(mPending.size());
+        for (Uri uri : mPending) {
+            operations.add(ContentProviderOperation.newUpdate(uri)
+                    .withValue(MediaStore.MediaColumns.IS_PENDING, 0)
+                    .build());
+        }
+        StageRecorder recorder = CaptureMetrics.recorder();
+        long span = recorder.begin(StageRecorder.Stage.MEDIASTORE_COMMIT);
+        try {
+            mResolver.applyBatch(MediaStore.AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException | RuntimeException e) {
+            for (Uri uri : mPending) deleteQuietly(uri);
+            int count = mPending.size();
+            mPending.clear();
+            throw new IOException("Failed to publish " + count + " screenshots.", e);
+        }
+        recorder.end(StageRecorder.Stage.MEDIASTORE_COMMIT, span);
+        mLastUri = mPending.get(mPending.size() - 1);
+        Log.d(TAG, "Published " + mPending.size() + " screenshots in one batch.");
+        mPending.clear();
+    }
+
+    /**
+     * The most recently published capture, or null if nothing was saved yet.
+     */
+    public Uri getLastUri() {
+        return mLastUri;
+    }
+
+    private Uri write(GrayFrame frame) throws IOException {
+        ContentValues values = new ContentValues();
+        String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
+        String fileName = "SCREENSHOT_" + timeStamp + ".png";
+
+        values.put(MediaStore.MediaColumns.DISPLAY_NAME, fileName);
+        values.put(MediaStore.MediaColumns.MIME_TYPE, "image/png");
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            values.put(MediaStore.MediaColumns.RELATIVE_PATH, Environment.DIRECTORY_PICTURES + File.separator + "Screenshots");
+            values.put(MediaStore.MediaColumns.IS_PENDING, 1); // Hidden from other apps until flush()
+        } else {
+            File dir = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES), "Screenshots");
+            if (!dir.exists()) dir.mkdirs();
+            values.put(MediaStore.MediaColumns.DATA, new File(dir, fileName).getAbsolutePath());
+        }
+
+        StageRecorder recorder = CaptureMetrics.recorder();
+        long span = recorder.begin(StageRecorder.Stage.MEDIASTORE_INSERT);
+        Uri uri = mResolver.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
+        if (uri == null) throw new IOException("Failed to create new MediaStore record.");
+        recorder.end(StageRecorder.Stage.MEDIASTORE_INSERT, span);
+
+        try (OutputStream raw = mResolver.openOutputStream(uri)) {
+            if (raw == null) throw new IOException("Failed to get output stream for URI: " + uri);
+            span = recorder.begin(StageRecorder.Stage.PNG_ENCODE);
+            OutputStream out = new BufferedOutputStream(raw, 64 * 1024);
+            // Gray PNGs are about a quarter the size of what Bitmap.compress() writes for the same image
+            mEncoder.encode(frame, GrayPngEncoder.isBilevel(frame) ? 1 : 8, out);
+            out.flush();
+            recorder.end(StageRecorder.Stage.PNG_ENCODE, span);
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(uri); // No half-written screenshot is left in the gallery
+            throw e;
+        }
+        return uri;
+    }
+
+    private void deleteQuietly(Uri uri) {
+        try {
+            mResolver.delete(uri, null, null);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to delete " + uri, e);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.techbirdssolutions.printcurrentwindow.service;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.TypedValue;
+import android.view.MotionEvent;
+import android.view.View;
+
+import androidx.annotation.Nullable;
+
+/**
+ * A full-screen overlay on which the user drags out the screen region to capture. Reports the
+ * region in screen coordinates, which match the capture's pixel coordinates.
+ */
+public class RegionSelectView extends View {
+
+    private static final int MIN_SIZE_PX = 48; // Anything smaller is taken as a tap, i.e. cancel
+
+    /**
+     * Called once the finger lifts, with null if the selection was too small to use.
+     */
+    public interface Listener {
+        void onRegionSelected(@Nullable Rect region);
+    }
+
+    private final Paint mDimPaint = new Paint();
+    private final Paint mFramePaint = new Paint();
+    private final Paint mTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Rect mRegion = new Rect();
+    private final int[] mLocation = new int[2];
+    private float mStartX;
+    private float mStartY;
+    private boolean mDragging;
+    private Listener mListener;
+
+    public RegionSelectView(Context context) {
+        super(context);
+        mDimPaint.setColor(0x88000000);
+        mFramePaint.setColor(Color.WHITE);
+        mFramePaint.setStyle(Paint.Style.STROKE);
+        mFramePaint.setStrokeWidth(3 * getResources().getDisplayMetrics().density);
+        mTextPaint.setColor(Color.WHITE);
+        mTextPaint.setTextAlign(Paint.Align.CENTER);
+        mTextPaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, 18,
+                getResources().getDisplayMetrics()));
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (!mDragging) {
+            canvas.drawRect(0, 0, getWidth(), getHeight(), mDimPaint);
+            canvas.drawText("Drag over the area to print", getWidth() / 2f, getHeight() / 2f, mTextPaint);
+            return;
+        }
+        // Dim everything outside the selection
+        getLocationOnScreen(mLocation);
+        int left = mRegion.left - mLocation[0];
+        int top = mRegion.top - mLocation[1];
+        int right = mRegion.right - mLocation[0];
+        int bottom = mRegion.bottom - mLocation[1];
+        canvas.drawRect(0, 0, getWidth(), top, mDimPaint);
+        canvas.drawRect(0, bottom, getWidth(), getHeight(), mDimPaint);
+        canvas.drawRect(0, top, left, bottom, mDimPaint);
+        canvas.drawRect(right, top, getWidth(), bottom, mDimPaint);
+        canvas.drawRect(left, top, right, bottom, mFramePaint);
+    }
+
+    @SuppressLint("ClickableViewAccessibility")
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                mStartX = event.getRawX();
+                mStartY = event.getRawY();
+                mDragging = true;
+                updateRegion(event);
+                return true;
+            case MotionEvent.ACTION_MOVE:
+                updateRegion(event);
+                return true;
+            case MotionEvent.ACTION_UP:
+                updateRegion(event);
+                mDragging = false;
+                if (mListener != null) {
+                    boolean usable = mRegion.width() >= MIN_SIZE_PX && mRegion.height() >= MIN_SIZE_PX;
+                    mListener.onRegionSelected(usable ? new Rect(mRegion) : null);
+                }
+                return true;
+            case MotionEvent.ACTION_CANCEL:
+                mDragging = false;
+                if (mListener != null) mListener.onRegionSelected(null);
+                return true;
+            default:
+                return super.onTouchEvent(event);
+        }
+    }
+
+    private void updateRegion(MotionEvent event) {
+        float x = event.getRawX();
+        float y = event.getRawY();
+        mRegion.set((int) Math.min(mStartX, x), (int) Math.min(mStartY, y),
+                (int) Math.ceil(Math.max(mStartX, x)), (int) Math.ceil(Math.max(mStartY, y)));
+        invalidate();
+    }
+}
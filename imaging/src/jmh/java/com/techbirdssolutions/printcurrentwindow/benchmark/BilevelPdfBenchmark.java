@@ -0,0 +1,72 @@
+package com.techbirdssolutions.printcurrentwindow.benchmark;
+
+import com.techbirdssolutions.printcurrentwindow.document.PdfWriter;
+import com.techbirdssolutions.printcurrentwindow.imaging.BilevelFrame;
+import com.techbirdssolutions.printcurrentwindow.imaging.Ditherer;
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayFrame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Black and white pages per second for each image coding, against the 8-bit gray page printed
+ * otherwise, on the speckled benchmark screen and on a page of type. The spool size of one page
+ * is printed at setup, since that is what the printer has to receive.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BilevelPdfBenchmark {
+
+    private static final float A4_WIDTH = 595.28f;
+    private static final float A4_HEIGHT = 841.89f;
+    private static final float MARGIN = 18f;
+
+    @Param({"1080x2400", "1600x2560"})
+    public String size;
+
+    @Param({"screen", "glyphs"})
+    public String content;
+
+    @Param({"THRESHOLD", "ATKINSON"})
+    public String method;
+
+    @Param({"GRAY", "FLATE", "RUN_LENGTH", "CCITT_G4"})
+    public String coding;
+
+    private GrayFrame mGray;
+    private BilevelFrame mBits;
+
+    @Setup
+    public void setUp() throws IOException {
+        int width = Screens.width(size);
+        int height = Screens.height(size);
+        mGray = "glyphs".equals(content) ? Screens.glyphs(width, height) : Screens.gray(width, height);
+        mBits = new BilevelFrame(width, height);
+        new Ditherer(1).dither(mGray, Ditherer.Method.valueOf(method), mBits);
+        System.out.println(size + " " + content + " " + method + " " + coding + ": " + writePage() + " spool bytes");
+    }
+
+    @Benchmark
+    public long writePage() throws IOException {
+        Screens.Sink sink = new Screens.Sink();
+        PdfWriter writer = new PdfWriter(sink);
+        if ("GRAY".equals(coding)) {
+            writer.addPage(mGray, A4_WIDTH, A4_HEIGHT, MARGIN, MARGIN, MARGIN, MARGIN);
+        } else {
+            writer.setBilevelCompression(PdfWriter.BilevelCompression.valueOf(coding));
+            writer.addPage(mBits, A4_WIDTH, A4_HEIGHT, MARGIN, MARGIN, MARGIN, MARGIN);
+        }
+        writer.finish();
+        return sink.mBytes;
+    }
+}
@@ -0,0 +1,61 @@
+package com.techbirdssolutions.printcurrentwindow.benchmark;
+
+import com.techbirdssolutions.printcurrentwindow.imaging.BilevelFrame;
+import com.techbirdssolutions.printcurrentwindow.imaging.Ditherer;
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayFrame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bilevel rendering of a whole screen per method, on one thread and on several.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DitherBenchmark {
+
+    @Param({"1080x2400", "1600x2560"})
+    public String size;
+
+    @Param({"FLOYD_STEINBERG", "ATKINSON", "ORDERED", "THRESHOLD"})
+    public String method;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private GrayFrame mGray;
+    private BilevelFrame mBits;
+    private Ditherer.Method mMethod;
+    private Ditherer mDitherer;
+
+    @Setup
+    public void setUp() {
+        int width = Screens.width(size);
+        int height = Screens.height(size);
+        mGray = Screens.gray(width, height);
+        mBits = new BilevelFrame(width, height);
+        mMethod = Ditherer.Method.valueOf(method);
+        mDitherer = new Ditherer(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mDitherer.shutdown();
+    }
+
+    @Benchmark
+    public BilevelFrame dither() {
+        mDitherer.dither(mGray, mMethod, mBits);
+        return mBits;
+    }
+}
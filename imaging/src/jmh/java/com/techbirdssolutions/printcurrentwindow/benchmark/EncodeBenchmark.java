@@ -0,0 +1,64 @@
+package com.techbirdssolutions.printcurrentwindow.benchmark;
+
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayFrame;
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayPngEncoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Gray PNG encoding of a captured screen, as the gallery copy is written, against the same
+ * screen as an ARGB PNG from the JDK encoder. The encoder runs its blocks on the calling thread
+ * so results do not depend on the core count of the machine.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EncodeBenchmark {
+
+    @Param({Screens.SIZES})
+    public String size;
+
+    private GrayPngEncoder mEncoder;
+    private GrayFrame mScreen;
+    private BufferedImage mArgb;
+
+    @Setup
+    public void setUp() {
+        mEncoder = new GrayPngEncoder(Runnable::run, Deflater.DEFAULT_COMPRESSION);
+        mScreen = Screens.gray(Screens.width(size), Screens.height(size));
+        mArgb = new BufferedImage(mScreen.getWidth(), mScreen.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < mScreen.getHeight(); y++) {
+            for (int x = 0; x < mScreen.getWidth(); x++) {
+                mArgb.setRGB(x, y, 0xFF000000 | mScreen.getPixel(x, y) * 0x010101);
+            }
+        }
+    }
+
+    @Benchmark
+    public long encodePng() throws IOException {
+        Screens.Sink sink = new Screens.Sink();
+        mEncoder.encode(mScreen, 8, sink);
+        return sink.mBytes;
+    }
+
+    @Benchmark
+    public long encodeArgbPngReference() throws IOException {
+        Screens.Sink sink = new Screens.Sink();
+        ImageIO.write(mArgb, "png", sink);
+        return sink.mBytes;
+    }
+}
@@ -0,0 +1,75 @@
+package com.techbirdssolutions.printcurrentwindow.benchmark;
+
+import com.techbirdssolutions.printcurrentwindow.imaging.FilterChain;
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayscaleConverter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion plus a four-stage tone chain, fused into the conversion pass versus one pass per stage.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FilterChainBenchmark {
+
+    private static final FilterChain.Filter[] STAGES = {
+            FilterChain.levels(16, 240), FilterChain.gamma(0.85), FilterChain.contrast(1.4), FilterChain.whiten(224)};
+
+    @Param({Screens.SIZES})
+    public String size;
+
+    private int mWidth;
+    private int mHeight;
+    private int mRowStride;
+    private ByteBuffer mRgba;
+    private byte[] mGray;
+    private byte[] mRowScratch;
+    private final FilterChain.Scratch mToneScratch = new FilterChain.Scratch();
+    private FilterChain mFused;
+    private FilterChain mAdaptive;
+    private FilterChain[] mStaged;
+
+    @Setup
+    public void setUp() {
+        mWidth = Screens.width(size);
+        mHeight = Screens.height(size);
+        mRowStride = Screens.rowStride(mWidth);
+        mRgba = Screens.rgba(mWidth, mHeight);
+        mGray = new byte[mWidth * mHeight];
+        mRowScratch = new byte[mRowStride];
+        mFused = new FilterChain(STAGES);
+        mAdaptive = new FilterChain(FilterChain.autoLevels(0.005)).then(STAGES[1]).then(STAGES[3]);
+        mStaged = new FilterChain[STAGES.length];
+        for (int i = 0; i < STAGES.length; i++) mStaged[i] = new FilterChain(STAGES[i]);
+    }
+
+    @Benchmark
+    public byte[] fusedIntoConversion() {
+        mFused.convert(mRgba, mRowStride, 4, 0, 0, mWidth, mHeight, mGray, mRowScratch, mToneScratch);
+        return mGray;
+    }
+
+    @Benchmark
+    public byte[] adaptiveFused() {
+        mAdaptive.convert(mRgba, mRowStride, 4, 0, 0, mWidth, mHeight, mGray, mRowScratch, mToneScratch);
+        return mGray;
+    }
+
+    @Benchmark
+    public byte[] passPerStage() {
+        GrayscaleConverter.convert(mRgba, mRowStride, 4, 0, 0, mWidth, mHeight, mGray, mRowScratch);
+        for (FilterChain stage : mStaged) stage.apply(mGray, 0, mGray.length, mToneScratch);
+        return mGray;
+    }
+}
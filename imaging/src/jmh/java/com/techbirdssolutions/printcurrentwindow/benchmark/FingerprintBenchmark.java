@@ -0,0 +1,53 @@
+package com.techbirdssolutions.printcurrentwindow.benchmark;
+
+import com.techbirdssolutions.printcurrentwindow.imaging.ContentHash;
+import com.techbirdssolutions.printcurrentwindow.imaging.PerceptualHash;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the duplicate check costs every capture before conversion: the perceptual hash that finds
+ * a candidate and the content hash that confirms it. Compare with
+ * {@link GrayscaleBenchmark#convertFullScreen()}, the work a duplicate saves first.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FingerprintBenchmark {
+
+    @Param({Screens.SIZES})
+    public String size;
+
+    private int mWidth;
+    private int mHeight;
+    private int mRowStride;
+    private ByteBuffer mRgba;
+
+    @Setup
+    public void setUp() {
+        mWidth = Screens.width(size);
+        mHeight = Screens.height(size);
+        mRowStride = Screens.rowStride(mWidth);
+        mRgba = Screens.rgba(mWidth, mHeight);
+    }
+
+    @Benchmark
+    public long[] perceptualHash() {
+        return PerceptualHash.of(mRgba, mRowStride, 4, 0, 0, mWidth, mHeight);
+    }
+
+    @Benchmark
+    public long contentHash() {
+        return ContentHash.of(mRgba, mRowStride, 4, 0, 0, mWidth, mHeight);
+    }
+}
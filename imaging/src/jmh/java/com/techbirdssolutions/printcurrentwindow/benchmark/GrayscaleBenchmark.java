@@ -0,0 +1,67 @@
+package com.techbirdssolutions.printcurrentwindow.benchmark;
+
+import com.techbirdssolutions.printcurrentwindow.imaging.ContentBounds;
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayscaleConverter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RGBA to gray conversion of a whole screen and of its content region, plus the cost of finding
+ * that region.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class GrayscaleBenchmark {
+
+    @Param({Screens.SIZES})
+    public String size;
+
+    private int mWidth;
+    private int mHeight;
+    private int mRowStride;
+    private ByteBuffer mRgba;
+    private byte[] mGray;
+    private byte[] mRowScratch;
+    private int[] mContent;
+
+    @Setup
+    public void setUp() {
+        mWidth = Screens.width(size);
+        mHeight = Screens.height(size);
+        mRowStride = Screens.rowStride(mWidth);
+        mRgba = Screens.rgba(mWidth, mHeight);
+        mGray = new byte[mWidth * mHeight];
+        mRowScratch = new byte[mRowStride];
+        mContent = ContentBounds.detect(mRgba, mRowStride, 4, 0, 0, mWidth, mHeight,
+                ContentBounds.DEFAULT_TOLERANCE, 0);
+    }
+
+    @Benchmark
+    public byte[] convertFullScreen() {
+        GrayscaleConverter.convert(mRgba, mRowStride, 4, 0, 0, mWidth, mHeight, mGray, mRowScratch);
+        return mGray;
+    }
+
+    @Benchmark
+    public byte[] convertContentCrop() {
+        GrayscaleConverter.convert(mRgba, mRowStride, 4, mContent[0], mContent[1],
+                mContent[2] - mContent[0], mContent[3] - mContent[1], mGray, mRowScratch);
+        return mGray;
+    }
+
+    @Benchmark
+    public int[] detectContent() {
+        return ContentBounds.detect(mRgba, mRowStride, 4, 0, 0, mWidth, mHeight, ContentBounds.DEFAULT_TOLERANCE, 16);
+    }
+}
@@ -0,0 +1,74 @@
+package com.techbirdssolutions.printcurrentwindow.benchmark;
+
+import com.techbirdssolutions.printcurrentwindow.imaging.BufferPool;
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayFrame;
+import com.techbirdssolutions.printcurrentwindow.imaging.MappedFrameStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copying a gray screen into the memory-mapped store and back out, as batch and long-capture
+ * pages are kept and printed. Each put is freed again, so the store keeps reusing one segment
+ * instead of measuring segment creation; the loaded frame lives in a store of its own.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MappedFrameStoreBenchmark {
+
+    @Param({Screens.SIZES})
+    public String size;
+
+    private final BufferPool<byte[]> mPool = BufferPool.byteArrays(64 << 20);
+    private File mDir;
+    private MappedFrameStore mStore;
+    private MappedFrameStore mLoadStore;
+    private GrayFrame mScreen;
+    private MappedFrameStore.Slot mStored;
+
+    @Setup
+    public void setUp() throws IOException {
+        mDir = Files.createTempDirectory("frames").toFile();
+        mStore = new MappedFrameStore(new File(mDir, "put"));
+        mLoadStore = new MappedFrameStore(new File(mDir, "load"));
+        mScreen = Screens.gray(Screens.width(size), Screens.height(size));
+        mStored = mLoadStore.put(mScreen);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mStore.close();
+        mLoadStore.close();
+        new File(mDir, "put").delete();
+        new File(mDir, "load").delete();
+        mDir.delete();
+    }
+
+    @Benchmark
+    public int put() throws IOException {
+        MappedFrameStore.Slot slot = mStore.put(mScreen);
+        slot.free();
+        return slot.getByteCount();
+    }
+
+    @Benchmark
+    public int load() {
+        GrayFrame loaded = mStored.load(mPool);
+        int width = loaded.getWidth();
+        loaded.release();
+        return width;
+    }
+}
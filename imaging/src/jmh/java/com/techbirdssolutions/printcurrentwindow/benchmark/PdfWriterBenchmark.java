@@ -0,0 +1,49 @@
+package com.techbirdssolutions.printcurrentwindow.benchmark;
+
+import com.techbirdssolutions.printcurrentwindow.document.PdfWriter;
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayFrame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing captured screens as pages of a print job, scored in pages per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PdfWriterBenchmark {
+
+    // A4 in points, with the quarter inch margins most printers report
+    private static final float A4_WIDTH = 595.28f;
+    private static final float A4_HEIGHT = 841.89f;
+    private static final float MARGIN = 18f;
+
+    @Param({Screens.SIZES})
+    public String size;
+
+    private GrayFrame mScreen;
+
+    @Setup
+    public void setUp() {
+        mScreen = Screens.gray(Screens.width(size), Screens.height(size));
+    }
+
+    @Benchmark
+    public long writeSinglePageJob() throws IOException {
+        Screens.Sink sink = new Screens.Sink();
+        PdfWriter writer = new PdfWriter(sink);
+        writer.addPage(mScreen, A4_WIDTH, A4_HEIGHT, MARGIN, MARGIN, MARGIN, MARGIN);
+        writer.finish();
+        return sink.mBytes;
+    }
+}
@@ -0,0 +1,63 @@
+package com.techbirdssolutions.printcurrentwindow.benchmark;
+
+import com.techbirdssolutions.printcurrentwindow.imaging.AreaResampler;
+import com.techbirdssolutions.printcurrentwindow.imaging.BufferPool;
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayFrame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downscaling a gray screen to what a printer resolves in the printable area of its media, on a
+ * pool of one thread and of four.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ScaleBenchmark {
+
+    @Param({Screens.SIZES})
+    public String size;
+
+    // 4x6 inch label at 203 dpi, and A4 at 150 dpi less 1/4 inch margins
+    @Param({"812x1218", "1165x1679"})
+    public String target;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private final BufferPool<byte[]> mPool = BufferPool.byteArrays(256 << 20);
+    private ForkJoinPool mForkJoinPool;
+    private AreaResampler mResampler;
+    private GrayFrame mScreen;
+
+    @Setup
+    public void setUp() {
+        mForkJoinPool = new ForkJoinPool(threads);
+        mResampler = new AreaResampler(mForkJoinPool);
+        mScreen = Screens.gray(Screens.width(size), Screens.height(size));
+    }
+
+    @TearDown
+    public void tearDown() {
+        mForkJoinPool.shutdown();
+    }
+
+    @Benchmark
+    public int fitToPrinter() {
+        GrayFrame scaled = mResampler.fit(mScreen, Screens.width(target), Screens.height(target), mPool);
+        int width = scaled.getWidth();
+        scaled.release(); // Back to the pool, as the print adapter does after each page
+        return width;
+    }
+}
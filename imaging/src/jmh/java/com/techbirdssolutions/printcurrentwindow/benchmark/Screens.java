@@ -0,0 +1,121 @@
+package com.techbirdssolutions.printcurrentwindow.benchmark;
+
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayFrame;
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayscaleConverter;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Deterministic synthetic screens for the benchmarks: a colored toolbar and navigation bar around
+ * a white page of text-like lines, which compresses and scales like a real document capture.
+ */
+final class Screens {
+
+    // 720p up to the largest tablets the app is used on
+    static final String SIZES = "720x1280,1080x1920,1080x2400,1440x3200,1600x2560";
+
+    private static final int ROW_PADDING = 64; // ImageReader rows are usually padded for alignment
+    private static final long SEED = 42;
+
+    private Screens() {
+    }
+
+    static int width(String size) {
+        return Integer.parseInt(size.substring(0, size.indexOf('x')));
+    }
+
+    static int height(String size) {
+        return Integer.parseInt(size.substring(size.indexOf('x') + 1));
+    }
+
+    static int rowStride(int width) {
+        return width * 4 + ROW_PADDING;
+    }
+
+    /**
+     * An RGBA_8888 plane laid out the way ImageReader hands it out, in a direct buffer.
+     */
+    static ByteBuffer rgba(int width, int height) {
+        int stride = rowStride(width);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(stride * height);
+        Random random = new Random(SEED);
+        int toolbar = height / 14;
+        int navigation = height / 20;
+        byte[] row = new byte[stride];
+        for (int y = 0; y < height; y++) {
+            boolean bar = y < toolbar || y >= height - navigation;
+            boolean text = !bar && (y - toolbar) % 48 < 18 && (y - toolbar) % 48 > 2;
+            for (int x = 0; x < width; x++) {
+                int rgb = 0xFFFFFF;
+                if (bar) {
+                    rgb = 0x3F51B5;
+                } else if (text && x > width / 18 && x < width - width / 10 && random.nextInt(3) == 0) {
+                    rgb = random.nextInt(96) * 0x010101;
+                }
+                row[x * 4] = (byte) (rgb >> 16);
+                row[x * 4 + 1] = (byte) (rgb >> 8);
+                row[x * 4 + 2] = (byte) rgb;
+                row[x * 4 + 3] = (byte) 0xFF;
+            }
+            buffer.put(row);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    static GrayFrame gray(int width, int height) {
+        GrayFrame frame = new GrayFrame(width, height);
+        byte[] scratch = new byte[width * 4];
+        GrayscaleConverter.convert(rgba(width, height), rowStride(width), 4, 0, 0, width, height,
+                frame.getPixels(), scratch);
+        return frame;
+    }
+
+    /**
+     * Dark text on white in a made-up 5x7 font drawn at 2x. Unlike the speckled text of
+     * {@link #rgba}, strokes carry on from one row to the next as real type does, which is what
+     * fax coding relies on.
+     */
+    static GrayFrame glyphs(int width, int height) {
+        GrayFrame frame = new GrayFrame(width, height);
+        byte[] pixels = frame.getPixels();
+        Arrays.fill(pixels, (byte) 0xFF);
+        Random random = new Random(SEED);
+        long[] font = new long[64]; // 35 bits per glyph, row-major
+        for (int i = 0; i < font.length; i++) font[i] = random.nextLong();
+        for (int top = height / 14; top + 14 < height - height / 20; top += 36) {
+            for (int left = width / 18; left + 10 < width - width / 10; left += 12) {
+                if (random.nextInt(6) == 0) continue; // Word gap
+                long glyph = font[random.nextInt(font.length)];
+                for (int y = 0; y < 14; y++) {
+                    for (int x = 0; x < 10; x++) {
+                        if ((glyph >>> ((y >> 1) * 5 + (x >> 1)) & 1) != 0) {
+                            pixels[(top + y) * width + left + x] = 0x20;
+                        }
+                    }
+                }
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * Counts and drops what is written, so encoders are measured without any I/O.
+     */
+    static final class Sink extends OutputStream {
+        long mBytes;
+
+        @Override
+        public void write(int b) {
+            mBytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            mBytes += len;
+        }
+    }
+}
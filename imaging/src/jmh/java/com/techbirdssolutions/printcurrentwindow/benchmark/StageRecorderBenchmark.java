@@ -0,0 +1,29 @@
+package com.techbirdssolutions.printcurrentwindow.benchmark;
+
+import com.techbirdssolutions.printcurrentwindow.metrics.StageRecorder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One begin/end span of the stage recorder, which every capture pays several times on the
+ * frame path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StageRecorderBenchmark {
+
+    private final StageRecorder mRecorder = new StageRecorder();
+
+    @Benchmark
+    public void span() {
+        mRecorder.end(StageRecorder.Stage.ACQUIRE, mRecorder.begin(StageRecorder.Stage.ACQUIRE));
+    }
+}
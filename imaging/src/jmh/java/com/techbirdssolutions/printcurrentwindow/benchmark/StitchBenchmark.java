@@ -0,0 +1,69 @@
+package com.techbirdssolutions.printcurrentwindow.benchmark;
+
+import com.techbirdssolutions.printcurrentwindow.document.ScrollStitcher;
+import com.techbirdssolutions.printcurrentwindow.imaging.BufferPool;
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayFrame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frames per second a long capture can stitch: a tall page of text scrolled by 400 rows per
+ * frame, below a toolbar and above a navigation bar that stay put. Compare with the rate the
+ * long-capture sampler hands frames over.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class StitchBenchmark {
+
+    private static final int FRAMES = 60;
+    private static final int STEP = 400;
+
+    @Param({"720x1600", "1080x2400"})
+    public String size;
+
+    private final BufferPool<byte[]> mPool = BufferPool.byteArrays(64 << 20);
+    private GrayFrame[] mFrames;
+    private int mWidth;
+
+    @Setup
+    public void setUp() {
+        mWidth = Screens.width(size);
+        int height = Screens.height(size);
+        int header = height / 14;
+        int footer = height / 20;
+        GrayFrame document = Screens.gray(mWidth, FRAMES * STEP + height);
+        mFrames = new GrayFrame[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            GrayFrame frame = new GrayFrame(mWidth, height);
+            System.arraycopy(document.getPixels(), i * STEP * mWidth, frame.getPixels(), 0, frame.getByteCount());
+            // The bars of the tall screen scrolled away; draw them where they stay on the real one
+            System.arraycopy(document.getPixels(), 0, frame.getPixels(), 0, header * mWidth);
+            System.arraycopy(document.getPixels(), document.getByteCount() - footer * mWidth,
+                    frame.getPixels(), (height - footer) * mWidth, footer * mWidth);
+            mFrames[i] = frame;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public long stitch() {
+        ScrollStitcher stitcher = new ScrollStitcher(mWidth, 2000, mPool, page -> {
+        });
+        for (GrayFrame frame : mFrames) {
+            stitcher.add(frame);
+        }
+        stitcher.finish();
+        return stitcher.getTotalRows();
+    }
+}
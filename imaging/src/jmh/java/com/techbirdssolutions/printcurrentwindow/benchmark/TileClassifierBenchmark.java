@@ -0,0 +1,46 @@
+package com.techbirdssolutions.printcurrentwindow.benchmark;
+
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayFrame;
+import com.techbirdssolutions.printcurrentwindow.imaging.TileClassifier;
+import com.techbirdssolutions.printcurrentwindow.imaging.TileMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorting a gray screen into text and image tiles for a mixed page, at the tile sizes the
+ * quality tiers use.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TileClassifierBenchmark {
+
+    @Param({Screens.SIZES})
+    public String size;
+
+    @Param({"32", "64"})
+    public int tileSize;
+
+    private TileClassifier mClassifier;
+    private GrayFrame mScreen;
+
+    @Setup
+    public void setUp() {
+        mClassifier = new TileClassifier(tileSize);
+        mScreen = Screens.gray(Screens.width(size), Screens.height(size));
+    }
+
+    @Benchmark
+    public TileMap classify() {
+        return mClassifier.classify(mScreen);
+    }
+}
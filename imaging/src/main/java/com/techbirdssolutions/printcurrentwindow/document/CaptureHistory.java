@@ -0,0 +1,535 @@
+package com.techbirdssolutions.printcurrentwindow.document;
+
+import com.techbirdssolutions.printcurrentwindow.imaging.BufferPool;
+import com.techbirdssolutions.printcurrentwindow.imaging.CompressedFrame;
+import com.techbirdssolutions.printcurrentwindow.imaging.ContentHash;
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayFrame;
+import com.techbirdssolutions.printcurrentwindow.imaging.PerceptualHash;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Recent captures and the print documents rendered from them, so a capture can be printed again
+ * without capturing, converting or rendering anything.
+ *
+ * Two LRU tiers, each with a byte budget. The RAM tier holds captures deflated, with their
+ * rendered document if there is one. What falls out of RAM is spilled to one file per capture in
+ * the disk tier, and read back into RAM when asked for again; what falls out of the disk tier is
+ * gone. The disk tier is rebuilt from its directory on construction, so history survives the
+ * process. Capture ids only ever grow, across restarts too.
+ *
+ * Every capture is fingerprinted with a {@link PerceptualHash} and a {@link ContentHash} kept in
+ * memory for both tiers, so a new capture that is the same picture as a recent one can be matched
+ * without reading any entry back. Only the last few captures of this process are matched: a
+ * reprint is meant for a screen tapped twice in a row, not for one that happens to look like
+ * something printed long ago.
+ *
+ * Thread-safe. Spilling and loading do file I/O under the lock, so keep calls off the main thread.
+ */
+public class CaptureHistory {
+
+    private static final int MAGIC = 0x50434848; // "PCHH"
+    private static final int VERSION = 4;
+    private static final String PREFIX = "capture-";
+    private static final String SUFFIX = ".bin";
+    // Fingerprint: perceptual hash words, then width << 32 | height, the content hash and the settings key
+    private static final int SIZE_WORD = PerceptualHash.WORDS;
+    private static final int CONTENT_WORD = PerceptualHash.WORDS + 1;
+    private static final int SETTINGS_WORD = PerceptualHash.WORDS + 2;
+    private static final int FINGERPRINT_WORDS = PerceptualHash.WORDS + 3;
+    // The fingerprint, object headers and the layout key, roughly
+    private static final int ENTRY_OVERHEAD = 8 * FINGERPRINT_WORDS + 64;
+    private static final int RECENT_MATCHES = 3; // How many of the latest captures a new one may duplicate
+
+    private static final class Entry {
+        final long mId;
+        final CompressedFrame mFrame;
+        final long[] mFingerprint;
+        String mLayoutKey;
+        byte[] mDocument;
+        boolean mOnDisk; // The disk tier has an up-to-date copy, so eviction from RAM is free
+
+        Entry(long id, CompressedFrame frame, long[] fingerprint) {
+            mId = id;
+            mFrame = frame;
+            mFingerprint = fingerprint;
+        }
+
+        long byteSize() {
+            return mFrame.getCompressedSize() + (mDocument != null ? mDocument.length : 0) + ENTRY_OVERHEAD;
+        }
+    }
+
+    private final File mDirectory;
+    private final LinkedHashMap<Long, Entry> mRam = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Long, Long> mDisk = new LinkedHashMap<>(16, 0.75f, true); // Id to file size
+    private final HashMap<Long, long[]> mFingerprints = new HashMap<>(); // Everything in either tier
+    private final ArrayDeque<Long> mRecentIds = new ArrayDeque<>(); // Put by this process, newest first
+    private long mMaxRamBytes;
+    private final long mMaxDiskBytes;
+    private long mRamBytes;
+    private long mDiskBytes;
+    private long mNextId = 1;
+    private long mLatestId = -1;
+    private final Deflater mDeflater = new Deflater(Deflater.BEST_SPEED);
+    private byte[] mScratch = new byte[0];
+
+    private long mRamHits;
+    private long mDiskHits;
+    private long mMisses;
+    private long mDocumentHits;
+    private long mDocumentMisses;
+    private long mSpillFailures;
+    private long mDuplicateLookups;
+    private long mDuplicates;
+
+    /**
+     * @param directory    holds the disk tier; created if missing. Nothing else may live in it.
+     * @param maxRamBytes  budget for captures and documents kept in memory
+     * @param maxDiskBytes budget for the files in directory
+     */
+    public CaptureHistory(File directory, long maxRamBytes, long maxDiskBytes) {
+        mDirectory = directory;
+        mMaxRamBytes = maxRamBytes;
+        mMaxDiskBytes = maxDiskBytes;
+        loadIndex();
+    }
+
+    private void loadIndex() {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) return;
+        File[] files = mDirectory.listFiles();
+        if (files == null) return;
+        // Oldest first, so the LRU order picks up where the last process left it
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            long id = parseId(file.getName());
+            long[] fingerprint = id < 0 ? null : readFingerprint(file);
+            if (fingerprint == null) {
+                file.delete(); // Half-written spill, older format or stray file
+                continue;
+            }
+            mFingerprints.put(id, fingerprint);
+            mDisk.put(id, file.length());
+            mDiskBytes += file.length();
+            mNextId = Math.max(mNextId, id + 1);
+            mLatestId = Math.max(mLatestId, id);
+        }
+        trimDisk(mMaxDiskBytes);
+    }
+
+    private static long parseId(String name) {
+        if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) return -1;
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private File fileFor(long id) {
+        return new File(mDirectory, PREFIX + id + SUFFIX);
+    }
+
+    /**
+     * Adds a capture and returns its id. The frame is copied in compressed form, so the caller
+     * keeps its reference.
+     */
+    public long put(GrayFrame frame) {
+        return put(frame, fingerprint(frame));
+    }
+
+    /**
+     * Adds a capture under a fingerprint taken from the frame it was converted from, see
+     * {@link #fingerprint(ByteBuffer, int, int, int, int, int, int, long)}, so later captures of the
+     * same screen match it before they are converted.
+     */
+    public synchronized long put(GrayFrame frame, long[] fingerprint) {
+        if (fingerprint.length != FINGERPRINT_WORDS) throw new IllegalArgumentException("Not a fingerprint");
+        int maxCompressed = CompressedFrame.maxCompressedSize(frame.getByteCount());
+        if (mScratch.length < maxCompressed) {
+            mScratch = new byte[maxCompressed];
+        }
+        Entry entry = new Entry(mNextId++, CompressedFrame.compress(frame, mDeflater, mScratch), fingerprint.clone());
+        if (mScratch.length > 4 * 1024 * 1024) {
+            mScratch = new byte[0]; // Long captures can be huge; don't pin their scratch between puts
+        }
+        mFingerprints.put(entry.mId, entry.mFingerprint);
+        addToRam(entry);
+        mLatestId = entry.mId;
+        mRecentIds.addFirst(entry.mId);
+        if (mRecentIds.size() > RECENT_MATCHES) mRecentIds.removeLast();
+        return entry.mId;
+    }
+
+    /**
+     * The fingerprint {@link #findSimilar(long[], int)} matches against: perceptual hash, size and
+     * content hash of the region [left, left + width) x [top, top + height) of an RGBA plane.
+     *
+     * @param settings identifies whatever else decides the printed page, such as the tone filters
+     *                 and ink; captures only match under equal settings.
+     */
+    public static long[] fingerprint(ByteBuffer src, int rowStride, int pixelStride, int left, int top,
+                                     int width, int height, long settings) {
+        return fingerprint(PerceptualHash.of(src, rowStride, pixelStride, left, top, width, height),
+                width, height, ContentHash.of(src, rowStride, pixelStride, left, top, width, height), settings);
+    }
+
+    /**
+     * A fingerprint of a frame with no capture behind it. Its content hash is taken over gray
+     * pixels, so it never matches a capture fingerprinted from RGBA.
+     */
+    public static long[] fingerprint(GrayFrame frame) {
+        return fingerprint(PerceptualHash.of(frame), frame.getWidth(), frame.getHeight(), ContentHash.of(frame), 0);
+    }
+
+    private static long[] fingerprint(long[] hash, int width, int height, long content, long settings) {
+        long[] fingerprint = Arrays.copyOf(hash, FINGERPRINT_WORDS);
+        fingerprint[SIZE_WORD] = (long) width << 32 | (height & 0xFFFFFFFFL);
+        fingerprint[CONTENT_WORD] = content;
+        fingerprint[SETTINGS_WORD] = settings;
+        return fingerprint;
+    }
+
+    /**
+     * Returns the newest of the last few captures put by this process that is the same picture
+     * as the fingerprint, or -1. A candidate has to be within tolerance bits of the perceptual
+     * hash and then match the size, content hash and settings exactly, so neither a screen where
+     * only a digit changed nor one taken with other tone or ink is taken for the old one. Counts
+     * towards the duplicate rate.
+     */
+    public synchronized long findSimilar(long[] fingerprint, int tolerance) {
+        mDuplicateLookups++;
+        for (long id : mRecentIds) {
+            long[] other = mFingerprints.get(id);
+            if (other != null && other[SIZE_WORD] == fingerprint[SIZE_WORD]
+                    && other[SETTINGS_WORD] == fingerprint[SETTINGS_WORD]
+                    && PerceptualHash.distance(other, fingerprint) <= tolerance
+                    && other[CONTENT_WORD] == fingerprint[CONTENT_WORD]) {
+                mDuplicates++;
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The most recently added capture still in either tier, or -1.
+     */
+    public synchronized long getLatestId() {
+        if (mLatestId >= 0 && !mRam.containsKey(mLatestId) && !mDisk.containsKey(mLatestId)) {
+            mLatestId = -1;
+        }
+        return mLatestId;
+    }
+
+    /**
+     * Inflates the capture into a pooled frame the caller owns, or returns null if it is gone.
+     */
+    public GrayFrame getFrame(long id, BufferPool<byte[]> pool) {
+        CompressedFrame frame;
+        synchronized (this) {
+            Entry entry = find(id);
+            if (entry == null) return null;
+            frame = entry.mFrame;
+        }
+        return frame.decompress(pool); // Immutable, so no need to hold the lock while inflating
+    }
+
+    /**
+     * Remembers the print document rendered from a capture for the given page layout, replacing
+     * any document rendered for another layout. Returns false if the capture is gone.
+     */
+    public synchronized boolean putDocument(long id, String layoutKey, byte[] document) {
+        Entry entry = find(id);
+        if (entry == null) return false;
+        mRamBytes -= entry.byteSize();
+        entry.mLayoutKey = layoutKey;
+        entry.mDocument = document;
+        entry.mOnDisk = false;
+        mRamBytes += entry.byteSize();
+        trimRam(mMaxRamBytes);
+        return true;
+    }
+
+    /**
+     * The document rendered from the capture for exactly this layout, or null.
+     */
+    public synchronized byte[] getDocument(long id, String layoutKey) {
+        Entry entry = find(id);
+        if (entry != null && entry.mDocument != null && entry.mLayoutKey.equals(layoutKey)) {
+            mDocumentHits++;
+            return entry.mDocument;
+        }
+        mDocumentMisses++;
+        return null;
+    }
+
+    /**
+     * A single-page source over a capture in the history, inflated only when the page is loaded.
+     */
+    public PageSource openPages(long id, BufferPool<byte[]> pool) {
+        return openPages(new long[]{id}, pool);
+    }
+
+    /**
+     * A source with one page per capture, in order, each inflated only when it is loaded.
+     */
+    public PageSource openPages(final long[] ids, final BufferPool<byte[]> pool) {
+        return new PageSource() {
+            @Override
+            public int getPageCount() {
+                return ids.length;
+            }
+
+            @Override
+            public GrayFrame loadPage(int index) throws IOException {
+                GrayFrame frame = getFrame(ids[index], pool);
+                if (frame == null) throw new IOException("Capture " + ids[index] + " is no longer in the history");
+                return frame;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    public synchronized boolean contains(long id) {
+        return mRam.containsKey(id) || mDisk.containsKey(id);
+    }
+
+    /**
+     * Makes sure the capture has a copy in the disk tier, so it survives the process. Returns
+     * false if the capture is gone or could not be written.
+     */
+    public synchronized boolean persist(long id) {
+        Entry entry = mRam.get(id);
+        if (entry == null) return mDisk.containsKey(id);
+        if (!entry.mOnDisk || !mDisk.containsKey(id)) {
+            spill(entry);
+            entry.mOnDisk = mDisk.containsKey(id);
+        }
+        return entry.mOnDisk;
+    }
+
+    /**
+     * Spills RAM entries to disk until the RAM tier holds at most maxBytes. Its budget is not
+     * changed, so it fills up again with later captures.
+     */
+    public synchronized void trimMemory(long maxBytes) {
+        trimRam(maxBytes);
+    }
+
+    public synchronized void setMaxRamBytes(long maxBytes) {
+        mMaxRamBytes = maxBytes;
+        trimRam(maxBytes);
+    }
+
+    private Entry find(long id) {
+        Entry entry = mRam.get(id);
+        if (entry != null) {
+            mRamHits++;
+            return entry;
+        }
+        if (mDisk.get(id) == null) {
+            mMisses++;
+            return null;
+        }
+        try {
+            entry = readEntry(id);
+        } catch (IOException e) {
+            dropFromDisk(id); // Unreadable; forget it rather than fail on it again
+            mMisses++;
+            return null;
+        }
+        mDiskHits++;
+        entry.mOnDisk = true;
+        addToRam(entry);
+        return entry;
+    }
+
+    private void addToRam(Entry entry) {
+        mRam.put(entry.mId, entry);
+        mRamBytes += entry.byteSize();
+        trimRam(mMaxRamBytes);
+    }
+
+    private void trimRam(long maxBytes) {
+        Iterator<Map.Entry<Long, Entry>> it = mRam.entrySet().iterator();
+        while (mRamBytes > maxBytes && it.hasNext()) {
+            Entry entry = it.next().getValue();
+            it.remove();
+            mRamBytes -= entry.byteSize();
+            // The disk copy may have been evicted since it was written
+            if (!entry.mOnDisk || !mDisk.containsKey(entry.mId)) spill(entry);
+            if (!mDisk.containsKey(entry.mId)) mFingerprints.remove(entry.mId); // Gone from both tiers
+        }
+    }
+
+    private void spill(Entry entry) {
+        if (mMaxDiskBytes <= 0) return;
+        File file = fileFor(entry.mId);
+        File temp = new File(mDirectory, entry.mId + ".tmp");
+        try {
+            writeEntry(entry, temp);
+            if (!temp.renameTo(file)) throw new IOException("Failed to rename " + temp);
+        } catch (IOException e) {
+            temp.delete();
+            mSpillFailures++;
+            return;
+        }
+        Long oldSize = mDisk.put(entry.mId, file.length());
+        mDiskBytes += file.length() - (oldSize != null ? oldSize : 0);
+        trimDisk(mMaxDiskBytes);
+    }
+
+    private void trimDisk(long maxBytes) {
+        Iterator<Map.Entry<Long, Long>> it = mDisk.entrySet().iterator();
+        while (mDiskBytes > maxBytes && it.hasNext()) {
+            Map.Entry<Long, Long> eldest = it.next();
+            it.remove();
+            mDiskBytes -= eldest.getValue();
+            fileFor(eldest.getKey()).delete();
+            if (!mRam.containsKey(eldest.getKey())) mFingerprints.remove(eldest.getKey());
+        }
+    }
+
+    private void dropFromDisk(long id) {
+        Long size = mDisk.remove(id);
+        if (size != null) mDiskBytes -= size;
+        fileFor(id).delete();
+        if (!mRam.containsKey(id)) mFingerprints.remove(id);
+    }
+
+    private void writeEntry(Entry entry, File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (long word : entry.mFingerprint) {
+                out.writeLong(word);
+            }
+            entry.mFrame.writeTo(out);
+            out.writeBoolean(entry.mDocument != null);
+            if (entry.mDocument != null) {
+                out.writeUTF(entry.mLayoutKey);
+                out.writeInt(entry.mDocument.length);
+                out.write(entry.mDocument);
+            }
+        }
+    }
+
+    private static long[] readFingerprint(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("Not a history entry");
+        long[] fingerprint = new long[FINGERPRINT_WORDS];
+        for (int i = 0; i < fingerprint.length; i++) {
+            fingerprint[i] = in.readLong();
+        }
+        return fingerprint;
+    }
+
+    private static long[] readFingerprint(File file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1024))) {
+            return readFingerprint(in);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private Entry readEntry(long id) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileFor(id)), 64 * 1024))) {
+            long[] fingerprint = readFingerprint(in);
+            Entry entry = new Entry(id, CompressedFrame.readFrom(in), fingerprint);
+            if (in.readBoolean()) {
+                entry.mLayoutKey = in.readUTF();
+                int length = in.readInt();
+                if (length < 0 || length > mDisk.get(id)) throw new IOException("Bad document length " + length);
+                entry.mDocument = new byte[length];
+                in.readFully(entry.mDocument);
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * Drops every capture from both tiers.
+     */
+    public synchronized void clear() {
+        mRam.clear();
+        mRamBytes = 0;
+        mFingerprints.clear();
+        mRecentIds.clear();
+        trimDisk(0);
+        mLatestId = -1;
+    }
+
+    public synchronized long getRamBytes() {
+        return mRamBytes;
+    }
+
+    public synchronized long getDiskBytes() {
+        return mDiskBytes;
+    }
+
+    public synchronized int getRamCount() {
+        return mRam.size();
+    }
+
+    public synchronized int getDiskCount() {
+        return mDisk.size();
+    }
+
+    public synchronized long getRamHitCount() {
+        return mRamHits;
+    }
+
+    public synchronized long getDiskHitCount() {
+        return mDiskHits;
+    }
+
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    public synchronized long getDocumentHitCount() {
+        return mDocumentHits;
+    }
+
+    /**
+     * Share of capture lookups served from either tier, 0 before the first lookup.
+     */
+    public synchronized double getHitRate() {
+        long lookups = mRamHits + mDiskHits + mMisses;
+        return lookups == 0 ? 0 : (double) (mRamHits + mDiskHits) / lookups;
+    }
+
+    /**
+     * Share of similarity lookups that found a duplicate, i.e. captures whose processing was skipped.
+     */
+    public synchronized double getDuplicateRate() {
+        return mDuplicateLookups == 0 ? 0 : (double) mDuplicates / mDuplicateLookups;
+    }
+
+    public synchronized String describe() {
+        return String.format(Locale.US,
+                "history: %d in RAM (%d KiB), %d on disk (%d KiB), hits %d RAM / %d disk / %d miss, "
+                        + "documents %d/%d reused, duplicates %d/%d skipped, %d spill failures",
+                mRam.size(), mRamBytes / 1024, mDisk.size(), mDiskBytes / 1024, mRamHits, mDiskHits, mMisses,
+                mDocumentHits, mDocumentHits + mDocumentMisses, mDuplicates, mDuplicateLookups, mSpillFailures);
+    }
+}
@@ -0,0 +1,53 @@
+package com.techbirdssolutions.printcurrentwindow.document;
+
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayFrame;
+
+import java.io.IOException;
+
+/**
+ * The pages of a print document, loaded one at a time so a long document never has to be held
+ * in memory as pixels all at once.
+ */
+public interface PageSource {
+
+    int getPageCount();
+
+    /**
+     * Returns the page at index; the caller owns the returned reference and must release it.
+     */
+    GrayFrame loadPage(int index) throws IOException;
+
+    /**
+     * Drops everything the source holds. Pages may not be loaded afterwards.
+     */
+    void close();
+
+    /**
+     * A one-page source around an in-memory frame; it takes over the caller's reference.
+     */
+    static PageSource of(final GrayFrame frame) {
+        return new PageSource() {
+            private boolean mClosed;
+
+            @Override
+            public int getPageCount() {
+                return 1;
+            }
+
+            @Override
+            public synchronized GrayFrame loadPage(int index) throws IOException {
+                if (index != 0) throw new IndexOutOfBoundsException("Page " + index + " of 1");
+                if (mClosed) throw new IOException("Page source closed");
+                return frame.retain();
+            }
+
+            @Override
+            public synchronized void close() {
+                if (!mClosed) {
+                    mClosed = true;
+                    frame.release();
+                }
+            }
+        };
+    }
+}
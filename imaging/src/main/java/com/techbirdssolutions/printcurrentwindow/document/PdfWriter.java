@@ -0,0 +1,440 @@
+package com.techbirdssolutions.printcurrentwindow.document;
+
+import com.techbirdssolutions.printcurrentwindow.imaging.BilevelFrame;
+import com.techbirdssolutions.printcurrentwindow.imaging.CcittG4Encoder;
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayFrame;
+import com.techbirdssolutions.printcurrentwindow.imaging.RunLengthEncoder;
+import com.techbirdssolutions.printcurrentwindow.imaging.TileMap;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * A minimal streaming PDF 1.4 writer for grayscale image pages.
+ *
+ * Each page is a DeviceGray image XObject scaled to fit the page inside its
+ * margins: an 8-bit Flate-compressed one for a {@link GrayFrame}, or a 1-bit one for a
+ * {@link BilevelFrame}, coded as set by {@link #setBilevelCompression}. A mixed page layers a
+ * 1-bit stencil of its text over an 8-bit image of the rest. Objects go to the output
+ * as soon as they are complete, so only one page's pixels are ever held in memory. Gray pages are
+ * buffered no further than the deflater window; bilevel pages are coded whole first, which is
+ * small next to the page. Lengths of image streams are written as indirect objects after the
+ * stream, which is what lets us stream.
+ */
+public class PdfWriter {
+
+    /**
+     * How 1-bit pages are compressed.
+     */
+    public enum BilevelCompression {
+        CCITT_G4, // Fax coding, far smaller on text and UI; run-length for pages where that comes out smaller
+        RUN_LENGTH, // RunLengthDecode; cheapest to code and decode
+        FLATE // FlateDecode, as gray pages are
+    }
+
+    /** PDF user space units per inch. */
+    public static final float POINTS_PER_INCH = 72f;
+
+    private static final int ROWS_PER_CHUNK = 64; // Cancellation is checked between chunks
+    private static final int CATALOG = 1;
+    private static final int PAGE_TREE = 2;
+
+    private final CountingOutputStream mOut;
+    private final Deflater mDeflater;
+    private final List<Long> mOffsets = new ArrayList<>(); // Index i holds the offset of object i + 1
+    private final List<Integer> mPageIds = new ArrayList<>();
+    private BooleanSupplier mCancelled = () -> false;
+    private BilevelCompression mBilevelCompression = BilevelCompression.CCITT_G4;
+    private CcittG4Encoder mG4; // Created with the first bilevel page
+    private byte[] mRunLengthBuffer = new byte[0];
+    private byte[] mMaskBuffer = new byte[0]; // Text layer of a mixed page
+    private byte[] mRowScratch = new byte[0]; // Rows of a mixed page's gray layer
+    private boolean mFinished;
+
+    public PdfWriter(OutputStream out) {
+        this(out, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param compressionLevel a {@link Deflater} level; lower levels trade file size for speed
+     */
+    public PdfWriter(OutputStream out, int compressionLevel) {
+        mOut = new CountingOutputStream(out);
+        mDeflater = new Deflater(compressionLevel);
+        // The catalog and page tree are written last but keep the first two object numbers
+        mOffsets.add(-1L);
+        mOffsets.add(-1L);
+    }
+
+    /**
+     * Checked between pages and between row chunks of an image; once it returns true the next
+     * write throws {@link CancellationException} and the output should be discarded.
+     */
+    public void setCancellation(BooleanSupplier cancelled) {
+        mCancelled = cancelled;
+    }
+
+    public void setBilevelCompression(BilevelCompression compression) {
+        mBilevelCompression = compression;
+    }
+
+    /**
+     * Adds a page of the given size in points with the frame centered and scaled to fit inside
+     * the margins, keeping its aspect ratio. The frame is only read, never released.
+     */
+    public void addPage(GrayFrame frame, float pageWidth, float pageHeight,
+                        float marginLeft, float marginTop, float marginRight, float marginBottom) throws IOException {
+        addPage(frame.getWidth(), frame.getHeight(), 8, frame.getPixels(), frame.getWidth(),
+                pageWidth, pageHeight, marginLeft, marginTop, marginRight, marginBottom);
+    }
+
+    /**
+     * Like {@link #addPage(GrayFrame, float, float, float, float, float, float)} for a black and
+     * white page, whose packed rows go into the document as they are.
+     */
+    public void addPage(BilevelFrame frame, float pageWidth, float pageHeight,
+                        float marginLeft, float marginTop, float marginRight, float marginBottom) throws IOException {
+        addPage(frame.getWidth(), frame.getHeight(), 1, frame.getBits(), frame.getRowBytes(),
+                pageWidth, pageHeight, marginLeft, marginTop, marginRight, marginBottom);
+    }
+
+    /**
+     * Adds a page laid out like {@link #addPage(GrayFrame, float, float, float, float, float, float)}
+     * in two layers: the continuous-tone tiles of the map as an 8-bit image with the text tiles
+     * blanked to white, which Flate all but drops, and over it the text tiles cut at mid-gray as a
+     * 1-bit stencil painting black. A map without text tiles gives a plain gray page, and one
+     * that is all text a plain 1-bit page.
+     */
+    public void addMixedPage(GrayFrame frame, TileMap tiles, float pageWidth, float pageHeight,
+                             float marginLeft, float marginTop, float marginRight, float marginBottom) throws IOException {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        if (tiles.getWidth() != width || tiles.getHeight() != height) {
+            throw new IllegalArgumentException("Tile map is for " + tiles.getWidth() + "x" + tiles.getHeight()
+                    + ", not " + width + "x" + height);
+        }
+        if (tiles.getTextTileCount() == 0) {
+            addPage(frame, pageWidth, pageHeight, marginLeft, marginTop, marginRight, marginBottom);
+            return;
+        }
+        int rowBytes = BilevelFrame.rowBytes(width);
+        byte[] mask = textMask(frame, tiles, rowBytes);
+        if (tiles.getTextTileCount() == tiles.getTileCount()) {
+            addPage(width, height, 1, mask, rowBytes,
+                    pageWidth, pageHeight, marginLeft, marginTop, marginRight, marginBottom);
+            return;
+        }
+        beginPage();
+        int backgroundId = writeImage(width, height, 8, false, frame.getPixels(), width, tiles);
+        int textId = writeImage(width, height, 1, true, mask, rowBytes, null);
+        endPage(width, height, new int[]{backgroundId, textId},
+                pageWidth, pageHeight, marginLeft, marginTop, marginRight, marginBottom);
+    }
+
+    private void addPage(int width, int height, int bitsPerComponent, byte[] data, int rowBytes,
+                         float pageWidth, float pageHeight,
+                         float marginLeft, float marginTop, float marginRight, float marginBottom) throws IOException {
+        beginPage();
+        int imageId = writeImage(width, height, bitsPerComponent, false, data, rowBytes, null);
+        endPage(width, height, new int[]{imageId},
+                pageWidth, pageHeight, marginLeft, marginTop, marginRight, marginBottom);
+    }
+
+    private void beginPage() throws IOException {
+        if (mFinished) throw new IllegalStateException("Document already finished");
+        checkCancelled();
+        if (mOut.getCount() == 0) {
+            // A binary comment after the header tells transfer tools the file is not text
+            writeAscii("%PDF-1.4\n");
+            mOut.write(new byte[]{'%', (byte) 0xE2, (byte) 0xE3, (byte) 0xCF, (byte) 0xD3, '\n'});
+        }
+    }
+
+    /**
+     * Writes the content stream drawing the images bottom to top in the same box, then the page.
+     */
+    private void endPage(int width, int height, int[] imageIds, float pageWidth, float pageHeight,
+                         float marginLeft, float marginTop, float marginRight, float marginBottom) throws IOException {
+        float[] box = fit(width, height, pageWidth, pageHeight,
+                marginLeft, marginTop, marginRight, marginBottom);
+        StringBuilder draw = new StringBuilder();
+        StringBuilder resources = new StringBuilder();
+        for (int i = 0; i < imageIds.length; i++) {
+            draw.append(" /Im").append(i).append(" Do");
+            resources.append(" /Im").append(i).append(' ').append(imageIds[i]).append(" 0 R");
+        }
+        byte[] content = ("q " + number(box[2]) + " 0 0 " + number(box[3]) + " " + number(box[0]) + " "
+                + number(box[1]) + " cm" + draw + " Q\n").getBytes(StandardCharsets.US_ASCII);
+        int contentId = beginObject();
+        writeAscii("<< /Length " + content.length + " >>\nstream\n");
+        mOut.write(content);
+        writeAscii("\nendstream\nendobj\n");
+
+        int pageId = beginObject();
+        writeAscii("<< /Type /Page /Parent " + PAGE_TREE + " 0 R /MediaBox [0 0 " + number(pageWidth) + " "
+                + number(pageHeight) + "] /Contents " + contentId + " 0 R /Resources << /XObject <<" + resources
+                + " >> >> >>\nendobj\n");
+        mPageIds.add(pageId);
+    }
+
+    /**
+     * Packs the text tiles cut at mid-gray, with every pixel of the other tiles set, which a
+     * stencil leaves unpainted.
+     */
+    private byte[] textMask(GrayFrame frame, TileMap tiles, int rowBytes) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int tileSize = tiles.getTileSize();
+        if (mMaskBuffer.length < rowBytes * height) mMaskBuffer = new byte[rowBytes * height];
+        byte[] pixels = frame.getPixels();
+        byte[] mask = mMaskBuffer;
+        for (int y = 0; y < height; y++) {
+            int row = y / tileSize;
+            int in = y * width;
+            int out = y * rowBytes;
+            int packed = 0;
+            for (int x = 0; x < width; x++) {
+                boolean white = !tiles.isText(x / tileSize, row) || (pixels[in + x] & 0xFF) >= 128;
+                packed = (packed << 1) | (white ? 1 : 0);
+                if ((x & 7) == 7) {
+                    mask[out++] = (byte) packed;
+                    packed = 0;
+                }
+            }
+            if ((width & 7) != 0) mask[out] = (byte) (packed << (8 - (width & 7)));
+        }
+        return mask;
+    }
+
+    /**
+     * Writes an image XObject, a stencil mask if mask is set. With whiteOut, the text tiles of an
+     * 8-bit image are written as white.
+     */
+    private int writeImage(int width, int height, int bitsPerComponent, boolean mask, byte[] data, int rowBytes,
+                           TileMap whiteOut) throws IOException {
+        if (bitsPerComponent == 1 && mBilevelCompression != BilevelCompression.FLATE) {
+            return writeCodedImage(width, height, mask, data, rowBytes);
+        }
+        int imageId = beginImage(width, height, bitsPerComponent, mask, "/FlateDecode");
+
+        long streamStart = mOut.getCount();
+        mDeflater.reset();
+        DeflaterOutputStream deflated = new DeflaterOutputStream(new NonClosingOutputStream(mOut), mDeflater, 64 * 1024);
+        for (int y = 0; y < height; y += ROWS_PER_CHUNK) {
+            checkCancelled();
+            int rows = Math.min(ROWS_PER_CHUNK, height - y);
+            if (whiteOut != null) {
+                deflated.write(whiteOutText(data, y, rows, width, whiteOut), 0, rows * width);
+            } else {
+                deflated.write(data, y * rowBytes, rows * rowBytes);
+            }
+        }
+        deflated.finish();
+        endImage(mOut.getCount() - streamStart);
+        return imageId;
+    }
+
+    /**
+     * Copies rows [y, y + rows) of an 8-bit image with the text tiles filled white.
+     */
+    private byte[] whiteOutText(byte[] pixels, int y, int rows, int width, TileMap tiles) {
+        if (mRowScratch.length < rows * width) mRowScratch = new byte[ROWS_PER_CHUNK * width];
+        System.arraycopy(pixels, y * width, mRowScratch, 0, rows * width);
+        int tileSize = tiles.getTileSize();
+        for (int r = 0; r < rows; r++) {
+            int tileRow = (y + r) / tileSize;
+            for (int column = 0; column < tiles.getColumns(); column++) {
+                if (!tiles.isText(column, tileRow)) continue;
+                int left = column * tileSize;
+                Arrays.fill(mRowScratch, r * width + left, r * width + Math.min(width, left + tileSize), (byte) 0xFF);
+            }
+        }
+        return mRowScratch;
+    }
+
+    /**
+     * Writes a 1-bit image coded in memory. Run-length takes one cheap pass and sets the size G4
+     * has to beat; G4 wins by far on text and flat UI but loses on error-diffused photos, and
+     * gives up as soon as it falls behind.
+     */
+    private int writeCodedImage(int width, int height, boolean mask, byte[] data, int rowBytes) throws IOException {
+        int packedBytes = rowBytes * height;
+        int bound = RunLengthEncoder.maxEncodedLength(packedBytes);
+        if (mRunLengthBuffer.length < bound) mRunLengthBuffer = new byte[bound];
+        checkCancelled();
+        int runLength = RunLengthEncoder.encode(data, 0, packedBytes, mRunLengthBuffer, 0);
+        if (mBilevelCompression == BilevelCompression.CCITT_G4) {
+            if (mG4 == null) mG4 = new CcittG4Encoder();
+            checkCancelled();
+            int length = mG4.encode(data, rowBytes, width, height, runLength - 1);
+            if (length >= 0) {
+                int imageId = beginImage(width, height, 1, mask, "/CCITTFaxDecode /DecodeParms << /K -1 /Columns "
+                        + width + " /Rows " + height + " >>");
+                mOut.write(mG4.getBuffer(), 0, length);
+                endImage(length);
+                return imageId;
+            }
+        }
+        int imageId = beginImage(width, height, 1, mask, "/RunLengthDecode");
+        mOut.write(mRunLengthBuffer, 0, runLength);
+        endImage(runLength);
+        return imageId;
+    }
+
+    private int beginImage(int width, int height, int bitsPerComponent, boolean mask, String filter) throws IOException {
+        int imageId = beginObject();
+        int lengthId = imageId + 1; // Reserved now, written once the stream length is known
+        writeAscii("<< /Type /XObject /Subtype /Image /Width " + width + " /Height " + height
+                + (mask ? " /ImageMask true" : " /ColorSpace /DeviceGray") + " /BitsPerComponent " + bitsPerComponent
+                + " /Filter " + filter
+                + " /Length " + lengthId + " 0 R >>\nstream\n");
+        return imageId;
+    }
+
+    private void endImage(long streamLength) throws IOException {
+        writeAscii("\nendstream\nendobj\n");
+        beginObject();
+        writeAscii(streamLength + "\nendobj\n");
+    }
+
+    /**
+     * Writes the page tree, catalog, cross-reference table and trailer, then flushes. The
+     * underlying stream is left open.
+     */
+    public void finish() throws IOException {
+        if (mFinished) return;
+        if (mPageIds.isEmpty()) throw new IllegalStateException("A PDF needs at least one page");
+        checkCancelled();
+
+        StringBuilder kids = new StringBuilder();
+        for (int id : mPageIds) {
+            kids.append(id).append(" 0 R ");
+        }
+        beginObject(PAGE_TREE);
+        writeAscii("<< /Type /Pages /Kids [" + kids + "] /Count " + mPageIds.size() + " >>\nendobj\n");
+        beginObject(CATALOG);
+        writeAscii("<< /Type /Catalog /Pages " + PAGE_TREE + " 0 R >>\nendobj\n");
+
+        long xref = mOut.getCount();
+        StringBuilder table = new StringBuilder();
+        table.append("xref\n0 ").append(mOffsets.size() + 1).append('\n');
+        table.append("0000000000 65535 f\r\n"); // Every entry is exactly 20 bytes
+        for (long offset : mOffsets) {
+            table.append(String.format(Locale.US, "%010d 00000 n\r\n", offset));
+        }
+        table.append("trailer\n<< /Size ").append(mOffsets.size() + 1).append(" /Root ").append(CATALOG)
+                .append(" 0 R >>\nstartxref\n").append(xref).append("\n%%EOF\n");
+        writeAscii(table.toString());
+        mOut.flush();
+        mDeflater.end();
+        mFinished = true;
+    }
+
+    public int getPageCount() {
+        return mPageIds.size();
+    }
+
+    /**
+     * Bytes written so far.
+     */
+    public long getByteCount() {
+        return mOut.getCount();
+    }
+
+    /**
+     * Returns {x, y, width, height} in points of the largest rectangle with the image's aspect
+     * ratio that fits inside the margins, centered. PDF's origin is the bottom-left corner.
+     */
+    public static float[] fit(int imageWidth, int imageHeight, float pageWidth, float pageHeight,
+                       float marginLeft, float marginTop, float marginRight, float marginBottom) {
+        float areaWidth = Math.max(1f, pageWidth - marginLeft - marginRight);
+        float areaHeight = Math.max(1f, pageHeight - marginTop - marginBottom);
+        float scale = Math.min(areaWidth / imageWidth, areaHeight / imageHeight);
+        float width = imageWidth * scale;
+        float height = imageHeight * scale;
+        float x = marginLeft + (areaWidth - width) / 2f;
+        float y = marginBottom + (areaHeight - height) / 2f;
+        return new float[]{x, y, width, height};
+    }
+
+    private int beginObject() throws IOException {
+        mOffsets.add(mOut.getCount());
+        int id = mOffsets.size();
+        writeAscii(id + " 0 obj\n");
+        return id;
+    }
+
+    private void beginObject(int id) throws IOException {
+        mOffsets.set(id - 1, mOut.getCount());
+        writeAscii(id + " 0 obj\n");
+    }
+
+    private void checkCancelled() {
+        if (mCancelled.getAsBoolean()) {
+            mFinished = true;
+            mDeflater.end();
+            throw new CancellationException("PDF write cancelled");
+        }
+    }
+
+    private void writeAscii(String text) throws IOException {
+        mOut.write(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static String number(float value) {
+        return String.format(Locale.US, "%.2f", value);
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long mCount;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            mCount += len;
+        }
+
+        long getCount() {
+            return mCount;
+        }
+    }
+
+    /**
+     * Lets a DeflaterOutputStream finish without closing the document underneath it.
+     */
+    private static final class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.techbirdssolutions.printcurrentwindow.document;
+
+import com.techbirdssolutions.printcurrentwindow.imaging.BufferPool;
+import com.techbirdssolutions.printcurrentwindow.imaging.CompressedFrame;
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayFrame;
+import com.techbirdssolutions.printcurrentwindow.imaging.MappedFrameStore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Captures collected into one multi-page print job. Pages are kept deflated and inflated one at
+ * a time while the document is written, so a batch costs little more than its compressed size.
+ * Given a {@link MappedFrameStore}, pages go there instead and take no heap at all; a page the
+ * store cannot take, e.g. with the disk full, falls back to the heap.
+ */
+public class PrintBatch implements PageSource {
+
+    // One of the two is set per page
+    private final List<CompressedFrame> mPages = new ArrayList<>();
+    private final List<MappedFrameStore.Slot> mMappedPages = new ArrayList<>();
+    private final BufferPool<byte[]> mPool;
+    private final MappedFrameStore mStore;
+    private final Deflater mDeflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater mInflater = new Inflater();
+    private byte[] mScratch = new byte[0];
+    private long mCompressedBytes;
+    private long mMappedBytes;
+    private boolean mClosed;
+
+    public PrintBatch(BufferPool<byte[]> pool) {
+        this(pool, null);
+    }
+
+    /**
+     * @param store where pages are kept, or null to keep them compressed on the heap; the batch
+     *              frees its pages on close but does not close the store
+     */
+    public PrintBatch(BufferPool<byte[]> pool, MappedFrameStore store) {
+        mPool = pool;
+        mStore = store;
+    }
+
+    /**
+     * Appends a page. The frame is copied in compressed form, so the caller keeps its reference.
+     */
+    public synchronized void add(GrayFrame frame) {
+        if (mClosed) throw new IllegalStateException("Batch closed");
+        if (mStore != null) {
+            try {
+                MappedFrameStore.Slot slot = mStore.put(frame);
+                mPages.add(null);
+                mMappedPages.add(slot);
+                mMappedBytes += slot.getByteCount();
+                return;
+            } catch (IOException | IllegalStateException e) {
+                // Out of disk or the store is gone; the heap still works
+            }
+        }
+        int maxCompressed = CompressedFrame.maxCompressedSize(frame.getByteCount());
+        if (mScratch.length < maxCompressed) {
+            mScratch = new byte[maxCompressed];
+        }
+        CompressedFrame page = CompressedFrame.compress(frame, mDeflater, mScratch);
+        mPages.add(page);
+        mMappedPages.add(null);
+        mCompressedBytes += page.getCompressedSize();
+    }
+
+    @Override
+    public synchronized int getPageCount() {
+        return mPages.size();
+    }
+
+    @Override
+    public synchronized GrayFrame loadPage(int index) {
+        if (mClosed) throw new IllegalStateException("Batch closed");
+        CompressedFrame page = mPages.get(index);
+        return page != null ? page.decompress(mPool, mInflater) : mMappedPages.get(index).load(mPool);
+    }
+
+    public synchronized long getCompressedBytes() {
+        return mCompressedBytes;
+    }
+
+    /**
+     * Bytes of pages held in the mapped store rather than on the heap.
+     */
+    public synchronized long getMappedBytes() {
+        return mMappedBytes;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (mClosed) return;
+        mClosed = true;
+        mPages.clear();
+        for (MappedFrameStore.Slot slot : mMappedPages) {
+            if (slot != null) slot.free();
+        }
+        mMappedPages.clear();
+        mScratch = new byte[0];
+        mDeflater.end();
+        mInflater.end();
+    }
+}
@@ -0,0 +1,310 @@
+package com.techbirdssolutions.printcurrentwindow.document;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.function.LongSupplier;
+
+/**
+ * Print jobs waiting for the printer, one job in flight at a time. A job is a list of captures,
+ * referenced by their {@link CaptureHistory} ids, that print as one document.
+ *
+ * Captures that arrive within a short window of each other while their job has not been handed
+ * out yet are coalesced into that job, so a burst of taps becomes one print dialog. The queue
+ * holds a bounded number of pages and refuses more, which is the caller's cue to tell the user.
+ *
+ * Every change is appended to a journal and synced before the call returns, so pending jobs
+ * survive the process being killed. The journal is replayed on construction, tolerating a torn
+ * last record, and rewritten with only the pending jobs once it is mostly finished ones. Without
+ * a journal the queue works the same, but only in memory.
+ *
+ * Thread-safe. Journal writes happen under the lock, so keep the methods that change the queue
+ * off the main thread; the counters and {@link #describe()} read a snapshot without the lock and
+ * can be called from any thread.
+ */
+public class PrintJobQueue {
+
+    private static final byte RECORD_ADD = 'A';
+    private static final byte RECORD_DONE = 'D';
+    private static final int RECORD_BYTES = 1 + 8 + 8 + 8;
+    private static final int MIN_RECORDS_TO_COMPACT = 64;
+
+    public static final class Job {
+        private final long mId;
+        private long[] mCaptureIds = new long[0];
+        private final long mCreatedMillis;
+        private long mLastAddedMillis;
+        private boolean mDispatched;
+
+        private Job(long id, long createdMillis) {
+            mId = id;
+            mCreatedMillis = createdMillis;
+        }
+
+        private void add(long captureId, long nowMillis) {
+            mCaptureIds = Arrays.copyOf(mCaptureIds, mCaptureIds.length + 1);
+            mCaptureIds[mCaptureIds.length - 1] = captureId;
+            mLastAddedMillis = nowMillis;
+        }
+
+        public long getId() {
+            return mId;
+        }
+
+        public synchronized long[] getCaptureIds() {
+            return mCaptureIds.clone();
+        }
+
+        public synchronized int getPageCount() {
+            return mCaptureIds.length;
+        }
+    }
+
+    private final File mJournal; // Null to keep jobs in memory only
+    private final int mMaxPages;
+    private final long mCoalesceMillis;
+    private final LongSupplier mClock;
+    private final ArrayDeque<Job> mJobs = new ArrayDeque<>();
+    private FileOutputStream mJournalFile;
+    private DataOutputStream mJournalOut;
+    private long mNextJobId = 1;
+    private int mRecords; // In the journal, finished jobs included
+
+    // Written under the lock, read without it
+    private volatile int mPendingJobs;
+    private volatile int mPendingPages;
+    private final long mOpenedMillis;
+    private volatile long mCompletedJobs;
+    private volatile long mCompletedPages;
+    private volatile long mCoalescedPages;
+    private volatile long mRejectedPages;
+    private volatile long mRecoveredJobs;
+
+    /**
+     * @param journal where pending jobs are kept across restarts, or null to keep them in memory only
+     */
+    public PrintJobQueue(File journal, int maxPages, long coalesceMillis) throws IOException {
+        this(journal, maxPages, coalesceMillis, System::currentTimeMillis);
+    }
+
+    public PrintJobQueue(File journal, int maxPages, long coalesceMillis, LongSupplier clock) throws IOException {
+        mJournal = journal;
+        mMaxPages = maxPages;
+        mCoalesceMillis = coalesceMillis;
+        mClock = clock;
+        mOpenedMillis = clock.getAsLong();
+        if (journal == null) return;
+        replay();
+        mPendingJobs = mJobs.size();
+        mRecoveredJobs = mJobs.size();
+        rewriteJournal(); // Drops finished jobs and any torn record left by a crash
+    }
+
+    private void replay() throws IOException {
+        if (!mJournal.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mJournal)))) {
+            while (true) {
+                byte type = in.readByte();
+                long jobId = in.readLong();
+                long captureId = in.readLong();
+                long millis = in.readLong();
+                mNextJobId = Math.max(mNextJobId, jobId + 1);
+                if (type == RECORD_ADD) {
+                    Job job = mJobs.isEmpty() || mJobs.peekLast().mId != jobId ? null : mJobs.peekLast();
+                    if (job == null) {
+                        job = new Job(jobId, millis);
+                        mJobs.add(job);
+                    }
+                    job.add(captureId, millis);
+                    mPendingPages++;
+                } else if (type == RECORD_DONE) {
+                    removeJob(jobId);
+                } else {
+                    break; // Garbage; everything before it is still good
+                }
+            }
+        } catch (EOFException e) {
+            // The last record was cut short by a crash; it never took effect
+        }
+    }
+
+    /**
+     * Adds a capture to the last job if that is still waiting and was added to within the
+     * coalescing window, or to a new job. Returns the job, or null if the queue is full.
+     */
+    public synchronized Job offer(long captureId) throws IOException {
+        if (mPendingPages >= mMaxPages) {
+            mRejectedPages++;
+            return null;
+        }
+        long now = mClock.getAsLong();
+        Job job = mJobs.peekLast();
+        if (job != null && !job.mDispatched && now - job.mLastAddedMillis <= mCoalesceMillis) {
+            mCoalescedPages++;
+        } else {
+            job = new Job(mNextJobId++, now);
+            mJobs.add(job);
+            mPendingJobs = mJobs.size();
+        }
+        append(RECORD_ADD, job.mId, captureId, now);
+        synchronized (job) {
+            job.add(captureId, now);
+        }
+        mPendingPages++;
+        return job;
+    }
+
+    /**
+     * Hands out the oldest job, or null if there is none or the previous one is still printing.
+     */
+    public synchronized Job next() {
+        Job job = mJobs.peekFirst();
+        if (job == null || job.mDispatched) return null;
+        job.mDispatched = true;
+        return job;
+    }
+
+    public synchronized Job get(long jobId) {
+        for (Job job : mJobs) {
+            if (job.mId == jobId) return job;
+        }
+        return null;
+    }
+
+    /**
+     * Removes a job that printed, failed or was cancelled, and returns how long it waited in the
+     * queue in milliseconds, or -1 if it was not queued.
+     */
+    public synchronized long complete(long jobId) throws IOException {
+        Job job = removeJob(jobId);
+        if (job == null) return -1;
+        append(RECORD_DONE, jobId, 0, mClock.getAsLong());
+        mCompletedJobs++;
+        mCompletedPages += job.mCaptureIds.length;
+        if (mRecords >= MIN_RECORDS_TO_COMPACT && mRecords > 4 * mPendingPages) {
+            rewriteJournal();
+        }
+        return mClock.getAsLong() - job.mCreatedMillis;
+    }
+
+    private Job removeJob(long jobId) {
+        Iterator<Job> it = mJobs.iterator();
+        while (it.hasNext()) {
+            Job job = it.next();
+            if (job.mId == jobId) {
+                it.remove();
+                mPendingJobs = mJobs.size();
+                mPendingPages -= job.mCaptureIds.length;
+                return job;
+            }
+        }
+        return null;
+    }
+
+    private void append(byte type, long jobId, long captureId, long millis) throws IOException {
+        if (mJournal == null) return;
+        mJournalOut.writeByte(type);
+        mJournalOut.writeLong(jobId);
+        mJournalOut.writeLong(captureId);
+        mJournalOut.writeLong(millis);
+        mJournalOut.flush();
+        mJournalFile.getFD().sync();
+        mRecords++;
+    }
+
+    /**
+     * Replaces the journal with one that holds only the pending jobs.
+     */
+    private void rewriteJournal() throws IOException {
+        closeJournal();
+        File temp = new File(mJournal.getPath() + ".tmp");
+        int records = 0;
+        try (FileOutputStream file = new FileOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            for (Job job : mJobs) {
+                for (long captureId : job.mCaptureIds) {
+                    out.writeByte(RECORD_ADD);
+                    out.writeLong(job.mId);
+                    out.writeLong(captureId);
+                    out.writeLong(job.mCreatedMillis);
+                    records++;
+                }
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        if (!temp.renameTo(mJournal)) {
+            throw new IOException("Failed to replace " + mJournal);
+        }
+        mRecords = records;
+        openJournal();
+    }
+
+    private void openJournal() throws FileNotFoundException {
+        mJournalFile = new FileOutputStream(mJournal, true);
+        mJournalOut = new DataOutputStream(mJournalFile); // Unbuffered; every record is flushed anyway
+    }
+
+    private void closeJournal() throws IOException {
+        if (mJournalOut != null) {
+            mJournalOut.close();
+            mJournalOut = null;
+            mJournalFile = null;
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        closeJournal();
+    }
+
+    public int getPendingJobs() {
+        return mPendingJobs;
+    }
+
+    public int getPendingPages() {
+        return mPendingPages;
+    }
+
+    public long getCompletedJobs() {
+        return mCompletedJobs;
+    }
+
+    public long getCoalescedPages() {
+        return mCoalescedPages;
+    }
+
+    public long getRejectedPages() {
+        return mRejectedPages;
+    }
+
+    /**
+     * Jobs still pending from before the process restarted.
+     */
+    public long getRecoveredJobs() {
+        return mRecoveredJobs;
+    }
+
+    public synchronized long getJournalBytes() {
+        return (long) mRecords * RECORD_BYTES;
+    }
+
+    public String describe() {
+        double minutes = Math.max(1, mClock.getAsLong() - mOpenedMillis) / 60_000.0;
+        return String.format(Locale.US,
+                "queue: %d jobs (%d pages) pending, %d jobs (%d pages) done at %.1f jobs/min, "
+                        + "%d pages coalesced, %d rejected, %d recovered",
+                mPendingJobs, mPendingPages, mCompletedJobs, mCompletedPages, mCompletedJobs / minutes,
+                mCoalescedPages, mRejectedPages, mRecoveredJobs);
+    }
+}
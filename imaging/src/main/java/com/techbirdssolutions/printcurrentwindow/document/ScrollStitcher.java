@@ -0,0 +1,228 @@
+package com.techbirdssolutions.printcurrentwindow.document;
+
+import com.techbirdssolutions.printcurrentwindow.imaging.BufferPool;
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayFrame;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Stitches frames taken while content scrolls into one tall image, cut into fixed-height pages
+ * as it grows, so the tall image never exists in memory at once.
+ *
+ * Every row of a frame is reduced to a 64-bit hash. Rows that match at the same position in
+ * consecutive frames are treated as fixed headers and footers. Within the scrolling area the
+ * scroll distance is found with a rolling (Rabin-Karp) hash over the row hashes: the first rows
+ * of the new frame are looked up in the previous one, and each hit is confirmed by comparing the
+ * row hashes of the whole overlap. Only the rows that scrolled into view are appended.
+ *
+ * Holds one frame and one page buffer. Not thread-safe; feed it from a single thread.
+ */
+public class ScrollStitcher {
+
+    private static final int MIN_OVERLAP_ROWS = 24; // Fewer matching rows than this is not trusted
+    private static final long ROW_HASH_BASE = 0x9E3779B97F4A7C15L;
+
+    private final int mWidth;
+    private final int mPageHeight;
+    private final BufferPool<byte[]> mPool;
+    private final Consumer<GrayFrame> mPageSink;
+
+    private GrayFrame mPrevious; // Last frame, held until we know which of its rows are footer
+    private long[] mPreviousHashes;
+    private int mAppendedEnd; // Rows of mPrevious above this are already in the stitched image
+    private GrayFrame mPage;
+    private int mPageRows; // Rows filled in the current page
+    private int mPageCount;
+    private long mTotalRows;
+    private int mFrames;
+    private int mUnmatchedFrames;
+
+    /**
+     * @param pageSink receives each page as it fills up; it must copy what it needs and not keep
+     *                 the frame, whose buffer is reused for the next page
+     */
+    public ScrollStitcher(int width, int pageHeight, BufferPool<byte[]> pool, Consumer<GrayFrame> pageSink) {
+        mWidth = width;
+        mPageHeight = pageHeight;
+        mPool = pool;
+        mPageSink = pageSink;
+    }
+
+    /**
+     * Adds the next frame and returns how far the content scrolled since the previous one: 0 if
+     * it did not move, or -1 if no overlap was found, in which case the whole scrolling area is
+     * appended. The caller keeps its reference to the frame.
+     */
+    public int add(GrayFrame frame) {
+        if (frame.getWidth() != mWidth) {
+            throw new IllegalArgumentException("Frame width " + frame.getWidth() + " != " + mWidth);
+        }
+        mFrames++;
+        long[] hashes = hashRows(frame);
+        if (mPrevious == null) {
+            mPrevious = frame.retain();
+            mPreviousHashes = hashes;
+            return 0;
+        }
+
+        int height = Math.min(frame.getHeight(), mPrevious.getHeight());
+        int fixedTop = 0;
+        while (fixedTop < height && hashes[fixedTop] == mPreviousHashes[fixedTop]) fixedTop++;
+        if (fixedTop == height) {
+            return 0; // Nothing moved; keep the frame we already have
+        }
+        int fixedBottom = 0;
+        while (fixedBottom < height - fixedTop
+                && hashes[frame.getHeight() - 1 - fixedBottom] == mPreviousHashes[mPrevious.getHeight() - 1 - fixedBottom]) {
+            fixedBottom++;
+        }
+
+        if (mTotalRows == 0) {
+            // The first frame goes in whole, apart from the footer we now know about
+            mAppendedEnd = mPrevious.getHeight() - fixedBottom;
+            append(mPrevious, 0, mAppendedEnd);
+        }
+
+        int areaEnd = frame.getHeight() - fixedBottom;
+        int previousLength = mPrevious.getHeight() - fixedBottom - fixedTop;
+        int scroll = findScroll(mPreviousHashes, hashes, fixedTop, previousLength, areaEnd - fixedTop);
+        // Rows above this were already appended from earlier frames. Blank rows next to the footer
+        // can pass for footer in one pair and not the next, so track the end rather than trust d.
+        int from = scroll < 0 ? fixedTop : Math.max(fixedTop, mAppendedEnd - scroll);
+        if (scroll < 0) {
+            mUnmatchedFrames++; // Scrolled further than one screen; keep everything rather than lose rows
+        }
+        append(frame, from, Math.max(0, areaEnd - from));
+        mAppendedEnd = areaEnd;
+
+        mPrevious.release();
+        mPrevious = frame.retain();
+        mPreviousHashes = hashes;
+        return scroll;
+    }
+
+    /**
+     * Appends the footer of the last frame and flushes the final page, padded with white to the
+     * full page height so every page prints at the same scale. Releases the held frame.
+     */
+    public void finish() {
+        if (mPrevious != null) {
+            if (mTotalRows == 0) {
+                append(mPrevious, 0, mPrevious.getHeight()); // Only ever saw one screen
+            } else {
+                append(mPrevious, mAppendedEnd, mPrevious.getHeight() - mAppendedEnd);
+            }
+            mPrevious.release();
+            mPrevious = null;
+        }
+        if (mPageRows > 0) {
+            Arrays.fill(mPage.getPixels(), mPageRows * mWidth, mPageHeight * mWidth, (byte) 0xFF);
+            emitPage();
+        }
+        if (mPage != null) {
+            mPage.release();
+            mPage = null;
+        }
+    }
+
+    public int getPageCount() {
+        return mPageCount;
+    }
+
+    public long getTotalRows() {
+        return mTotalRows;
+    }
+
+    public int getFrameCount() {
+        return mFrames;
+    }
+
+    /**
+     * Frames for which no overlap with their predecessor was found, e.g. after scrolling too fast.
+     */
+    public int getUnmatchedFrames() {
+        return mUnmatchedFrames;
+    }
+
+    /**
+     * Returns the smallest scroll distance d > 0 for which the new area's rows [0, length - d)
+     * equal the previous area's rows [d, length), or -1 if there is none with enough overlap.
+     */
+    static int findScroll(long[] previous, long[] current, int start, int previousLength, int length) {
+        int window = Math.min(MIN_OVERLAP_ROWS, Math.min(previousLength, length) - 1);
+        if (window <= 0) return -1;
+
+        long power = 1; // ROW_HASH_BASE^(window - 1), to drop the outgoing row
+        long pattern = 0;
+        long rolling = 0;
+        for (int i = 0; i < window; i++) {
+            if (i > 0) power *= ROW_HASH_BASE;
+            pattern = pattern * ROW_HASH_BASE + current[start + i];
+            rolling = rolling * ROW_HASH_BASE + previous[start + i];
+        }
+
+        for (int d = 1; d + window <= previousLength; d++) {
+            rolling = (rolling - previous[start + d - 1] * power) * ROW_HASH_BASE + previous[start + d - 1 + window];
+            if (rolling == pattern && overlaps(previous, current, start, previousLength, length, d)) {
+                return d;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean overlaps(long[] previous, long[] current, int start, int previousLength, int length, int d) {
+        int overlap = Math.min(previousLength - d, length);
+        for (int i = 0; i < overlap; i++) {
+            if (current[start + i] != previous[start + d + i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * FNV-1a over the row's bytes, eight at a time.
+     */
+    static long[] hashRows(GrayFrame frame) {
+        int width = frame.getWidth();
+        byte[] pixels = frame.getPixels();
+        long[] hashes = new long[frame.getHeight()];
+        for (int y = 0; y < hashes.length; y++) {
+            long hash = 0xCBF29CE484222325L;
+            int i = y * width;
+            int end = i + width;
+            for (; i + 8 <= end; i += 8) {
+                long word = (pixels[i] & 0xFFL) | (pixels[i + 1] & 0xFFL) << 8 | (pixels[i + 2] & 0xFFL) << 16
+                        | (pixels[i + 3] & 0xFFL) << 24 | (pixels[i + 4] & 0xFFL) << 32
+                        | (pixels[i + 5] & 0xFFL) << 40 | (pixels[i + 6] & 0xFFL) << 48 | (pixels[i + 7] & 0xFFL) << 56;
+                hash = (hash ^ word) * 0x100000001B3L;
+            }
+            for (; i < end; i++) {
+                hash = (hash ^ (pixels[i] & 0xFF)) * 0x100000001B3L;
+            }
+            hashes[y] = hash ^ (hash >>> 29);
+        }
+        return hashes;
+    }
+
+    private void append(GrayFrame frame, int fromRow, int rows) {
+        byte[] pixels = frame.getPixels();
+        while (rows > 0) {
+            if (mPage == null) {
+                mPage = GrayFrame.fromPool(mPool, mWidth, mPageHeight);
+            }
+            int take = Math.min(rows, mPageHeight - mPageRows);
+            System.arraycopy(pixels, fromRow * mWidth, mPage.getPixels(), mPageRows * mWidth, take * mWidth);
+            mPageRows += take;
+            mTotalRows += take;
+            fromRow += take;
+            rows -= take;
+            if (mPageRows == mPageHeight) emitPage();
+        }
+    }
+
+    private void emitPage() {
+        mPageSink.accept(mPage);
+        mPageCount++;
+        mPageRows = 0;
+    }
+}
@@ -0,0 +1,149 @@
+package com.techbirdssolutions.printcurrentwindow.imaging;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Downscales grayscale frames by area averaging: each output pixel is the mean of the source
+ * pixels it covers, with partially covered pixels weighted by their coverage. It never upscales;
+ * printers do that better themselves.
+ *
+ * The filter is separable. Output rows are split into bands processed on a ForkJoin pool; each
+ * band only reads the source rows it covers, so bands need no synchronization and the result is
+ * identical for any degree of parallelism.
+ */
+public class AreaResampler {
+
+    private static final int ROWS_PER_TASK = 32; // Output rows below which a band is not split further
+
+    private final ForkJoinPool mPool;
+
+    public AreaResampler() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public AreaResampler(ForkJoinPool pool) {
+        mPool = pool;
+    }
+
+    /**
+     * Returns the frame downscaled to fit within maxWidth x maxHeight with its aspect ratio kept,
+     * in a buffer borrowed from the pool. If it already fits, the source itself is returned with
+     * an extra reference. Either way the caller releases the result, and still owns the source.
+     */
+    public GrayFrame fit(GrayFrame source, int maxWidth, int maxHeight, BufferPool<byte[]> pool) {
+        double scale = Math.min((double) maxWidth / source.getWidth(), (double) maxHeight / source.getHeight());
+        if (scale >= 1) {
+            return source.retain();
+        }
+        int width = Math.max(1, (int) Math.round(source.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * scale));
+        return resize(source, width, height, pool);
+    }
+
+    /**
+     * Resamples the frame to exactly width x height, which must not exceed the source size.
+     */
+    public GrayFrame resize(GrayFrame source, int width, int height, BufferPool<byte[]> pool) {
+        if (width > source.getWidth() || height > source.getHeight()) {
+            throw new IllegalArgumentException("Cannot upscale " + source.getWidth() + "x" + source.getHeight()
+                    + " to " + width + "x" + height);
+        }
+        GrayFrame target = GrayFrame.fromPool(pool, width, height);
+        Coverage columns = new Coverage(source.getWidth(), width);
+        Coverage rows = new Coverage(source.getHeight(), height);
+        mPool.invoke(new Band(source, target, columns, rows, 0, height));
+        return target;
+    }
+
+    /**
+     * For every output index along one axis: the first source index it covers, how many, and
+     * the weight of each, normalized so the weights of one output sum to 1.
+     */
+    static final class Coverage {
+        final int[] mStart;
+        final int[] mCount;
+        final float[] mWeights; // Flattened; output i uses mCount[i] entries from mOffset[i]
+        final int[] mOffset;
+
+        Coverage(int sourceSize, int targetSize) {
+            mStart = new int[targetSize];
+            mCount = new int[targetSize];
+            mOffset = new int[targetSize];
+            double ratio = (double) sourceSize / targetSize;
+            int span = (int) Math.ceil(ratio) + 1;
+            mWeights = new float[targetSize * span];
+            for (int i = 0; i < targetSize; i++) {
+                double begin = i * ratio;
+                double end = Math.min(sourceSize, (i + 1) * ratio);
+                int first = (int) Math.floor(begin);
+                int last = Math.min(sourceSize - 1, (int) Math.ceil(end) - 1);
+                mStart[i] = first;
+                mCount[i] = last - first + 1;
+                mOffset[i] = i * span;
+                for (int s = first; s <= last; s++) {
+                    double covered = Math.min(end, s + 1) - Math.max(begin, s);
+                    mWeights[i * span + s - first] = (float) (covered / ratio);
+                }
+            }
+        }
+    }
+
+    private static final class Band extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final GrayFrame mSource;
+        private final GrayFrame mTarget;
+        private final Coverage mColumns;
+        private final Coverage mRows;
+        private final int mFrom;
+        private final int mTo;
+
+        Band(GrayFrame source, GrayFrame target, Coverage columns, Coverage rows, int from, int to) {
+            mSource = source;
+            mTarget = target;
+            mColumns = columns;
+            mRows = rows;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom > ROWS_PER_TASK) {
+                int middle = (mFrom + mTo) >>> 1;
+                invokeAll(new Band(mSource, mTarget, mColumns, mRows, mFrom, middle),
+                        new Band(mSource, mTarget, mColumns, mRows, middle, mTo));
+                return;
+            }
+
+            int sourceWidth = mSource.getWidth();
+            int targetWidth = mTarget.getWidth();
+            byte[] src = mSource.getPixels();
+            byte[] dst = mTarget.getPixels();
+            float[] sum = new float[targetWidth];
+            for (int y = mFrom; y < mTo; y++) {
+                Arrays.fill(sum, 0f);
+                int rowOffset = mRows.mOffset[y];
+                for (int r = 0; r < mRows.mCount[y]; r++) {
+                    float rowWeight = mRows.mWeights[rowOffset + r];
+                    int sourceRow = (mRows.mStart[y] + r) * sourceWidth;
+                    for (int x = 0; x < targetWidth; x++) {
+                        int start = sourceRow + mColumns.mStart[x];
+                        int offset = mColumns.mOffset[x];
+                        float value = 0f;
+                        for (int c = 0, n = mColumns.mCount[x]; c < n; c++) {
+                            value += (src[start + c] & 0xFF) * mColumns.mWeights[offset + c];
+                        }
+                        sum[x] += value * rowWeight;
+                    }
+                }
+                int out = y * targetWidth;
+                for (int x = 0; x < targetWidth; x++) {
+                    dst[out + x] = (byte) Math.min(255, (int) (sum[x] + 0.5f));
+                }
+            }
+        }
+    }
+}
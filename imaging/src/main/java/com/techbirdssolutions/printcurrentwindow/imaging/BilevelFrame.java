@@ -0,0 +1,102 @@
+package com.techbirdssolutions.printcurrentwindow.imaging;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A black and white image packed one bit per pixel, most significant bit first, with each row
+ * starting on a byte boundary. A set bit is white and a clear bit black, which is how PDF reads a
+ * 1-bit DeviceGray image, so rows go into a document as they are.
+ *
+ * An eighth of a {@link GrayFrame} of the same size. Reference counted and poolable like it.
+ */
+public class BilevelFrame {
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mRowBytes;
+    private final byte[] mBits;
+    private final AtomicInteger mRefCount = new AtomicInteger(1);
+    private BufferPool<byte[]> mPool;
+
+    public BilevelFrame(int width, int height) {
+        this(width, height, new byte[rowBytes(width) * height]);
+    }
+
+    public BilevelFrame(int width, int height, byte[] bits) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid frame size " + width + "x" + height);
+        }
+        mWidth = width;
+        mHeight = height;
+        mRowBytes = rowBytes(width);
+        if (bits.length < mRowBytes * height) {
+            throw new IllegalArgumentException("Bit buffer too small for " + width + "x" + height);
+        }
+        mBits = bits;
+    }
+
+    /**
+     * Creates a frame whose bits are borrowed from the pool and returned on the final release.
+     */
+    public static BilevelFrame fromPool(BufferPool<byte[]> pool, int width, int height) {
+        BilevelFrame frame = new BilevelFrame(width, height, pool.acquire((long) rowBytes(width) * height));
+        frame.mPool = pool;
+        return frame;
+    }
+
+    public static int rowBytes(int width) {
+        return (width + 7) >> 3;
+    }
+
+    /**
+     * Adds a holder; each retain() must be paired with a release().
+     */
+    public BilevelFrame retain() {
+        if (mRefCount.getAndIncrement() <= 0) {
+            throw new IllegalStateException("Frame already released");
+        }
+        return this;
+    }
+
+    public void release() {
+        int count = mRefCount.decrementAndGet();
+        if (count == 0 && mPool != null) {
+            mPool.release(mBits.length, mBits);
+        } else if (count < 0) {
+            throw new IllegalStateException("Frame released too many times");
+        }
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Bytes per row; the unused low bits of a row's last byte are undefined.
+     */
+    public int getRowBytes() {
+        return mRowBytes;
+    }
+
+    /**
+     * The backing array; it may be longer than rowBytes * height when borrowed from a pool.
+     */
+    public byte[] getBits() {
+        return mBits;
+    }
+
+    /**
+     * 255 for white, 0 for black, matching {@link GrayFrame#getPixel(int, int)}.
+     */
+    public int getPixel(int x, int y) {
+        return (mBits[y * mRowBytes + (x >> 3)] & (0x80 >> (x & 7))) != 0 ? 255 : 0;
+    }
+
+    public int getByteCount() {
+        return mRowBytes * mHeight;
+    }
+}
@@ -0,0 +1,170 @@
+package com.techbirdssolutions.printcurrentwindow.imaging;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-keyed pool of reusable buffers with a byte ceiling.
+ *
+ * Buffers are looked up by a key that fully describes their shape (an array length, or packed
+ * width and height for images). Idle buffers count against the ceiling; when it is exceeded the
+ * buffers of the least recently used key are evicted first. Borrowed buffers are not counted.
+ */
+public abstract class BufferPool<T> {
+
+    private final LinkedHashMap<Long, ArrayDeque<T>> mFree = new LinkedHashMap<>(16, 0.75f, true);
+    private long mMaxBytes;
+    private long mPooledBytes;
+
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+    private long mAllocatedBytes;
+
+    protected BufferPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Creates a new buffer for the key after a pool miss.
+     */
+    protected abstract T allocate(long key);
+
+    protected abstract long byteSize(T buffer);
+
+    /**
+     * Called for buffers dropped from the pool, for types that need explicit release.
+     */
+    protected void onEvicted(T buffer) {
+    }
+
+    public synchronized T acquire(long key) {
+        ArrayDeque<T> free = mFree.get(key);
+        if (free != null && !free.isEmpty()) {
+            T buffer = free.pop();
+            mPooledBytes -= byteSize(buffer);
+            mHits++;
+            return buffer;
+        }
+        mMisses++;
+        T buffer = allocate(key);
+        mAllocatedBytes += byteSize(buffer);
+        return buffer;
+    }
+
+    /**
+     * Hands a buffer back for reuse. The caller must not touch it afterwards.
+     */
+    public synchronized void release(long key, T buffer) {
+        if (buffer == null) return;
+        long size = byteSize(buffer);
+        if (size > mMaxBytes) {
+            mEvictions++;
+            onEvicted(buffer);
+            return;
+        }
+        ArrayDeque<T> free = mFree.get(key);
+        if (free == null) {
+            free = new ArrayDeque<>();
+            mFree.put(key, free);
+        }
+        free.push(buffer);
+        mPooledBytes += size;
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * Evicts least recently used buffers until the idle total fits in maxBytes.
+     */
+    public synchronized void trimToSize(long maxBytes) {
+        Iterator<Map.Entry<Long, ArrayDeque<T>>> it = mFree.entrySet().iterator();
+        while (mPooledBytes > maxBytes && it.hasNext()) {
+            ArrayDeque<T> free = it.next().getValue();
+            while (mPooledBytes > maxBytes && !free.isEmpty()) {
+                T buffer = free.removeLast();
+                mPooledBytes -= byteSize(buffer);
+                mEvictions++;
+                onEvicted(buffer);
+            }
+            if (free.isEmpty()) it.remove();
+        }
+    }
+
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trimToSize(maxBytes);
+    }
+
+    public synchronized long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public synchronized long getPooledBytes() {
+        return mPooledBytes;
+    }
+
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictions;
+    }
+
+    /**
+     * Total bytes of every buffer this pool has had to allocate on a miss.
+     */
+    public synchronized long getAllocatedBytes() {
+        return mAllocatedBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return getClass().getSimpleName() + "{hits=" + mHits + ", misses=" + mMisses + ", evictions=" + mEvictions
+                + ", pooled=" + mPooledBytes / 1024 + "/" + mMaxBytes / 1024 + " KiB}";
+    }
+
+    /**
+     * A pool of byte arrays keyed by exact length.
+     */
+    public static BufferPool<byte[]> byteArrays(long maxBytes) {
+        return new BufferPool<byte[]>(maxBytes) {
+            @Override
+            protected byte[] allocate(long key) {
+                return new byte[(int) key];
+            }
+
+            @Override
+            protected long byteSize(byte[] buffer) {
+                return buffer.length;
+            }
+        };
+    }
+
+    /**
+     * A pool of int arrays keyed by exact length.
+     */
+    public static BufferPool<int[]> intArrays(long maxBytes) {
+        return new BufferPool<int[]>(maxBytes) {
+            @Override
+            protected int[] allocate(long key) {
+                return new int[(int) key];
+            }
+
+            @Override
+            protected long byteSize(int[] buffer) {
+                return 4L * buffer.length;
+            }
+        };
+    }
+}
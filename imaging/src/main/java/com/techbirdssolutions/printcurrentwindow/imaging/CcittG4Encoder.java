@@ -0,0 +1,239 @@
+package com.techbirdssolutions.printcurrentwindow.imaging;
+
+/**
+ * Encodes packed bilevel images with CCITT Group 4 (ITU-T T.6), the fax coding PDF decodes with
+ * CCITTFaxDecode and /K -1.
+ *
+ * Every line is coded against the one above it, mostly as one- to seven-bit offsets between
+ * matching edges, so text and flat UI compress to a few percent of the packed size. Noise, like
+ * error-diffused photos, can come out larger than the input; {@link #encode} gives up at a byte
+ * budget so the caller can fall back to another coding.
+ *
+ * Pixels follow {@link BilevelFrame}: a set bit is white. The output uses the decoder defaults
+ * (BlackIs1 false, no byte alignment) and ends with an EOFB. Not thread safe; reuse one encoder
+ * per thread to keep its buffers.
+ */
+public final class CcittG4Encoder {
+
+    private static final String[] WHITE_TERMINATING = {
+            "00110101", "000111", "0111", "1000", "1011", "1100", "1110", "1111",
+            "10011", "10100", "00111", "01000", "001000", "000011", "110100", "110101",
+            "101010", "101011", "0100111", "0001100", "0001000", "0010111", "0000011", "0000100",
+            "0101000", "0101011", "0010011", "0100100", "0011000", "00000010", "00000011", "00011010",
+            "00011011", "00010010", "00010011", "00010100", "00010101", "00010110", "00010111", "00101000",
+            "00101001", "00101010", "00101011", "00101100", "00101101", "00000100", "00000101", "00001010",
+            "00001011", "01010010", "01010011", "01010100", "01010101", "00100100", "00100101", "01011000",
+            "01011001", "01011010", "01011011", "01001010", "01001011", "00110010", "00110011", "00110100"};
+    private static final String[] BLACK_TERMINATING = {
+            "0000110111", "010", "11", "10", "011", "0011", "0010", "00011",
+            "000101", "000100", "0000100", "0000101", "0000111", "00000100", "00000111", "000011000",
+            "0000010111", "0000011000", "0000001000", "00001100111", "00001101000", "00001101100", "00000110111",
+            "00000101000", "00000010111", "00000011000", "000011001010", "000011001011", "000011001100",
+            "000011001101", "000001101000", "000001101001", "000001101010", "000001101011", "000011010010",
+            "000011010011", "000011010100", "000011010101", "000011010110", "000011010111", "000001101100",
+            "000001101101", "000011011010", "000011011011", "000001010100", "000001010101", "000001010110",
+            "000001010111", "000001100100", "000001100101", "000001010010", "000001010011", "000000100100",
+            "000000110111", "000000111000", "000000100111", "000000101000", "000001011000", "000001011001",
+            "000000101011", "000000101100", "000001011010", "000001100110", "000001100111"};
+    // Runs of 64, 128, ... 1728
+    private static final String[] WHITE_MAKEUP = {
+            "11011", "10010", "010111", "0110111", "00110110", "00110111", "01100100", "01100101",
+            "01101000", "01100111", "011001100", "011001101", "011010010", "011010011", "011010100",
+            "011010101", "011010110", "011010111", "011011000", "011011001", "011011010", "011011011",
+            "010011000", "010011001", "010011010", "011000", "010011011"};
+    private static final String[] BLACK_MAKEUP = {
+            "0000001111", "000011001000", "000011001001", "000001011011", "000000110011", "000000110100",
+            "000000110101", "0000001101100", "0000001101101", "0000001001010", "0000001001011",
+            "0000001001100", "0000001001101", "0000001110010", "0000001110011", "0000001110100",
+            "0000001110101", "0000001110110", "0000001110111", "0000001010010", "0000001010011",
+            "0000001010100", "0000001010101", "0000001011010", "0000001011011", "0000001100100",
+            "0000001100101"};
+    // Runs of 1792, 1856, ... 2560, shared by both colours
+    private static final String[] EXTENDED_MAKEUP = {
+            "00000001000", "00000001100", "00000001101", "000000010010", "000000010011", "000000010100",
+            "000000010101", "000000010110", "000000010111", "000000011100", "000000011101", "000000011110",
+            "000000011111"};
+    // Vertical mode codes for a1 - b1 = -3..3
+    private static final String[] VERTICAL = {"0000010", "000010", "010", "1", "011", "000011", "0000011"};
+    private static final String PASS = "0001";
+    private static final String HORIZONTAL = "001";
+    private static final String EOL = "000000000001";
+    private static final int MAX_RUN_CODE = 2560;
+
+    // Each code packed as (bits << 5) | length
+    private static final int[] WHITE_TERM = pack(WHITE_TERMINATING);
+    private static final int[] BLACK_TERM = pack(BLACK_TERMINATING);
+    private static final int[] WHITE_MAKE = pack(WHITE_MAKEUP);
+    private static final int[] BLACK_MAKE = pack(BLACK_MAKEUP);
+    private static final int[] EXT_MAKE = pack(EXTENDED_MAKEUP);
+    private static final int[] VERT = pack(VERTICAL);
+    private static final int PASS_CODE = pack(PASS);
+    private static final int HORIZONTAL_CODE = pack(HORIZONTAL);
+    private static final int EOL_CODE = pack(EOL);
+
+    private int[] mReference = new int[0]; // Changing elements of the line above, then sentinels at width
+    private int[] mCoding = new int[0]; // Changing elements of the line being coded
+    private byte[] mOut = new byte[4096];
+    private int mLength;
+    private int mMaxBytes;
+    private long mBitBuffer;
+    private int mBitCount;
+
+    /**
+     * Encodes the frame. Returns the number of bytes in {@link #getBuffer()}, or -1 if the
+     * coding would be longer than maxBytes.
+     */
+    public int encode(BilevelFrame frame, int maxBytes) {
+        return encode(frame.getBits(), frame.getRowBytes(), frame.getWidth(), frame.getHeight(), maxBytes);
+    }
+
+    /**
+     * Encodes rows of width pixels packed like {@link BilevelFrame}, rowBytes apart.
+     */
+    public int encode(byte[] bits, int rowBytes, int width, int height, int maxBytes) {
+        if (rowBytes < BilevelFrame.rowBytes(width) || bits.length < (long) rowBytes * height) {
+            throw new IllegalArgumentException("Bit buffer too small for " + width + "x" + height);
+        }
+        // A line can change colour at every pixel; three sentinels keep b2 and a2 in range
+        if (mReference.length < width + 4) {
+            mReference = new int[width + 4];
+            mCoding = new int[width + 4];
+        }
+        mMaxBytes = maxBytes;
+        mLength = 0;
+        mBitBuffer = 0;
+        mBitCount = 0;
+
+        // Above the first line is an imaginary all-white one
+        fillSentinels(mReference, 0, width);
+        for (int y = 0; y < height; y++) {
+            fillSentinels(mCoding, changingElements(bits, y * rowBytes, width, mCoding), width);
+            if (!encodeLine(width)) return -1;
+            int[] swap = mReference;
+            mReference = mCoding;
+            mCoding = swap;
+        }
+        put(EOL_CODE);
+        put(EOL_CODE);
+        if (mBitCount > 0) put(0, 8 - mBitCount); // Pad the last byte
+        return mLength <= mMaxBytes ? mLength : -1;
+    }
+
+    /**
+     * The coded bytes of the last {@link #encode} call; valid until the next one.
+     */
+    public byte[] getBuffer() {
+        return mOut;
+    }
+
+    private static void fillSentinels(int[] elements, int count, int width) {
+        elements[count] = width;
+        elements[count + 1] = width;
+        elements[count + 2] = width;
+    }
+
+    /**
+     * Writes the positions where the colour differs from the pixel before, the one before the
+     * first pixel being white. Even entries start black runs, odd ones white runs.
+     */
+    private static int changingElements(byte[] bits, int offset, int width, int[] out) {
+        int count = 0;
+        int end = offset + BilevelFrame.rowBytes(width);
+        int flip = 0xFF; // Makes pixels of the other colour than the current one the set bits
+        int i = offset;
+        int b = (bits[i] & 0xFF) ^ flip;
+        while (true) {
+            while (b == 0) {
+                if (++i == end) return count;
+                b = (bits[i] & 0xFF) ^ flip; // Whole bytes in the current colour skip here
+            }
+            int x = ((i - offset) << 3) + Integer.numberOfLeadingZeros(b) - 24;
+            if (x >= width) return count; // Padding past the last pixel
+            out[count++] = x;
+            flip ^= 0xFF;
+            // Look again at the rest of this byte in the new colour
+            b = ((bits[i] & 0xFF) ^ flip) & (0xFF >> ((x & 7) + 1));
+        }
+    }
+
+    private boolean encodeLine(int width) {
+        int[] ref = mReference;
+        int[] cur = mCoding;
+        int a0 = -1;
+        boolean white = true; // Colour of a0
+        int ci = 0;
+        int ri = 0;
+        while (a0 < width) {
+            while (cur[ci] <= a0) ci++;
+            int a1 = cur[ci];
+            // b1: first edge on the line above right of a0 that turns to the other colour. It may
+            // lie left of the previous b1 after a vertical mode to the left, so step back first.
+            while (ri > 0 && ref[ri - 1] > a0) ri--;
+            while (ref[ri] <= a0 || ((ri & 1) == 0) != white) ri++;
+            int b1 = ref[ri];
+            int b2 = ref[ri + 1];
+
+            if (b2 < a1) {
+                put(PASS_CODE);
+                a0 = b2;
+            } else if (a1 - b1 >= -3 && a1 - b1 <= 3) {
+                put(VERT[a1 - b1 + 3]);
+                a0 = a1;
+                white = !white;
+            } else {
+                int a2 = cur[ci + 1];
+                put(HORIZONTAL_CODE);
+                putRun(a1 - Math.max(a0, 0), white);
+                putRun(a2 - a1, !white);
+                a0 = a2;
+            }
+            if (mLength > mMaxBytes) return false;
+        }
+        return true;
+    }
+
+    private void putRun(int run, boolean white) {
+        while (run > MAX_RUN_CODE) {
+            put(EXT_MAKE[EXT_MAKE.length - 1]);
+            run -= MAX_RUN_CODE;
+        }
+        if (run >= 64) {
+            int makeup = run >> 6; // In units of 64
+            if (makeup >= 28) {
+                put(EXT_MAKE[makeup - 28]);
+            } else {
+                put((white ? WHITE_MAKE : BLACK_MAKE)[makeup - 1]);
+            }
+            run &= 63;
+        }
+        put((white ? WHITE_TERM : BLACK_TERM)[run]);
+    }
+
+    private void put(int packed) {
+        put(packed >>> 5, packed & 31);
+    }
+
+    private void put(int code, int length) {
+        mBitBuffer = (mBitBuffer << length) | code;
+        mBitCount += length;
+        while (mBitCount >= 8) {
+            mBitCount -= 8;
+            if (mLength == mOut.length) {
+                byte[] grown = new byte[mOut.length * 2];
+                System.arraycopy(mOut, 0, grown, 0, mLength);
+                mOut = grown;
+            }
+            mOut[mLength++] = (byte) (mBitBuffer >>> mBitCount);
+        }
+    }
+
+    private static int[] pack(String[] codes) {
+        int[] packed = new int[codes.length];
+        for (int i = 0; i < codes.length; i++) packed[i] = pack(codes[i]);
+        return packed;
+    }
+
+    private static int pack(String code) {
+        return (Integer.parseInt(code, 2) << 5) | code.length();
+    }
+}
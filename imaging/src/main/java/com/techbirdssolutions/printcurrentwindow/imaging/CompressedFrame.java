@@ -0,0 +1,128 @@
+package com.techbirdssolutions.printcurrentwindow.imaging;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A grayscale frame held deflated in memory. Screen content usually shrinks 5-20x this way,
+ * which makes it cheap to keep many frames around and inflate them only when needed.
+ */
+public class CompressedFrame {
+
+    private final int mWidth;
+    private final int mHeight;
+    private final byte[] mData;
+
+    private CompressedFrame(int width, int height, byte[] data) {
+        mWidth = width;
+        mHeight = height;
+        mData = data;
+    }
+
+    /**
+     * Deflates the frame with the given deflater, using scratch as the output buffer.
+     * Scratch must hold at least {@link #maxCompressedSize(int)} bytes for the frame size.
+     */
+    public static CompressedFrame compress(GrayFrame frame, Deflater deflater, byte[] scratch) {
+        int length = frame.getByteCount();
+        deflater.reset();
+        deflater.setInput(frame.getPixels(), 0, length);
+        deflater.finish();
+        int compressed = 0;
+        while (!deflater.finished()) {
+            compressed += deflater.deflate(scratch, compressed, scratch.length - compressed);
+        }
+        byte[] data = new byte[compressed];
+        System.arraycopy(scratch, 0, data, 0, compressed);
+        return new CompressedFrame(frame.getWidth(), frame.getHeight(), data);
+    }
+
+    public static CompressedFrame compress(GrayFrame frame) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            return compress(frame, deflater, new byte[maxCompressedSize(frame.getByteCount())]);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Deflate never grows data by more than this.
+     */
+    public static int maxCompressedSize(int rawLength) {
+        return rawLength + rawLength / 8 + 64;
+    }
+
+    /**
+     * Inflates into a pooled frame. The caller owns the returned frame.
+     */
+    public GrayFrame decompress(BufferPool<byte[]> pool, Inflater inflater) {
+        GrayFrame frame = GrayFrame.fromPool(pool, mWidth, mHeight);
+        inflater.reset();
+        inflater.setInput(mData);
+        try {
+            int length = frame.getByteCount();
+            int read = 0;
+            while (read < length && !inflater.finished()) {
+                read += inflater.inflate(frame.getPixels(), read, length - read);
+            }
+            if (read != length) throw new DataFormatException("Truncated frame");
+        } catch (DataFormatException e) {
+            frame.release();
+            throw new IllegalStateException("Corrupt compressed frame", e);
+        }
+        return frame;
+    }
+
+    public GrayFrame decompress(BufferPool<byte[]> pool) {
+        Inflater inflater = new Inflater();
+        try {
+            return decompress(pool, inflater);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Writes the frame in the form {@link #readFrom(DataInput)} reads back.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(mWidth);
+        out.writeInt(mHeight);
+        out.writeInt(mData.length);
+        out.write(mData);
+    }
+
+    public static CompressedFrame readFrom(DataInput in) throws IOException {
+        int width = in.readInt();
+        int height = in.readInt();
+        int length = in.readInt();
+        if (width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE / 2
+                || length < 0 || length > maxCompressedSize(width * height)) {
+            throw new IOException("Bad frame header " + width + "x" + height + ", " + length + " bytes");
+        }
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return new CompressedFrame(width, height, data);
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getCompressedSize() {
+        return mData.length;
+    }
+
+    public int getRawSize() {
+        return mWidth * mHeight;
+    }
+}
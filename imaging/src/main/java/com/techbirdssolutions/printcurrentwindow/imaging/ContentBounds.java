@@ -0,0 +1,105 @@
+package com.techbirdssolutions.printcurrentwindow.imaging;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Finds the part of a captured RGBA plane that holds content, by trimming uniform rows and
+ * columns off each edge of a search area.
+ *
+ * A row or column counts as uniform when every pixel is within a tolerance of its first pixel,
+ * so flat backgrounds and solid bars of any color are trimmed. Each edge scan stops at the first
+ * non-uniform line, which on typical screens is a handful of lines in, so the detector reads a
+ * small fraction of the frame and is cheap enough to run on every capture.
+ *
+ * Pixels are read with absolute gets, so the scan allocates nothing but its result and never
+ * moves the buffer's position, which lets it run alongside other readers of the plane.
+ */
+public final class ContentBounds {
+
+    public static final int DEFAULT_TOLERANCE = 6; // Per channel; absorbs compression and dithering noise
+
+    private ContentBounds() {
+    }
+
+    /**
+     * Scans the search area [left, right) x [top, bottom) and returns the content bounds as
+     * {left, top, right, bottom}, right and bottom exclusive, grown by padding on each side and
+     * clamped to the search area. Returns null if the area is entirely uniform.
+     * The buffer's position is left untouched.
+     */
+    public static int[] detect(ByteBuffer src, int rowStride, int pixelStride,
+                               int left, int top, int right, int bottom, int tolerance, int padding) {
+        if (pixelStride < 3) {
+            throw new IllegalArgumentException("Unsupported pixel stride " + pixelStride);
+        }
+        if (left < 0 || top < 0 || right <= left || bottom <= top
+                || (long) (bottom - 1) * rowStride + (long) right * pixelStride > src.limit()) {
+            throw new IllegalArgumentException("Search area exceeds the source buffer");
+        }
+        int contentTop = top;
+        while (contentTop < bottom && isUniformRow(src, rowStride, pixelStride, left, right, contentTop, tolerance)) {
+            contentTop++;
+        }
+        if (contentTop == bottom) return null;
+        int contentBottom = bottom;
+        while (isUniformRow(src, rowStride, pixelStride, left, right, contentBottom - 1, tolerance)) {
+            contentBottom--; // Stops at contentTop at the latest, which is not uniform
+        }
+
+        int contentLeft = left;
+        while (contentLeft < right
+                && isUniformColumn(src, rowStride, pixelStride, contentLeft, contentTop, contentBottom, tolerance)) {
+            contentLeft++;
+        }
+        int contentRight = right;
+        while (contentRight > contentLeft
+                && isUniformColumn(src, rowStride, pixelStride, contentRight - 1, contentTop, contentBottom, tolerance)) {
+            contentRight--;
+        }
+        if (contentLeft == contentRight) {
+            // Only vertical stripes: every column is uniform on its own, so keep the full width
+            contentLeft = left;
+            contentRight = right;
+        }
+
+        return new int[]{
+                Math.max(left, contentLeft - padding),
+                Math.max(top, contentTop - padding),
+                Math.min(right, contentRight + padding),
+                Math.min(bottom, contentBottom + padding)};
+    }
+
+    private static boolean isUniformRow(ByteBuffer buffer, int rowStride, int pixelStride, int left, int right,
+                                        int y, int tolerance) {
+        int index = y * rowStride + left * pixelStride;
+        int end = y * rowStride + right * pixelStride;
+        int r = buffer.get(index) & 0xFF;
+        int g = buffer.get(index + 1) & 0xFF;
+        int b = buffer.get(index + 2) & 0xFF;
+        for (index += pixelStride; index < end; index += pixelStride) {
+            if (Math.abs((buffer.get(index) & 0xFF) - r) > tolerance
+                    || Math.abs((buffer.get(index + 1) & 0xFF) - g) > tolerance
+                    || Math.abs((buffer.get(index + 2) & 0xFF) - b) > tolerance) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isUniformColumn(ByteBuffer buffer, int rowStride, int pixelStride, int x,
+                                           int top, int bottom, int tolerance) {
+        int index = top * rowStride + x * pixelStride;
+        int r = buffer.get(index) & 0xFF;
+        int g = buffer.get(index + 1) & 0xFF;
+        int b = buffer.get(index + 2) & 0xFF;
+        for (int y = top + 1; y < bottom; y++) {
+            index += rowStride;
+            if (Math.abs((buffer.get(index) & 0xFF) - r) > tolerance
+                    || Math.abs((buffer.get(index + 1) & 0xFF) - g) > tolerance
+                    || Math.abs((buffer.get(index + 2) & 0xFF) - b) > tolerance) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,317 @@
+package com.techbirdssolutions.printcurrentwindow.imaging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Renders gray frames as packed {@link BilevelFrame}s for printers that only put down black or
+ * white, using all cores and producing exactly what a single thread would.
+ *
+ * Threshold and ordered dithering look at one pixel at a time, so the frame is cut into row bands
+ * that are rendered independently. Error diffusion carries error to the right and down, so a row
+ * can only go as far as the row above has finished plus one pixel. Rows are therefore dealt out
+ * round-robin and run as a wavefront: each follows the row above a chunk behind and publishes its
+ * progress after every chunk. Each error buffer cell has a single writer, and errors are integers,
+ * so the result does not depend on the interleaving.
+ */
+public final class Ditherer {
+
+    public enum Method {
+        FLOYD_STEINBERG, // Error to 4 neighbours, all of it; smooth gradients
+        ATKINSON, // Error to 6 neighbours, three quarters of it; crisper, lighter, suits screenshots
+        ORDERED, // 8x8 Bayer matrix; regular pattern that survives print-head dot gain
+        THRESHOLD // Plain cut at mid-gray; best for text only
+    }
+
+    private static final int MID_GRAY = 128;
+    private static final int CHUNK = 64; // Columns between progress updates; a multiple of 8 keeps bytes whole
+    private static final int RING_ROWS = 4; // Error rows in flight; the wavefront lag means three would do
+    private static final int[] BAYER_8 = {
+            0, 32, 8, 40, 2, 34, 10, 42,
+            48, 16, 56, 24, 50, 18, 58, 26,
+            12, 44, 4, 36, 14, 46, 6, 38,
+            60, 28, 52, 20, 62, 30, 54, 22,
+            3, 35, 11, 43, 1, 33, 9, 41,
+            51, 19, 59, 27, 49, 17, 57, 25,
+            15, 47, 7, 39, 13, 45, 5, 37,
+            63, 31, 55, 23, 61, 29, 53, 21};
+
+    private final int mThreads;
+    private final ExecutorService mExecutor; // Null when single-threaded; the caller is always one worker
+
+    /**
+     * @param threads how many threads render one frame, the calling thread included
+     */
+    public Ditherer(int threads) {
+        mThreads = Math.max(1, threads);
+        if (mThreads > 1) {
+            final AtomicInteger count = new AtomicInteger();
+            ThreadFactory factory = r -> {
+                Thread thread = new Thread(r, "dither-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            // Sized so every worker of a frame runs at once, which the wavefront relies on
+            mExecutor = Executors.newFixedThreadPool(mThreads - 1, factory);
+        } else {
+            mExecutor = null;
+        }
+    }
+
+    public int getThreads() {
+        return mThreads;
+    }
+
+    /**
+     * Renders the frame into a new pooled bilevel frame; the caller releases both.
+     */
+    public BilevelFrame dither(GrayFrame src, Method method, BufferPool<byte[]> pool) {
+        BilevelFrame dst = BilevelFrame.fromPool(pool, src.getWidth(), src.getHeight());
+        try {
+            dither(src, method, dst);
+        } catch (RuntimeException e) {
+            dst.release();
+            throw e;
+        }
+        return dst;
+    }
+
+    /**
+     * Renders src into dst, which must be the same size. Calls are serialized, one frame at a time.
+     */
+    public synchronized void dither(GrayFrame src, Method method, BilevelFrame dst) {
+        if (src.getWidth() != dst.getWidth() || src.getHeight() != dst.getHeight()) {
+            throw new IllegalArgumentException("Size mismatch " + src.getWidth() + "x" + src.getHeight()
+                    + " vs " + dst.getWidth() + "x" + dst.getHeight());
+        }
+        int workers = Math.min(mThreads, src.getHeight());
+        switch (method) {
+            case FLOYD_STEINBERG:
+            case ATKINSON:
+                runWorkers(new Diffusion(src, dst, method == Method.ATKINSON, workers), workers);
+                break;
+            case ORDERED:
+            case THRESHOLD:
+                runWorkers(new PointWise(src, dst, method == Method.ORDERED, workers), workers);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown method " + method);
+        }
+    }
+
+    /**
+     * Stops the worker threads. Later calls fail unless single-threaded.
+     */
+    public void shutdown() {
+        if (mExecutor != null) mExecutor.shutdown();
+    }
+
+    private interface Job {
+        void run(int worker);
+
+        void abort();
+    }
+
+    private void runWorkers(final Job job, int workers) {
+        List<Future<?>> futures = new ArrayList<>(workers - 1);
+        try {
+            for (int w = 1; w < workers; w++) {
+                final int worker = w;
+                futures.add(mExecutor.submit(() -> {
+                    try {
+                        job.run(worker);
+                    } catch (RuntimeException | Error e) {
+                        job.abort(); // Rows waiting on this worker would spin forever otherwise
+                        throw e;
+                    }
+                }));
+            }
+            job.run(0);
+        } catch (RuntimeException | Error e) {
+            job.abort();
+            awaitAll(futures);
+            throw e;
+        }
+        RuntimeException failure = awaitAll(futures);
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * Waits for every worker, returning the first failure if any.
+     */
+    private static RuntimeException awaitAll(List<Future<?>> futures) {
+        boolean interrupted = false;
+        RuntimeException failure = null;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true; // Workers still write into the frame, so they are waited for regardless
+                } catch (ExecutionException e) {
+                    if (failure == null) failure = new IllegalStateException("Dither worker failed", e.getCause());
+                    break;
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        return failure;
+    }
+
+    /**
+     * Threshold and ordered dithering over contiguous row bands.
+     */
+    private static final class PointWise implements Job {
+        private final GrayFrame mSrc;
+        private final BilevelFrame mDst;
+        private final boolean mOrdered;
+        private final int mWorkers;
+
+        PointWise(GrayFrame src, BilevelFrame dst, boolean ordered, int workers) {
+            mSrc = src;
+            mDst = dst;
+            mOrdered = ordered;
+            mWorkers = workers;
+        }
+
+        @Override
+        public void run(int worker) {
+            int width = mSrc.getWidth();
+            int height = mSrc.getHeight();
+            int rowBytes = mDst.getRowBytes();
+            byte[] gray = mSrc.getPixels();
+            byte[] bits = mDst.getBits();
+            int from = (int) ((long) height * worker / mWorkers);
+            int to = (int) ((long) height * (worker + 1) / mWorkers);
+            for (int y = from; y < to; y++) {
+                int in = y * width;
+                int out = y * rowBytes;
+                int matrixRow = (y & 7) << 3;
+                int packed = 0;
+                for (int x = 0; x < width; x++) {
+                    // Ordered thresholds run 2..254 in steps of 4, so black and white stay solid
+                    int threshold = mOrdered ? (BAYER_8[matrixRow + (x & 7)] << 2) + 2 : MID_GRAY;
+                    packed = (packed << 1) | ((gray[in + x] & 0xFF) >= threshold ? 1 : 0);
+                    if ((x & 7) == 7) {
+                        bits[out++] = (byte) packed;
+                        packed = 0;
+                    }
+                }
+                if ((width & 7) != 0) bits[out] = (byte) (packed << (8 - (width & 7)));
+            }
+        }
+
+        @Override
+        public void abort() {
+        }
+    }
+
+    /**
+     * Floyd-Steinberg or Atkinson error diffusion as a wavefront over rows dealt round-robin.
+     *
+     * Error pushed right along the row stays in locals. Error pushed down goes into ring buffers
+     * indexed by target row, one ring per distance, so each cell is written by exactly one row;
+     * the target row zeroes each cell as it reads it, ready for the row that reuses the buffer.
+     */
+    private static final class Diffusion implements Job {
+        private final GrayFrame mSrc;
+        private final BilevelFrame mDst;
+        private final boolean mAtkinson;
+        private final int mWorkers;
+        private final int[][] mBelow1; // Error for a row from the row above it
+        private final int[][] mBelow2; // Error for a row from two rows above; Atkinson only
+        private final AtomicIntegerArray mProgress; // Columns finished per row
+        private final AtomicBoolean mAborted = new AtomicBoolean();
+
+        Diffusion(GrayFrame src, BilevelFrame dst, boolean atkinson, int workers) {
+            mSrc = src;
+            mDst = dst;
+            mAtkinson = atkinson;
+            mWorkers = workers;
+            mBelow1 = new int[RING_ROWS][src.getWidth()];
+            mBelow2 = atkinson ? new int[RING_ROWS][src.getWidth()] : null;
+            mProgress = new AtomicIntegerArray(src.getHeight());
+        }
+
+        @Override
+        public void run(int worker) {
+            int width = mSrc.getWidth();
+            int height = mSrc.getHeight();
+            int rowBytes = mDst.getRowBytes();
+            byte[] gray = mSrc.getPixels();
+            byte[] bits = mDst.getBits();
+            for (int y = worker; y < height; y += mWorkers) {
+                int[] below = mBelow1[y % RING_ROWS];
+                int[] next1 = y + 1 < height ? mBelow1[(y + 1) % RING_ROWS] : null;
+                int[] twoBelow = mAtkinson ? mBelow2[y % RING_ROWS] : null;
+                int[] next2 = mAtkinson && y + 2 < height ? mBelow2[(y + 2) % RING_ROWS] : null;
+                int in = y * width;
+                int out = y * rowBytes;
+                int carry1 = 0; // Error carried to the next pixel
+                int carry2 = 0; // Error carried to the pixel after it; Atkinson only
+                int packed = 0;
+                for (int x0 = 0; x0 < width; x0 += CHUNK) {
+                    int x1 = Math.min(width, x0 + CHUNK);
+                    // The row above must be done one pixel past this chunk; it already waited for the one above it
+                    if (y > 0) awaitProgress(y - 1, Math.min(width, x1 + 1));
+                    for (int x = x0; x < x1; x++) {
+                        int value = (gray[in + x] & 0xFF) + carry1 + below[x];
+                        below[x] = 0;
+                        if (twoBelow != null) {
+                            value += twoBelow[x];
+                            twoBelow[x] = 0;
+                        }
+                        int white = value >= MID_GRAY ? 1 : 0;
+                        int error = value - (white == 1 ? 255 : 0);
+                        packed = (packed << 1) | white;
+                        if ((x & 7) == 7) {
+                            bits[out++] = (byte) packed;
+                            packed = 0;
+                        }
+                        if (mAtkinson) {
+                            int eighth = error / 8;
+                            carry1 = carry2 + eighth;
+                            carry2 = eighth;
+                            if (next1 != null) {
+                                if (x > 0) next1[x - 1] += eighth;
+                                next1[x] += eighth;
+                                if (x + 1 < width) next1[x + 1] += eighth;
+                            }
+                            if (next2 != null) next2[x] += eighth;
+                        } else {
+                            carry1 = error * 7 / 16;
+                            if (next1 != null) {
+                                if (x > 0) next1[x - 1] += error * 3 / 16;
+                                next1[x] += error * 5 / 16;
+                                if (x + 1 < width) next1[x + 1] += error / 16;
+                            }
+                        }
+                    }
+                    mProgress.set(y, x1);
+                }
+                if ((width & 7) != 0) bits[out] = (byte) (packed << (8 - (width & 7)));
+            }
+        }
+
+        private void awaitProgress(int row, int columns) {
+            while (mProgress.get(row) < columns) {
+                if (mAborted.get()) throw new IllegalStateException("Dither aborted");
+                Thread.yield();
+            }
+        }
+
+        @Override
+        public void abort() {
+            mAborted.set(true);
+        }
+    }
+}
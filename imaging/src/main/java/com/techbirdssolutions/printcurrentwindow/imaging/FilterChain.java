@@ -0,0 +1,339 @@
+package com.techbirdssolutions.printcurrentwindow.imaging;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A chain of tone filters on 8-bit gray (levels, gamma, contrast, background whitening,
+ * threshold) folded into one 256-entry lookup table, so the whole chain costs a single pass over
+ * the pixels however many stages it has. The pass can also be the RGBA to gray conversion itself.
+ *
+ * Every stage maps a gray level to a gray level, so composing their tables is exact: the fused
+ * output is bit for bit what running the stages one after another gives. A stage that adapts to
+ * the image, like auto-levels, is handed the histogram of its own input, which is the frame's
+ * histogram pushed through the stages before it; such chains fuse too. The histogram is counted
+ * during the conversion pass and the table applied in one more, so they cost one extra pass.
+ *
+ * Chains are immutable and can be shared between threads. The per-frame tables of adaptive chains
+ * are built in a caller-owned {@link Scratch}, one per thread, so filtering allocates nothing.
+ */
+public final class FilterChain {
+
+    public static final FilterChain IDENTITY = new FilterChain();
+
+    private static final int LEVELS = 256;
+    private static final int AUTO_LEVELS_MIN_RANGE = 32; // Narrower content is left alone rather than blown up
+    private static final int WHITEN_KNEE = 24; // Levels this far below the cut-off ramp up to white
+
+    /**
+     * One point operation, created through the factory methods of {@link FilterChain}.
+     */
+    public abstract static class Filter {
+
+        private final String mName;
+
+        Filter(String name) {
+            mName = name;
+        }
+
+        /**
+         * Fills map[v] with the output level, 0-255, for each input level v.
+         *
+         * @param histogram how many pixels enter this stage at each level; only passed to adaptive filters
+         */
+        abstract void fill(int[] histogram, int[] map);
+
+        boolean isAdaptive() {
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return mName;
+        }
+    }
+
+    /**
+     * Working buffers for one thread: the histogram and the tables an adaptive chain builds per
+     * frame. About 4 KiB; keep one per worker instead of allocating them for every frame.
+     */
+    public static final class Scratch {
+
+        final int[] mHistogram = new int[LEVELS];
+        final int[] mStageHistogram = new int[LEVELS];
+        final int[] mMap = new int[LEVELS];
+        final int[] mStageMap = new int[LEVELS];
+        final byte[] mLut = new byte[LEVELS];
+    }
+
+    private final Filter[] mFilters;
+    private final byte[] mLut; // Null if a stage adapts to the image; the table is then built per frame
+
+    public FilterChain(Filter... filters) {
+        mFilters = filters.clone();
+        boolean adaptive = false;
+        for (Filter filter : mFilters) {
+            adaptive |= filter.isAdaptive();
+        }
+        mLut = adaptive ? null : compile(null);
+    }
+
+    /**
+     * A new chain with the filter appended.
+     */
+    public FilterChain then(Filter filter) {
+        Filter[] filters = new Filter[mFilters.length + 1];
+        System.arraycopy(mFilters, 0, filters, 0, mFilters.length);
+        filters[mFilters.length] = filter;
+        return new FilterChain(filters);
+    }
+
+    public boolean isIdentity() {
+        return mFilters.length == 0;
+    }
+
+    public boolean isAdaptive() {
+        return mLut == null;
+    }
+
+    /**
+     * Builds the fused table for an image with the given histogram of gray levels. The histogram
+     * is only read when the chain is adaptive and may be null otherwise.
+     */
+    public byte[] compile(int[] histogram) {
+        return compile(histogram, new Scratch());
+    }
+
+    /**
+     * Like {@link #compile(int[])}, but builds the table in the scratch's buffers and returns the
+     * scratch's table, which the next call on the same scratch overwrites.
+     */
+    public byte[] compile(int[] histogram, Scratch scratch) {
+        int[] map = scratch.mMap;
+        int[] stageMap = scratch.mStageMap;
+        int[] stageHistogram = scratch.mStageHistogram;
+        for (int v = 0; v < LEVELS; v++) map[v] = v;
+        for (Filter filter : mFilters) {
+            if (filter.isAdaptive()) {
+                if (histogram == null) {
+                    throw new IllegalArgumentException(filter + " needs the image histogram");
+                }
+                // What this stage sees is the original histogram pushed through the stages so far
+                Arrays.fill(stageHistogram, 0);
+                for (int v = 0; v < LEVELS; v++) stageHistogram[map[v]] += histogram[v];
+            }
+            filter.fill(filter.isAdaptive() ? stageHistogram : null, stageMap);
+            for (int v = 0; v < LEVELS; v++) map[v] = stageMap[map[v]];
+        }
+        byte[] lut = scratch.mLut;
+        for (int v = 0; v < LEVELS; v++) lut[v] = (byte) map[v];
+        return lut;
+    }
+
+    /**
+     * Filters the frame in place.
+     */
+    public void apply(GrayFrame frame) {
+        apply(frame.getPixels(), 0, frame.getByteCount());
+    }
+
+    /**
+     * Filters pixels[offset, offset + length) in place. Adaptive chains build their table in a
+     * fresh scratch; see {@link #apply(byte[], int, int, Scratch)} to reuse one.
+     */
+    public void apply(byte[] pixels, int offset, int length) {
+        apply(pixels, offset, length, mLut != null ? null : new Scratch());
+    }
+
+    /**
+     * Filters pixels[offset, offset + length) in place without allocating. An adaptive chain
+     * counts the histogram in one pass and maps the pixels in a second.
+     *
+     * @param scratch where an adaptive chain builds its table; may be null for a fixed chain
+     */
+    public void apply(byte[] pixels, int offset, int length, Scratch scratch) {
+        if (isIdentity()) return;
+        byte[] lut = mLut;
+        if (lut == null) {
+            int[] histogram = scratch.mHistogram;
+            Arrays.fill(histogram, 0);
+            for (int i = offset, end = offset + length; i < end; i++) {
+                histogram[pixels[i] & 0xFF]++;
+            }
+            lut = compile(histogram, scratch);
+        }
+        map(pixels, offset, length, lut);
+    }
+
+    /**
+     * Converts an RGBA region to gray and filters it without allocating. A fixed chain rides along
+     * in the conversion pass. An adaptive one counts the histogram during the conversion and maps
+     * the converted pixels in one more pass. The other parameters are those of
+     * {@link GrayscaleConverter#convert(ByteBuffer, int, int, int, int, int, int, byte[], byte[])}.
+     *
+     * @param scratch where an adaptive chain builds its table; may be null for a fixed chain
+     */
+    public void convert(ByteBuffer src, int rowStride, int pixelStride, int left, int top, int width, int height,
+                        byte[] dst, byte[] rowScratch, Scratch scratch) {
+        if (isAdaptive()) {
+            GrayscaleConverter.convertCounting(src, rowStride, pixelStride, left, top, width, height, dst, rowScratch,
+                    scratch.mHistogram);
+            map(dst, 0, width * height, compile(scratch.mHistogram, scratch));
+        } else {
+            GrayscaleConverter.convert(src, rowStride, pixelStride, left, top, width, height, dst, rowScratch,
+                    isIdentity() ? null : mLut);
+        }
+    }
+
+    private static void map(byte[] pixels, int offset, int length, byte[] lut) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            pixels[i] = lut[pixels[i] & 0xFF];
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (isIdentity()) return "identity";
+        StringBuilder sb = new StringBuilder();
+        for (Filter filter : mFilters) {
+            if (sb.length() > 0) sb.append(" > ");
+            sb.append(filter);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Stretches [black, white] to the full range, clipping everything outside it.
+     */
+    public static Filter levels(final int black, final int white) {
+        if (black < 0 || white > 255 || black >= white) {
+            throw new IllegalArgumentException("Invalid levels " + black + ".." + white);
+        }
+        return new Filter("levels " + black + ".." + white) {
+            @Override
+            void fill(int[] histogram, int[] map) {
+                fillLevels(black, white, map);
+            }
+        };
+    }
+
+    /**
+     * Levels whose end points are picked from the image: the darkest and lightest levels after
+     * ignoring clipFraction of the pixels at each end. Images whose remaining range is narrow,
+     * like a blank page, are passed through unchanged.
+     */
+    public static Filter autoLevels(final double clipFraction) {
+        if (clipFraction < 0 || clipFraction >= 0.5) {
+            throw new IllegalArgumentException("Invalid clip fraction " + clipFraction);
+        }
+        return new Filter("auto levels " + clipFraction) {
+            @Override
+            void fill(int[] histogram, int[] map) {
+                long total = 0;
+                for (int count : histogram) total += count;
+                long clip = (long) (total * clipFraction);
+                int black = 0;
+                long seen = histogram[0];
+                while (black < 255 && seen <= clip) seen += histogram[++black];
+                int white = 255;
+                seen = histogram[255];
+                while (white > 0 && seen <= clip) seen += histogram[--white];
+                if (white - black < AUTO_LEVELS_MIN_RANGE) {
+                    for (int v = 0; v < LEVELS; v++) map[v] = v;
+                } else {
+                    fillLevels(black, white, map);
+                }
+            }
+
+            @Override
+            boolean isAdaptive() {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Power-law midtone correction; gamma above 1 lightens, below 1 darkens. Black and white stay put.
+     */
+    public static Filter gamma(final double gamma) {
+        if (!(gamma > 0)) {
+            throw new IllegalArgumentException("Invalid gamma " + gamma);
+        }
+        return new Filter("gamma " + gamma) {
+            @Override
+            void fill(int[] histogram, int[] map) {
+                for (int v = 0; v < LEVELS; v++) {
+                    map[v] = (int) Math.round(255 * Math.pow(v / 255.0, 1 / gamma));
+                }
+            }
+        };
+    }
+
+    /**
+     * Scales the distance from mid-gray by amount; above 1 adds contrast, below 1 flattens.
+     */
+    public static Filter contrast(final double amount) {
+        if (!(amount >= 0)) {
+            throw new IllegalArgumentException("Invalid contrast " + amount);
+        }
+        return new Filter("contrast " + amount) {
+            @Override
+            void fill(int[] histogram, int[] map) {
+                for (int v = 0; v < LEVELS; v++) {
+                    map[v] = clamp((int) Math.round((v - 127.5) * amount + 127.5));
+                }
+            }
+        };
+    }
+
+    /**
+     * Turns light backgrounds white to save toner: levels from cutOff up print as paper, and the
+     * few levels below it ramp up to white so anti-aliased edges do not get a hard rim.
+     */
+    public static Filter whiten(final int cutOff) {
+        if (cutOff <= WHITEN_KNEE || cutOff > 255) {
+            throw new IllegalArgumentException("Invalid whitening cut-off " + cutOff);
+        }
+        return new Filter("whiten " + cutOff) {
+            @Override
+            void fill(int[] histogram, int[] map) {
+                int kneeStart = cutOff - WHITEN_KNEE;
+                for (int v = 0; v < LEVELS; v++) {
+                    if (v >= cutOff) {
+                        map[v] = 255;
+                    } else if (v <= kneeStart) {
+                        map[v] = v;
+                    } else {
+                        map[v] = kneeStart + ((v - kneeStart) * (255 - kneeStart) + WHITEN_KNEE / 2) / WHITEN_KNEE;
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Pure black and white: levels from cutOff up become white, the rest black.
+     */
+    public static Filter threshold(final int cutOff) {
+        if (cutOff < 1 || cutOff > 255) {
+            throw new IllegalArgumentException("Invalid threshold " + cutOff);
+        }
+        return new Filter("threshold " + cutOff) {
+            @Override
+            void fill(int[] histogram, int[] map) {
+                for (int v = 0; v < LEVELS; v++) map[v] = v >= cutOff ? 255 : 0;
+            }
+        };
+    }
+
+    private static void fillLevels(int black, int white, int[] map) {
+        int range = white - black;
+        for (int v = 0; v < LEVELS; v++) {
+            map[v] = clamp(((v - black) * 255 + range / 2) / range);
+        }
+    }
+
+    private static int clamp(int v) {
+        return v < 0 ? 0 : (v > 255 ? 255 : v);
+    }
+}
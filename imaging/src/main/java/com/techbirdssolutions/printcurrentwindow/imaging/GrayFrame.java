@@ -0,0 +1,85 @@
+package com.techbirdssolutions.printcurrentwindow.imaging;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An 8-bit luminance image stored row by row with no padding (0 = black, 255 = white).
+ *
+ * Frames are reference counted so one capture can be shared by the print and gallery branches;
+ * a frame borrowed from a pool goes back to it when the last holder calls {@link #release()}.
+ */
+public class GrayFrame {
+
+    private final int mWidth;
+    private final int mHeight;
+    private final byte[] mPixels;
+    private final AtomicInteger mRefCount = new AtomicInteger(1);
+    private BufferPool<byte[]> mPool;
+
+    public GrayFrame(int width, int height) {
+        this(width, height, new byte[width * height]);
+    }
+
+    public GrayFrame(int width, int height, byte[] pixels) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid frame size " + width + "x" + height);
+        }
+        if (pixels.length < width * height) {
+            throw new IllegalArgumentException("Pixel buffer too small for " + width + "x" + height);
+        }
+        mWidth = width;
+        mHeight = height;
+        mPixels = pixels;
+    }
+
+    /**
+     * Creates a frame whose pixels are borrowed from the pool and returned on the final release.
+     */
+    public static GrayFrame fromPool(BufferPool<byte[]> pool, int width, int height) {
+        GrayFrame frame = new GrayFrame(width, height, pool.acquire(width * height));
+        frame.mPool = pool;
+        return frame;
+    }
+
+    /**
+     * Adds a holder; each retain() must be paired with a release().
+     */
+    public GrayFrame retain() {
+        if (mRefCount.getAndIncrement() <= 0) {
+            throw new IllegalStateException("Frame already released");
+        }
+        return this;
+    }
+
+    public void release() {
+        int count = mRefCount.decrementAndGet();
+        if (count == 0 && mPool != null) {
+            mPool.release(mPixels.length, mPixels);
+        } else if (count < 0) {
+            throw new IllegalStateException("Frame released too many times");
+        }
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * The backing array; it may be longer than width * height when borrowed from a pool.
+     */
+    public byte[] getPixels() {
+        return mPixels;
+    }
+
+    public int getPixel(int x, int y) {
+        return mPixels[y * mWidth + x] & 0xFF;
+    }
+
+    public int getByteCount() {
+        return mWidth * mHeight;
+    }
+}
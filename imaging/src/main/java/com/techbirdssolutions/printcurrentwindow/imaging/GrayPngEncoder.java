@@ -0,0 +1,317 @@
+package com.techbirdssolutions.printcurrentwindow.imaging;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes grayscale PNGs (color type 0) at 8 bits, or 1 bit for black-and-white frames.
+ *
+ * Rows are split into blocks that are filtered and deflated independently on the executor,
+ * then stitched into one zlib stream: every block but the last ends on a sync flush, so the raw
+ * deflate outputs concatenate into a valid stream, and the block checksums are combined into the
+ * stream's Adler-32. Each block is written as its own IDAT chunk as soon as it is ready, in order.
+ *
+ * Row filters are chosen per row with the usual minimum-sum-of-absolute-differences heuristic.
+ */
+public class GrayPngEncoder {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int TARGET_BLOCK_BYTES = 256 * 1024; // Filtered bytes per parallel block
+
+    private static final int FILTER_NONE = 0;
+    private static final int FILTER_SUB = 1;
+    private static final int FILTER_UP = 2;
+    private static final int FILTER_AVERAGE = 3;
+    private static final int FILTER_PAETH = 4;
+
+    private final Executor mExecutor;
+    private final int mLevel;
+
+    public GrayPngEncoder() {
+        this(ForkJoinPool.commonPool(), Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public GrayPngEncoder(Executor executor, int compressionLevel) {
+        mExecutor = executor;
+        mLevel = compressionLevel;
+    }
+
+    /**
+     * True if every pixel is pure black or pure white, so a 1-bit PNG loses nothing.
+     */
+    public static boolean isBilevel(GrayFrame frame) {
+        byte[] pixels = frame.getPixels();
+        for (int i = 0, n = frame.getByteCount(); i < n; i++) {
+            byte p = pixels[i];
+            if (p != 0 && p != (byte) 0xFF) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Encodes the frame as an 8-bit PNG. The stream is not closed.
+     */
+    public void encode(GrayFrame frame, OutputStream out) throws IOException {
+        encode(frame, 8, out);
+    }
+
+    /**
+     * Encodes the frame at 8 or 1 bits per pixel; at 1 bit, values of 128 and up are white.
+     * The stream is not closed.
+     */
+    public void encode(GrayFrame frame, int bitDepth, OutputStream out) throws IOException {
+        if (bitDepth != 8 && bitDepth != 1) {
+            throw new IllegalArgumentException("Unsupported bit depth " + bitDepth);
+        }
+        final int width = frame.getWidth();
+        final int height = frame.getHeight();
+        final int rowBytes = bitDepth == 8 ? width : (width + 7) / 8;
+        int rowsPerBlock = Math.max(1, TARGET_BLOCK_BYTES / (rowBytes + 1));
+
+        out.write(SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = (byte) bitDepth;
+        header[9] = 0; // Grayscale
+        // Compression, filter and interlace methods stay 0
+        writeChunk(out, "IHDR", header, 0, header.length);
+
+        List<CompletableFuture<Block>> blocks = new ArrayList<>();
+        for (int top = 0; top < height; top += rowsPerBlock) {
+            final int first = top;
+            final int last = Math.min(height, top + rowsPerBlock);
+            blocks.add(CompletableFuture.supplyAsync(
+                    () -> encodeBlock(frame, bitDepth, rowBytes, first, last, last == height), mExecutor));
+        }
+
+        // zlib header for deflate with a 32K window; the level hint is informational only
+        byte[] zlibHeader = {0x78, (byte) 0x9C};
+        writeChunk(out, "IDAT", zlibHeader, 0, zlibHeader.length);
+        long adler = 1;
+        try {
+            for (CompletableFuture<Block> future : blocks) {
+                Block block = future.get();
+                writeChunk(out, "IDAT", block.mData, 0, block.mLength);
+                adler = adler32Combine(adler, block.mAdler, block.mRawLength);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("PNG encoding interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("PNG encoding failed", e.getCause());
+        }
+        byte[] trailer = new byte[4];
+        putInt(trailer, 0, (int) adler);
+        writeChunk(out, "IDAT", trailer, 0, trailer.length);
+        writeChunk(out, "IEND", new byte[0], 0, 0);
+    }
+
+    private static final class Block {
+        final byte[] mData;
+        final int mLength;
+        final long mAdler;
+        final int mRawLength;
+
+        Block(byte[] data, int length, long adler, int rawLength) {
+            mData = data;
+            mLength = length;
+            mAdler = adler;
+            mRawLength = rawLength;
+        }
+    }
+
+    private Block encodeBlock(GrayFrame frame, int bitDepth, int rowBytes, int firstRow, int endRow, boolean last) {
+        int stride = rowBytes + 1;
+        byte[] filtered = new byte[(endRow - firstRow) * stride];
+        byte[] previous = new byte[rowBytes];
+        byte[] current = new byte[rowBytes];
+        if (firstRow > 0) {
+            packRow(frame, bitDepth, firstRow - 1, previous);
+        }
+        int bpp = 1; // Gray8 and Gray1 both filter against the previous byte
+        for (int y = firstRow; y < endRow; y++) {
+            packRow(frame, bitDepth, y, current);
+            int offset = (y - firstRow) * stride;
+            int filter = chooseFilter(current, previous, bpp);
+            filtered[offset] = (byte) filter;
+            applyFilter(filter, current, previous, bpp, filtered, offset + 1);
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        Adler32 adler = new Adler32();
+        adler.update(filtered, 0, filtered.length);
+
+        Deflater deflater = new Deflater(mLevel, true);
+        try {
+            deflater.setInput(filtered);
+            if (last) deflater.finish();
+            byte[] out = new byte[filtered.length / 2 + 1024];
+            int length = 0;
+            while (true) {
+                if (length == out.length) {
+                    byte[] grown = new byte[out.length * 2];
+                    System.arraycopy(out, 0, grown, 0, length);
+                    out = grown;
+                }
+                int n = deflater.deflate(out, length, out.length - length,
+                        last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                length += n;
+                // A flush is complete once it leaves spare room; the last block ends at finished()
+                if (last ? deflater.finished() : length < out.length) break;
+            }
+            return new Block(out, length, adler.getValue(), filtered.length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void packRow(GrayFrame frame, int bitDepth, int y, byte[] row) {
+        byte[] pixels = frame.getPixels();
+        int width = frame.getWidth();
+        int offset = y * width;
+        if (bitDepth == 8) {
+            System.arraycopy(pixels, offset, row, 0, width);
+            return;
+        }
+        for (int i = 0; i < row.length; i++) {
+            int bits = 0;
+            int x0 = i * 8;
+            for (int b = 0; b < 8; b++) {
+                int x = x0 + b;
+                // Padding bits past the right edge stay 0
+                if (x < width && (pixels[offset + x] & 0xFF) >= 128) bits |= 0x80 >>> b;
+            }
+            row[i] = (byte) bits;
+        }
+    }
+
+    /**
+     * Picks the filter with the smallest sum of absolute values over the row, read as signed
+     * bytes. Costs are summed in one pass without materializing the candidate rows.
+     */
+    static int chooseFilter(byte[] row, byte[] previous, int bpp) {
+        long none = 0, sub = 0, up = 0, average = 0, paeth = 0;
+        for (int i = 0; i < row.length; i++) {
+            int x = row[i] & 0xFF;
+            int a = i >= bpp ? row[i - bpp] & 0xFF : 0;
+            int b = previous[i] & 0xFF;
+            int c = i >= bpp ? previous[i - bpp] & 0xFF : 0;
+            none += Math.abs((byte) x);
+            sub += Math.abs((byte) (x - a));
+            up += Math.abs((byte) (x - b));
+            average += Math.abs((byte) (x - ((a + b) >>> 1)));
+            paeth += Math.abs((byte) (x - paeth(a, b, c)));
+        }
+        int best = FILTER_NONE;
+        long cost = none;
+        if (sub < cost) {
+            best = FILTER_SUB;
+            cost = sub;
+        }
+        if (up < cost) {
+            best = FILTER_UP;
+            cost = up;
+        }
+        if (average < cost) {
+            best = FILTER_AVERAGE;
+            cost = average;
+        }
+        if (paeth < cost) {
+            best = FILTER_PAETH;
+        }
+        return best;
+    }
+
+    /**
+     * Writes the filtered row to out at offset.
+     */
+    static void applyFilter(int filter, byte[] row, byte[] previous, int bpp, byte[] out, int offset) {
+        for (int i = 0; i < row.length; i++) {
+            int x = row[i] & 0xFF;
+            int a = i >= bpp ? row[i - bpp] & 0xFF : 0;
+            int b = previous[i] & 0xFF;
+            int predicted;
+            switch (filter) {
+                case FILTER_SUB:
+                    predicted = a;
+                    break;
+                case FILTER_UP:
+                    predicted = b;
+                    break;
+                case FILTER_AVERAGE:
+                    predicted = (a + b) >>> 1;
+                    break;
+                case FILTER_PAETH:
+                    predicted = paeth(a, b, i >= bpp ? previous[i - bpp] & 0xFF : 0);
+                    break;
+                default:
+                    predicted = 0;
+                    break;
+            }
+            out[offset + i] = (byte) (x - predicted);
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) return a;
+        if (pb <= pc) return b;
+        return c;
+    }
+
+    /**
+     * The Adler-32 of two concatenated inputs from the checksums of each part, as in zlib's
+     * adler32_combine().
+     */
+    static long adler32Combine(long adler1, long adler2, long length2) {
+        final long base = 65521;
+        long rem = length2 % base;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (rem * sum1) % base;
+        sum1 += (adler2 & 0xFFFF) + base - 1;
+        sum2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + base - rem;
+        if (sum1 >= base) sum1 -= base;
+        if (sum1 >= base) sum1 -= base;
+        if (sum2 >= (base << 1)) sum2 -= (base << 1);
+        if (sum2 >= base) sum2 -= base;
+        return (sum2 << 16) | sum1;
+    }
+
+    private static void writeChunk(OutputStream out, String type, byte[] data, int offset, int length) throws IOException {
+        byte[] head = new byte[8];
+        putInt(head, 0, length);
+        for (int i = 0; i < 4; i++) {
+            head[4 + i] = (byte) type.charAt(i);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(head, 4, 4);
+        crc.update(data, offset, length);
+        byte[] tail = new byte[4];
+        putInt(tail, 0, (int) crc.getValue());
+        out.write(head);
+        out.write(data, offset, length);
+        out.write(tail);
+    }
+
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+}
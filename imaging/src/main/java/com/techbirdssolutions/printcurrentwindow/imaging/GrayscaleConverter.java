@@ -0,0 +1,150 @@
+package com.techbirdssolutions.printcurrentwindow.imaging;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Converts an RGBA_8888 image plane straight into 8-bit luminance in a single pass.
+ *
+ * Rows are read with their real rowStride/pixelStride, so the ImageReader padding never has to be
+ * copied into an intermediate Bitmap, and an optional crop rectangle is applied on the way.
+ * The weights are the Rec. 709 ones that ColorMatrix.setSaturation(0) uses, scaled to 1/256.
+ */
+public final class GrayscaleConverter {
+
+    private static final int WEIGHT_R = 54;
+    private static final int WEIGHT_G = 183;
+    private static final int WEIGHT_B = 19;
+
+    private GrayscaleConverter() {
+    }
+
+    public static int luminance(int r, int g, int b) {
+        return (WEIGHT_R * r + WEIGHT_G * g + WEIGHT_B * b + 128) >> 8;
+    }
+
+    /**
+     * Converts the whole plane. See {@link #convert(ByteBuffer, int, int, int, int, int, int, byte[], byte[])}.
+     */
+    public static GrayFrame convert(ByteBuffer src, int rowStride, int pixelStride, int width, int height) {
+        GrayFrame frame = new GrayFrame(width, height);
+        convert(src, rowStride, pixelStride, 0, 0, width, height, frame.getPixels(),
+                new byte[width * pixelStride]);
+        return frame;
+    }
+
+    /**
+     * Writes the luminance of the (left, top, width, height) region of an RGBA plane into dst,
+     * packed at width bytes per row.
+     *
+     * @param src         the plane buffer, positioned anywhere; its position is restored afterwards
+     * @param rowStride   bytes between the starts of two rows in src, padding included
+     * @param pixelStride bytes between two pixels in a row (4 for RGBA_8888)
+     * @param rowScratch  a reusable buffer of at least width * pixelStride bytes, so the call allocates nothing
+     */
+    public static void convert(ByteBuffer src, int rowStride, int pixelStride,
+                               int left, int top, int width, int height,
+                               byte[] dst, byte[] rowScratch) {
+        convert(src, rowStride, pixelStride, left, top, width, height, dst, rowScratch, null);
+    }
+
+    /**
+     * Like {@link #convert(ByteBuffer, int, int, int, int, int, int, byte[], byte[])}, but maps
+     * each luminance through a 256-entry table on the way out, so tone filters cost no extra pass.
+     *
+     * @param lut the output level for each luminance, or null to write the luminance itself
+     */
+    public static void convert(ByteBuffer src, int rowStride, int pixelStride,
+                               int left, int top, int width, int height,
+                               byte[] dst, byte[] rowScratch, byte[] lut) {
+        if (lut != null && lut.length < 256) {
+            throw new IllegalArgumentException("Lookup table needs 256 entries, has " + lut.length);
+        }
+        checkRegion(src, rowStride, pixelStride, left, top, width, height, dst, rowScratch);
+
+        int rowBytes = width * pixelStride;
+        int savedPosition = src.position();
+        try {
+            int out = 0;
+            for (int y = 0; y < height; y++) {
+                src.position((top + y) * rowStride + left * pixelStride);
+                src.get(rowScratch, 0, rowBytes);
+                // Two copies of the loop keep the table lookup out of the plain conversion
+                if (lut == null) {
+                    for (int i = 0; i < rowBytes; i += pixelStride) {
+                        int r = rowScratch[i] & 0xFF;
+                        int g = rowScratch[i + 1] & 0xFF;
+                        int b = rowScratch[i + 2] & 0xFF;
+                        dst[out++] = (byte) ((WEIGHT_R * r + WEIGHT_G * g + WEIGHT_B * b + 128) >> 8);
+                    }
+                } else {
+                    for (int i = 0; i < rowBytes; i += pixelStride) {
+                        int r = rowScratch[i] & 0xFF;
+                        int g = rowScratch[i + 1] & 0xFF;
+                        int b = rowScratch[i + 2] & 0xFF;
+                        dst[out++] = lut[(WEIGHT_R * r + WEIGHT_G * g + WEIGHT_B * b + 128) >> 8];
+                    }
+                }
+            }
+        } finally {
+            src.position(savedPosition);
+        }
+    }
+
+    /**
+     * Like {@link #convert(ByteBuffer, int, int, int, int, int, int, byte[], byte[])}, but also
+     * counts how many pixels come out at each luminance, so an adaptive tone filter needs no extra
+     * read pass for its histogram.
+     *
+     * @param histogram 256 counters, overwritten with the histogram of dst
+     */
+    public static void convertCounting(ByteBuffer src, int rowStride, int pixelStride,
+                                       int left, int top, int width, int height,
+                                       byte[] dst, byte[] rowScratch, int[] histogram) {
+        if (histogram.length < 256) {
+            throw new IllegalArgumentException("Histogram needs 256 counters, has " + histogram.length);
+        }
+        checkRegion(src, rowStride, pixelStride, left, top, width, height, dst, rowScratch);
+
+        int rowBytes = width * pixelStride;
+        Arrays.fill(histogram, 0, 256, 0);
+        int savedPosition = src.position();
+        try {
+            int out = 0;
+            for (int y = 0; y < height; y++) {
+                src.position((top + y) * rowStride + left * pixelStride);
+                src.get(rowScratch, 0, rowBytes);
+                for (int i = 0; i < rowBytes; i += pixelStride) {
+                    int r = rowScratch[i] & 0xFF;
+                    int g = rowScratch[i + 1] & 0xFF;
+                    int b = rowScratch[i + 2] & 0xFF;
+                    int gray = (WEIGHT_R * r + WEIGHT_G * g + WEIGHT_B * b + 128) >> 8;
+                    dst[out++] = (byte) gray;
+                    histogram[gray]++;
+                }
+            }
+        } finally {
+            src.position(savedPosition);
+        }
+    }
+
+    private static void checkRegion(ByteBuffer src, int rowStride, int pixelStride,
+                                    int left, int top, int width, int height,
+                                    byte[] dst, byte[] rowScratch) {
+        if (pixelStride < 3) {
+            throw new IllegalArgumentException("Unsupported pixel stride " + pixelStride);
+        }
+        int rowBytes = width * pixelStride;
+        if (rowScratch.length < rowBytes) {
+            throw new IllegalArgumentException("Row scratch too small: " + rowScratch.length + " < " + rowBytes);
+        }
+        if (dst.length < width * height) {
+            throw new IllegalArgumentException("Destination too small for " + width + "x" + height);
+        }
+        // The last row may be shorter than rowStride, so only its visible part has to exist
+        long lastByte = (long) (top + height - 1) * rowStride + (long) (left + width) * pixelStride;
+        if (left < 0 || top < 0 || lastByte > src.limit()) {
+            throw new IllegalArgumentException("Region exceeds the source buffer");
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.techbirdssolutions.printcurrentwindow.imaging;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Frame pixels kept in memory-mapped files instead of the Java heap, so batches, long captures
+ * and reprints can hold far more than the heap limit; the kernel pages them in and out of the
+ * page cache as needed.
+ *
+ * Frames are carved out of fixed-size segment files with a bump allocator; a frame larger than a
+ * segment gets a segment of its own. A segment file is deleted once every frame in it has been
+ * freed, except the one new frames go into, which is rewound and reused. Java cannot unmap
+ * explicitly, so the disk space of a deleted segment comes back when its mapping is collected.
+ * A new segment is written out in full before it is mapped, so running out of disk is an
+ * IOException from {@link #put(GrayFrame)} rather than a fault on a write through the mapping.
+ *
+ * Slots are read and written through {@link Slot#buffer()} without copying; only
+ * {@link #put(GrayFrame)} and {@link Slot#load(BufferPool)} copy, since the kernels work on heap
+ * arrays. All segment files in the directory belong to the store: leftovers from a previous
+ * process are deleted when it opens, and everything is deleted on {@link #close()}.
+ */
+public class MappedFrameStore implements Closeable {
+
+    public static final int DEFAULT_SEGMENT_BYTES = 32 << 20;
+
+    private static final String SEGMENT_PREFIX = "frames-";
+    private static final String SEGMENT_SUFFIX = ".map";
+    private static final int FILL_CHUNK_BYTES = 64 << 10;
+
+    private static final class Segment {
+        final File mFile;
+        final MappedByteBuffer mBuffer;
+        final int mCapacity;
+        int mUsed;
+        int mLiveSlots;
+
+        Segment(File file, MappedByteBuffer buffer, int capacity) {
+            mFile = file;
+            mBuffer = buffer;
+            mCapacity = capacity;
+        }
+    }
+
+    /**
+     * One frame's pixels in the store, packed at width bytes per row like {@link GrayFrame}.
+     */
+    public final class Slot {
+
+        private final Segment mSegment;
+        private final int mOffset;
+        private final int mWidth;
+        private final int mHeight;
+        private boolean mFreed;
+
+        Slot(Segment segment, int offset, int width, int height) {
+            mSegment = segment;
+            mOffset = offset;
+            mWidth = width;
+            mHeight = height;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        public int getByteCount() {
+            return mWidth * mHeight;
+        }
+
+        /**
+         * A read-write view of exactly this frame's bytes, positioned at 0. Each call returns a
+         * fresh view, so threads do not share a position.
+         */
+        public ByteBuffer buffer() {
+            synchronized (MappedFrameStore.this) {
+                if (mFreed || mClosed) throw new IllegalStateException("Slot freed");
+                ByteBuffer view = mSegment.mBuffer.duplicate();
+                view.position(mOffset);
+                view.limit(mOffset + getByteCount());
+                return view.slice();
+            }
+        }
+
+        /**
+         * Copies the frame onto the heap for the kernels; the caller releases the returned frame.
+         */
+        public GrayFrame load(BufferPool<byte[]> pool) {
+            GrayFrame frame = GrayFrame.fromPool(pool, mWidth, mHeight);
+            buffer().get(frame.getPixels(), 0, getByteCount());
+            return frame;
+        }
+
+        /**
+         * Gives the space back. Further access to the slot fails; freeing twice does nothing.
+         */
+        public void free() {
+            synchronized (MappedFrameStore.this) {
+                if (mFreed) return;
+                mFreed = true;
+                if (mClosed) return;
+                mLiveBytes -= getByteCount();
+                if (--mSegment.mLiveSlots == 0) {
+                    releaseSegment(mSegment);
+                }
+            }
+        }
+    }
+
+    private final File mDir;
+    private final int mSegmentBytes;
+    private final List<Segment> mSegments = new ArrayList<>();
+    private Segment mCurrent; // Where new frames are carved out
+    private int mNextSegmentId;
+    private long mLiveBytes;
+    private long mMappedBytes;
+    private long mPeakMappedBytes;
+    private boolean mClosed;
+
+    public MappedFrameStore(File dir) throws IOException {
+        this(dir, DEFAULT_SEGMENT_BYTES);
+    }
+
+    public MappedFrameStore(File dir, int segmentBytes) throws IOException {
+        if (segmentBytes <= 0) {
+            throw new IllegalArgumentException("Invalid segment size " + segmentBytes);
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        mDir = dir;
+        mSegmentBytes = segmentBytes;
+        deleteSegmentFiles();
+    }
+
+    /**
+     * Copies the frame into the store. The caller keeps its reference.
+     */
+    public Slot put(GrayFrame frame) throws IOException {
+        Slot slot = allocate(frame.getWidth(), frame.getHeight());
+        slot.buffer().put(frame.getPixels(), 0, frame.getByteCount());
+        return slot;
+    }
+
+    /**
+     * Reserves room for a width x height frame, to be filled through {@link Slot#buffer()}.
+     * The contents start out unspecified.
+     */
+    public synchronized Slot allocate(int width, int height) throws IOException {
+        if (mClosed) throw new IllegalStateException("Store closed");
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid frame size " + width + "x" + height);
+        }
+        long bytes = (long) width * height;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Frame too large: " + width + "x" + height);
+        }
+        Segment segment;
+        if (bytes > mSegmentBytes) {
+            segment = mapSegment((int) bytes); // Gets a segment of its own, never shared
+        } else {
+            if (mCurrent == null || mCurrent.mCapacity - mCurrent.mUsed < bytes) {
+                Segment full = mCurrent;
+                mCurrent = mapSegment(mSegmentBytes);
+                if (full != null && full.mLiveSlots == 0) releaseSegment(full);
+            }
+            segment = mCurrent;
+        }
+        Slot slot = new Slot(segment, segment.mUsed, width, height);
+        segment.mUsed += (int) bytes;
+        segment.mLiveSlots++;
+        mLiveBytes += bytes;
+        return slot;
+    }
+
+    private Segment mapSegment(int capacity) throws IOException {
+        long usable = mDir.getUsableSpace();
+        if (usable < capacity) {
+            throw new IOException("Only " + (usable >> 10) + " KiB free for a " + (capacity >> 10) + " KiB segment");
+        }
+        File file = new File(mDir, SEGMENT_PREFIX + mNextSegmentId++ + SEGMENT_SUFFIX);
+        MappedByteBuffer buffer;
+        // The mapping stays valid after the file is closed
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            FileChannel channel = raf.getChannel();
+            // Not setLength(): the sparse file it leaves gets its blocks on the first write through
+            // the mapping, and a full disk then faults there instead of failing here
+            ByteBuffer zeros = ByteBuffer.allocate(Math.min(capacity, FILL_CHUNK_BYTES));
+            for (long position = 0; position < capacity; ) {
+                zeros.clear();
+                zeros.limit((int) Math.min(zeros.capacity(), capacity - position));
+                position += channel.write(zeros, position);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        }
+        Segment segment = new Segment(file, buffer, capacity);
+        mSegments.add(segment);
+        mMappedBytes += capacity;
+        mPeakMappedBytes = Math.max(mPeakMappedBytes, mMappedBytes);
+        return segment;
+    }
+
+    private void releaseSegment(Segment segment) {
+        if (segment == mCurrent) {
+            segment.mUsed = 0; // Keep the mapping warm for the next frames
+            return;
+        }
+        mSegments.remove(segment);
+        mMappedBytes -= segment.mCapacity;
+        segment.mFile.delete();
+    }
+
+    private void deleteSegmentFiles() {
+        File[] files = mDir.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Bytes of frames not freed yet.
+     */
+    public synchronized long getLiveBytes() {
+        return mLiveBytes;
+    }
+
+    /**
+     * Bytes of segment files currently mapped, live frames plus slack.
+     */
+    public synchronized long getMappedBytes() {
+        return mMappedBytes;
+    }
+
+    public synchronized long getPeakMappedBytes() {
+        return mPeakMappedBytes;
+    }
+
+    public synchronized int getSegmentCount() {
+        return mSegments.size();
+    }
+
+    public synchronized String describe() {
+        return String.format(Locale.US, "Mapped frames: %d KiB live in %d segments, %d KiB mapped (peak %d KiB)",
+                mLiveBytes / 1024, mSegments.size(), mMappedBytes / 1024, mPeakMappedBytes / 1024);
+    }
+
+    /**
+     * Deletes every segment file. Slots still held become unusable.
+     */
+    @Override
+    public synchronized void close() {
+        if (mClosed) return;
+        mClosed = true;
+        for (Segment segment : mSegments) {
+            segment.mFile.delete();
+        }
+        mSegments.clear();
+        mCurrent = null;
+        mLiveBytes = 0;
+        mMappedBytes = 0;
+    }
+}
@@ -0,0 +1,109 @@
+package com.techbirdssolutions.printcurrentwindow.imaging;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A difference hash (dHash) of a frame: the frame is split into a grid of cells, and each bit
+ * says whether a cell is brighter than its right-hand neighbour. Frames that look the same hash
+ * the same, whatever their compression noise, and the Hamming distance between two hashes grows
+ * with how much of the picture changed.
+ *
+ * The grid is fine (64 x 32 comparisons) so that a changed line of text still flips bits, and
+ * each cell is averaged from at most 4 x 8 sample pixels, so hashing reads about 66k pixels at any
+ * resolution. Hashing the RGBA capture and the gray frame converted from it gives the same hash.
+ */
+public final class PerceptualHash {
+
+    public static final int DEFAULT_TOLERANCE = 2; // Differing bits still taken as the same picture
+
+    private static final int COLUMNS = 64; // Comparisons per grid row; one more cell than that
+    private static final int ROWS = 32;
+    private static final int SAMPLES_X = 4;
+    private static final int SAMPLES_Y = 8;
+    public static final int WORDS = COLUMNS * ROWS / 64;
+
+    private interface Luma {
+        int at(int x, int y);
+    }
+
+    private PerceptualHash() {
+    }
+
+    /**
+     * Hashes the region [left, left + width) x [top, top + height) of an RGBA plane.
+     */
+    public static long[] of(final ByteBuffer src, final int rowStride, final int pixelStride,
+                            final int left, final int top, int width, int height) {
+        if (pixelStride < 3) {
+            throw new IllegalArgumentException("Unsupported pixel stride " + pixelStride);
+        }
+        return hash(width, height, (x, y) -> {
+            int index = (top + y) * rowStride + (left + x) * pixelStride;
+            return GrayscaleConverter.luminance(src.get(index) & 0xFF, src.get(index + 1) & 0xFF,
+                    src.get(index + 2) & 0xFF);
+        });
+    }
+
+    public static long[] of(GrayFrame frame) {
+        final byte[] pixels = frame.getPixels();
+        final int width = frame.getWidth();
+        return hash(width, frame.getHeight(), (x, y) -> pixels[y * width + x] & 0xFF);
+    }
+
+    public static int distance(long[] a, long[] b) {
+        int distance = 0;
+        for (int i = 0; i < WORDS; i++) {
+            distance += Long.bitCount(a[i] ^ b[i]);
+        }
+        return distance;
+    }
+
+    private static long[] hash(int width, int height, Luma luma) {
+        int[] xs = samples(width, COLUMNS + 1, SAMPLES_X);
+        int[] ys = samples(height, ROWS, SAMPLES_Y);
+        long[] bits = new long[WORDS];
+        long[] sums = new long[COLUMNS + 1];
+        int[] counts = new int[COLUMNS + 1];
+        int bit = 0;
+        for (int row = 0; row < ROWS; row++) {
+            for (int cell = 0; cell <= COLUMNS; cell++) {
+                long sum = 0;
+                int count = 0;
+                for (int sy = row * SAMPLES_Y; sy < (row + 1) * SAMPLES_Y; sy++) {
+                    if (ys[sy] < 0) continue;
+                    for (int sx = cell * SAMPLES_X; sx < (cell + 1) * SAMPLES_X; sx++) {
+                        if (xs[sx] < 0) continue;
+                        sum += luma.at(xs[sx], ys[sy]);
+                        count++;
+                    }
+                }
+                sums[cell] = sum;
+                counts[cell] = count;
+            }
+            for (int cell = 0; cell < COLUMNS; cell++, bit++) {
+                // Compare the means without dividing: sum_a / count_a > sum_b / count_b
+                if (sums[cell] * counts[cell + 1] > sums[cell + 1] * counts[cell]) {
+                    bits[bit >>> 6] |= 1L << (bit & 63);
+                }
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Evenly spaced sample positions within each of cells equal slices of length, perCell per
+     * slice; slices narrower than perCell pixels pad with -1.
+     */
+    private static int[] samples(int length, int cells, int perCell) {
+        int[] positions = new int[cells * perCell];
+        for (int cell = 0; cell < cells; cell++) {
+            int start = (int) ((long) cell * length / cells);
+            int end = Math.max(start + 1, (int) ((long) (cell + 1) * length / cells));
+            int n = Math.min(perCell, end - start);
+            for (int k = 0; k < perCell; k++) {
+                positions[cell * perCell + k] = k < n ? start + (2 * k + 1) * (end - start) / (2 * n) : -1;
+            }
+        }
+        return positions;
+    }
+}
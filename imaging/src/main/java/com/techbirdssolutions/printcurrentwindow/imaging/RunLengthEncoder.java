@@ -0,0 +1,64 @@
+package com.techbirdssolutions.printcurrentwindow.imaging;
+
+/**
+ * Byte-oriented run-length coding as read by PDF's RunLengthDecode (the PackBits scheme): a
+ * length byte n below 128 is followed by n + 1 literal bytes, one above 128 by a single byte to
+ * repeat 257 - n times, and 128 ends the data.
+ *
+ * Much weaker than {@link CcittG4Encoder} on text, but it never grows the input by more than one
+ * byte in 128 and costs a single pass, so it is the fallback for pages G4 codes badly.
+ */
+public final class RunLengthEncoder {
+
+    private static final int MAX_RUN = 128;
+    private static final int EOD = 128;
+
+    private RunLengthEncoder() {
+    }
+
+    /**
+     * The most bytes {@link #encode} can write for len input bytes, end marker included.
+     */
+    public static int maxEncodedLength(int len) {
+        return len + (len + MAX_RUN - 1) / MAX_RUN + 1;
+    }
+
+    /**
+     * Codes src[off, off + len) into dst from dstOff, which must have room for
+     * {@link #maxEncodedLength(int)} bytes. Returns the number of bytes written.
+     */
+    public static int encode(byte[] src, int off, int len, byte[] dst, int dstOff) {
+        int end = off + len;
+        int out = dstOff;
+        int i = off;
+        while (i < end) {
+            int run = runLength(src, i, end);
+            if (run >= 2) {
+                dst[out++] = (byte) (257 - run);
+                dst[out++] = src[i];
+                i += run;
+                continue;
+            }
+            // Gather literals until a repeat worth its two bytes starts: three in a row, or two
+            // in a row at the end where breaking the literal costs nothing extra
+            int start = i;
+            while (i < end && i - start < MAX_RUN) {
+                int next = runLength(src, i, Math.min(end, i + 3));
+                if (next >= 3 || (next == 2 && i + 2 == end)) break;
+                i++;
+            }
+            dst[out++] = (byte) (i - start - 1);
+            System.arraycopy(src, start, dst, out, i - start);
+            out += i - start;
+        }
+        dst[out++] = (byte) EOD;
+        return out - dstOff;
+    }
+
+    private static int runLength(byte[] src, int from, int end) {
+        int limit = Math.min(end, from + MAX_RUN);
+        int i = from + 1;
+        while (i < limit && src[i] == src[from]) i++;
+        return i - from;
+    }
+}
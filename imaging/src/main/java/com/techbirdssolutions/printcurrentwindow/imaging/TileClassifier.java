@@ -0,0 +1,124 @@
+package com.techbirdssolutions.printcurrentwindow.imaging;
+
+import java.util.Arrays;
+
+/**
+ * Sorts the tiles of a gray frame into text or line art, which prints well as 1-bit, and
+ * continuous tone such as photos and gradients, which needs gray levels.
+ *
+ * Each tile gets a 16-bin histogram in one pass over the frame. Text is a near-white or
+ * near-black background holding at least half the tile, plus strokes whose anti-aliased edges
+ * leave few mid-tones and hardly any shades just off the background; a photo spreads over
+ * neighbouring bins and is mostly mid-tones. Flat tiles in a
+ * mid gray, like colored bars, stay continuous tone so they keep their shade. A text tile
+ * surrounded by continuous tone on three sides or more is taken to be a flat patch of a photo
+ * and joins it, so highlights and shadows are not cut out of an image.
+ *
+ * Reads every other row and costs one increment per pixel read, cheap enough to run on every
+ * capture.
+ */
+public final class TileClassifier {
+
+    public static final int DEFAULT_TILE_SIZE = 32;
+
+    private static final int BINS = 16;
+    private static final int ROW_STEP = 2; // Every other row is plenty for the histogram, at half the reads
+    private static final int EXTREME_BINS = 2; // Bins at either end, below 32 or from 224, that count as paper or ink
+    private static final int MID_FIRST = 4; // Bins 4..11, gray levels 64..191, are mid-tones
+    private static final int MID_LAST = 11;
+    private static final int MAX_MID_PERCENT = 30;
+    private static final int SHOULDER_BINS = 2; // Bins either side of the background
+    private static final int MAX_SHOULDER_PERCENT = 10;
+
+    private final int mTileSize;
+
+    public TileClassifier() {
+        this(DEFAULT_TILE_SIZE);
+    }
+
+    public TileClassifier(int tileSize) {
+        if (tileSize < 8) throw new IllegalArgumentException("Tile size too small: " + tileSize);
+        mTileSize = tileSize;
+    }
+
+    public int getTileSize() {
+        return mTileSize;
+    }
+
+    public TileMap classify(GrayFrame frame) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int columns = (width + mTileSize - 1) / mTileSize;
+        int rows = (height + mTileSize - 1) / mTileSize;
+        byte[] pixels = frame.getPixels();
+        boolean[] text = new boolean[columns * rows];
+        int[] bins = new int[columns * BINS];
+
+        for (int row = 0; row < rows; row++) {
+            int top = row * mTileSize;
+            int bottom = Math.min(height, top + mTileSize);
+            for (int y = top; y < bottom; y += ROW_STEP) {
+                int offset = y * width;
+                for (int column = 0, left = 0; column < columns; column++, left += mTileSize) {
+                    int base = column * BINS;
+                    int right = Math.min(width, left + mTileSize);
+                    for (int x = left; x < right; x++) {
+                        bins[base + ((pixels[offset + x] & 0xFF) >> 4)]++;
+                    }
+                }
+            }
+            for (int column = 0; column < columns; column++) {
+                int tileWidth = Math.min(width, (column + 1) * mTileSize) - column * mTileSize;
+                int sampledRows = (bottom - top + ROW_STEP - 1) / ROW_STEP;
+                text[row * columns + column] = isText(bins, column * BINS, tileWidth * sampledRows);
+            }
+            Arrays.fill(bins, 0);
+        }
+        absorbIntoImages(text, columns, rows);
+        return new TileMap(width, height, mTileSize, text);
+    }
+
+    private static boolean isText(int[] bins, int base, int pixels) {
+        int dominant = 0;
+        int mid = 0;
+        for (int bin = 0; bin < BINS; bin++) {
+            int count = bins[base + bin];
+            if (count > bins[base + dominant]) dominant = bin;
+            if (bin >= MID_FIRST && bin <= MID_LAST) mid += count;
+        }
+        if (dominant >= EXTREME_BINS && dominant < BINS - EXTREME_BINS) return false;
+        // The background is the dominant bin and its fuller neighbour, as paper noise can straddle two
+        int other = dominant == 0 ? 1 : dominant == BINS - 1 ? BINS - 2
+                : bins[base + dominant - 1] > bins[base + dominant + 1] ? dominant - 1 : dominant + 1;
+        int low = Math.min(dominant, other);
+        int high = Math.max(dominant, other);
+        int background = bins[base + low] + bins[base + high];
+        // Shades just off the background are what a photo's highlights and shadows are made of
+        int near = 0;
+        for (int bin = low - SHOULDER_BINS; bin <= high + SHOULDER_BINS; bin++) {
+            if (bin >= 0 && bin < BINS && bin != low && bin != high) near += bins[base + bin];
+        }
+        return background * 2 >= pixels && near * 100 <= pixels * MAX_SHOULDER_PERCENT
+                && mid * 100 <= pixels * MAX_MID_PERCENT;
+    }
+
+    /**
+     * Turns text tiles with continuous tone on at least three sides into continuous tone, judged
+     * on the map as classified so the order tiles are visited in does not matter.
+     */
+    private static void absorbIntoImages(boolean[] text, int columns, int rows) {
+        boolean[] classified = text.clone();
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                int i = row * columns + column;
+                if (!classified[i]) continue;
+                int images = 0;
+                if (column > 0 && !classified[i - 1]) images++;
+                if (column + 1 < columns && !classified[i + 1]) images++;
+                if (row > 0 && !classified[i - columns]) images++;
+                if (row + 1 < rows && !classified[i + columns]) images++;
+                if (images >= 3) text[i] = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.techbirdssolutions.printcurrentwindow.imaging;
+
+/**
+ * Which square tiles of a frame hold text or line art and which hold continuous tone, as sorted
+ * by {@link TileClassifier}. Tiles in the last column and row are cut short by the frame edges.
+ */
+public final class TileMap {
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mTileSize;
+    private final int mColumns;
+    private final int mRows;
+    private final boolean[] mText; // Row-major, one per tile
+    private final int mTextTiles;
+
+    TileMap(int width, int height, int tileSize, boolean[] text) {
+        mWidth = width;
+        mHeight = height;
+        mTileSize = tileSize;
+        mColumns = (width + tileSize - 1) / tileSize;
+        mRows = (height + tileSize - 1) / tileSize;
+        mText = text;
+        int count = 0;
+        for (boolean t : text) {
+            if (t) count++;
+        }
+        mTextTiles = count;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getTileSize() {
+        return mTileSize;
+    }
+
+    public int getColumns() {
+        return mColumns;
+    }
+
+    public int getRows() {
+        return mRows;
+    }
+
+    public boolean isText(int column, int row) {
+        return mText[row * mColumns + column];
+    }
+
+    public int getTileCount() {
+        return mText.length;
+    }
+
+    public int getTextTileCount() {
+        return mTextTiles;
+    }
+}
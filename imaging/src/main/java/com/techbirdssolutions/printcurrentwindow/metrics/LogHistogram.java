@@ -0,0 +1,90 @@
+package com.techbirdssolutions.printcurrentwindow.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative longs with log-linear buckets: every power of two is
+ * split into 16 equal sub-buckets, so any recorded value is reported within 1/16 (6.25%) of its
+ * true value while the whole range of a long fits in under a thousand counters.
+ *
+ * Recording is a few bit operations and one atomic increment; it never allocates.
+ */
+public class LogHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        mCounts.incrementAndGet(bucketOf(value));
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+        long max;
+        while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {
+            // Lost a race with another recorder; retry against the new max
+        }
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int magnitude = 63 - Long.numberOfLeadingZeros(value); // >= SUB_BITS
+        int shift = magnitude - SUB_BITS;
+        // The top SUB_BITS + 1 bits select the bucket; the leading 1 is implied by the magnitude
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * The largest value that falls into the bucket.
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long low = ((long) SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return low + (1L << shift) - 1;
+    }
+
+    /**
+     * The value at or below which the given fraction (0..1] of recordings fall, rounded up to
+     * its bucket's upper bound and capped at the recorded maximum. Returns 0 when empty.
+     */
+    public long percentile(double fraction) {
+        long count = mCount.get();
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += mCounts.get(bucket);
+            if (seen >= rank) return Math.min(upperBoundOf(bucket), mMax.get());
+        }
+        return mMax.get(); // Recordings raced ahead of the count we read
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    public double getMean() {
+        long count = mCount.get();
+        return count == 0 ? 0 : (double) mSum.get() / count;
+    }
+
+    public void reset() {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            mCounts.set(bucket, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+}
@@ -0,0 +1,145 @@
+package com.techbirdssolutions.printcurrentwindow.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Records how long each stage of the capture-to-print path takes and how many bytes it
+ * allocates, into one pair of {@link LogHistogram}s per stage.
+ *
+ * Wrap a stage in {@link #begin(Stage)} and {@link #end(Stage, long)}. Both are allocation-free
+ * once a thread has been seen, so they can sit on the per-frame path. Allocations are read from
+ * an {@link AllocationCounter}; with a process-wide counter they include whatever other threads
+ * allocated during the stage, which is fine for spotting regressions but not for attribution.
+ */
+public class StageRecorder {
+
+    public enum Stage {
+        SESSION_SETUP("session setup"),
+        ACQUIRE("acquire image"),
+        FINGERPRINT("fingerprint"),
+        CONVERT("grayscale"),
+        PNG_ENCODE("png encode"),
+        MEDIASTORE_INSERT("mediastore insert"),
+        MEDIASTORE_COMMIT("mediastore commit"),
+        PRINT_WRITE("print write"),
+        PRINT_JOB("queued job"); // Enqueue to spooler done, recorded through record()
+
+        private final String mLabel;
+
+        Stage(String label) {
+            mLabel = label;
+        }
+
+        public String getLabel() {
+            return mLabel;
+        }
+    }
+
+    /**
+     * A monotonic count of bytes allocated so far.
+     */
+    public interface AllocationCounter {
+        AllocationCounter NONE = () -> 0;
+
+        long allocatedBytes();
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final LogHistogram[] mNanos = new LogHistogram[STAGES.length];
+    private final LogHistogram[] mBytes = new LogHistogram[STAGES.length];
+    private final AllocationCounter mAllocations;
+    // Allocation counter at begin(), per thread and stage, so stages can nest and overlap
+    private final ThreadLocal<long[]> mBaselines = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[STAGES.length];
+        }
+    };
+
+    public StageRecorder() {
+        this(AllocationCounter.NONE);
+    }
+
+    public StageRecorder(AllocationCounter allocations) {
+        mAllocations = allocations;
+        for (int i = 0; i < STAGES.length; i++) {
+            mNanos[i] = new LogHistogram();
+            mBytes[i] = new LogHistogram();
+        }
+    }
+
+    /**
+     * Marks the start of a stage on this thread and returns the start time to pass to end().
+     */
+    public long begin(Stage stage) {
+        mBaselines.get()[stage.ordinal()] = mAllocations.allocatedBytes();
+        return System.nanoTime();
+    }
+
+    public void end(Stage stage, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        long bytes = mAllocations.allocatedBytes() - mBaselines.get()[stage.ordinal()];
+        record(stage, nanos, bytes);
+    }
+
+    public void record(Stage stage, long nanos, long bytes) {
+        mNanos[stage.ordinal()].record(nanos);
+        mBytes[stage.ordinal()].record(bytes);
+    }
+
+    public LogHistogram getDurations(Stage stage) {
+        return mNanos[stage.ordinal()];
+    }
+
+    public LogHistogram getAllocations(Stage stage) {
+        return mBytes[stage.ordinal()];
+    }
+
+    public void reset() {
+        for (int i = 0; i < STAGES.length; i++) {
+            mNanos[i].reset();
+            mBytes[i].reset();
+        }
+    }
+
+    /**
+     * One line per stage that has run: count, p50/p95/p99 in milliseconds and p95 allocation.
+     */
+    public String describe() {
+        StringBuilder text = new StringBuilder();
+        for (Stage stage : STAGES) {
+            LogHistogram nanos = getDurations(stage);
+            if (nanos.getCount() == 0) continue;
+            if (text.length() > 0) text.append('\n');
+            text.append(String.format(Locale.US, "%s x%d: %.1f/%.1f/%.1f ms, %d KiB",
+                    stage.getLabel(), nanos.getCount(), millis(nanos.percentile(0.50)),
+                    millis(nanos.percentile(0.95)), millis(nanos.percentile(0.99)),
+                    getAllocations(stage).percentile(0.95) / 1024));
+        }
+        return text.length() == 0 ? "No captures yet" : text.toString();
+    }
+
+    /**
+     * Writes every stage as a CSV row: durations in microseconds, allocations in bytes.
+     */
+    public void writeCsv(Writer out) throws IOException {
+        out.write("stage,count,p50_us,p95_us,p99_us,max_us,mean_us,"
+                + "alloc_p50_bytes,alloc_p95_bytes,alloc_p99_bytes,alloc_max_bytes\n");
+        for (Stage stage : STAGES) {
+            LogHistogram nanos = getDurations(stage);
+            LogHistogram bytes = getAllocations(stage);
+            out.write(String.format(Locale.US, "%s,%d,%d,%d,%d,%d,%.1f,%d,%d,%d,%d\n",
+                    stage.name().toLowerCase(Locale.US), nanos.getCount(),
+                    nanos.percentile(0.50) / 1000, nanos.percentile(0.95) / 1000,
+                    nanos.percentile(0.99) / 1000, nanos.getMax() / 1000, nanos.getMean() / 1000,
+                    bytes.percentile(0.50), bytes.percentile(0.95), bytes.percentile(0.99), bytes.getMax()));
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
@@ -0,0 +1,413 @@
+package com.techbirdssolutions.printcurrentwindow.pipeline;
+
+import com.techbirdssolutions.printcurrentwindow.imaging.BufferPool;
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayFrame;
+import com.techbirdssolutions.printcurrentwindow.imaging.FilterChain;
+import com.techbirdssolutions.printcurrentwindow.metrics.StageRecorder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a capture through acquire -> convert -> persist / print-prepare on background workers.
+ *
+ * Every stage has its own single worker and a bounded queue. New captures are rejected when the
+ * acquire queue is full, and a stage whose downstream queue is full waits for room, so a burst of
+ * taps can never pile up unbounded work or frames. Persisting and print preparation both start
+ * from the converted frame and run side by side. Only the listener callbacks go through the
+ * callback executor, which on Android is the main thread.
+ *
+ * @param <D> the print-ready document produced by the {@link PrintPreparer}
+ */
+public class CapturePipeline<D> {
+
+    public enum Stage {
+        ACQUIRE, CONVERT, PERSIST, PRINT_PREPARE
+    }
+
+    /**
+     * Writes the converted frame somewhere durable, e.g. the gallery. Must not keep the frame.
+     */
+    public interface Persister {
+        /**
+         * Writes the frame, possibly leaving it pending, e.g. hidden from other apps, until the
+         * next {@link #flush()}.
+         */
+        void persist(GrayFrame frame) throws IOException;
+
+        /**
+         * Completes every write left pending since the last flush, in one go. If it throws, all of
+         * them count as failed and should have been cleaned up. Called on the persist worker
+         * when it runs out of queued frames and before reporting a failed write, so only frames
+         * that queued up behind each other share a flush.
+         */
+        default void flush() throws IOException {
+        }
+    }
+
+    /**
+     * Turns the converted frame into something ready to print. Receives the pipeline's reference
+     * to the frame and must release it or hand it on with the document; if it throws instead,
+     * the pipeline releases the frame.
+     */
+    public interface PrintPreparer<D> {
+        D prepare(GrayFrame frame) throws IOException;
+    }
+
+    /**
+     * Recognizes a capture that looks like one already processed, before it is converted.
+     * Runs on the convert worker and must not keep the frame.
+     */
+    public interface DuplicateFilter {
+        /**
+         * Returns the id of the earlier capture this one duplicates, or -1 to process it.
+         */
+        long findDuplicate(RawFrame raw);
+    }
+
+    public interface Listener<D> {
+        void onPrintReady(long captureId, D document);
+
+        /**
+         * The capture matched an earlier one and was dropped before conversion; nothing else
+         * follows for it. Only called for captures submitted with a {@link DuplicateFilter}.
+         */
+        void onDuplicate(long captureId, long previousId);
+
+        void onPersisted(long captureId);
+
+        void onError(long captureId, Stage stage, Exception e);
+    }
+
+    private static final int DEFAULT_QUEUE_CAPACITY = 2;
+
+    private final BufferPool<byte[]> mPool;
+    private final Persister mPersister;
+    private final PrintPreparer<D> mPreparer;
+    private final Executor mCallbackExecutor;
+
+    private final ThreadPoolExecutor mAcquireStage;
+    private final ThreadPoolExecutor mConvertStage;
+    private final ThreadPoolExecutor mPersistStage;
+    private final ThreadPoolExecutor mPrepareStage;
+
+    private final AtomicLong mNextCaptureId = new AtomicLong(1);
+    private final List<Unflushed<D>> mUnflushed = new ArrayList<>(); // Persist worker only, in capture order
+    private volatile StageRecorder mRecorder = new StageRecorder();
+    private volatile FilterChain mFilterChain = FilterChain.IDENTITY;
+    private final FilterChain.Scratch mToneScratch = new FilterChain.Scratch(); // Convert worker only
+
+    /**
+     * @param pool             where converted frames borrow their pixels
+     * @param persister        may be null to skip the persist branch
+     * @param callbackExecutor where listener callbacks run
+     */
+    public CapturePipeline(BufferPool<byte[]> pool, Persister persister, PrintPreparer<D> preparer,
+                           Executor callbackExecutor) {
+        this(pool, persister, preparer, callbackExecutor, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public CapturePipeline(BufferPool<byte[]> pool, Persister persister, PrintPreparer<D> preparer,
+                           Executor callbackExecutor, int queueCapacity) {
+        mPool = pool;
+        mPersister = persister;
+        mPreparer = preparer;
+        mCallbackExecutor = callbackExecutor;
+
+        mAcquireStage = newStage(Stage.ACQUIRE, queueCapacity, new ThreadPoolExecutor.AbortPolicy());
+        mConvertStage = newStage(Stage.CONVERT, queueCapacity, BLOCK_UNTIL_ROOM);
+        mPersistStage = newStage(Stage.PERSIST, queueCapacity, BLOCK_UNTIL_ROOM);
+        mPrepareStage = newStage(Stage.PRINT_PREPARE, queueCapacity, BLOCK_UNTIL_ROOM);
+    }
+
+    /**
+     * Where the convert stage reports its timings; a private recorder by default.
+     */
+    public void setStageRecorder(StageRecorder recorder) {
+        mRecorder = recorder;
+    }
+
+    /**
+     * Tone filters fused into the conversion of later captures; frames submitted already converted
+     * are left as they are.
+     */
+    public void setFilterChain(FilterChain chain) {
+        mFilterChain = chain != null ? chain : FilterChain.IDENTITY;
+    }
+
+    public FilterChain getFilterChain() {
+        return mFilterChain;
+    }
+
+    /**
+     * Queues a capture. Returns its id, or -1 if the pipeline is saturated and the capture was dropped.
+     */
+    public long submit(FrameSource source, Listener<D> listener) {
+        return submit(source, null, listener);
+    }
+
+    /**
+     * Like {@link #submit(FrameSource, Listener)}, but checks the acquired frame with the filter
+     * first and skips conversion, persisting and print preparation for duplicates.
+     */
+    public long submit(final FrameSource source, final DuplicateFilter filter, final Listener<D> listener) {
+        final long captureId = mNextCaptureId.getAndIncrement();
+        try {
+            mAcquireStage.execute(() -> acquire(captureId, source, filter, listener));
+            return captureId;
+        } catch (RejectedExecutionException e) {
+            return -1;
+        }
+    }
+
+    private void acquire(long captureId, FrameSource source, DuplicateFilter filter, Listener<D> listener) {
+        RawFrame raw;
+        try {
+            raw = source.acquire();
+            if (raw == null) throw new IOException("No frame available");
+        } catch (IOException | RuntimeException e) {
+            fail(captureId, Stage.ACQUIRE, e, listener);
+            return;
+        }
+        final RawFrame frame = raw;
+        handOff(mConvertStage, () -> convert(captureId, frame, filter, listener), captureId, Stage.CONVERT,
+                listener, frame);
+    }
+
+    private void convert(final long captureId, RawFrame raw, DuplicateFilter filter, final Listener<D> listener) {
+        if (filter != null) {
+            final long previousId;
+            try {
+                previousId = filter.findDuplicate(raw);
+            } catch (RuntimeException e) {
+                raw.close();
+                fail(captureId, Stage.CONVERT, e, listener);
+                return;
+            }
+            if (previousId >= 0) {
+                raw.close();
+                mCallbackExecutor.execute(() -> listener.onDuplicate(captureId, previousId));
+                return;
+            }
+        }
+        GrayFrame frame;
+        StageRecorder recorder = mRecorder;
+        long start = recorder.begin(StageRecorder.Stage.CONVERT);
+        try {
+            frame = convert(raw);
+            recorder.end(StageRecorder.Stage.CONVERT, start);
+        } catch (RuntimeException e) {
+            fail(captureId, Stage.CONVERT, e, listener);
+            return;
+        } finally {
+            raw.close(); // The producer gets its buffer back as soon as possible
+        }
+
+        dispatch(captureId, frame, listener);
+    }
+
+    /**
+     * Queues a frame that is already converted, e.g. one restored from the rewind buffer. It goes
+     * straight to persist and print-prepare. The pipeline takes over the caller's reference.
+     * Returns the capture id, or -1 if the pipeline is saturated.
+     */
+    public long submit(final GrayFrame frame, final Listener<D> listener) {
+        final long captureId = mNextCaptureId.getAndIncrement();
+        try {
+            mAcquireStage.execute(() -> dispatch(captureId, frame, listener));
+            return captureId;
+        } catch (RejectedExecutionException e) {
+            frame.release();
+            return -1;
+        }
+    }
+
+    private void dispatch(final long captureId, final GrayFrame frame, final Listener<D> listener) {
+        if (mPersister != null) {
+            frame.retain();
+            handOff(mPersistStage, () -> persist(captureId, frame, listener), captureId, Stage.PERSIST, listener, frame);
+        }
+        handOff(mPrepareStage, () -> prepare(captureId, frame, listener), captureId, Stage.PRINT_PREPARE, listener, frame);
+    }
+
+    GrayFrame convert(RawFrame raw) {
+        // Only the crop is converted; pixels outside it are never read
+        int width = raw.getCropWidth();
+        int height = raw.getCropHeight();
+        GrayFrame frame = GrayFrame.fromPool(mPool, width, height);
+        byte[] rowScratch = mPool.acquire(width * raw.getPixelStride());
+        try {
+            mFilterChain.convert(raw.getBuffer(), raw.getRowStride(), raw.getPixelStride(),
+                    raw.getCropLeft(), raw.getCropTop(), width, height, frame.getPixels(), rowScratch, mToneScratch);
+        } catch (RuntimeException e) {
+            frame.release();
+            throw e;
+        } finally {
+            mPool.release(rowScratch.length, rowScratch);
+        }
+        return frame;
+    }
+
+    private void persist(final long captureId, GrayFrame frame, final Listener<D> listener) {
+        try {
+            mPersister.persist(frame);
+        } catch (IOException | RuntimeException e) {
+            // Earlier captures are settled first, so they are reported in order
+            flush();
+            fail(captureId, Stage.PERSIST, e, listener);
+            return;
+        } finally {
+            frame.release();
+        }
+        mUnflushed.add(new Unflushed<>(captureId, listener));
+        // The queue is bounded, so at most its capacity plus one writes wait for this
+        if (mPersistStage.getQueue().isEmpty()) flush();
+    }
+
+    /**
+     * Has the persister complete its pending writes, then reports the captures they belong to.
+     */
+    private void flush() {
+        if (mUnflushed.isEmpty()) return;
+        final List<Unflushed<D>> done = new ArrayList<>(mUnflushed);
+        mUnflushed.clear();
+        try {
+            mPersister.flush();
+        } catch (IOException | RuntimeException e) {
+            for (Unflushed<D> capture : done) fail(capture.mCaptureId, Stage.PERSIST, e, capture.mListener);
+            return;
+        }
+        mCallbackExecutor.execute(() -> {
+            for (Unflushed<D> capture : done) capture.mListener.onPersisted(capture.mCaptureId);
+        });
+    }
+
+    private void prepare(final long captureId, GrayFrame frame, final Listener<D> listener) {
+        final D document;
+        try {
+            document = mPreparer.prepare(frame);
+        } catch (IOException | RuntimeException e) {
+            frame.release();
+            fail(captureId, Stage.PRINT_PREPARE, e, listener);
+            return;
+        }
+        mCallbackExecutor.execute(() -> listener.onPrintReady(captureId, document));
+    }
+
+    /**
+     * Queues the next stage, waiting for room if it is busy. If the pipeline is shutting down the
+     * work is dropped and whatever it holds is released.
+     */
+    private void handOff(ThreadPoolExecutor stage, Runnable work, long captureId, Stage next,
+                         Listener<D> listener, Object held) {
+        try {
+            stage.execute(work);
+        } catch (RejectedExecutionException e) {
+            if (held instanceof RawFrame) ((RawFrame) held).close();
+            if (held instanceof GrayFrame) ((GrayFrame) held).release();
+            fail(captureId, next, e, listener);
+        }
+    }
+
+    private void fail(final long captureId, final Stage stage, final Exception e, final Listener<D> listener) {
+        mCallbackExecutor.execute(() -> listener.onError(captureId, stage, e));
+    }
+
+    /**
+     * Number of captures waiting in or running through a stage.
+     */
+    public int getPending(Stage stage) {
+        ThreadPoolExecutor executor = stageExecutor(stage);
+        return executor.getQueue().size() + executor.getActiveCount();
+    }
+
+    private ThreadPoolExecutor stageExecutor(Stage stage) {
+        switch (stage) {
+            case ACQUIRE:
+                return mAcquireStage;
+            case CONVERT:
+                return mConvertStage;
+            case PERSIST:
+                return mPersistStage;
+            default:
+                return mPrepareStage;
+        }
+    }
+
+    /**
+     * Stops accepting captures and lets queued work finish. Returns right away: each later stage
+     * is shut down from a background thread once the one feeding it has drained, and a capture
+     * still stuck upstream after that is released when its hand-off is refused.
+     */
+    public void shutdown() {
+        mAcquireStage.shutdown();
+        Thread closer = new Thread(() -> {
+            awaitQuietly(mAcquireStage);
+            mConvertStage.shutdown();
+            awaitQuietly(mConvertStage);
+            mPersistStage.shutdown();
+            mPrepareStage.shutdown();
+        }, "capture-shutdown");
+        closer.setDaemon(true);
+        closer.start();
+    }
+
+    private static void awaitQuietly(ThreadPoolExecutor executor) {
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ThreadPoolExecutor newStage(final Stage stage, int queueCapacity, RejectedExecutionHandler handler) {
+        final AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread thread = new Thread(r, "capture-" + stage.name().toLowerCase() + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), factory, handler);
+    }
+
+    private static final class Unflushed<D> {
+        final long mCaptureId;
+        final Listener<D> mListener;
+
+        Unflushed(long captureId, Listener<D> listener) {
+            mCaptureId = captureId;
+            mListener = listener;
+        }
+    }
+
+    /**
+     * Backpressure between stages: the upstream worker waits until the downstream queue has room.
+     */
+    private static final RejectedExecutionHandler BLOCK_UNTIL_ROOM = (r, executor) -> {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("Stage shut down");
+        }
+        try {
+            executor.getQueue().put(r);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for stage", e);
+        }
+        // Shut down while we waited: its worker may be gone and never run the task. Unless the
+        // worker already took it, take it back so the caller releases what it holds.
+        if (executor.isShutdown() && executor.getQueue().remove(r)) {
+            throw new RejectedExecutionException("Stage shut down");
+        }
+    };
+}
@@ -0,0 +1,11 @@
+package com.techbirdssolutions.printcurrentwindow.pipeline;
+
+import java.io.IOException;
+
+/**
+ * Produces the frame for one capture. Runs on the pipeline's acquire stage, never on the main thread.
+ */
+public interface FrameSource {
+
+    RawFrame acquire() throws IOException;
+}
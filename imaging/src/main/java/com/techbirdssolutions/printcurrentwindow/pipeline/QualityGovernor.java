@@ -0,0 +1,204 @@
+package com.techbirdssolutions.printcurrentwindow.pipeline;
+
+/**
+ * Picks how much memory each capture may use, from the heap left over and the memory pressure
+ * the system last reported, so a low-end device prints a smaller or 1-bit page instead of
+ * running out of memory.
+ *
+ * A {@link Tier} fixes the capture resolution, the page depth, the tile size of the text/image
+ * split and what share of their budgets the caches may fill. {@link #choose} takes the best
+ * tier whose working set fits the free heap with a safety margin, but never a better one than
+ * the last pressure signal allows. Pressure wears off one level per {@link #PRESSURE_HOLD_NANOS}
+ * without a new signal. Going back up needs a wider margin than staying, so a device near a
+ * threshold does not flip tiers on every capture.
+ *
+ * Pure policy: the heap comes from a {@link MemoryProbe} and time from the caller, so budgets
+ * can be simulated. Thread safe.
+ */
+public class QualityGovernor {
+
+    public enum Depth {
+        GRAY, // 8-bit gray pages
+        BILEVEL // Dithered 1-bit pages, an eighth of the bytes
+    }
+
+    public enum Tier {
+        FULL(1, Depth.GRAY, 32, 100),
+        REDUCED(1, Depth.GRAY, 32, 50),
+        LOW(2, Depth.GRAY, 64, 25),
+        MINIMAL(2, Depth.BILEVEL, 64, 0);
+
+        private final int mCaptureScale;
+        private final Depth mDepth;
+        private final int mTileSize;
+        private final int mCachePercent;
+
+        Tier(int captureScale, Depth depth, int tileSize, int cachePercent) {
+            mCaptureScale = captureScale;
+            mDepth = depth;
+            mTileSize = tileSize;
+            mCachePercent = cachePercent;
+        }
+
+        /**
+         * The display size is divided by this in both directions before capturing.
+         */
+        public int getCaptureScale() {
+            return mCaptureScale;
+        }
+
+        public Depth getDepth() {
+            return mDepth;
+        }
+
+        /**
+         * Tile size for sorting pages into text and image areas; coarser tiles cost less to classify.
+         */
+        public int getTileSize() {
+            return mTileSize;
+        }
+
+        /**
+         * What a cache with the given full budget may hold at this tier.
+         */
+        public long cacheBytes(long budget) {
+            return budget * mCachePercent / 100;
+        }
+
+        /**
+         * Heap one capture of a width x height display needs on its way to the printer: the gray
+         * frame, a page scaled from it and the page's coded image. A 1-bit page codes to an
+         * eighth of a gray one, plus its packed bits.
+         */
+        public long workingBytes(int width, int height) {
+            long pixels = (long) ((width + mCaptureScale - 1) / mCaptureScale)
+                    * ((height + mCaptureScale - 1) / mCaptureScale);
+            return mDepth == Depth.GRAY ? pixels * 3 : pixels * 2 + pixels / 4;
+        }
+
+        @Override
+        public String toString() {
+            return name().toLowerCase() + " (1/" + mCaptureScale + " scale, " + mDepth.name().toLowerCase() + ", "
+                    + mTileSize + " px tiles, caches at " + mCachePercent + "%)";
+        }
+    }
+
+    /**
+     * Memory pressure reported by the system, mildest first. Each level caps the tier at the one
+     * with the same ordinal.
+     */
+    public enum Pressure {
+        NONE, MODERATE, LOW, CRITICAL
+    }
+
+    /**
+     * Where the heap figures come from.
+     */
+    public interface MemoryProbe {
+        MemoryProbe RUNTIME = new MemoryProbe() {
+            @Override
+            public long maxBytes() {
+                return Runtime.getRuntime().maxMemory();
+            }
+
+            @Override
+            public long usedBytes() {
+                Runtime runtime = Runtime.getRuntime();
+                return runtime.totalMemory() - runtime.freeMemory();
+            }
+        };
+
+        long maxBytes();
+
+        long usedBytes();
+    }
+
+    public static final long PRESSURE_HOLD_NANOS = 60_000_000_000L;
+    // Free heap must cover the working set this many times over; more to step back up than to stay
+    static final int KEEP_MARGIN = 2;
+    static final int UPGRADE_MARGIN = 3;
+
+    private final MemoryProbe mProbe;
+    private final long mCacheBytes;
+
+    private Tier mTier = Tier.FULL;
+    private Pressure mPressure = Pressure.NONE;
+    private long mPressureNanos;
+    private long mLastHeadroom;
+    private long mLastNeed;
+    private final int[] mChoices = new int[Tier.values().length];
+
+    /**
+     * @param cacheBytes what the app's caches hold when filled to their full budgets; a tier
+     *                   has to fit its share of it next to the capture itself.
+     */
+    public QualityGovernor(MemoryProbe probe, long cacheBytes) {
+        mProbe = probe;
+        mCacheBytes = cacheBytes;
+    }
+
+    /**
+     * Records a memory pressure signal. A milder signal than the one in force does not lift it early.
+     */
+    public synchronized void onPressure(Pressure pressure, long nowNanos) {
+        if (pressure.ordinal() >= getPressure(nowNanos).ordinal()) {
+            mPressure = pressure;
+            mPressureNanos = nowNanos;
+        }
+    }
+
+    /**
+     * The pressure still in force: the last signal, one level milder for every hold period since.
+     */
+    public synchronized Pressure getPressure(long nowNanos) {
+        long decayed = Math.max(0, nowNanos - mPressureNanos) / PRESSURE_HOLD_NANOS;
+        return Pressure.values()[mPressure.ordinal() - (int) Math.min(decayed, mPressure.ordinal())];
+    }
+
+    /**
+     * Picks the tier for the next capture of a width x height display.
+     */
+    public synchronized Tier choose(int width, int height, long nowNanos) {
+        long headroom = mProbe.maxBytes() - mProbe.usedBytes();
+        Tier cap = Tier.values()[getPressure(nowNanos).ordinal()];
+        Tier chosen = Tier.MINIMAL;
+        for (Tier tier : Tier.values()) {
+            if (tier.ordinal() < cap.ordinal()) continue;
+            int margin = tier.ordinal() < mTier.ordinal() ? UPGRADE_MARGIN : KEEP_MARGIN;
+            if (need(tier, width, height) * margin <= headroom) {
+                chosen = tier;
+                break;
+            }
+        }
+        mTier = chosen;
+        mLastHeadroom = headroom;
+        mLastNeed = need(chosen, width, height);
+        mChoices[chosen.ordinal()]++;
+        return chosen;
+    }
+
+    private long need(Tier tier, int width, int height) {
+        return tier.workingBytes(width, height) + tier.cacheBytes(mCacheBytes);
+    }
+
+    /**
+     * The tier of the last {@link #choose} call, FULL before the first.
+     */
+    public synchronized Tier getTier() {
+        return mTier;
+    }
+
+    public synchronized int getChoiceCount(Tier tier) {
+        return mChoices[tier.ordinal()];
+    }
+
+    public synchronized String describe() {
+        StringBuilder counts = new StringBuilder();
+        for (Tier tier : Tier.values()) {
+            if (counts.length() > 0) counts.append('/');
+            counts.append(mChoices[tier.ordinal()]);
+        }
+        return mTier + ", needs " + (mLastNeed >> 10) + " of " + (mLastHeadroom >> 10) + " KiB free, last pressure "
+                + mPressure.name().toLowerCase() + ", choices " + counts;
+    }
+}
@@ -0,0 +1,99 @@
+package com.techbirdssolutions.printcurrentwindow.pipeline;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+/**
+ * One captured RGBA_8888 plane, as handed out by the screen, together with the hook that gives
+ * the underlying buffer back to its producer.
+ */
+public class RawFrame implements Closeable {
+
+    private final ByteBuffer mBuffer;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mRowStride;
+    private final int mPixelStride;
+    private final long mTimestampNanos;
+    private final Runnable mOnClose;
+    private boolean mClosed;
+    private int mCropLeft;
+    private int mCropTop;
+    private int mCropWidth;
+    private int mCropHeight;
+
+    public RawFrame(ByteBuffer buffer, int width, int height, int rowStride, int pixelStride,
+                    long timestampNanos, Runnable onClose) {
+        mBuffer = buffer;
+        mWidth = width;
+        mHeight = height;
+        mRowStride = rowStride;
+        mPixelStride = pixelStride;
+        mTimestampNanos = timestampNanos;
+        mOnClose = onClose;
+        mCropWidth = width;
+        mCropHeight = height;
+    }
+
+    /**
+     * Limits the part of the plane that gets converted, e.g. to the detected content bounds.
+     * The whole plane is used until this is called.
+     */
+    public void setCrop(int left, int top, int width, int height) {
+        if (left < 0 || top < 0 || width <= 0 || height <= 0 || left + width > mWidth || top + height > mHeight) {
+            throw new IllegalArgumentException("Crop " + width + "x" + height + "+" + left + "+" + top
+                    + " outside " + mWidth + "x" + mHeight);
+        }
+        mCropLeft = left;
+        mCropTop = top;
+        mCropWidth = width;
+        mCropHeight = height;
+    }
+
+    public ByteBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getRowStride() {
+        return mRowStride;
+    }
+
+    public int getPixelStride() {
+        return mPixelStride;
+    }
+
+    public int getCropLeft() {
+        return mCropLeft;
+    }
+
+    public int getCropTop() {
+        return mCropTop;
+    }
+
+    public int getCropWidth() {
+        return mCropWidth;
+    }
+
+    public int getCropHeight() {
+        return mCropHeight;
+    }
+
+    public long getTimestampNanos() {
+        return mTimestampNanos;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (mClosed) return;
+        mClosed = true;
+        if (mOnClose != null) mOnClose.run();
+    }
+}
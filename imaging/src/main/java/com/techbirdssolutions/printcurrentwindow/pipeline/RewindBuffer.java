@@ -0,0 +1,161 @@
+package com.techbirdssolutions.printcurrentwindow.pipeline;
+
+import com.techbirdssolutions.printcurrentwindow.imaging.BufferPool;
+import com.techbirdssolutions.printcurrentwindow.imaging.CompressedFrame;
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayFrame;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A memory-bounded ring of recent grayscale frames, so a capture can be taken from what was on
+ * screen a few seconds before the tap.
+ *
+ * Frames are stored as {@link CompressedFrame}s deflated at the fastest level.
+ * The total of stored bytes never exceeds the cap: the oldest frames are dropped first, and frames
+ * older than the window are dropped on every store.
+ */
+public class RewindBuffer {
+
+    private static class Entry {
+        final long mTimestampNanos;
+        final CompressedFrame mFrame;
+
+        Entry(long timestampNanos, CompressedFrame frame) {
+            mTimestampNanos = timestampNanos;
+            mFrame = frame;
+        }
+    }
+
+    private final ArrayDeque<Entry> mEntries = new ArrayDeque<>();
+    private long mMaxBytes;
+    private final long mWindowNanos;
+    private final Deflater mDeflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater mInflater = new Inflater();
+    private byte[] mScratch = new byte[0];
+
+    private long mStoredBytes;
+    private long mStoreCount;
+    private long mTotalStoreNanos;
+    private long mLastStoreNanos;
+    private long mRawBytes;
+    private long mCompressedBytes;
+
+    public RewindBuffer(long maxBytes, long windowNanos) {
+        mMaxBytes = maxBytes;
+        mWindowNanos = windowNanos;
+    }
+
+    /**
+     * Compresses and stores a frame. Returns how long storing took, in nanoseconds, or -1 if the
+     * frame alone is larger than the cap and was not stored.
+     */
+    public synchronized long store(GrayFrame frame, long timestampNanos) {
+        long start = System.nanoTime();
+        int length = frame.getByteCount();
+        int maxCompressed = CompressedFrame.maxCompressedSize(length);
+        if (mScratch.length < maxCompressed) {
+            mScratch = new byte[maxCompressed];
+        }
+        CompressedFrame compressedFrame = CompressedFrame.compress(frame, mDeflater, mScratch);
+        int compressed = compressedFrame.getCompressedSize();
+        if (compressed > mMaxBytes) {
+            return -1;
+        }
+
+        evictOlderThan(timestampNanos - mWindowNanos);
+        while (mStoredBytes + compressed > mMaxBytes && !mEntries.isEmpty()) {
+            mStoredBytes -= mEntries.removeFirst().mFrame.getCompressedSize();
+        }
+        mEntries.addLast(new Entry(timestampNanos, compressedFrame));
+        mStoredBytes += compressed;
+        mRawBytes += length;
+        mCompressedBytes += compressed;
+
+        mLastStoreNanos = System.nanoTime() - start;
+        mStoreCount++;
+        mTotalStoreNanos += mLastStoreNanos;
+        return mLastStoreNanos;
+    }
+
+    private void evictOlderThan(long cutoffNanos) {
+        Iterator<Entry> it = mEntries.iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.mTimestampNanos >= cutoffNanos) break;
+            mStoredBytes -= entry.mFrame.getCompressedSize();
+            it.remove();
+        }
+    }
+
+    /**
+     * Timestamps of the stored frames, newest first.
+     */
+    public synchronized List<Long> getTimestamps() {
+        List<Long> timestamps = new ArrayList<>(mEntries.size());
+        Iterator<Entry> it = mEntries.descendingIterator();
+        while (it.hasNext()) {
+            timestamps.add(it.next().mTimestampNanos);
+        }
+        return timestamps;
+    }
+
+    /**
+     * Decompresses the frame stored at exactly the given timestamp into a pooled frame, or
+     * returns null if it has been evicted since.
+     */
+    public synchronized GrayFrame restore(long timestampNanos, BufferPool<byte[]> pool) {
+        for (Entry entry : mEntries) {
+            if (entry.mTimestampNanos == timestampNanos) {
+                return entry.mFrame.decompress(pool, mInflater);
+            }
+        }
+        return null;
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        mStoredBytes = 0;
+    }
+
+    public synchronized int getFrameCount() {
+        return mEntries.size();
+    }
+
+    public synchronized long getStoredBytes() {
+        return mStoredBytes;
+    }
+
+    public synchronized long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Changes the cap, dropping the oldest frames until the stored ones fit under it.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        while (mStoredBytes > mMaxBytes && !mEntries.isEmpty()) {
+            mStoredBytes -= mEntries.removeFirst().mFrame.getCompressedSize();
+        }
+    }
+
+    public synchronized long getLastStoreNanos() {
+        return mLastStoreNanos;
+    }
+
+    public synchronized long getAverageStoreNanos() {
+        return mStoreCount == 0 ? 0 : mTotalStoreNanos / mStoreCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RewindBuffer{frames=" + mEntries.size() + ", stored=" + mStoredBytes / 1024 + "/"
+                + mMaxBytes / 1024 + " KiB, avgStore=" + getAverageStoreNanos() / 1000 + " us, ratio="
+                + (mCompressedBytes == 0 ? 0 : mRawBytes / mCompressedBytes) + "x}";
+    }
+}
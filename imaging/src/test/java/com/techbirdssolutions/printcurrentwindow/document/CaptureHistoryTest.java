@@ -0,0 +1,208 @@
+package com.techbirdssolutions.printcurrentwindow.document;
+
+import com.techbirdssolutions.printcurrentwindow.imaging.BufferPool;
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayFrame;
+import com.techbirdssolutions.printcurrentwindow.imaging.PerceptualHash;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CaptureHistoryTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final BufferPool<byte[]> mPool = BufferPool.byteArrays(16 << 20);
+
+    /**
+     * Noise does not compress, so every capture costs about its raw size in either tier.
+     */
+    private static GrayFrame capture(long seed) {
+        GrayFrame frame = new GrayFrame(200, 100);
+        new Random(seed).nextBytes(frame.getPixels());
+        return frame;
+    }
+
+    private static final int SCREEN_WIDTH = 1080;
+    private static final int SCREEN_HEIGHT = 2400;
+    private static final int ROW_STRIDE = SCREEN_WIDTH * 4 + 64;
+
+    /**
+     * An RGBA screen of 20x30 pixel "glyphs" in rows, like a page of text or a list of amounts.
+     */
+    private static ByteBuffer screen(long seed) {
+        ByteBuffer buffer = ByteBuffer.allocate(ROW_STRIDE * SCREEN_HEIGHT);
+        for (int i = 0; i < buffer.capacity(); i++) buffer.put(i, (byte) 0xFF);
+        Random random = new Random(seed);
+        for (int top = 40; top + 30 < SCREEN_HEIGHT; top += 48) {
+            for (int left = 40; left + 20 < SCREEN_WIDTH - 40; left += 24) {
+                drawGlyph(buffer, left, top, random.nextLong());
+            }
+        }
+        return buffer;
+    }
+
+    private static void drawGlyph(ByteBuffer buffer, int left, int top, long seed) {
+        Random random = new Random(seed);
+        for (int y = top; y < top + 30; y++) {
+            for (int x = left; x < left + 20; x++) {
+                byte value = (byte) (random.nextInt(3) == 0 ? 0x20 : 0xFF);
+                int index = y * ROW_STRIDE + x * 4;
+                buffer.put(index, value).put(index + 1, value).put(index + 2, value);
+            }
+        }
+    }
+
+    private static long[] fingerprint(ByteBuffer screen) {
+        return fingerprint(screen, 0);
+    }
+
+    private static long[] fingerprint(ByteBuffer screen, long settings) {
+        return CaptureHistory.fingerprint(screen, ROW_STRIDE, 4, 0, 0, SCREEN_WIDTH, SCREEN_HEIGHT, settings);
+    }
+
+    private static void assertSamePixels(GrayFrame expected, GrayFrame actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertArrayEquals(expected.getPixels(), Arrays.copyOf(actual.getPixels(), actual.getByteCount()));
+        actual.release();
+    }
+
+    @Test
+    public void capturesOutOfRam_areSpilledToDiskAndReadBack() throws Exception {
+        CaptureHistory history = new CaptureHistory(mFolder.getRoot(), 50_000, 1 << 20);
+        long first = history.put(capture(1));
+        history.put(capture(2));
+        history.put(capture(3)); // About 20 KB each, so the first no longer fits in RAM
+
+        assertEquals(2, history.getRamCount());
+        assertEquals(1, history.getDiskCount());
+        assertSamePixels(capture(1), history.getFrame(first, mPool));
+        assertEquals(1, history.getDiskHitCount());
+
+        assertSamePixels(capture(1), history.getFrame(first, mPool));
+        assertEquals(1, history.getRamHitCount()); // Promoted back into RAM by the first read
+    }
+
+    @Test
+    public void diskBudget_dropsTheLeastRecentlyUsed() throws Exception {
+        CaptureHistory history = new CaptureHistory(mFolder.getRoot(), 0, 50_000);
+        long first = history.put(capture(1));
+        long second = history.put(capture(2));
+        history.put(capture(3));
+
+        assertEquals(2, history.getDiskCount());
+        assertTrue(history.getDiskBytes() <= 50_000);
+        assertNull(history.getFrame(first, mPool));
+        assertEquals(1, history.getMissCount());
+        assertSamePixels(capture(2), history.getFrame(second, mPool));
+        assertEquals(2, mFolder.getRoot().listFiles().length);
+    }
+
+    @Test
+    public void documents_areReusedOnlyForTheSameLayout() throws Exception {
+        CaptureHistory history = new CaptureHistory(mFolder.getRoot(), 1 << 20, 1 << 20);
+        long id = history.put(capture(1));
+        byte[] pdf = "%PDF-1.4 a4".getBytes("US-ASCII");
+        assertTrue(history.putDocument(id, "a4@300", pdf));
+
+        assertSame(pdf, history.getDocument(id, "a4@300"));
+        assertNull(history.getDocument(id, "letter@300"));
+        assertEquals(1, history.getDocumentHitCount());
+        assertFalse(history.putDocument(id + 1, "a4@300", pdf));
+    }
+
+    @Test
+    public void trimMemory_keepsEverythingOnDiskAcrossRestarts() throws Exception {
+        File directory = mFolder.getRoot();
+        CaptureHistory history = new CaptureHistory(directory, 1 << 20, 1 << 20);
+        long first = history.put(capture(1));
+        long latest = history.put(capture(2));
+        history.putDocument(latest, "a4@300", new byte[]{1, 2, 3});
+
+        history.trimMemory(0);
+        assertEquals(0, history.getRamBytes());
+        assertEquals(2, history.getDiskCount());
+
+        CaptureHistory restarted = new CaptureHistory(directory, 1 << 20, 1 << 20);
+        assertEquals(latest, restarted.getLatestId());
+        assertArrayEquals(new byte[]{1, 2, 3}, restarted.getDocument(latest, "a4@300"));
+        assertSamePixels(capture(1), restarted.getFrame(first, mPool));
+        assertTrue(restarted.put(capture(3)) > latest);
+    }
+
+    @Test
+    public void openPages_inflatesOnLoad() throws Exception {
+        CaptureHistory history = new CaptureHistory(mFolder.getRoot(), 1 << 20, 1 << 20);
+        long id = history.put(capture(4));
+        PageSource pages = history.openPages(id, mPool);
+        assertEquals(1, pages.getPageCount());
+        assertSamePixels(capture(4), pages.loadPage(0));
+
+        history.clear();
+        assertEquals(-1, history.getLatestId());
+        try {
+            pages.loadPage(0);
+            fail("Loaded a capture that was cleared");
+        } catch (IOException expected) {
+            // Reprint falls back to an error rather than a blank page
+        }
+    }
+
+    @Test
+    public void sameScreen_matchesButOneChangedGlyphDoesNot() throws Exception {
+        CaptureHistory history = new CaptureHistory(mFolder.getRoot(), 1 << 20, 1 << 20);
+        long id = history.put(capture(1), fingerprint(screen(1)));
+        assertEquals(id, history.findSimilar(fingerprint(screen(1)), PerceptualHash.DEFAULT_TOLERANCE));
+
+        // One digit of an amount changed: the perceptual hash can hardly see it, the content hash can
+        ByteBuffer changed = screen(1);
+        drawGlyph(changed, 40 + 24 * 20, 40 + 48 * 25, 7);
+        long[] changedFingerprint = fingerprint(changed);
+        assertTrue(PerceptualHash.distance(fingerprint(screen(1)), changedFingerprint)
+                <= PerceptualHash.DEFAULT_TOLERANCE);
+        assertEquals(-1, history.findSimilar(changedFingerprint, PerceptualHash.DEFAULT_TOLERANCE));
+        // Neither matches a frame that was only ever seen gray
+        assertEquals(-1, history.findSimilar(CaptureHistory.fingerprint(capture(1)), PerceptualHash.DEFAULT_TOLERANCE));
+        assertEquals(-1, history.findSimilar(fingerprint(screen(2)), PerceptualHash.DEFAULT_TOLERANCE));
+    }
+
+    @Test
+    public void sameScreenUnderOtherSettings_doesNotMatch() throws Exception {
+        CaptureHistory history = new CaptureHistory(mFolder.getRoot(), 1 << 20, 1 << 20);
+        long plain = "plain".hashCode();
+        long id = history.put(capture(1), fingerprint(screen(1), plain));
+        // Switching tone or ink changes the page, so the old one must not be reprinted
+        assertEquals(-1, history.findSimilar(fingerprint(screen(1), "crisp".hashCode()), 0));
+        assertEquals(id, history.findSimilar(fingerprint(screen(1), plain), 0));
+    }
+
+    @Test
+    public void onlyTheLatestCapturesOfThisProcess_areMatched() throws Exception {
+        File directory = mFolder.getRoot();
+        CaptureHistory history = new CaptureHistory(directory, 1 << 20, 1 << 20);
+        long[] old = fingerprint(screen(1));
+        history.put(capture(1), old);
+        for (int i = 2; i <= 4; i++) history.put(capture(i), fingerprint(screen(i)));
+
+        assertEquals(-1, history.findSimilar(old, 0)); // Three captures since
+        long[] latest = fingerprint(screen(4));
+        long latestId = history.findSimilar(latest, 0);
+        assertEquals(history.getLatestId(), latestId);
+
+        history.trimMemory(0);
+        assertEquals(latestId, history.findSimilar(latest, 0)); // Spilled, still recent
+        CaptureHistory restarted = new CaptureHistory(directory, 1 << 20, 1 << 20);
+        assertEquals(-1, restarted.findSimilar(latest, 0));
+        assertEquals(2 / 3.0, history.getDuplicateRate(), 1e-9);
+    }
+}
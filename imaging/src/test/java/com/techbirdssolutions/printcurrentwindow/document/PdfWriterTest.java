@@ -0,0 +1,229 @@
+package com.techbirdssolutions.printcurrentwindow.document;
+
+import com.techbirdssolutions.printcurrentwindow.imaging.BilevelFrame;
+import com.techbirdssolutions.printcurrentwindow.imaging.BufferPool;
+import com.techbirdssolutions.printcurrentwindow.imaging.Ditherer;
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayFrame;
+import com.techbirdssolutions.printcurrentwindow.imaging.TileClassifier;
+import com.techbirdssolutions.printcurrentwindow.imaging.TileMap;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Inflater;
+
+import static org.junit.Assert.*;
+
+public class PdfWriterTest {
+
+    // A4 in points
+    private static final float A4_WIDTH = 595.28f;
+    private static final float A4_HEIGHT = 841.89f;
+
+    private static GrayFrame screen(int width, int height) {
+        GrayFrame frame = new GrayFrame(width, height);
+        Arrays.fill(frame.getPixels(), (byte) 0xFF);
+        for (int y = 40; y < height - 40; y += 36) {
+            for (int x = 30; x < width - 30; x++) {
+                // Text-like runs of dark pixels
+                frame.getPixels()[y * width + x] = (byte) ((x / 7) % 3 == 0 ? 0x20 : 0xFF);
+            }
+        }
+        return frame;
+    }
+
+    private static byte[] write(GrayFrame... pages) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PdfWriter writer = new PdfWriter(out);
+        for (GrayFrame page : pages) {
+            writer.addPage(page, A4_WIDTH, A4_HEIGHT, 18, 18, 18, 18);
+        }
+        writer.finish();
+        assertEquals(out.size(), writer.getByteCount());
+        return out.toByteArray();
+    }
+
+    private static String latin1(byte[] pdf) {
+        return new String(pdf, StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    public void xref_pointsAtEveryObject() throws IOException {
+        String pdf = latin1(write(screen(200, 300), screen(300, 200)));
+        assertTrue(pdf.startsWith("%PDF-1.4\n"));
+        assertTrue(pdf.endsWith("%%EOF\n"));
+
+        Matcher startxref = Pattern.compile("startxref\n(\\d+)\n").matcher(pdf);
+        assertTrue(startxref.find());
+        int xref = Integer.parseInt(startxref.group(1));
+        assertTrue(pdf.startsWith("xref\n0 ", xref));
+
+        Matcher entry = Pattern.compile("(\\d{10}) 00000 n\r\n").matcher(pdf);
+        entry.region(xref, pdf.length());
+        int id = 1;
+        while (entry.find()) {
+            int offset = Integer.parseInt(entry.group(1));
+            assertTrue("object " + id, pdf.startsWith(id + " 0 obj\n", offset));
+            id++;
+        }
+        // Catalog, page tree, and image, length, content and page per page
+        assertEquals(2 + 2 * 4, id - 1);
+        assertTrue(pdf.contains("/Count 2"));
+    }
+
+    @Test
+    public void imageStream_inflatesToThePixels() throws Exception {
+        GrayFrame frame = screen(320, 480);
+        byte[] pdf = write(frame);
+        String text = latin1(pdf);
+
+        Matcher length = Pattern.compile("/Length (\\d+) 0 R >>\nstream\n").matcher(text);
+        assertTrue(length.find());
+        int streamStart = length.end();
+        Matcher lengthObject = Pattern.compile("\n" + length.group(1) + " 0 obj\n(\\d+)\n").matcher(text);
+        assertTrue(lengthObject.find());
+        int streamLength = Integer.parseInt(lengthObject.group(1));
+        assertTrue(text.startsWith("\nendstream", streamStart + streamLength));
+
+        Inflater inflater = new Inflater();
+        inflater.setInput(pdf, streamStart, streamLength);
+        byte[] pixels = new byte[320 * 480];
+        assertEquals(pixels.length, inflater.inflate(pixels));
+        assertTrue(inflater.finished());
+        assertArrayEquals(frame.getPixels(), pixels);
+    }
+
+    @Test
+    public void bilevelPage_isAOneBitImageOfThePackedRows() throws Exception {
+        BilevelFrame frame = new Ditherer(1).dither(screen(101, 60), Ditherer.Method.THRESHOLD,
+                BufferPool.byteArrays(1 << 20));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PdfWriter writer = new PdfWriter(out);
+        writer.setBilevelCompression(PdfWriter.BilevelCompression.FLATE);
+        writer.addPage(frame, A4_WIDTH, A4_HEIGHT, 18, 18, 18, 18);
+        writer.finish();
+        byte[] pdf = out.toByteArray();
+        String text = latin1(pdf);
+        assertTrue(text.contains("/Width 101 /Height 60 /ColorSpace /DeviceGray /BitsPerComponent 1 /Filter /FlateDecode"));
+
+        Matcher length = Pattern.compile("/Length (\\d+) 0 R >>\nstream\n").matcher(text);
+        assertTrue(length.find());
+        Inflater inflater = new Inflater();
+        inflater.setInput(pdf, length.end(), pdf.length - length.end());
+        byte[] bits = new byte[13 * 60];
+        assertEquals(bits.length, inflater.inflate(bits));
+        assertArrayEquals(Arrays.copyOf(frame.getBits(), frame.getByteCount()), bits);
+    }
+
+    @Test
+    public void bilevelPage_isG4UnlessRunLengthIsSmaller() throws Exception {
+        BufferPool<byte[]> pool = BufferPool.byteArrays(1 << 20);
+        BilevelFrame text = new Ditherer(1).dither(screen(101, 60), Ditherer.Method.THRESHOLD, pool);
+        BilevelFrame noise = new BilevelFrame(101, 60);
+        new Random(5).nextBytes(noise.getBits());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PdfWriter writer = new PdfWriter(out);
+        writer.addPage(text, A4_WIDTH, A4_HEIGHT, 18, 18, 18, 18);
+        writer.addPage(noise, A4_WIDTH, A4_HEIGHT, 18, 18, 18, 18);
+        writer.finish();
+        byte[] pdf = out.toByteArray();
+        String pdfText = latin1(pdf);
+        assertTrue(pdfText.contains("/BitsPerComponent 1 /Filter /CCITTFaxDecode /DecodeParms << /K -1 /Columns 101 /Rows 60 >>"));
+
+        // Random bits defeat G4, so the second page falls back
+        Matcher runLength = Pattern.compile("/Filter /RunLengthDecode /Length (\\d+) 0 R >>\nstream\n").matcher(pdfText);
+        assertTrue(runLength.find());
+        ByteArrayOutputStream bits = new ByteArrayOutputStream();
+        int i = runLength.end();
+        while ((pdf[i] & 0xFF) != 128) {
+            int n = pdf[i++] & 0xFF;
+            if (n < 128) {
+                bits.write(pdf, i, n + 1);
+                i += n + 1;
+            } else {
+                for (int k = 0; k < 257 - n; k++) bits.write(pdf[i]);
+                i++;
+            }
+        }
+        assertArrayEquals(Arrays.copyOf(noise.getBits(), noise.getByteCount()), bits.toByteArray());
+    }
+
+    @Test
+    public void mixedPage_layersATextStencilOverTheGrayTiles() throws Exception {
+        GrayFrame frame = screen(200, 160);
+        for (int y = 0; y < 160; y++) {
+            for (int x = 96; x < 200; x++) frame.getPixels()[y * 200 + x] = (byte) (x + y); // A gradient
+        }
+        TileMap tiles = new TileClassifier().classify(frame);
+        assertTrue(tiles.isText(0, 0));
+        assertFalse(tiles.isText(4, 0));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PdfWriter writer = new PdfWriter(out);
+        writer.setBilevelCompression(PdfWriter.BilevelCompression.FLATE);
+        writer.addMixedPage(frame, tiles, A4_WIDTH, A4_HEIGHT, 18, 18, 18, 18);
+        writer.finish();
+        byte[] pdf = out.toByteArray();
+        String text = latin1(pdf);
+        assertTrue(text.contains("/ImageMask true /BitsPerComponent 1"));
+        assertTrue(text.contains(" cm /Im0 Do /Im1 Do Q"));
+        assertTrue(text.contains("/XObject << /Im0 3 0 R /Im1 5 0 R >>"));
+
+        Matcher stream = Pattern.compile("/Length (\\d+) 0 R >>\nstream\n").matcher(text);
+        assertTrue(stream.find());
+        byte[] background = new byte[200 * 160];
+        Inflater inflater = new Inflater();
+        inflater.setInput(pdf, stream.end(), pdf.length - stream.end());
+        assertEquals(background.length, inflater.inflate(background));
+        assertTrue(stream.find());
+        byte[] mask = new byte[25 * 160];
+        inflater = new Inflater();
+        inflater.setInput(pdf, stream.end(), pdf.length - stream.end());
+        assertEquals(mask.length, inflater.inflate(mask));
+
+        for (int y = 0; y < 160; y++) {
+            for (int x = 0; x < 200; x++) {
+                int gray = frame.getPixels()[y * 200 + x] & 0xFF;
+                boolean isText = tiles.isText(x / 32, y / 32);
+                assertEquals(isText ? 255 : gray, background[y * 200 + x] & 0xFF);
+                boolean maskSet = (mask[y * 25 + (x >> 3)] & (0x80 >> (x & 7))) != 0;
+                assertEquals(!isText || gray >= 128, maskSet);
+            }
+        }
+    }
+
+    @Test
+    public void page_usesMediaSizeNotScreenPixels() throws IOException {
+        String pdf = latin1(write(screen(1440, 3200)));
+        assertTrue(pdf.contains("/MediaBox [0 0 595.28 841.89]"));
+
+        // Tall screen: height-limited, centered horizontally
+        float[] box = PdfWriter.fit(1440, 3200, A4_WIDTH, A4_HEIGHT, 18, 18, 18, 18);
+        assertEquals(A4_HEIGHT - 36, box[3], 0.01f);
+        assertEquals(box[3] * 1440 / 3200, box[2], 0.01f);
+        assertEquals(A4_WIDTH / 2f, box[0] + box[2] / 2f, 0.01f);
+        assertEquals(18f, box[1], 0.01f);
+    }
+
+    @Test
+    public void screenCapture_compressesWellBelowRaw() throws IOException {
+        GrayFrame frame = screen(1080, 2400);
+        byte[] pdf = write(frame, frame, frame);
+        assertTrue(pdf.length * 20L < 3L * 1080 * 2400);
+    }
+
+    @Test(expected = CancellationException.class)
+    public void cancellation_stopsMidImage() throws IOException {
+        final int[] checks = {0};
+        PdfWriter writer = new PdfWriter(new ByteArrayOutputStream());
+        writer.setCancellation(() -> ++checks[0] > 3); // Fires inside the first image
+        writer.addPage(screen(500, 2000), A4_WIDTH, A4_HEIGHT, 0, 0, 0, 0);
+    }
+}
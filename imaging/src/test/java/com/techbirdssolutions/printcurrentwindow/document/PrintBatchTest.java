@@ -0,0 +1,101 @@
+package com.techbirdssolutions.printcurrentwindow.document;
+
+import com.techbirdssolutions.printcurrentwindow.imaging.BufferPool;
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayFrame;
+import com.techbirdssolutions.printcurrentwindow.imaging.MappedFrameStore;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class PrintBatchTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final BufferPool<byte[]> mPool = BufferPool.byteArrays(64 << 20);
+
+    private static GrayFrame page(int width, int height, int shade) {
+        GrayFrame frame = new GrayFrame(width, height);
+        Arrays.fill(frame.getPixels(), (byte) 0xFF);
+        for (int y = 10; y < height; y += 24) {
+            Arrays.fill(frame.getPixels(), y * width + 20, y * width + width - 20, (byte) shade);
+        }
+        return frame;
+    }
+
+    @Test
+    public void pages_comeBackInOrderAndIntact() {
+        PrintBatch batch = new PrintBatch(mPool);
+        for (int i = 0; i < 5; i++) {
+            batch.add(page(300, 400, i * 10));
+        }
+
+        assertEquals(5, batch.getPageCount());
+        for (int i = 4; i >= 0; i--) {
+            GrayFrame loaded = batch.loadPage(i);
+            assertArrayEquals(page(300, 400, i * 10).getPixels(),
+                    Arrays.copyOf(loaded.getPixels(), loaded.getByteCount()));
+            loaded.release();
+        }
+    }
+
+    @Test
+    public void batch_holdsFarLessThanRawPixels() {
+        PrintBatch batch = new PrintBatch(mPool);
+        for (int i = 0; i < 10; i++) {
+            batch.add(page(1080, 2400, 0));
+        }
+        assertTrue(batch.getCompressedBytes() * 20 < 10L * 1080 * 2400);
+    }
+
+    @Test
+    public void mappedBatch_keepsPagesOffTheHeapAndFreesThemOnClose() throws Exception {
+        MappedFrameStore store = new MappedFrameStore(mFolder.getRoot(), 1 << 20);
+        PrintBatch batch = new PrintBatch(mPool, store);
+        for (int i = 0; i < 3; i++) {
+            batch.add(page(300, 400, i * 10));
+        }
+
+        assertEquals(3L * 300 * 400, batch.getMappedBytes());
+        assertEquals(0, batch.getCompressedBytes());
+        for (int i = 2; i >= 0; i--) {
+            GrayFrame loaded = batch.loadPage(i);
+            assertArrayEquals(page(300, 400, i * 10).getPixels(),
+                    Arrays.copyOf(loaded.getPixels(), loaded.getByteCount()));
+            loaded.release();
+        }
+        batch.close();
+        assertEquals(0, store.getLiveBytes());
+
+        // A store that cannot take pages any more leaves the batch on the heap
+        store.close();
+        PrintBatch fallback = new PrintBatch(mPool, store);
+        fallback.add(page(300, 400, 0));
+        assertEquals(0, fallback.getMappedBytes());
+        assertTrue(fallback.getCompressedBytes() > 0);
+    }
+
+    @Test
+    public void singleFrameSource_releasesOnClose() throws Exception {
+        GrayFrame frame = GrayFrame.fromPool(mPool, 10, 10);
+        PageSource source = PageSource.of(frame);
+
+        source.loadPage(0).release();
+        assertEquals(0, mPool.getPooledBytes());
+        source.close();
+        assertEquals(100, mPool.getPooledBytes());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedBatch_refusesPages() {
+        PrintBatch batch = new PrintBatch(mPool);
+        batch.add(page(10, 10, 0));
+        batch.close();
+        batch.loadPage(0);
+    }
+}
@@ -0,0 +1,119 @@
+package com.techbirdssolutions.printcurrentwindow.document;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class PrintJobQueueTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final AtomicLong mNow = new AtomicLong(1_000_000);
+
+    private PrintJobQueue open(File journal) throws Exception {
+        return new PrintJobQueue(journal, 10, 1500, mNow::get);
+    }
+
+    @Test
+    public void rapidCaptures_coalesceIntoTheWaitingJob() throws Exception {
+        PrintJobQueue queue = open(new File(mFolder.getRoot(), "jobs"));
+        PrintJobQueue.Job first = queue.offer(1);
+        mNow.addAndGet(400);
+        assertSame(first, queue.offer(2));
+        mNow.addAndGet(400);
+        assertSame(first, queue.offer(3));
+        assertArrayEquals(new long[]{1, 2, 3}, first.getCaptureIds());
+
+        mNow.addAndGet(5000); // A separate tap later on is a job of its own
+        PrintJobQueue.Job second = queue.offer(4);
+        assertNotSame(first, second);
+        assertEquals(2, queue.getPendingJobs());
+        assertEquals(4, queue.getPendingPages());
+        assertEquals(2, queue.getCoalescedPages());
+    }
+
+    @Test
+    public void oneJobAtATime_andDispatchedJobsTakeNoMorePages() throws Exception {
+        PrintJobQueue queue = open(new File(mFolder.getRoot(), "jobs"));
+        PrintJobQueue.Job first = queue.offer(1);
+        assertSame(first, queue.next());
+        assertNull("previous job still printing", queue.next());
+
+        PrintJobQueue.Job second = queue.offer(2);
+        assertNotSame(first, second);
+        mNow.addAndGet(2000);
+        assertEquals(2000, queue.complete(first.getId()));
+        assertSame(second, queue.next());
+        assertEquals(-1, queue.complete(first.getId()));
+    }
+
+    @Test
+    public void withoutAJournal_queuesInMemory() throws Exception {
+        PrintJobQueue queue = open(null);
+        PrintJobQueue.Job first = queue.offer(1);
+        assertSame(first, queue.offer(2));
+        assertSame(first, queue.next());
+        assertEquals(2, queue.getPendingPages());
+        queue.complete(first.getId());
+        assertEquals(0, queue.getPendingJobs());
+        assertEquals(0, queue.getJournalBytes());
+        queue.close();
+    }
+
+    @Test
+    public void fullQueue_rejectsPages() throws Exception {
+        PrintJobQueue queue = open(new File(mFolder.getRoot(), "jobs"));
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(queue.offer(i));
+        }
+        assertNull(queue.offer(10));
+        assertEquals(1, queue.getRejectedPages());
+    }
+
+    @Test
+    public void pendingJobs_surviveARestartAndATornRecord() throws Exception {
+        File journal = new File(mFolder.getRoot(), "jobs");
+        PrintJobQueue queue = open(journal);
+        PrintJobQueue.Job done = queue.offer(1);
+        mNow.addAndGet(5000);
+        PrintJobQueue.Job pending = queue.offer(2);
+        queue.offer(3);
+        queue.next();
+        queue.complete(done.getId());
+        // Killed while appending the next record
+        try (FileOutputStream out = new FileOutputStream(journal, true)) {
+            out.write(new byte[]{'A', 0, 0, 0});
+        }
+
+        PrintJobQueue restarted = open(journal);
+        assertEquals(1, restarted.getPendingJobs());
+        assertEquals(1, restarted.getRecoveredJobs());
+        PrintJobQueue.Job recovered = restarted.next();
+        assertEquals(pending.getId(), recovered.getId());
+        assertArrayEquals(new long[]{2, 3}, recovered.getCaptureIds());
+        assertTrue(restarted.offer(4).getId() > pending.getId());
+    }
+
+    @Test
+    public void journal_isCompactedAsJobsFinish() throws Exception {
+        File journal = new File(mFolder.getRoot(), "jobs");
+        PrintJobQueue queue = open(journal);
+        for (int i = 0; i < 500; i++) {
+            mNow.addAndGet(5000);
+            PrintJobQueue.Job job = queue.offer(i);
+            queue.next();
+            queue.complete(job.getId());
+        }
+        assertEquals(500, queue.getCompletedJobs());
+        assertTrue("journal is " + journal.length() + " bytes", journal.length() < 64 * 25 * 2);
+        assertEquals(journal.length(), queue.getJournalBytes());
+        assertEquals(0, open(journal).getPendingJobs());
+    }
+}
@@ -0,0 +1,124 @@
+package com.techbirdssolutions.printcurrentwindow.document;
+
+import com.techbirdssolutions.printcurrentwindow.imaging.BufferPool;
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayFrame;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ScrollStitcherTest {
+
+    private static final int WIDTH = 720;
+    private static final int HEIGHT = 1600;
+    private static final int HEADER = 120; // Toolbar that stays put while the content scrolls
+    private static final int FOOTER = 90;
+    private static final int AREA = HEIGHT - HEADER - FOOTER;
+
+    private final BufferPool<byte[]> mPool = BufferPool.byteArrays(64 << 20);
+
+    /**
+     * A long report: white background with lines of random "text" and blank gaps between them.
+     */
+    private static byte[] document(int rows, long seed) {
+        byte[] pixels = new byte[rows * WIDTH];
+        Arrays.fill(pixels, (byte) 0xFF);
+        Random random = new Random(seed);
+        for (int y = 20; y + 16 < rows; y += 28 + random.nextInt(20)) {
+            for (int line = 0; line < 16; line++) {
+                for (int x = 40; x < WIDTH - 40 - random.nextInt(200); x++) {
+                    if (random.nextInt(3) == 0) pixels[(y + line) * WIDTH + x] = (byte) random.nextInt(120);
+                }
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * What the screen shows with the document scrolled down by offset rows.
+     */
+    private static GrayFrame screen(byte[] document, int offset) {
+        GrayFrame frame = new GrayFrame(WIDTH, HEIGHT);
+        byte[] pixels = frame.getPixels();
+        Arrays.fill(pixels, 0, HEADER * WIDTH, (byte) 0x40);
+        Arrays.fill(pixels, (HEIGHT - FOOTER) * WIDTH, HEIGHT * WIDTH, (byte) 0x60);
+        System.arraycopy(document, offset * WIDTH, pixels, HEADER * WIDTH, AREA * WIDTH);
+        return frame;
+    }
+
+    private static byte[] expected(byte[] document, int lastOffset) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] header = new byte[HEADER * WIDTH];
+        Arrays.fill(header, (byte) 0x40);
+        byte[] footer = new byte[FOOTER * WIDTH];
+        Arrays.fill(footer, (byte) 0x60);
+        out.write(header, 0, header.length);
+        out.write(document, 0, (lastOffset + AREA) * WIDTH);
+        out.write(footer, 0, footer.length);
+        return out.toByteArray();
+    }
+
+    private ScrollStitcher stitcher(int pageHeight, ByteArrayOutputStream pages) {
+        return new ScrollStitcher(WIDTH, pageHeight, mPool, page -> {
+            assertEquals(pageHeight, page.getHeight());
+            pages.write(page.getPixels(), 0, page.getByteCount());
+        });
+    }
+
+    @Test
+    public void scrolledFrames_stitchBackIntoTheDocument() {
+        byte[] document = document(12_000, 1);
+        ByteArrayOutputStream pages = new ByteArrayOutputStream();
+        ScrollStitcher stitcher = stitcher(2000, pages);
+
+        Random random = new Random(2);
+        int offset = 0;
+        stitcher.add(screen(document, 0));
+        while (offset + 500 + AREA <= document.length / WIDTH) {
+            int step = 40 + random.nextInt(460); // Uneven scrolling, always less than a screen
+            offset += step;
+            assertEquals(step, stitcher.add(screen(document, offset)));
+        }
+        stitcher.finish();
+
+        byte[] stitched = pages.toByteArray();
+        byte[] expected = expected(document, offset);
+        assertEquals(0, stitcher.getUnmatchedFrames());
+        assertEquals(expected.length / WIDTH, stitcher.getTotalRows());
+        assertEquals((expected.length / WIDTH + 1999) / 2000, stitcher.getPageCount());
+        assertArrayEquals(expected, Arrays.copyOf(stitched, expected.length));
+        for (int i = expected.length; i < stitched.length; i++) {
+            assertEquals("last page padded with white", (byte) 0xFF, stitched[i]);
+        }
+    }
+
+    @Test
+    public void unchangedFrame_addsNothing() {
+        byte[] document = document(4000, 3);
+        ByteArrayOutputStream pages = new ByteArrayOutputStream();
+        ScrollStitcher stitcher = stitcher(1000, pages);
+
+        stitcher.add(screen(document, 0));
+        assertEquals(0, stitcher.add(screen(document, 0)));
+        assertEquals(300, stitcher.add(screen(document, 300)));
+        assertEquals(0, stitcher.add(screen(document, 300)));
+        stitcher.finish();
+
+        assertArrayEquals(expected(document, 300), Arrays.copyOf(pages.toByteArray(), expected(document, 300).length));
+    }
+
+    @Test
+    public void jumpBeyondOneScreen_isCountedAndKeptWhole() {
+        byte[] document = document(6000, 4);
+        ScrollStitcher stitcher = stitcher(1000, new ByteArrayOutputStream());
+
+        stitcher.add(screen(document, 0));
+        assertEquals(-1, stitcher.add(screen(document, AREA + 500)));
+        assertEquals(1, stitcher.getUnmatchedFrames());
+        stitcher.finish();
+    }
+}
@@ -0,0 +1,95 @@
+package com.techbirdssolutions.printcurrentwindow.imaging;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class AreaResamplerTest {
+
+    private final BufferPool<byte[]> mPool = BufferPool.byteArrays(64 << 20);
+
+    private static GrayFrame random(int width, int height, long seed) {
+        GrayFrame frame = new GrayFrame(width, height);
+        new Random(seed).nextBytes(frame.getPixels());
+        return frame;
+    }
+
+    private static double mean(GrayFrame frame) {
+        long sum = 0;
+        for (int y = 0; y < frame.getHeight(); y++) {
+            for (int x = 0; x < frame.getWidth(); x++) {
+                sum += frame.getPixel(x, y);
+            }
+        }
+        return (double) sum / (frame.getWidth() * frame.getHeight());
+    }
+
+    @Test
+    public void halving_averagesEachTwoByTwoBlock() {
+        GrayFrame source = random(64, 48, 1);
+        GrayFrame half = new AreaResampler().resize(source, 32, 24, mPool);
+
+        for (int y = 0; y < 24; y++) {
+            for (int x = 0; x < 32; x++) {
+                int sum = source.getPixel(2 * x, 2 * y) + source.getPixel(2 * x + 1, 2 * y)
+                        + source.getPixel(2 * x, 2 * y + 1) + source.getPixel(2 * x + 1, 2 * y + 1);
+                assertEquals(Math.round(sum / 4f), half.getPixel(x, y), 1);
+            }
+        }
+    }
+
+    @Test
+    public void fractionalRatio_keepsFlatAreasFlatAndTheMean() {
+        GrayFrame flat = new GrayFrame(1080, 2400);
+        Arrays.fill(flat.getPixels(), (byte) 200);
+        GrayFrame scaled = new AreaResampler().resize(flat, 437, 971, mPool);
+        for (int i = 0; i < scaled.getByteCount(); i++) {
+            assertEquals(200, scaled.getPixels()[i] & 0xFF);
+        }
+
+        GrayFrame noisy = random(1080, 2400, 2);
+        assertEquals(mean(noisy), mean(new AreaResampler().resize(noisy, 437, 971, mPool)), 0.5);
+    }
+
+    @Test
+    public void fit_keepsAspectAndNeverUpscales() {
+        AreaResampler resampler = new AreaResampler();
+        GrayFrame source = random(1440, 3200, 3);
+
+        // A 4x6 inch label at 203 dpi leaves roughly 812x1218 pixels
+        GrayFrame label = resampler.fit(source, 812, 1218, mPool);
+        assertEquals(1218, label.getHeight());
+        assertEquals(548, label.getWidth());
+
+        GrayFrame same = resampler.fit(source, 3000, 6000, mPool);
+        assertSame(source, same);
+        same.release(); // The extra reference fit() handed out
+        source.release();
+    }
+
+    @Test
+    public void result_isTheSameForAnyCoreCount() {
+        GrayFrame source = random(1440, 3200, 4);
+        byte[] expected = null;
+        for (int cores : new int[]{1, 2, 4}) {
+            ForkJoinPool pool = new ForkJoinPool(cores);
+            try {
+                AreaResampler resampler = new AreaResampler(pool);
+                GrayFrame scaled = resampler.resize(source, 900, 2000, mPool);
+                byte[] pixels = Arrays.copyOf(scaled.getPixels(), scaled.getByteCount());
+                if (expected == null) {
+                    expected = pixels;
+                } else {
+                    assertArrayEquals(expected, pixels);
+                }
+                scaled.release();
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.techbirdssolutions.printcurrentwindow.imaging;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolTest {
+
+    @Test
+    public void steadyState_reusesBuffersWithoutAllocating() {
+        BufferPool<byte[]> pool = BufferPool.byteArrays(1 << 20);
+
+        byte[] first = pool.acquire(1000);
+        pool.release(1000, first);
+        for (int i = 0; i < 100; i++) {
+            byte[] buffer = pool.acquire(1000);
+            assertSame(first, buffer);
+            pool.release(1000, buffer);
+        }
+
+        assertEquals(1, pool.getMissCount());
+        assertEquals(100, pool.getHitCount());
+        assertEquals(1000, pool.getPooledBytes());
+    }
+
+    @Test
+    public void differentSizes_doNotMix() {
+        BufferPool<int[]> pool = BufferPool.intArrays(1 << 20);
+        pool.release(10, new int[10]);
+
+        assertEquals(20, pool.acquire(20).length);
+        assertEquals(10, pool.acquire(10).length);
+        assertEquals(1, pool.getHitCount());
+    }
+
+    @Test
+    public void ceiling_evictsLeastRecentlyUsedKeyFirst() {
+        BufferPool<byte[]> pool = BufferPool.byteArrays(250);
+        byte[] a = new byte[100];
+        byte[] b = new byte[100];
+        pool.release(100, a);
+        pool.release(120, new byte[120]);
+        pool.acquire(100); // Touch key 100 so 120 becomes the eldest
+        pool.release(100, a);
+        pool.release(100, b);
+
+        assertEquals(200, pool.getPooledBytes());
+        assertEquals(1, pool.getEvictionCount());
+
+        long misses = pool.getMissCount();
+        pool.acquire(120); // Was evicted, so this allocates
+        assertEquals(misses + 1, pool.getMissCount());
+    }
+
+    @Test
+    public void oversizedBuffer_isNotRetained() {
+        BufferPool<byte[]> pool = BufferPool.byteArrays(50);
+        pool.release(100, new byte[100]);
+        assertEquals(0, pool.getPooledBytes());
+        assertEquals(1, pool.getEvictionCount());
+    }
+
+    @Test
+    public void shrinkingCeiling_trimsAndNotifies() {
+        final int[] evicted = {0};
+        BufferPool<byte[]> pool = new BufferPool<byte[]>(1000) {
+            @Override
+            protected byte[] allocate(long key) {
+                return new byte[(int) key];
+            }
+
+            @Override
+            protected long byteSize(byte[] buffer) {
+                return buffer.length;
+            }
+
+            @Override
+            protected void onEvicted(byte[] buffer) {
+                evicted[0]++;
+            }
+        };
+        for (int i = 0; i < 5; i++) pool.release(100, new byte[100]);
+
+        pool.setMaxBytes(250);
+        assertEquals(200, pool.getPooledBytes());
+        pool.clear();
+        assertEquals(0, pool.getPooledBytes());
+        assertEquals(5, evicted[0]);
+    }
+}
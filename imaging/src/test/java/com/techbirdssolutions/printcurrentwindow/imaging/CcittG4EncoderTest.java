@@ -0,0 +1,169 @@
+package com.techbirdssolutions.printcurrentwindow.imaging;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeNotNull;
+
+public class CcittG4EncoderTest {
+
+    private final BufferPool<byte[]> mPool = BufferPool.byteArrays(64 << 20);
+    private final CcittG4Encoder mEncoder = new CcittG4Encoder();
+
+    /**
+     * Text-like rows, solid bars, a checkerboard and a noisy band, with a width that is not a
+     * multiple of 8.
+     */
+    private static BilevelFrame page(int width, int height, long seed) {
+        Random random = new Random(seed);
+        GrayFrame gray = new GrayFrame(width, height);
+        byte[] pixels = gray.getPixels();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                boolean black;
+                if (y < height / 4) black = y % 12 < 8 && (x / 5 + y / 12) % 3 == 0;
+                else if (y < height / 2) black = x > width / 3 && x < width / 3 + 40;
+                else if (y < height * 3 / 4) black = ((x >> 1) + (y >> 1)) % 2 == 0;
+                else black = random.nextInt(3) == 0;
+                pixels[y * width + x] = (byte) (black ? 0 : 255);
+            }
+        }
+        return new Ditherer(1).dither(gray, Ditherer.Method.THRESHOLD, BufferPool.byteArrays(1 << 24));
+    }
+
+    /**
+     * Decodes the data with the JDK's TIFF reader, which implements T.6 independently, by
+     * wrapping it in a single-strip TIFF. Null where the runtime has no TIFF reader.
+     */
+    private static BufferedImage decode(byte[] g4, int length, int width, int height) throws IOException {
+        if (!ImageIO.getImageReadersByFormatName("tiff").hasNext()) return null;
+        short[][] tags = {
+                {256, 4}, {257, 4}, {258, 3}, {259, 3}, {262, 3}, {273, 4}, {277, 3}, {278, 4}, {279, 4}};
+        long[] values = {width, height, 1, 4 /* T.6 */, 0 /* white is zero */, 0, 1, height, length};
+        int ifdOffset = 8;
+        int dataOffset = ifdOffset + 2 + tags.length * 12 + 4;
+        values[5] = dataOffset;
+        ByteBuffer tiff = ByteBuffer.allocate(dataOffset + length).order(ByteOrder.LITTLE_ENDIAN);
+        tiff.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(ifdOffset);
+        tiff.putShort((short) tags.length);
+        for (int i = 0; i < tags.length; i++) {
+            tiff.putShort(tags[i][0]).putShort(tags[i][1]).putInt(1);
+            if (tags[i][1] == 3) tiff.putShort((short) values[i]).putShort((short) 0);
+            else tiff.putInt((int) values[i]);
+        }
+        tiff.putInt(0);
+        tiff.put(g4, 0, length);
+        return ImageIO.read(new ByteArrayInputStream(tiff.array()));
+    }
+
+    private void assertRoundTrip(BilevelFrame frame) throws IOException {
+        int length = mEncoder.encode(frame, Integer.MAX_VALUE);
+        assertTrue(length > 0);
+        BufferedImage image = decode(mEncoder.getBuffer(), length, frame.getWidth(), frame.getHeight());
+        assumeNotNull(image);
+        assertEquals(frame.getWidth(), image.getWidth());
+        assertEquals(frame.getHeight(), image.getHeight());
+        for (int y = 0; y < frame.getHeight(); y++) {
+            for (int x = 0; x < frame.getWidth(); x++) {
+                int white = (image.getRGB(x, y) & 0xFF) > 127 ? 255 : 0;
+                assertEquals("pixel " + x + "," + y, frame.getPixel(x, y), white);
+            }
+        }
+    }
+
+    @Test
+    public void mixedPage_decodesToTheSameBits() throws IOException {
+        assertRoundTrip(page(203, 160, 1));
+        assertRoundTrip(page(1, 9, 2));
+    }
+
+    @Test
+    public void solidPages_andRunsPastTheLongestMakeupCode() throws IOException {
+        for (int width : new int[]{8, 63, 64, 1728, 1792, 2560, 2561, 6000}) {
+            BilevelFrame white = new BilevelFrame(width, 3);
+            Arrays.fill(white.getBits(), (byte) 0xFF);
+            assertRoundTrip(white);
+            BilevelFrame black = new BilevelFrame(width, 3);
+            assertRoundTrip(black);
+            // A line of single black pixels with long white runs between, then a blank line
+            BilevelFrame sparse = new BilevelFrame(width, 2);
+            Arrays.fill(sparse.getBits(), (byte) 0xFF);
+            for (int x = 0; x < width; x += 2700) sparse.getBits()[x >> 3] &= (byte) ~(0x80 >> (x & 7));
+            assertRoundTrip(sparse);
+        }
+    }
+
+    @Test
+    public void ditheredPhoto_decodesToTheSameBits() throws IOException {
+        GrayFrame gray = new GrayFrame(257, 90);
+        for (int i = 0; i < gray.getByteCount(); i++) gray.getPixels()[i] = (byte) (i * 7 % 251);
+        Ditherer ditherer = new Ditherer(1);
+        for (Ditherer.Method method : Ditherer.Method.values()) {
+            assertRoundTrip(ditherer.dither(gray, method, mPool));
+        }
+    }
+
+    @Test
+    public void budget_isHonoured() {
+        BilevelFrame noise = new BilevelFrame(640, 480);
+        new Random(3).nextBytes(noise.getBits());
+        assertEquals(-1, mEncoder.encode(noise, noise.getByteCount()));
+        int length = mEncoder.encode(noise, Integer.MAX_VALUE);
+        assertTrue(length > noise.getByteCount());
+        assertEquals(length, mEncoder.encode(noise, length));
+        assertEquals(-1, mEncoder.encode(noise, length - 1));
+    }
+
+    @Test
+    public void codeTables_arePrefixFree() throws Exception {
+        String[][] tables = {
+                strings("WHITE_TERMINATING", "WHITE_MAKEUP", "EXTENDED_MAKEUP", "EOL"),
+                strings("BLACK_TERMINATING", "BLACK_MAKEUP", "EXTENDED_MAKEUP", "EOL"),
+                strings("VERTICAL", "PASS", "HORIZONTAL", "EOL")};
+        for (String[] table : tables) {
+            for (int i = 0; i < table.length; i++) {
+                for (int j = 0; j < table.length; j++) {
+                    if (i != j) assertFalse(table[i] + " prefixes " + table[j], table[j].startsWith(table[i]));
+                }
+            }
+        }
+    }
+
+    private static String[] strings(String... names) throws Exception {
+        String[] all = new String[0];
+        for (String name : names) {
+            Field field = CcittG4Encoder.class.getDeclaredField(name);
+            field.setAccessible(true);
+            Object value = field.get(null);
+            String[] codes = value instanceof String ? new String[]{(String) value} : (String[]) value;
+            all = Arrays.copyOf(all, all.length + codes.length);
+            System.arraycopy(codes, 0, all, all.length - codes.length, codes.length);
+        }
+        return all;
+    }
+
+    @Test
+    public void textPage_isAFractionOfThePackedBits() {
+        GrayFrame gray = new GrayFrame(1080, 2400);
+        Arrays.fill(gray.getPixels(), (byte) 0xFF);
+        for (int y = 40; y < 2360; y++) {
+            for (int x = 30; x < 1050; x++) {
+                // Lines of 18 pixel tall "glyphs" with gaps between
+                if ((y - 40) % 36 < 18 && (x / 7) % 3 == 0) gray.getPixels()[y * 1080 + x] = 0;
+            }
+        }
+        BilevelFrame frame = new Ditherer(1).dither(gray, Ditherer.Method.THRESHOLD, mPool);
+        int length = mEncoder.encode(frame, Integer.MAX_VALUE);
+        assertTrue(length * 10 < frame.getByteCount());
+    }
+}
@@ -0,0 +1,73 @@
+package com.techbirdssolutions.printcurrentwindow.imaging;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class ContentBoundsTest {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 2400;
+    private static final int ROW_STRIDE = WIDTH * 4 + 64; // Padded rows, as ImageReader hands them out
+
+    /**
+     * A white RGBA screen with a status bar, a form in [left, right) x [top, bottom), and a nav bar.
+     */
+    private static ByteBuffer screen(int left, int top, int right, int bottom) {
+        ByteBuffer buffer = ByteBuffer.allocate(ROW_STRIDE * HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int v = 0xF4;
+                if (y < 80 || y >= HEIGHT - 120) {
+                    v = x % 200 < 40 ? 0x10 : 0x30; // Bars with icons
+                } else if (y >= top && y < bottom && x >= left && x < right) {
+                    v = (x / 3 + y / 5) % 7 == 0 ? 0x20 : 0xE0; // Form lines and text
+                }
+                int i = y * ROW_STRIDE + x * 4;
+                buffer.put(i, (byte) v).put(i + 1, (byte) v).put(i + 2, (byte) (v + 3)).put(i + 3, (byte) 0xFF);
+            }
+        }
+        return buffer;
+    }
+
+    @Test
+    public void form_isFoundInsideTheSystemBars() {
+        ByteBuffer buffer = screen(60, 300, 1000, 1500);
+        buffer.position(17);
+
+        int[] bounds = ContentBounds.detect(buffer, ROW_STRIDE, 4, 0, 80, WIDTH, HEIGHT - 120,
+                ContentBounds.DEFAULT_TOLERANCE, 0);
+
+        assertArrayEquals(new int[]{60, 300, 1000, 1500}, bounds);
+        assertEquals("position untouched", 17, buffer.position());
+    }
+
+    @Test
+    public void padding_isClampedToTheSearchArea() {
+        ByteBuffer buffer = screen(0, 90, 1000, 1500);
+        int[] bounds = ContentBounds.detect(buffer, ROW_STRIDE, 4, 0, 80, WIDTH, HEIGHT - 120,
+                ContentBounds.DEFAULT_TOLERANCE, 16);
+        assertArrayEquals(new int[]{0, 80, 1016, 1516}, bounds);
+    }
+
+    @Test
+    public void blankArea_hasNoContent() {
+        ByteBuffer buffer = screen(0, 0, 0, 0);
+        assertNull(ContentBounds.detect(buffer, ROW_STRIDE, 4, 0, 80, WIDTH, HEIGHT - 120,
+                ContentBounds.DEFAULT_TOLERANCE, 16));
+        // The bars themselves are content when the search covers them
+        assertNotNull(ContentBounds.detect(buffer, ROW_STRIDE, 4, 0, 0, WIDTH, HEIGHT,
+                ContentBounds.DEFAULT_TOLERANCE, 0));
+    }
+
+    @Test
+    public void slightNoise_isTreatedAsBackground() {
+        ByteBuffer buffer = screen(200, 400, 800, 900);
+        buffer.put(100 * ROW_STRIDE + 500 * 4, (byte) 0xF0); // Within tolerance of 0xF4
+        int[] bounds = ContentBounds.detect(buffer, ROW_STRIDE, 4, 0, 80, WIDTH, HEIGHT - 120,
+                ContentBounds.DEFAULT_TOLERANCE, 0);
+        assertArrayEquals(new int[]{200, 400, 800, 900}, bounds);
+    }
+}
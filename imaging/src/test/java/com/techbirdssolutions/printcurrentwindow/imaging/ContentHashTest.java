@@ -0,0 +1,62 @@
+package com.techbirdssolutions.printcurrentwindow.imaging;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ContentHashTest {
+
+    private static ByteBuffer plane(int width, int height, int rowStride, long seed) {
+        ByteBuffer buffer = ByteBuffer.allocate(rowStride * height);
+        Random random = new Random(seed);
+        Random padding = new Random(); // Differs between calls; must not matter
+        for (int y = 0; y < height; y++) {
+            for (int i = 0; i < rowStride; i++) {
+                Random source = i < width * 4 ? random : padding;
+                buffer.put(y * rowStride + i, (byte) source.nextInt(256));
+            }
+        }
+        return buffer;
+    }
+
+    @Test
+    public void everySingleByte_changesTheHash() {
+        ByteBuffer plane = plane(37, 11, 37 * 4 + 12, 1);
+        long hash = ContentHash.of(plane, 37 * 4 + 12, 4, 0, 0, 37, 11);
+        for (int y = 0; y < 11; y++) {
+            for (int i = 0; i < 37 * 4; i++) {
+                int index = y * (37 * 4 + 12) + i;
+                byte old = plane.get(index);
+                plane.put(index, (byte) (old ^ 1));
+                assertNotEquals("byte " + i + " of row " + y, hash, ContentHash.of(plane, 37 * 4 + 12, 4, 0, 0, 37, 11));
+                plane.put(index, old);
+            }
+        }
+        assertEquals(hash, ContentHash.of(plane, 37 * 4 + 12, 4, 0, 0, 37, 11));
+    }
+
+    @Test
+    public void rowPadding_andPixelsOutsideTheRegion_areIgnored() {
+        // Same pixels at two strides with different padding
+        assertEquals(ContentHash.of(plane(50, 20, 50 * 4 + 64, 2), 50 * 4 + 64, 4, 0, 0, 50, 20),
+                ContentHash.of(plane(50, 20, 50 * 4 + 16, 2), 50 * 4 + 16, 4, 0, 0, 50, 20));
+
+        ByteBuffer plane = plane(50, 20, 200, 3);
+        long crop = ContentHash.of(plane, 200, 4, 10, 5, 30, 10);
+        plane.put(0, (byte) (plane.get(0) + 1));
+        plane.put(19 * 200 + 49 * 4, (byte) (plane.get(19 * 200 + 49 * 4) + 1));
+        assertEquals(crop, ContentHash.of(plane, 200, 4, 10, 5, 30, 10));
+    }
+
+    @Test
+    public void grayFrame_hashesItsPixelsOnly() {
+        GrayFrame frame = new GrayFrame(33, 9);
+        new Random(4).nextBytes(frame.getPixels());
+        long hash = ContentHash.of(frame);
+        frame.getPixels()[32] ^= 0x40;
+        assertNotEquals(hash, ContentHash.of(frame));
+    }
+}
@@ -0,0 +1,138 @@
+package com.techbirdssolutions.printcurrentwindow.imaging;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DithererTest {
+
+    private final BufferPool<byte[]> mPool = BufferPool.byteArrays(64 << 20);
+    private final Ditherer mSerial = new Ditherer(1);
+    private final Ditherer mParallel = new Ditherer(4);
+
+    @After
+    public void tearDown() {
+        mParallel.shutdown();
+    }
+
+    /**
+     * A screenshot-like frame: gradients, flat areas and noisy text blocks, with a width that is
+     * not a multiple of 8 or of the progress chunk.
+     */
+    private static GrayFrame screen(int width, int height, long seed) {
+        Random random = new Random(seed);
+        GrayFrame frame = new GrayFrame(width, height);
+        byte[] pixels = frame.getPixels();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int v;
+                if (y < height / 3) v = x * 255 / (width - 1);
+                else if (y < height / 2) v = 200;
+                else v = random.nextInt(4) == 0 ? random.nextInt(100) : 230 + random.nextInt(26);
+                pixels[y * width + x] = (byte) v;
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * Textbook serial error diffusion over a full error image, to check the wavefront against.
+     */
+    private static int[] reference(GrayFrame frame, boolean atkinson) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int[] error = new int[width * height];
+        int[] out = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int value = frame.getPixel(x, y) + error[y * width + x];
+                out[y * width + x] = value >= 128 ? 255 : 0;
+                int e = value - out[y * width + x];
+                if (atkinson) {
+                    int[][] to = {{1, 0}, {2, 0}, {-1, 1}, {0, 1}, {1, 1}, {0, 2}};
+                    for (int[] d : to) add(error, width, height, x + d[0], y + d[1], e / 8);
+                } else {
+                    add(error, width, height, x + 1, y, e * 7 / 16);
+                    add(error, width, height, x - 1, y + 1, e * 3 / 16);
+                    add(error, width, height, x, y + 1, e * 5 / 16);
+                    add(error, width, height, x + 1, y + 1, e / 16);
+                }
+            }
+        }
+        return out;
+    }
+
+    private static void add(int[] error, int width, int height, int x, int y, int e) {
+        if (x >= 0 && x < width && y < height) error[y * width + x] += e;
+    }
+
+    private static int[] unpack(BilevelFrame frame) {
+        int[] out = new int[frame.getWidth() * frame.getHeight()];
+        for (int y = 0; y < frame.getHeight(); y++) {
+            for (int x = 0; x < frame.getWidth(); x++) out[y * frame.getWidth() + x] = frame.getPixel(x, y);
+        }
+        return out;
+    }
+
+    private static byte[] packedRows(BilevelFrame frame) {
+        // Padding bits past the width are written as zero, so whole rows compare
+        return Arrays.copyOf(frame.getBits(), frame.getByteCount());
+    }
+
+    @Test
+    public void errorDiffusion_matchesTheTextbookSerialVersion() {
+        GrayFrame frame = screen(203, 150, 1);
+        assertArrayEquals(reference(frame, false),
+                unpack(mSerial.dither(frame, Ditherer.Method.FLOYD_STEINBERG, mPool)));
+        assertArrayEquals(reference(frame, true),
+                unpack(mSerial.dither(frame, Ditherer.Method.ATKINSON, mPool)));
+    }
+
+    @Test
+    public void parallel_matchesSerialForEveryMethod() {
+        for (int round = 0; round < 5; round++) {
+            GrayFrame frame = screen(333 + round * 61, 97 + round * 13, round);
+            for (Ditherer.Method method : Ditherer.Method.values()) {
+                byte[] serial = packedRows(mSerial.dither(frame, method, mPool));
+                byte[] parallel = packedRows(mParallel.dither(frame, method, mPool));
+                assertArrayEquals(method + " round " + round, serial, parallel);
+            }
+        }
+    }
+
+    @Test
+    public void fewerRowsThanThreads_stillWork() {
+        GrayFrame frame = screen(70, 2, 3);
+        assertArrayEquals(packedRows(mSerial.dither(frame, Ditherer.Method.ATKINSON, mPool)),
+                packedRows(mParallel.dither(frame, Ditherer.Method.ATKINSON, mPool)));
+    }
+
+    @Test
+    public void solidAreas_staySolidAndMidGrayIsHalfInk() {
+        GrayFrame frame = new GrayFrame(64, 64);
+        for (Ditherer.Method method : Ditherer.Method.values()) {
+            Arrays.fill(frame.getPixels(), (byte) 0);
+            for (int v : unpack(mParallel.dither(frame, method, mPool))) assertEquals(method.name(), 0, v);
+            Arrays.fill(frame.getPixels(), (byte) 255);
+            for (int v : unpack(mParallel.dither(frame, method, mPool))) assertEquals(method.name(), 255, v);
+        }
+        Arrays.fill(frame.getPixels(), (byte) 128);
+        for (Ditherer.Method method : new Ditherer.Method[]{Ditherer.Method.FLOYD_STEINBERG, Ditherer.Method.ORDERED}) {
+            int white = 0;
+            for (int v : unpack(mParallel.dither(frame, method, mPool))) white += v == 255 ? 1 : 0;
+            assertEquals(method.name(), 0.5, white / (64.0 * 64), 0.05);
+        }
+    }
+
+    @Test
+    public void bilevelFrame_isAnEighthOfTheGrayFrame() {
+        GrayFrame frame = screen(1080, 2400, 4);
+        BilevelFrame bits = mParallel.dither(frame, Ditherer.Method.FLOYD_STEINBERG, mPool);
+        assertEquals(135, bits.getRowBytes());
+        assertEquals(frame.getByteCount() / 8, bits.getByteCount());
+    }
+}
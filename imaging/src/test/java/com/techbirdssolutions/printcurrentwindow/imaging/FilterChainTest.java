@@ -0,0 +1,135 @@
+package com.techbirdssolutions.printcurrentwindow.imaging;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FilterChainTest {
+
+    /**
+     * A washed-out screen: light gray background around 200-230 with darker text-like noise,
+     * so auto-levels and whitening both have something to do.
+     */
+    private static byte[] screen(int length, long seed) {
+        Random random = new Random(seed);
+        byte[] pixels = new byte[length];
+        for (int i = 0; i < length; i++) {
+            pixels[i] = (byte) (random.nextInt(10) == 0 ? 40 + random.nextInt(120) : 200 + random.nextInt(31));
+        }
+        return pixels;
+    }
+
+    private static byte[] runOneByOne(byte[] pixels, FilterChain.Filter... filters) {
+        byte[] out = pixels.clone();
+        for (FilterChain.Filter filter : filters) {
+            new FilterChain(filter).apply(out, 0, out.length);
+        }
+        return out;
+    }
+
+    @Test
+    public void fused_matchesStagesRunOneByOne() {
+        FilterChain.Filter[] filters = {
+                FilterChain.autoLevels(0.01), FilterChain.gamma(1.4), FilterChain.contrast(1.3),
+                FilterChain.whiten(220), FilterChain.levels(10, 250)};
+        byte[] pixels = screen(50_000, 1);
+
+        byte[] fused = pixels.clone();
+        new FilterChain(filters).apply(fused, 0, fused.length);
+
+        assertArrayEquals(runOneByOne(pixels, filters), fused);
+    }
+
+    @Test
+    public void fused_matchesWithSeveralAdaptiveStagesAndThreshold() {
+        FilterChain.Filter[] filters = {
+                FilterChain.contrast(0.5), FilterChain.autoLevels(0.02), FilterChain.gamma(0.7),
+                FilterChain.autoLevels(0), FilterChain.threshold(128)};
+        byte[] pixels = screen(30_000, 2);
+
+        byte[] fused = pixels.clone();
+        new FilterChain(filters).apply(fused, 0, fused.length);
+
+        byte[] expected = runOneByOne(pixels, filters);
+        assertArrayEquals(expected, fused);
+        for (byte b : fused) assertTrue((b & 0xFF) == 0 || (b & 0xFF) == 255);
+    }
+
+    @Test
+    public void convert_fusesGrayscaleIntoTheSamePass() {
+        int width = 37;
+        int height = 11;
+        int rowStride = width * 4 + 12;
+        ByteBuffer plane = ByteBuffer.allocateDirect(rowStride * height);
+        Random random = new Random(3);
+        for (int i = 0; i < plane.capacity(); i++) plane.put(i, (byte) random.nextInt(256));
+        byte[] gray = new byte[width * height];
+        GrayscaleConverter.convert(plane, rowStride, 4, 0, 0, width, height, gray, new byte[rowStride]);
+
+        FilterChain fixed = new FilterChain(FilterChain.gamma(1.2), FilterChain.whiten(200));
+        FilterChain adaptive = fixed.then(FilterChain.autoLevels(0.05));
+        for (FilterChain chain : new FilterChain[]{fixed, adaptive, FilterChain.IDENTITY}) {
+            byte[] expected = gray.clone();
+            chain.apply(expected, 0, expected.length);
+            byte[] fused = new byte[width * height];
+            chain.convert(plane, rowStride, 4, 0, 0, width, height, fused, new byte[rowStride],
+                    new FilterChain.Scratch());
+            assertArrayEquals(chain.toString(), expected, fused);
+        }
+    }
+
+    @Test
+    public void adaptiveChain_reusesOneScratchAcrossFrames() {
+        FilterChain.Filter[] filters = {
+                FilterChain.autoLevels(0.005), FilterChain.gamma(0.85), FilterChain.contrast(1.4)};
+        FilterChain chain = new FilterChain(filters);
+        FilterChain.Scratch scratch = new FilterChain.Scratch();
+        for (long seed = 5; seed < 8; seed++) {
+            byte[] pixels = screen(20_000, seed);
+            byte[] filtered = pixels.clone();
+            chain.apply(filtered, 0, filtered.length, scratch);
+            assertArrayEquals(runOneByOne(pixels, filters), filtered);
+        }
+    }
+
+    @Test
+    public void autoLevels_stretchesContentButLeavesFlatImagesAlone() {
+        byte[] ramp = new byte[100];
+        for (int i = 0; i < ramp.length; i++) ramp[i] = (byte) (100 + i);
+        FilterChain chain = new FilterChain(FilterChain.autoLevels(0));
+        chain.apply(ramp, 0, ramp.length);
+        assertEquals(0, ramp[0] & 0xFF);
+        assertEquals(255, ramp[99] & 0xFF);
+
+        byte[] flat = new byte[100];
+        for (int i = 0; i < flat.length; i++) flat[i] = (byte) (230 + i % 8);
+        byte[] original = flat.clone();
+        chain.apply(flat, 0, flat.length);
+        assertArrayEquals(original, flat);
+    }
+
+    @Test
+    public void whiten_clearsBackgroundAndKeepsDarkLevels() {
+        byte[] lut = new FilterChain(FilterChain.whiten(220)).compile(null);
+        assertEquals(255, lut[220] & 0xFF);
+        assertEquals(255, lut[250] & 0xFF);
+        assertEquals(100, lut[100] & 0xFF);
+        for (int v = 1; v < 256; v++) {
+            assertTrue("monotonic at " + v, (lut[v] & 0xFF) >= (lut[v - 1] & 0xFF));
+        }
+    }
+
+    @Test
+    public void fixedChain_precompilesAndIdentityIsANoOp() {
+        assertFalse(new FilterChain(FilterChain.gamma(2), FilterChain.contrast(2)).isAdaptive());
+        assertTrue(new FilterChain(FilterChain.autoLevels(0.01)).isAdaptive());
+
+        byte[] pixels = screen(1000, 4);
+        byte[] original = pixels.clone();
+        FilterChain.IDENTITY.apply(pixels, 0, pixels.length);
+        assertArrayEquals(original, pixels);
+    }
+}
@@ -0,0 +1,108 @@
+package com.techbirdssolutions.printcurrentwindow.imaging;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.Adler32;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+public class GrayPngEncoderTest {
+
+    private static GrayFrame screen(int width, int height, boolean bilevel) {
+        return screen(width, height, bilevel, true);
+    }
+
+    private static GrayFrame screen(int width, int height, boolean bilevel, boolean noise) {
+        GrayFrame frame = new GrayFrame(width, height);
+        byte[] pixels = frame.getPixels();
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int shade = (y / 24) % 2 == 0 && (x / 5) % 4 != 0 ? 30 : 250 - (x * 7 + y) % 40;
+                if (noise && random.nextInt(50) == 0) shade = random.nextInt(256); // Some noise for every filter
+                pixels[y * width + x] = (byte) (bilevel ? (shade < 128 ? 0 : 255) : shade);
+            }
+        }
+        return frame;
+    }
+
+    private static Raster decode(byte[] png) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        assertNotNull(image);
+        return image.getRaster();
+    }
+
+    @Test
+    public void gray8_decodesToTheSamePixels() throws IOException {
+        // Tall enough for several parallel blocks
+        GrayFrame frame = screen(1080, 700, false);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new GrayPngEncoder().encode(frame, out);
+
+        Raster raster = decode(out.toByteArray());
+        assertEquals(1080, raster.getWidth());
+        assertEquals(700, raster.getHeight());
+        for (int y = 0; y < 700; y++) {
+            for (int x = 0; x < 1080; x++) {
+                assertEquals("pixel " + x + "," + y, frame.getPixel(x, y), raster.getSample(x, y, 0));
+            }
+        }
+    }
+
+    @Test
+    public void gray1_decodesToTheSamePixels() throws IOException {
+        // Width not a multiple of 8 exercises the row padding
+        GrayFrame frame = screen(1077, 2500, true);
+        assertTrue(GrayPngEncoder.isBilevel(frame));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new GrayPngEncoder().encode(frame, 1, out);
+
+        Raster raster = decode(out.toByteArray());
+        for (int y = 0; y < 2500; y++) {
+            for (int x = 0; x < 1077; x++) {
+                assertEquals("pixel " + x + "," + y, frame.getPixel(x, y) != 0 ? 1 : 0, raster.getSample(x, y, 0));
+            }
+        }
+    }
+
+    @Test
+    public void adler32Combine_matchesWholeChecksum() {
+        byte[] data = new byte[100_000];
+        new Random(7).nextBytes(data);
+        Adler32 whole = new Adler32();
+        whole.update(data, 0, data.length);
+        Adler32 first = new Adler32();
+        first.update(data, 0, 12_345);
+        Adler32 second = new Adler32();
+        second.update(data, 12_345, data.length - 12_345);
+
+        assertEquals(whole.getValue(),
+                GrayPngEncoder.adler32Combine(first.getValue(), second.getValue(), data.length - 12_345));
+    }
+
+    @Test
+    public void grayPng_isMuchSmallerThanArgbPng() throws IOException {
+        GrayFrame frame = screen(1080, 2400, false, false);
+        GrayPngEncoder encoder = new GrayPngEncoder();
+        BufferedImage argb = new BufferedImage(1080, 2400, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < 2400; y++) {
+            for (int x = 0; x < 1080; x++) {
+                argb.setRGB(x, y, 0xFF000000 | frame.getPixel(x, y) * 0x010101);
+            }
+        }
+
+        ByteArrayOutputStream gray = new ByteArrayOutputStream();
+        encoder.encode(frame, gray);
+        ByteArrayOutputStream reference = new ByteArrayOutputStream();
+        ImageIO.write(argb, "png", reference);
+        assertTrue(gray.size() * 2 < reference.size());
+    }
+}
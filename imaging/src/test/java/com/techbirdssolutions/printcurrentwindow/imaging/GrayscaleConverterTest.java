@@ -0,0 +1,137 @@
+package com.techbirdssolutions.printcurrentwindow.imaging;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GrayscaleConverterTest {
+
+    /**
+     * Builds an RGBA plane like ImageReader does, with garbage in the row padding.
+     */
+    private static ByteBuffer paddedPlane(int[] rgb, int width, int height, int rowStride) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(rowStride * height);
+        Random random = new Random(42);
+        for (int i = 0; i < buffer.capacity(); i++) {
+            buffer.put(i, (byte) random.nextInt(256));
+        }
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int c = rgb[y * width + x];
+                int o = y * rowStride + x * 4;
+                buffer.put(o, (byte) (c >> 16));
+                buffer.put(o + 1, (byte) (c >> 8));
+                buffer.put(o + 2, (byte) c);
+                buffer.put(o + 3, (byte) 0xFF);
+            }
+        }
+        return buffer;
+    }
+
+    @Test
+    public void primaries_matchRec709Weights() {
+        int[] rgb = {0xFFFFFF, 0x000000, 0xFF0000, 0x00FF00, 0x0000FF, 0x808080};
+        GrayFrame frame = GrayscaleConverter.convert(paddedPlane(rgb, 6, 1, 32), 32, 4, 6, 1);
+
+        assertEquals(255, frame.getPixel(0, 0));
+        assertEquals(0, frame.getPixel(1, 0));
+        assertEquals(54, frame.getPixel(2, 0));
+        assertEquals(182, frame.getPixel(3, 0));
+        assertEquals(19, frame.getPixel(4, 0));
+        assertEquals(128, frame.getPixel(5, 0));
+    }
+
+    @Test
+    public void rowPadding_isSkipped() {
+        int width = 13;
+        int height = 7;
+        int rowStride = 64; // 12 bytes of padding per row
+        int[] rgb = new int[width * height];
+        for (int i = 0; i < rgb.length; i++) rgb[i] = (i * 0x010101) & 0xFFFFFF;
+
+        GrayFrame frame = GrayscaleConverter.convert(paddedPlane(rgb, width, height, rowStride), rowStride, 4, width, height);
+
+        for (int i = 0; i < rgb.length; i++) {
+            assertEquals("pixel " + i, i & 0xFF, frame.getPixels()[i] & 0xFF);
+        }
+    }
+
+    @Test
+    public void cropRegion_readsOnlyThatRegion() {
+        int width = 20;
+        int height = 10;
+        int rowStride = 96;
+        int[] rgb = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                rgb[y * width + x] = (x >= 5 && x < 9 && y >= 2 && y < 6) ? 0xFFFFFF : 0x000000;
+            }
+        }
+        ByteBuffer plane = paddedPlane(rgb, width, height, rowStride);
+        plane.position(17);
+
+        byte[] dst = new byte[16];
+        GrayscaleConverter.convert(plane, rowStride, 4, 5, 2, 4, 4, dst, new byte[16]);
+
+        for (byte b : dst) assertEquals(255, b & 0xFF);
+        assertEquals("position restored", 17, plane.position());
+    }
+
+    @Test
+    public void shortLastRow_isAccepted() {
+        // Some producers do not pad the final row out to rowStride
+        int width = 3;
+        int rowStride = 16;
+        ByteBuffer plane = ByteBuffer.allocate(rowStride + width * 4);
+        GrayFrame frame = GrayscaleConverter.convert(plane, rowStride, 4, width, 2);
+        assertEquals(6, frame.getByteCount());
+    }
+
+    @Test
+    public void convertCounting_matchesConvertAndCountsItsOutput() {
+        int width = 29;
+        int height = 9;
+        int rowStride = width * 4 + 20;
+        int[] rgb = new int[width * height];
+        Random random = new Random(7);
+        for (int i = 0; i < rgb.length; i++) rgb[i] = random.nextInt(0x1000000);
+        ByteBuffer plane = paddedPlane(rgb, width, height, rowStride);
+
+        byte[] expected = new byte[width * height];
+        GrayscaleConverter.convert(plane, rowStride, 4, 0, 0, width, height, expected, new byte[rowStride]);
+        byte[] dst = new byte[width * height];
+        int[] histogram = new int[256];
+        histogram[3] = 1000; // Stale counts from an earlier frame are overwritten
+        GrayscaleConverter.convertCounting(plane, rowStride, 4, 0, 0, width, height, dst, new byte[rowStride],
+                histogram);
+
+        assertArrayEquals(expected, dst);
+        int[] counted = new int[256];
+        for (byte b : expected) counted[b & 0xFF]++;
+        assertArrayEquals(counted, histogram);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void regionOutsideBuffer_isRejected() {
+        GrayscaleConverter.convert(ByteBuffer.allocate(64), 16, 4, 0, 0, 4, 5, new byte[20], new byte[16]);
+    }
+
+    @Test
+    public void fullScreenConversion_isFastAndCompact() {
+        int width = 1440;
+        int height = 3200;
+        int rowStride = width * 4 + 64;
+        ByteBuffer plane = ByteBuffer.allocateDirect(rowStride * height);
+        byte[] dst = new byte[width * height];
+        byte[] scratch = new byte[width * 4];
+
+        GrayscaleConverter.convert(plane, rowStride, 4, 0, 0, width, height, dst, scratch);
+
+        // One byte per pixel, against three ARGB_8888 Bitmaps for the old padded/cropped/grayscale chain
+        long oldBytes = 3L * (rowStride / 4) * height * 4;
+        assertTrue(dst.length * 12L <= oldBytes);
+    }
+}
@@ -0,0 +1,158 @@
+package com.techbirdssolutions.printcurrentwindow.imaging;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MappedFrameStoreTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final BufferPool<byte[]> mPool = BufferPool.byteArrays(64 << 20);
+
+    private static GrayFrame frame(int width, int height, int seed) {
+        GrayFrame frame = new GrayFrame(width, height);
+        byte[] pixels = frame.getPixels();
+        for (int i = 0; i < pixels.length; i++) pixels[i] = (byte) (i * 31 + seed * 7 + (i >> 9));
+        return frame;
+    }
+
+    private static int segmentFiles(File dir) {
+        String[] names = dir.list();
+        return names == null ? 0 : names.length;
+    }
+
+    @Test
+    public void frames_roundTripAndViewsWriteThrough() throws IOException {
+        MappedFrameStore store = new MappedFrameStore(mFolder.getRoot(), 1 << 20);
+        List<MappedFrameStore.Slot> slots = new ArrayList<>();
+        for (int i = 0; i < 10; i++) slots.add(store.put(frame(300, 200 + i, i)));
+
+        for (int i = 9; i >= 0; i--) {
+            GrayFrame loaded = slots.get(i).load(mPool);
+            assertArrayEquals(frame(300, 200 + i, i).getPixels(), Arrays.copyOf(loaded.getPixels(), loaded.getByteCount()));
+            loaded.release();
+        }
+
+        // A slot filled in place through its view, without a heap frame
+        MappedFrameStore.Slot direct = store.allocate(16, 4);
+        ByteBuffer view = direct.buffer();
+        assertEquals(64, view.remaining());
+        for (int i = 0; i < 64; i++) view.put((byte) i);
+        assertEquals(63, direct.load(mPool).getPixel(15, 3));
+        assertEquals(10 * 300 * 200 + 45 * 300 + 64, store.getLiveBytes());
+        store.close();
+    }
+
+    @Test
+    public void freedSegments_areDeletedAndTheCurrentOneReused() throws IOException {
+        File dir = mFolder.getRoot();
+        MappedFrameStore store = new MappedFrameStore(dir, 100_000);
+        List<MappedFrameStore.Slot> slots = new ArrayList<>();
+        for (int i = 0; i < 6; i++) slots.add(store.put(frame(200, 200, i))); // Two per segment
+        assertEquals(3, store.getSegmentCount());
+        assertEquals(3, segmentFiles(dir));
+
+        slots.get(0).free();
+        slots.get(1).free();
+        slots.get(1).free(); // Freeing twice is harmless
+        assertEquals(2, store.getSegmentCount());
+        assertEquals(2, segmentFiles(dir));
+        try {
+            slots.get(0).buffer();
+            fail("Freed slot still readable");
+        } catch (IllegalStateException expected) {
+        }
+
+        // Emptying the segment new frames go into rewinds it rather than mapping another
+        slots.get(4).free();
+        slots.get(5).free();
+        store.put(frame(200, 200, 9));
+        assertEquals(2, store.getSegmentCount());
+        assertEquals(200 * 200 * 3, store.getLiveBytes());
+
+        // Larger than a segment: mapped on its own and dropped as soon as it is freed
+        MappedFrameStore.Slot big = store.put(frame(500, 300, 1));
+        assertEquals(3, store.getSegmentCount());
+        big.free();
+        assertEquals(2, store.getSegmentCount());
+
+        store.close();
+        assertEquals(0, segmentFiles(dir));
+    }
+
+    @Test
+    public void leftoverSegments_areDeletedOnOpen() throws IOException {
+        File dir = mFolder.getRoot();
+        MappedFrameStore crashed = new MappedFrameStore(dir, 1 << 16);
+        crashed.put(frame(100, 100, 0));
+        assertTrue(new File(dir, "keep.txt").createNewFile());
+
+        new MappedFrameStore(dir, 1 << 16).close();
+        assertArrayEquals(new String[]{"keep.txt"}, dir.list());
+    }
+
+    /**
+     * Runs {@link OverHeap} in a JVM whose heap is a fraction of what it stores.
+     */
+    @Test
+    public void dataMuchLargerThanTheHeap_staysReadable() throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-Xmx24m", "-cp", System.getProperty("java.class.path"),
+                OverHeap.class.getName(), mFolder.getRoot().getPath())
+                .redirectErrorStream(true)
+                .start();
+        byte[] output = new byte[4096];
+        int length = 0;
+        for (int read; length < output.length && (read = process.getInputStream().read(output, length, output.length - length)) > 0; ) {
+            length += read;
+        }
+        assertTrue("Child JVM hung", process.waitFor(2, TimeUnit.MINUTES));
+        String log = new String(output, 0, length, "UTF-8");
+        assertEquals(log, 0, process.exitValue());
+        assertTrue(log, log.contains("OK"));
+    }
+
+    /**
+     * Stores about 200 MB of frames, more than eight times its heap, keeps them all live and
+     * checks every one.
+     */
+    public static final class OverHeap {
+        public static void main(String[] args) throws IOException {
+            int width = 1080;
+            int height = 2400;
+            int frames = 80;
+            BufferPool<byte[]> pool = BufferPool.byteArrays(8 << 20);
+            MappedFrameStore store = new MappedFrameStore(new File(args[0], "over-heap"));
+            List<MappedFrameStore.Slot> slots = new ArrayList<>();
+            GrayFrame scratch = new GrayFrame(width, height);
+            for (int i = 0; i < frames; i++) {
+                Arrays.fill(scratch.getPixels(), (byte) i);
+                scratch.getPixels()[i] = (byte) ~i;
+                slots.add(store.put(scratch));
+            }
+            for (int i = frames - 1; i >= 0; i--) {
+                GrayFrame loaded = slots.get(i).load(pool);
+                byte[] pixels = loaded.getPixels();
+                if (pixels[i] != (byte) ~i || pixels[i + 1] != (byte) i || pixels[width * height - 1] != (byte) i) {
+                    throw new AssertionError("Frame " + i + " corrupted");
+                }
+                loaded.release();
+            }
+            System.out.println(store.describe() + ", heap max " + Runtime.getRuntime().maxMemory() / (1 << 20) + " MB");
+            store.close();
+            System.out.println("OK");
+        }
+    }
+}
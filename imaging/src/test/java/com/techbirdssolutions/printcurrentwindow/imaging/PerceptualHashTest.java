@@ -0,0 +1,75 @@
+package com.techbirdssolutions.printcurrentwindow.imaging;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PerceptualHashTest {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 2400;
+    private static final int ROW_STRIDE = WIDTH * 4 + 64;
+
+    /**
+     * A page of text-like lines in RGBA, with one line's content chosen by lineSeed.
+     */
+    private static ByteBuffer screen(long seed, int changedLine, long lineSeed) {
+        ByteBuffer buffer = ByteBuffer.allocate(ROW_STRIDE * HEIGHT);
+        for (int i = 0; i < buffer.capacity(); i++) {
+            buffer.put(i, (byte) 0xFF);
+        }
+        for (int line = 0; line < HEIGHT / 48; line++) {
+            Random random = new Random(line == changedLine ? lineSeed : seed * 1000 + line);
+            for (int y = line * 48 + 8; y < line * 48 + 26; y++) {
+                for (int x = 60; x < WIDTH - 60; x++) {
+                    if (random.nextInt(3) != 0) continue;
+                    byte gray = (byte) random.nextInt(100);
+                    int index = y * ROW_STRIDE + x * 4;
+                    buffer.put(index, gray);
+                    buffer.put(index + 1, gray);
+                    buffer.put(index + 2, gray);
+                }
+            }
+        }
+        return buffer;
+    }
+
+    private static long[] hash(ByteBuffer screen) {
+        return PerceptualHash.of(screen, ROW_STRIDE, 4, 0, 0, WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void sameScreen_hashesTheSameFromRgbaAndGray() {
+        ByteBuffer screen = screen(1, -1, 0);
+        GrayFrame gray = new GrayFrame(WIDTH, HEIGHT);
+        GrayscaleConverter.convert(screen, ROW_STRIDE, 4, 0, 0, WIDTH, HEIGHT, gray.getPixels(), new byte[ROW_STRIDE]);
+
+        assertArrayEquals(hash(screen), PerceptualHash.of(gray));
+        assertArrayEquals(hash(screen), hash(screen(1, -1, 0)));
+    }
+
+    @Test
+    public void changedTextLine_isOutsideTheTolerance() {
+        long[] original = hash(screen(1, -1, 0));
+        int closest = Integer.MAX_VALUE;
+        for (int line = 0; line < HEIGHT / 48; line += 5) {
+            closest = Math.min(closest, PerceptualHash.distance(original, hash(screen(1, line, 99))));
+        }
+        assertTrue("closest changed screen differs in " + closest + " bits", closest > PerceptualHash.DEFAULT_TOLERANCE);
+        assertTrue(PerceptualHash.distance(original, hash(screen(2, -1, 0))) > 100);
+    }
+
+    @Test
+    public void croppedRegion_hashesLikeTheSameCropElsewhere() {
+        ByteBuffer screen = screen(3, -1, 0);
+        long[] crop = PerceptualHash.of(screen, ROW_STRIDE, 4, 100, 200, 500, 700);
+        assertArrayEquals(crop, PerceptualHash.of(screen, ROW_STRIDE, 4, 100, 200, 500, 700));
+        assertFalse(Arrays.equals(crop, PerceptualHash.of(screen, ROW_STRIDE, 4, 0, 0, 500, 700)));
+        // Tiny regions still hash without reading outside them
+        PerceptualHash.of(screen, ROW_STRIDE, 4, WIDTH - 10, HEIGHT - 5, 10, 5);
+    }
+}
@@ -0,0 +1,80 @@
+package com.techbirdssolutions.printcurrentwindow.imaging;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RunLengthEncoderTest {
+
+    private static byte[] decode(byte[] coded, int length) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int i = 0;
+        while (true) {
+            int n = coded[i++] & 0xFF;
+            if (n == 128) break;
+            if (n < 128) {
+                out.write(coded, i, n + 1);
+                i += n + 1;
+            } else {
+                for (int k = 0; k < 257 - n; k++) out.write(coded[i]);
+                i++;
+            }
+        }
+        assertEquals("end marker is the last byte", length, i);
+        return out.toByteArray();
+    }
+
+    private static int assertRoundTrip(byte[] data) {
+        byte[] coded = new byte[RunLengthEncoder.maxEncodedLength(data.length) + 2];
+        coded[0] = 42; // Data goes at the offset, not at zero
+        int length = RunLengthEncoder.encode(data, 0, data.length, coded, 1);
+        assertTrue(length <= RunLengthEncoder.maxEncodedLength(data.length));
+        assertArrayEquals(data, decode(Arrays.copyOfRange(coded, 1, 1 + length), length));
+        return length;
+    }
+
+    @Test
+    public void edgeCases_roundTrip() {
+        assertEquals(1, assertRoundTrip(new byte[0]));
+        assertRoundTrip(new byte[1]);
+        assertRoundTrip(new byte[]{1, 2});
+        assertRoundTrip(new byte[]{1, 1});
+        assertRoundTrip(new byte[]{1, 2, 2});
+        assertRoundTrip(new byte[]{1, 2, 2, 2, 3});
+        for (int n : new int[]{127, 128, 129, 256, 257, 1000}) {
+            assertRoundTrip(new byte[n]);
+        }
+    }
+
+    @Test
+    public void mixedRunsAndLiterals_roundTrip() {
+        Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            byte[] data = new byte[random.nextInt(2000)];
+            int i = 0;
+            while (i < data.length) {
+                int n = Math.min(data.length - i, 1 + random.nextInt(300));
+                if (random.nextBoolean()) {
+                    Arrays.fill(data, i, i + n, (byte) random.nextInt(4));
+                } else {
+                    for (int k = i; k < i + n; k++) data[k] = (byte) random.nextInt(3);
+                }
+                i += n;
+            }
+            assertRoundTrip(data);
+        }
+    }
+
+    @Test
+    public void worstCase_staysWithinTheBound() {
+        byte[] data = new byte[10000];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) i; // No repeats at all
+        assertEquals(RunLengthEncoder.maxEncodedLength(data.length), assertRoundTrip(data));
+        // Blank rows shrink about 64 times
+        assertEquals(2 * (10000 / 128) + 2 + 1, assertRoundTrip(new byte[10000]));
+    }
+}
@@ -0,0 +1,180 @@
+package com.techbirdssolutions.printcurrentwindow.imaging;
+
+import com.techbirdssolutions.printcurrentwindow.document.PdfWriter;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TileClassifierTest {
+
+    private static final float A4_WIDTH = 595.28f;
+    private static final float A4_HEIGHT = 841.89f;
+
+    private final TileClassifier mClassifier = new TileClassifier();
+
+    /**
+     * Lines of anti-aliased type in a made-up 5x7 font at 2x, ink on paper or paper on ink.
+     */
+    private static void text(GrayFrame frame, int left, int top, int right, int bottom, int paper, int ink, Random random) {
+        int width = frame.getWidth();
+        byte[] pixels = frame.getPixels();
+        for (int y = top; y < bottom; y++) Arrays.fill(pixels, y * width + left, y * width + right, (byte) paper);
+        for (int line = top + 6; line + 16 < bottom; line += 30) {
+            for (int x0 = left + 8; x0 + 12 < right; x0 += 12) {
+                if (random.nextInt(6) == 0) continue; // Word gap
+                long glyph = random.nextLong();
+                for (int y = 0; y < 14; y++) {
+                    for (int x = 0; x < 10; x++) {
+                        if ((glyph >>> ((y >> 1) * 5 + (x >> 1)) & 1) == 0) continue;
+                        pixels[(line + y) * width + x0 + x] = (byte) ink;
+                        // Partial coverage on the right edge of each stroke, as glyphs sit at sub-pixel positions
+                        int after = (line + y) * width + x0 + x + 1;
+                        int coverage = 1 + random.nextInt(7);
+                        if ((pixels[after] & 0xFF) == paper) pixels[after] = (byte) (paper + (ink - paper) * coverage / 8);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A smooth photo-like area: shaded shapes with sensor noise.
+     */
+    private static void photo(GrayFrame frame, int left, int top, int right, int bottom, Random random) {
+        int width = frame.getWidth();
+        for (int y = top; y < bottom; y++) {
+            for (int x = left; x < right; x++) {
+                double v = 130 + 60 * Math.sin(x / 37.0) * Math.cos(y / 53.0) + 30 * Math.sin((x + y) / 91.0);
+                frame.getPixels()[y * width + x] = (byte) Math.max(0, Math.min(255, (int) v + random.nextInt(9) - 4));
+            }
+        }
+    }
+
+    private static void fill(GrayFrame frame, int left, int top, int right, int bottom, int value) {
+        for (int y = top; y < bottom; y++) {
+            Arrays.fill(frame.getPixels(), y * frame.getWidth() + left, y * frame.getWidth() + right, (byte) value);
+        }
+    }
+
+    /**
+     * Sample screens at 1080x2400: an article, a chat with a photo, a photo feed, a dark mode
+     * page and a settings page with shaded bars.
+     */
+    private static GrayFrame[] corpus() {
+        int w = 1080;
+        int h = 2400;
+        Random random = new Random(11);
+        GrayFrame article = new GrayFrame(w, h);
+        text(article, 0, 0, w, h, 255, 24, random);
+        fill(article, 0, 0, w, 160, 90); // Toolbar
+
+        GrayFrame chat = new GrayFrame(w, h);
+        text(chat, 0, 0, w, h, 250, 30, random);
+        photo(chat, 160, 900, 900, 1500, random);
+
+        GrayFrame feed = new GrayFrame(w, h);
+        fill(feed, 0, 0, w, h, 255);
+        for (int top = 40; top + 700 < h; top += 780) {
+            photo(feed, 40, top, w - 40, top + 640, random);
+            text(feed, 40, top + 640, w - 40, top + 700, 255, 20, random);
+        }
+
+        GrayFrame dark = new GrayFrame(w, h);
+        text(dark, 0, 0, w, h, 18, 225, random);
+
+        GrayFrame settings = new GrayFrame(w, h);
+        text(settings, 0, 0, w, h, 255, 40, random);
+        for (int top = 300; top + 120 < h; top += 400) fill(settings, 0, top, w, top + 120, 200);
+        return new GrayFrame[]{article, chat, feed, dark, settings};
+    }
+
+    private static int pdfBytes(GrayFrame frame, TileMap tiles) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PdfWriter writer = new PdfWriter(out);
+        if (tiles == null) {
+            writer.addPage(frame, A4_WIDTH, A4_HEIGHT, 18, 18, 18, 18);
+        } else {
+            writer.addMixedPage(frame, tiles, A4_WIDTH, A4_HEIGHT, 18, 18, 18, 18);
+        }
+        writer.finish();
+        return out.size();
+    }
+
+    private static double textFraction(TileMap tiles, int left, int top, int right, int bottom) {
+        int text = 0;
+        int total = 0;
+        int size = tiles.getTileSize();
+        for (int row = top / size; row < bottom / size; row++) {
+            for (int column = left / size; column < right / size; column++) {
+                // Only tiles wholly inside the area
+                if (column * size < left || row * size < top) continue;
+                total++;
+                if (tiles.isText(column, row)) text++;
+            }
+        }
+        return text / (double) total;
+    }
+
+    @Test
+    public void regions_sortIntoTextAndTone() {
+        GrayFrame[] corpus = corpus();
+        TileMap article = mClassifier.classify(corpus[0]);
+        assertEquals(0, textFraction(article, 0, 0, 1080, 160), 0); // Shaded toolbar keeps its gray
+        assertEquals(1, textFraction(article, 0, 192, 1080, 2400), 0);
+
+        TileMap chat = mClassifier.classify(corpus[1]);
+        assertEquals(0, textFraction(chat, 160, 900, 900, 1500), 0);
+        assertEquals(1, textFraction(chat, 0, 0, 1080, 880), 0);
+
+        TileMap dark = mClassifier.classify(corpus[3]);
+        assertEquals(dark.getTileCount(), dark.getTextTileCount());
+
+        TileMap settings = mClassifier.classify(corpus[4]);
+        assertEquals(0, textFraction(settings, 0, 320, 1080, 416), 0);
+    }
+
+    @Test
+    public void flatPatchesInsideAPhoto_stayWithThePhoto() {
+        GrayFrame frame = new GrayFrame(320, 320);
+        photo(frame, 0, 0, 320, 320, new Random(2));
+        fill(frame, 128, 128, 160, 160, 250); // A blown-out highlight exactly one tile big
+        TileMap tiles = mClassifier.classify(frame);
+        assertFalse(tiles.isText(4, 4));
+        assertEquals(0, tiles.getTextTileCount());
+    }
+
+    @Test
+    public void edgeTiles_coverTheWholeFrame() {
+        GrayFrame frame = new GrayFrame(100, 70);
+        fill(frame, 0, 0, 100, 70, 255);
+        TileMap tiles = mClassifier.classify(frame);
+        assertEquals(4, tiles.getColumns());
+        assertEquals(3, tiles.getRows());
+        assertEquals(12, tiles.getTextTileCount());
+    }
+
+    @Test
+    public void corpus_printsSmallerMixed() throws IOException {
+        String[] names = {"article", "chat", "feed", "dark", "settings"};
+        GrayFrame[] corpus = corpus();
+        long grayTotal = 0;
+        long mixedTotal = 0;
+        for (int i = 0; i < corpus.length; i++) {
+            TileMap tiles = mClassifier.classify(corpus[i]);
+            int gray = pdfBytes(corpus[i], null);
+            int mixed = pdfBytes(corpus[i], tiles);
+            grayTotal += gray;
+            mixedTotal += mixed;
+            assertTrue(names[i], mixed <= gray);
+            // Pages that are mostly type shrink the most
+            if (tiles.getTextTileCount() * 10 >= tiles.getTileCount() * 9) assertTrue(names[i], mixed * 3 < gray * 2);
+        }
+        assertTrue(mixedTotal < grayTotal);
+    }
+}
@@ -0,0 +1,58 @@
+package com.techbirdssolutions.printcurrentwindow.metrics;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LogHistogramTest {
+
+    @Test
+    public void buckets_coverEveryValueWithinOneSixteenth() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100_000; i++) {
+            long value = random.nextLong() >>> (1 + random.nextInt(63));
+            int bucket = LogHistogram.bucketOf(value);
+            long upper = LogHistogram.upperBoundOf(bucket);
+            assertTrue(value + " above its bucket", value <= upper);
+            assertTrue(value + " below its bucket", bucket == 0 || value > LogHistogram.upperBoundOf(bucket - 1));
+            assertTrue(upper - value <= value / 16 + 1);
+        }
+        assertEquals(Long.MAX_VALUE, LogHistogram.upperBoundOf(LogHistogram.bucketOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void percentiles_matchSortedSamples() {
+        Random random = new Random(2);
+        LogHistogram histogram = new LogHistogram();
+        long[] samples = new long[20_000];
+        for (int i = 0; i < samples.length; i++) {
+            // Latency-like: mostly a few ms, with a long tail
+            samples[i] = (long) (3_000_000 * Math.exp(random.nextGaussian()));
+            histogram.record(samples[i]);
+        }
+        Arrays.sort(samples);
+
+        assertEquals(samples.length, histogram.getCount());
+        assertEquals(samples[samples.length - 1], histogram.getMax());
+        for (double p : new double[]{0.5, 0.95, 0.99}) {
+            long exact = samples[(int) Math.ceil(p * samples.length) - 1];
+            long reported = histogram.percentile(p);
+            assertTrue("p" + p + " " + reported + " < " + exact, reported >= exact);
+            assertTrue("p" + p + " " + reported + " too far above " + exact, reported <= exact + exact / 16 + 1);
+        }
+    }
+
+    @Test
+    public void emptyAndReset_reportZero() {
+        LogHistogram histogram = new LogHistogram();
+        assertEquals(0, histogram.percentile(0.99));
+        histogram.record(42);
+        assertEquals(42, histogram.percentile(0.5));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.percentile(0.5));
+    }
+}
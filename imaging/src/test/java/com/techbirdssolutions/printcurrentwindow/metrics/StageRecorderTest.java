@@ -0,0 +1,58 @@
+package com.techbirdssolutions.printcurrentwindow.metrics;
+
+import com.techbirdssolutions.printcurrentwindow.metrics.StageRecorder.Stage;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class StageRecorderTest {
+
+    @Test
+    public void beginEnd_recordsDurationAndAllocatedBytes() throws InterruptedException {
+        AtomicLong allocated = new AtomicLong();
+        StageRecorder recorder = new StageRecorder(allocated::get);
+
+        long start = recorder.begin(Stage.CONVERT);
+        allocated.addAndGet(4 * 1024 * 1024);
+        Thread.sleep(5);
+        recorder.end(Stage.CONVERT, start);
+
+        assertEquals(1, recorder.getDurations(Stage.CONVERT).getCount());
+        assertTrue(recorder.getDurations(Stage.CONVERT).getMax() >= 5_000_000);
+        assertEquals(4 * 1024 * 1024, recorder.getAllocations(Stage.CONVERT).getMax());
+        assertEquals(0, recorder.getDurations(Stage.PRINT_WRITE).getCount());
+    }
+
+    @Test
+    public void nestedStages_keepTheirOwnBaselines() {
+        AtomicLong allocated = new AtomicLong();
+        StageRecorder recorder = new StageRecorder(allocated::get);
+
+        long outer = recorder.begin(Stage.PRINT_WRITE);
+        allocated.addAndGet(100);
+        long inner = recorder.begin(Stage.PNG_ENCODE);
+        allocated.addAndGet(50);
+        recorder.end(Stage.PNG_ENCODE, inner);
+        recorder.end(Stage.PRINT_WRITE, outer);
+
+        assertEquals(50, recorder.getAllocations(Stage.PNG_ENCODE).getMax());
+        assertEquals(150, recorder.getAllocations(Stage.PRINT_WRITE).getMax());
+    }
+
+    @Test
+    public void export_listsEveryStage() throws Exception {
+        StageRecorder recorder = new StageRecorder();
+        recorder.record(Stage.ACQUIRE, 2_000_000, 0);
+        StringWriter csv = new StringWriter();
+        recorder.writeCsv(csv);
+
+        String[] lines = csv.toString().split("\n");
+        assertEquals(Stage.values().length + 1, lines.length);
+        assertTrue(csv.toString().contains("acquire,1,2000,"));
+        assertTrue(recorder.describe().startsWith("acquire image x1: 2.0/2.0/2.0 ms"));
+    }
+}
@@ -0,0 +1,345 @@
+package com.techbirdssolutions.printcurrentwindow.pipeline;
+
+import com.techbirdssolutions.printcurrentwindow.imaging.BufferPool;
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayFrame;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class CapturePipelineTest {
+
+    private static final Executor DIRECT = Runnable::run;
+
+    private final BufferPool<byte[]> mPool = BufferPool.byteArrays(64 << 20);
+    private CapturePipeline<GrayFrame> mPipeline;
+
+    @After
+    public void tearDown() {
+        if (mPipeline != null) mPipeline.shutdown();
+    }
+
+    /**
+     * A fake screen: a solid RGBA frame with padded rows that records whether it was handed back.
+     */
+    private static FrameSource solidFrame(final int width, final int height, final int gray,
+                                          final AtomicInteger closed) {
+        return () -> {
+            int rowStride = width * 4 + 16;
+            ByteBuffer buffer = ByteBuffer.allocate(rowStride * height);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width * 4; x++) {
+                    buffer.put(y * rowStride + x, (byte) gray);
+                }
+            }
+            return new RawFrame(buffer, width, height, rowStride, 4, System.nanoTime(), closed::incrementAndGet);
+        };
+    }
+
+    private static class Recorder implements CapturePipeline.Listener<GrayFrame> {
+        final CountDownLatch mDone;
+        final AtomicReference<GrayFrame> mDocument = new AtomicReference<>();
+        final AtomicReference<CapturePipeline.Stage> mFailedStage = new AtomicReference<>();
+        final AtomicInteger mPersisted = new AtomicInteger();
+        final AtomicLong mDuplicateOf = new AtomicLong(-1);
+
+        Recorder(int events) {
+            mDone = new CountDownLatch(events);
+        }
+
+        @Override
+        public void onPrintReady(long captureId, GrayFrame document) {
+            mDocument.set(document);
+            mDone.countDown();
+        }
+
+        @Override
+        public void onDuplicate(long captureId, long previousId) {
+            mDuplicateOf.set(previousId);
+            mDone.countDown();
+        }
+
+        @Override
+        public void onPersisted(long captureId) {
+            mPersisted.incrementAndGet();
+            mDone.countDown();
+        }
+
+        @Override
+        public void onError(long captureId, CapturePipeline.Stage stage, Exception e) {
+            mFailedStage.set(stage);
+            mDone.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("pipeline timed out", mDone.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void capture_isConvertedPersistedAndPrepared() throws Exception {
+        final AtomicReference<String> persistThread = new AtomicReference<>();
+        mPipeline = new CapturePipeline<>(mPool,
+                frame -> persistThread.set(Thread.currentThread().getName()),
+                frame -> frame, DIRECT);
+        AtomicInteger closed = new AtomicInteger();
+        Recorder recorder = new Recorder(2);
+
+        assertTrue(mPipeline.submit(solidFrame(40, 30, 200, closed), recorder) > 0);
+        recorder.await();
+
+        GrayFrame frame = recorder.mDocument.get();
+        assertEquals(40, frame.getWidth());
+        assertEquals(200, frame.getPixel(39, 29));
+        assertEquals(1, recorder.mPersisted.get());
+        assertEquals(1, closed.get());
+        assertNotEquals(Thread.currentThread().getName(), persistThread.get());
+
+        frame.release();
+        assertEquals("frame and row scratch back in the pool", 40 * 30 + 40 * 4, mPool.getPooledBytes());
+    }
+
+    @Test
+    public void duplicate_skipsEverythingAfterTheFilter() throws Exception {
+        AtomicInteger persisted = new AtomicInteger();
+        mPipeline = new CapturePipeline<>(mPool, frame -> persisted.incrementAndGet(), frame -> frame, DIRECT);
+        AtomicInteger closed = new AtomicInteger();
+        Recorder recorder = new Recorder(1);
+
+        mPipeline.submit(solidFrame(40, 30, 200, closed), raw -> 7, recorder);
+        recorder.await();
+
+        assertEquals(7, recorder.mDuplicateOf.get());
+        assertNull(recorder.mDocument.get());
+        assertEquals(1, closed.get());
+        mPipeline.shutdown();
+        assertEquals(0, persisted.get());
+        assertEquals("nothing converted", 0, mPool.getMissCount());
+    }
+
+    @Test
+    public void shutdown_doesNotWaitForACaptureInFlight() throws Exception {
+        mPipeline = new CapturePipeline<>(mPool, null, frame -> frame, DIRECT);
+        Recorder recorder = new Recorder(1);
+        AtomicInteger closed = new AtomicInteger();
+        final FrameSource screen = solidFrame(40, 30, 90, closed);
+        final CountDownLatch acquiring = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        mPipeline.submit(() -> {
+            acquiring.countDown();
+            try {
+                assertTrue(release.await(5, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return screen.acquire();
+        }, recorder);
+        assertTrue(acquiring.await(5, TimeUnit.SECONDS));
+
+        mPipeline.shutdown(); // Returns while the capture is still acquiring
+        assertEquals(-1, mPipeline.submit(screen, recorder));
+        release.countDown();
+        recorder.await();
+
+        assertNotNull("queued work still finishes", recorder.mDocument.get());
+        assertEquals(1, closed.get());
+    }
+
+    @Test
+    public void croppedCapture_convertsOnlyTheCrop() throws Exception {
+        mPipeline = new CapturePipeline<>(mPool, null, frame -> frame, DIRECT);
+        Recorder recorder = new Recorder(1);
+        final FrameSource full = solidFrame(40, 30, 90, new AtomicInteger());
+
+        mPipeline.submit(() -> {
+            RawFrame raw = full.acquire();
+            raw.setCrop(5, 7, 20, 10);
+            return raw;
+        }, recorder);
+        recorder.await();
+
+        GrayFrame frame = recorder.mDocument.get();
+        assertEquals(20, frame.getWidth());
+        assertEquals(10, frame.getHeight());
+        assertEquals(90, frame.getPixel(19, 9));
+        frame.release();
+    }
+
+    @Test
+    public void failingStage_isReportedAndFrameReleased() throws Exception {
+        mPipeline = new CapturePipeline<>(mPool, null, frame -> {
+            throw new IOException("printer gone");
+        }, DIRECT);
+        Recorder recorder = new Recorder(1);
+
+        mPipeline.submit(solidFrame(10, 10, 0, new AtomicInteger()), recorder);
+        recorder.await();
+
+        assertEquals(CapturePipeline.Stage.PRINT_PREPARE, recorder.mFailedStage.get());
+        assertTrue(mPool.getPooledBytes() >= 100);
+    }
+
+    @Test
+    public void acquireFailure_isReported() throws Exception {
+        mPipeline = new CapturePipeline<>(mPool, null, frame -> frame, DIRECT);
+        Recorder recorder = new Recorder(1);
+
+        mPipeline.submit(() -> null, recorder);
+        recorder.await();
+
+        assertEquals(CapturePipeline.Stage.ACQUIRE, recorder.mFailedStage.get());
+    }
+
+    @Test
+    public void saturatedPipeline_rejectsNewCaptures() throws Exception {
+        final CountDownLatch unblock = new CountDownLatch(1);
+        mPipeline = new CapturePipeline<>(mPool, null, frame -> {
+            try {
+                unblock.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return frame;
+        }, DIRECT, 1);
+
+        int accepted = 0;
+        int rejected = 0;
+        for (int i = 0; i < 20; i++) {
+            long id = mPipeline.submit(solidFrame(8, 8, 0, new AtomicInteger()), new Recorder(0));
+            if (id > 0) accepted++;
+            else rejected++;
+            Thread.sleep(5);
+        }
+        unblock.countDown();
+
+        // One frame in each of the four stage slots plus the running ones, never all twenty
+        assertTrue("accepted " + accepted, accepted <= 8);
+        assertTrue(rejected > 0);
+    }
+
+    @Test
+    public void convertedFrame_skipsStraightToPrint() throws Exception {
+        mPipeline = new CapturePipeline<>(mPool, null, frame -> frame, DIRECT);
+        Recorder recorder = new Recorder(1);
+        GrayFrame frame = GrayFrame.fromPool(mPool, 5, 5);
+
+        assertTrue(mPipeline.submit(frame, recorder) > 0);
+        recorder.await();
+
+        assertSame(frame, recorder.mDocument.get());
+    }
+
+    /**
+     * Persists into a log, blocking the first write until released so a burst queues behind it.
+     */
+    private static class BatchingPersister implements CapturePipeline.Persister {
+        final List<String> mEvents = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch mRelease = new CountDownLatch(1);
+        final AtomicInteger mWrites = new AtomicInteger();
+        volatile int mFailingWrite = -1;
+        volatile boolean mFailFlush;
+
+        @Override
+        public void persist(GrayFrame frame) throws IOException {
+            int write = mWrites.incrementAndGet();
+            try {
+                mRelease.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (write == mFailingWrite) throw new IOException("Disk full");
+            mEvents.add("write");
+        }
+
+        @Override
+        public void flush() throws IOException {
+            mEvents.add("flush");
+            if (mFailFlush) throw new IOException("Provider died");
+        }
+    }
+
+    private CapturePipeline.Listener<GrayFrame> logTo(final List<String> events, final CountDownLatch done) {
+        return new CapturePipeline.Listener<GrayFrame>() {
+            @Override
+            public void onPrintReady(long captureId, GrayFrame document) {
+                document.release();
+            }
+
+            @Override
+            public void onDuplicate(long captureId, long previousId) {
+            }
+
+            @Override
+            public void onPersisted(long captureId) {
+                events.add("persisted " + captureId);
+                done.countDown();
+            }
+
+            @Override
+            public void onError(long captureId, CapturePipeline.Stage stage, Exception e) {
+                events.add("failed " + captureId + " in " + stage);
+                done.countDown();
+            }
+        };
+    }
+
+    private void submitBurst(BatchingPersister persister, CapturePipeline.Listener<GrayFrame> listener, int count)
+            throws InterruptedException {
+        for (int i = 0; i < count; i++) mPipeline.submit(GrayFrame.fromPool(mPool, 5, 5), listener);
+        // All of them wait in the persist stage before the first write finishes
+        while (mPipeline.getPending(CapturePipeline.Stage.PERSIST) < count) Thread.sleep(1);
+        persister.mRelease.countDown();
+    }
+
+    @Test
+    public void burst_isFlushedOnceAndReportedInOrderAfterIt() throws Exception {
+        BatchingPersister persister = new BatchingPersister();
+        mPipeline = new CapturePipeline<>(mPool, persister, frame -> frame, DIRECT);
+        CountDownLatch done = new CountDownLatch(3);
+        submitBurst(persister, logTo(persister.mEvents, done), 3);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        assertEquals(Arrays.asList("write", "write", "write", "flush", "persisted 1", "persisted 2", "persisted 3"),
+                persister.mEvents);
+    }
+
+    @Test
+    public void failedWrite_settlesEarlierCapturesFirst() throws Exception {
+        BatchingPersister persister = new BatchingPersister();
+        persister.mFailingWrite = 2;
+        mPipeline = new CapturePipeline<>(mPool, persister, frame -> frame, DIRECT);
+        CountDownLatch done = new CountDownLatch(3);
+        submitBurst(persister, logTo(persister.mEvents, done), 3);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        assertEquals(Arrays.asList("write", "flush", "persisted 1", "failed 2 in PERSIST", "write", "flush",
+                "persisted 3"), persister.mEvents);
+    }
+
+    @Test
+    public void failedFlush_failsEveryCaptureInTheBatch() throws Exception {
+        BatchingPersister persister = new BatchingPersister();
+        persister.mFailFlush = true;
+        mPipeline = new CapturePipeline<>(mPool, persister, frame -> frame, DIRECT);
+        CountDownLatch done = new CountDownLatch(2);
+        submitBurst(persister, logTo(persister.mEvents, done), 2);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        assertEquals(Arrays.asList("write", "write", "flush", "failed 1 in PERSIST", "failed 2 in PERSIST"),
+                persister.mEvents);
+    }
+}
@@ -0,0 +1,140 @@
+package com.techbirdssolutions.printcurrentwindow.pipeline;
+
+import com.techbirdssolutions.printcurrentwindow.pipeline.QualityGovernor.Pressure;
+import com.techbirdssolutions.printcurrentwindow.pipeline.QualityGovernor.Tier;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class QualityGovernorTest {
+
+    private static final long MIB = 1 << 20;
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 2400;
+    private static final long HOLD = QualityGovernor.PRESSURE_HOLD_NANOS;
+
+    /**
+     * A heap whose size and use the test sets directly.
+     */
+    private static class SimulatedHeap implements QualityGovernor.MemoryProbe {
+        long mMax;
+        long mUsed;
+
+        SimulatedHeap(long max) {
+            mMax = max;
+        }
+
+        @Override
+        public long maxBytes() {
+            return mMax;
+        }
+
+        @Override
+        public long usedBytes() {
+            return mUsed;
+        }
+
+        void setFree(long free) {
+            mUsed = mMax - free;
+        }
+    }
+
+    // A 256 MiB heap with the service's cache budgets: pools at an eighth, history at a sixteenth, 24 MiB rewind
+    private final SimulatedHeap mHeap = new SimulatedHeap(256 * MIB);
+    private final long mCacheBytes = 32 * MIB + 16 * MIB + 24 * MIB;
+    private final QualityGovernor mGovernor = new QualityGovernor(mHeap, mCacheBytes);
+
+    private long need(Tier tier) {
+        return tier.workingBytes(WIDTH, HEIGHT) + tier.cacheBytes(mCacheBytes);
+    }
+
+    @Test
+    public void tiers_costLessAllTheWayDown() {
+        Tier[] tiers = Tier.values();
+        for (int i = 1; i < tiers.length; i++) {
+            assertTrue(tiers[i] + " vs " + tiers[i - 1], need(tiers[i]) < need(tiers[i - 1]));
+        }
+        // Half the width and height is a quarter of the pixels
+        assertEquals(Tier.REDUCED.workingBytes(WIDTH, HEIGHT), 4 * Tier.LOW.workingBytes(WIDTH, HEIGHT));
+        assertTrue(Tier.MINIMAL.workingBytes(WIDTH, HEIGHT) < Tier.LOW.workingBytes(WIDTH, HEIGHT));
+        assertEquals(0, Tier.MINIMAL.cacheBytes(mCacheBytes));
+        assertEquals(mCacheBytes, Tier.FULL.cacheBytes(mCacheBytes));
+        // Odd sizes round up rather than dropping the last row and column
+        assertEquals(3 * 2 * 2, Tier.LOW.workingBytes(3, 3));
+    }
+
+    @Test
+    public void shrinkingHeadroom_stepsDownEachTier() {
+        for (Tier tier : Tier.values()) {
+            mHeap.setFree(need(tier) * QualityGovernor.KEEP_MARGIN);
+            assertEquals(tier, mGovernor.choose(WIDTH, HEIGHT, 0));
+        }
+        // Nothing fits, not even the smallest tier: still capture, as small as possible
+        mHeap.setFree(MIB);
+        assertEquals(Tier.MINIMAL, mGovernor.choose(WIDTH, HEIGHT, 0));
+        assertEquals(Tier.MINIMAL, mGovernor.getTier());
+        assertEquals(2, mGovernor.getChoiceCount(Tier.MINIMAL));
+    }
+
+    @Test
+    public void steppingBackUp_needsAWiderMargin() {
+        mHeap.setFree(need(Tier.FULL) * QualityGovernor.KEEP_MARGIN - 1);
+        assertEquals(Tier.REDUCED, mGovernor.choose(WIDTH, HEIGHT, 0));
+        // Enough to have stayed at full, not enough to go back
+        mHeap.setFree(need(Tier.FULL) * QualityGovernor.KEEP_MARGIN);
+        assertEquals(Tier.REDUCED, mGovernor.choose(WIDTH, HEIGHT, 0));
+        mHeap.setFree(need(Tier.FULL) * QualityGovernor.UPGRADE_MARGIN);
+        assertEquals(Tier.FULL, mGovernor.choose(WIDTH, HEIGHT, 0));
+    }
+
+    @Test
+    public void pressure_capsTheTierAndWearsOff() {
+        mHeap.setFree(mHeap.mMax);
+        long t = 5 * HOLD;
+        mGovernor.onPressure(Pressure.CRITICAL, t);
+        assertEquals(Tier.MINIMAL, mGovernor.choose(WIDTH, HEIGHT, t));
+        // A milder signal does not lift the critical one early
+        mGovernor.onPressure(Pressure.MODERATE, t + 1);
+        assertEquals(Pressure.CRITICAL, mGovernor.getPressure(t + 1));
+        assertEquals(Tier.LOW, mGovernor.choose(WIDTH, HEIGHT, t + HOLD));
+        assertEquals(Tier.REDUCED, mGovernor.choose(WIDTH, HEIGHT, t + 2 * HOLD));
+        assertEquals(Tier.FULL, mGovernor.choose(WIDTH, HEIGHT, t + 3 * HOLD));
+        assertEquals(Pressure.NONE, mGovernor.getPressure(t + 100 * HOLD));
+        // A new signal restarts the hold
+        mGovernor.onPressure(Pressure.LOW, t + 4 * HOLD);
+        assertEquals(Tier.LOW, mGovernor.choose(WIDTH, HEIGHT, t + 5 * HOLD - 1));
+    }
+
+    /**
+     * Captures on a heap that other work keeps eating into, each one allocating its working set
+     * while the caches fill to whatever the chosen tier allows. Capturing at full quality all
+     * the time would run out of memory; the governed run never does.
+     */
+    @Test
+    public void simulatedSession_neverRunsOutOfMemory() {
+        SimulatedHeap heap = new SimulatedHeap(128 * MIB);
+        QualityGovernor governor = new QualityGovernor(heap, 16 * MIB + 8 * MIB + 24 * MIB);
+        long cacheBudget = 16 * MIB + 8 * MIB + 24 * MIB;
+        boolean fixedFullRunsOut = false;
+        long cached = 0;
+        long peak = 0;
+        for (int capture = 0; capture < 60; capture++) {
+            long other = capture * 1536 * 1024L; // The rest of the app grows by 1.5 MiB a capture
+            heap.mUsed = other + cached;
+            Tier tier = governor.choose(WIDTH, HEIGHT, capture * 1_000_000_000L);
+            if (capture == 40) governor.onPressure(Pressure.CRITICAL, capture * 1_000_000_000L);
+
+            peak = Math.max(peak, heap.mUsed + tier.workingBytes(WIDTH, HEIGHT));
+            assertTrue("out of memory at capture " + capture + " on " + tier, peak <= heap.mMax);
+            // Caches grow towards the tier's share and are trimmed down to it when it shrinks
+            cached = Math.min(cached + tier.workingBytes(WIDTH, HEIGHT) / 3, tier.cacheBytes(cacheBudget));
+
+            long full = other + cacheBudget + Tier.FULL.workingBytes(WIDTH, HEIGHT);
+            fixedFullRunsOut |= full > heap.mMax;
+        }
+        assertTrue(fixedFullRunsOut);
+        assertEquals(Tier.MINIMAL, governor.getTier());
+        assertTrue(governor.getChoiceCount(Tier.FULL) > 0);
+    }
+}
@@ -0,0 +1,103 @@
+package com.techbirdssolutions.printcurrentwindow.pipeline;
+
+import com.techbirdssolutions.printcurrentwindow.imaging.BufferPool;
+import com.techbirdssolutions.printcurrentwindow.imaging.GrayFrame;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RewindBufferTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    private final BufferPool<byte[]> mPool = BufferPool.byteArrays(1 << 24);
+
+    /**
+     * Screen-like content: flat background with a few lines of "text" that move per frame.
+     */
+    private static GrayFrame screen(int width, int height, int seed) {
+        GrayFrame frame = new GrayFrame(width, height);
+        byte[] pixels = frame.getPixels();
+        java.util.Arrays.fill(pixels, (byte) 0xF0);
+        Random random = new Random(seed);
+        for (int line = 0; line < height / 20; line++) {
+            int y = line * 20 + 5;
+            for (int x = 10; x < width - 10; x++) {
+                if (random.nextInt(3) == 0) pixels[y * width + x] = 0x20;
+            }
+        }
+        return frame;
+    }
+
+    @Test
+    public void restore_returnsTheExactStoredFrame() {
+        RewindBuffer buffer = new RewindBuffer(1 << 20, 10 * SECOND);
+        GrayFrame original = screen(200, 100, 1);
+
+        buffer.store(original, 5 * SECOND);
+        GrayFrame restored = buffer.restore(5 * SECOND, mPool);
+
+        assertNotNull(restored);
+        assertEquals(200, restored.getWidth());
+        for (int i = 0; i < original.getByteCount(); i++) {
+            assertEquals(original.getPixels()[i], restored.getPixels()[i]);
+        }
+        assertNull(buffer.restore(6 * SECOND, mPool));
+    }
+
+    @Test
+    public void byteCap_isNeverExceeded() {
+        GrayFrame probe = screen(320, 240, 0);
+        RewindBuffer sizing = new RewindBuffer(Long.MAX_VALUE, Long.MAX_VALUE);
+        sizing.store(probe, 0);
+        long perFrame = sizing.getStoredBytes();
+
+        RewindBuffer buffer = new RewindBuffer(perFrame * 3 + perFrame / 2, 100 * SECOND);
+        for (int i = 0; i < 20; i++) {
+            buffer.store(screen(320, 240, i), i * SECOND / 2);
+            assertTrue(buffer.getStoredBytes() <= buffer.getMaxBytes());
+        }
+
+        List<Long> timestamps = buffer.getTimestamps();
+        assertTrue(timestamps.size() >= 2 && timestamps.size() <= 4);
+        assertEquals("newest first", Long.valueOf(19 * SECOND / 2), timestamps.get(0));
+
+        // Shrinking the cap drops the oldest frames right away
+        buffer.setMaxBytes(perFrame + perFrame / 2);
+        assertTrue(buffer.getStoredBytes() <= buffer.getMaxBytes());
+        assertEquals(Long.valueOf(19 * SECOND / 2), buffer.getTimestamps().get(0));
+        buffer.setMaxBytes(0);
+        assertTrue(buffer.getTimestamps().isEmpty());
+    }
+
+    @Test
+    public void window_dropsOldFrames() {
+        RewindBuffer buffer = new RewindBuffer(1 << 24, 3 * SECOND);
+        for (int i = 0; i <= 10; i++) {
+            buffer.store(screen(64, 64, i), i * SECOND);
+        }
+        assertEquals(4, buffer.getFrameCount()); // 7, 8, 9 and 10 seconds
+    }
+
+    @Test
+    public void oversizedFrame_isRejected() {
+        RewindBuffer buffer = new RewindBuffer(16, SECOND);
+        assertEquals(-1, buffer.store(screen(100, 100, 0), 0));
+        assertEquals(0, buffer.getFrameCount());
+    }
+
+    @Test
+    public void storeCost_isReportedAndCompact() {
+        RewindBuffer buffer = new RewindBuffer(64 << 20, 10 * SECOND);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(buffer.store(screen(1080, 2400, i), i * SECOND / 2) > 0);
+        }
+        assertTrue("compressed below a quarter of raw",
+                buffer.getStoredBytes() < 10L * 1080 * 2400 / 4);
+        assertTrue(buffer.getAverageStoreNanos() > 0);
+    }
+}